@@ -0,0 +1,70 @@
+package com.programthis.payment_service.benchmark;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentMethod;
+import com.programthis.payment_service.entity.PaymentStatus;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import com.programthis.payment_service.repository.PaymentRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findFirstByOrderIdOrderByIdDesc directamente contra el repositorio (sin caché) con distintos tamaños de tabla.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindByOrderIdBenchmark {
+
+    private static final int INSERT_BATCH = 5_000;
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    private ConfigurableApplicationContext context;
+    private PaymentRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        repository = context.getBean(PaymentRepository.class);
+        seed(context.getBean(JdbcTemplate.class), rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<Payment> findByOrderId() {
+        return repository.findFirstByOrderIdOrderByIdDesc("ORD-" + ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    static void seed(JdbcTemplate jdbc, int rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        UuidBinaryConverter transactionIds = new UuidBinaryConverter();
+        for (int start = 0; start < rows; start += INSERT_BATCH) {
+            List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+            for (int i = start; i < Math.min(rows, start + INSERT_BATCH); i++) {
+                batch.add(new Object[]{(long) i + 1, "ORD-" + i, 1000L, PaymentMethod.PROCESSED_METHOD.code(),
+                        PaymentStatus.COMPLETED.code(), transactionIds.convertToDatabaseColumn(UUID.randomUUID().toString()), now});
+            }
+            jdbc.batchUpdate("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, "
+                    + "transaction_id, transaction_date) VALUES (?, ?, ?, ?, ?, ?, ?)", batch);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.programthis.payment_service.benchmark;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * processPayment de extremo a extremo (pasarela simulada + guardado en H2), un pago cada vez
+ * frente al endpoint por lotes con el mismo número de pagos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessPaymentBenchmark {
+
+    @Param({"500"})
+    int batchSize;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private PaymentProcessingService service;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        service = context.getBean(PaymentProcessingService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Payment processSingle() {
+        return service.processPayment(nextRequest());
+    }
+
+    @Benchmark
+    public List<Payment> processBatchOneByOne() {
+        List<Payment> results = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            results.add(service.processPayment(nextRequest()));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public PaymentProcessingService.BatchResult processBatchEndpoint() {
+        List<PaymentRequest> requests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            requests.add(nextRequest());
+        }
+        return service.processPayments(requests);
+    }
+
+    private PaymentRequest nextRequest() {
+        return new PaymentRequest("BENCH-" + sequence.incrementAndGet(), new BigDecimal("42.50"), "card-details");
+    }
+}
@@ -0,0 +1,58 @@
+package com.programthis.payment_service.benchmark;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentRequest;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inserciones por segundo sostenidas con 32 hilos llamando a processPayment: guardado síncrono
+ * (mode=off) frente a escritura diferida con confirmación tras el commit o al encolar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class WriteBehindBenchmark {
+
+    @Param({"off", "COMMIT", "ENQUEUE"})
+    String mode;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private PaymentProcessingService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path wal = Files.createTempDirectory("payment-wal");
+        context = mode.equals("off")
+                ? BenchmarkContext.start()
+                : BenchmarkContext.start(
+                        "payment.write-behind.enabled=true",
+                        "payment.write-behind.durability=" + mode,
+                        "payment.write-behind.offer-timeout=5s",
+                        "payment.write-behind.wal-directory=" + wal);
+        service = context.getBean(PaymentProcessingService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Payment processPayment() {
+        return service.processPayment(
+                new PaymentRequest("BENCH-" + sequence.incrementAndGet(), new BigDecimal("42.50"), "card-details"));
+    }
+}
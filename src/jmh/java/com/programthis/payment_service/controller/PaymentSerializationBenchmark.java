@@ -0,0 +1,95 @@
+package com.programthis.payment_service.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.programthis.payment_service.benchmark.BenchmarkContext;
+import com.programthis.payment_service.entity.Payment;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.core.EvoInflectorLinkRelationProvider;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Coste de PaymentController.toModel (enlaces HATEOAS) y de serializar el EntityModel resultante como HAL.
+ * El perfil gc (activo por defecto) informa de las asignaciones por operación (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentSerializationBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private PaymentController controller;
+    private ObjectMapper halMapper;
+    private Payment payment;
+    private EntityModel<Payment> model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        controller = context.getBean(PaymentController.class);
+        halMapper = context.getBean(ObjectMapper.class).copy();
+        halMapper.registerModule(new Jackson2HalModule());
+        halMapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+                new EvoInflectorLinkRelationProvider(), CurieProvider.NONE, MessageResolver.DEFAULTS_ONLY));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/payments");
+        request.setServerName("localhost");
+        request.setServerPort(8084);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        payment = new Payment("ORD-123", new BigDecimal("150.00"), "PROCESSED_METHOD", "COMPLETED",
+                "0b7c5a9e-3f1d-4a51-9d7e-2f0c1b8e4a77", LocalDateTime.now());
+        payment.setId(1L);
+        model = controller.toModel(payment);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        context.close();
+    }
+
+    @Benchmark
+    public EntityModel<Payment> toModel() {
+        return controller.toModel(payment);
+    }
+
+    // Camino anterior, con linkTo(methodOn(...)), como referencia para medir la reducción de asignaciones.
+    @Benchmark
+    public EntityModel<Payment> toModelWithLinkBuilder() {
+        return EntityModel.of(payment,
+                linkTo(methodOn(PaymentController.class).getPaymentStatusByOrderId(payment.getOrderId(), true)).withSelfRel(),
+                linkTo(methodOn(PaymentController.class).getAllPayments(null, null, true)).withRel("all-payments"));
+    }
+
+    @Benchmark
+    public byte[] serializePlain() throws Exception {
+        return halMapper.writeValueAsBytes(payment);
+    }
+
+    @Benchmark
+    public byte[] serializeModel() throws Exception {
+        return halMapper.writeValueAsBytes(model);
+    }
+
+    @Benchmark
+    public byte[] toModelAndSerialize() throws Exception {
+        return halMapper.writeValueAsBytes(controller.toModel(payment));
+    }
+}
@@ -0,0 +1,18 @@
+package com.programthis.payment_service.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class ExecutorConfig {
+
+    // Ejecuta las continuaciones tras la pasarela (que hacen JDBC bloqueante) en hilos virtuales,
+    // nunca en el ForkJoinPool común.
+    @Bean(destroyMethod = "close")
+    public ExecutorService paymentExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
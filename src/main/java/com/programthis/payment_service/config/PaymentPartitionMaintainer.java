@@ -0,0 +1,120 @@
+package com.programthis.payment_service.config;
+
+import com.programthis.payment_service.service.PaymentShards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Mantiene el particionado mensual de payment (migración V7, solo MySQL): crea por adelantado las
+ * particiones de los próximos months-ahead meses partiendo p_future, y elimina las particiones mensuales
+ * ya vacías (el archivador las vacía) para que las consultas solo recorran las recientes.
+ * En otras bases de datos no hace nada.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.partitions.maintain", havingValue = "true", matchIfMissing = true)
+public class PaymentPartitionMaintainer implements ApplicationRunner {
+
+    static final String FUTURE_PARTITION = "p_future";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final Logger log = LoggerFactory.getLogger(PaymentPartitionMaintainer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int monthsAhead;
+    private final PaymentShards paymentShards;
+
+    public PaymentPartitionMaintainer(JdbcTemplate jdbcTemplate,
+                                      @Value("${payment.partitions.months-ahead:3}") int monthsAhead,
+                                      PaymentShards paymentShards) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.monthsAhead = monthsAhead;
+        this.paymentShards = paymentShards;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        maintain();
+    }
+
+    @Scheduled(cron = "${payment.partitions.cron:0 0 3 * * *}")
+    public void maintain() {
+        paymentShards.forEachDatabase(this::maintainDatabase);
+    }
+
+    private void maintainDatabase() {
+        if (!isMySql()) {
+            return;
+        }
+        List<String> partitions = jdbcTemplate.queryForList("SELECT PARTITION_NAME FROM information_schema.PARTITIONS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'payment' AND PARTITION_NAME IS NOT NULL "
+                + "ORDER BY PARTITION_ORDINAL_POSITION", String.class);
+        if (!partitions.contains(FUTURE_PARTITION)) {
+            return;
+        }
+        YearMonth current = YearMonth.now();
+        List<YearMonth> missing = new ArrayList<>();
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            if (!partitions.contains(partitionName(month))) {
+                missing.add(month);
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.execute(reorganizeFuture(missing));
+            log.info("Created payment partitions {}", missing);
+        }
+        for (String partition : partitions) {
+            if (isDroppable(partition, current) && isEmpty(partition)) {
+                jdbcTemplate.execute("ALTER TABLE payment DROP PARTITION " + partition);
+                log.info("Dropped empty payment partition {}", partition);
+            }
+        }
+    }
+
+    public static String partitionName(YearMonth month) {
+        return month.format(PARTITION_NAME);
+    }
+
+    /**
+     * Parte p_future en las particiones mensuales indicadas (consecutivas y posteriores a las existentes).
+     */
+    public static String reorganizeFuture(List<YearMonth> months) {
+        String monthly = months.stream()
+                .map(month -> "PARTITION " + partitionName(month) + " VALUES LESS THAN (TO_DAYS('"
+                        + month.plusMonths(1).atDay(1) + "'))")
+                .collect(Collectors.joining(", "));
+        return "ALTER TABLE payment REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO ("
+                + monthly + ", PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE)";
+    }
+
+    // Solo particiones mensuales anteriores al mes pasado; p_history y p_future nunca se eliminan.
+    public static boolean isDroppable(String partition, YearMonth current) {
+        if (!partition.matches("p\\d{6}")) {
+            return false;
+        }
+        YearMonth month = YearMonth.parse(partition.substring(1), DateTimeFormatter.ofPattern("yyyyMM"));
+        return month.isBefore(current.minusMonths(1));
+    }
+
+    private boolean isEmpty(String partition) {
+        return jdbcTemplate.queryForList("SELECT 1 FROM payment PARTITION (" + partition + ") LIMIT 1").isEmpty();
+    }
+
+    private boolean isMySql() {
+        return Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                "MySQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName())));
+    }
+}
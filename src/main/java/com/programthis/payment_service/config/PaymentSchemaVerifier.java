@@ -0,0 +1,68 @@
+package com.programthis.payment_service.config;
+
+import com.programthis.payment_service.entity.Payment;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Detiene el arranque si faltan los índices de los que dependen las consultas de estado,
+ * en lugar de descubrirlo en producción como escaneos completos de la tabla.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.schema.verify-indexes", havingValue = "true", matchIfMissing = true)
+public class PaymentSchemaVerifier implements ApplicationRunner {
+
+    static final List<String> REQUIRED_INDEXES = List.of(
+            Payment.IDX_ORDER_ID,
+            Payment.IDX_TRANSACTION_ID,
+            Payment.IDX_STATUS_DATE,
+            Payment.IDX_DATE_ID
+    );
+
+    private final DataSource dataSource;
+
+    public PaymentSchemaVerifier(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws SQLException {
+        Set<String> present = existingIndexes("payment");
+        List<String> missing = REQUIRED_INDEXES.stream()
+                .filter(index -> !present.contains(index))
+                .toList();
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Missing indexes on table payment: " + missing
+                    + ". Run the database migrations before starting the service.");
+        }
+    }
+
+    private Set<String> existingIndexes(String table) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (Connection connection = dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String tableName = metaData.storesUpperCaseIdentifiers() ? table.toUpperCase(Locale.ROOT) : table;
+            try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), tableName, false, true)) {
+                while (rs.next()) {
+                    String name = rs.getString("INDEX_NAME");
+                    if (name != null) {
+                        names.add(name.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,28 @@
+package com.programthis.payment_service.config;
+
+import com.programthis.payment_service.controller.PaymentRateLimitFilter;
+import com.programthis.payment_service.service.ClientRateLimiter;
+import com.programthis.payment_service.service.LoadShedder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashSet;
+import java.util.List;
+
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    public FilterRegistrationBean<PaymentRateLimitFilter> paymentRateLimitFilter(
+            ClientRateLimiter clientRateLimiter,
+            LoadShedder loadShedder,
+            @Value("${payment.rate-limit.client-header:X-Client-Id}") String clientHeader,
+            @Value("${payment.rate-limit.trusted-proxies:}") List<String> trustedProxies) {
+        FilterRegistrationBean<PaymentRateLimitFilter> registration = new FilterRegistrationBean<>(
+                new PaymentRateLimitFilter(clientRateLimiter, loadShedder, clientHeader, new HashSet<>(trustedProxies)));
+        registration.addUrlPatterns("/api/v1/payments/*");
+        return registration;
+    }
+}
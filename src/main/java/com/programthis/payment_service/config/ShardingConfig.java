@@ -0,0 +1,101 @@
+package com.programthis.payment_service.config;
+
+import com.programthis.payment_service.datasource.ShardRoutingDataSource;
+import com.programthis.payment_service.entity.PaymentIdGenerator;
+import com.programthis.payment_service.service.PaymentShards;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pagos repartidos entre la base principal (spring.datasource, base 0) y las de payment.sharding.urls.
+ * Un único EntityManagerFactory sobre un DataSource que enruta por {@link com.programthis.payment_service.datasource.ShardContext};
+ * LazyConnectionDataSourceProxy retrasa la conexión hasta la primera sentencia, cuando la transacción ya sabe a qué
+ * base va. Flyway migra todas las bases y el generador de ids de la base i arranca en i << 40, de modo que los ids
+ * no se repiten entre bases ni al mover pagos de una a otra. Cada id lleva además el shard lógico de su pedido
+ * (ver {@link PaymentIdGenerator}).
+ */
+@Configuration
+@ConditionalOnProperty(name = "payment.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    public ShardingConfig(@Value("${payment.datasource.routing.enabled:false}") boolean replicaRouting,
+                          @Value("${payment.write-behind.enabled:false}") boolean writeBehind,
+                          @Value("${payment.event-log.enabled:false}") boolean eventLog,
+                          @Value("${spring.jpa.open-in-view:true}") boolean openInView) {
+        // Las tres escriben o leen la tabla payment sin pasar por el enrutado por shard.
+        if (replicaRouting || writeBehind || eventLog) {
+            throw new IllegalStateException("payment.sharding cannot be combined with payment.datasource.routing, "
+                    + "payment.write-behind or payment.event-log");
+        }
+        // Con open-in-view la petición conserva la conexión de su primera lectura, sea de la base que sea.
+        if (openInView) {
+            throw new IllegalStateException("payment.sharding requires spring.jpa.open-in-view=false");
+        }
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource homeDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(
+            HikariDataSource homeDataSource,
+            MeterRegistry meterRegistry,
+            @Value("${payment.sharding.urls}") List<String> urls) {
+        List<DataSource> databases = new ArrayList<>();
+        databases.add(homeDataSource);
+        for (String url : urls) {
+            // Mismo usuario, tamaño de pool y tiempos que la base principal.
+            HikariDataSource database = new HikariDataSource();
+            homeDataSource.copyStateTo(database);
+            database.setPoolName("shard-" + databases.size());
+            database.setJdbcUrl(url.trim());
+            database.setMetricRegistry(meterRegistry);
+            databases.add(database);
+        }
+        return new ShardRoutingDataSource(databases);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer shardedPaymentIds(@Value("${payment.sharding.logical-shards:64}") int logicalShards) {
+        return properties -> properties.put(PaymentIdGenerator.LOGICAL_SHARDS_SETTING, logicalShards);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public FlywayMigrationStrategy shardedMigration(ShardRoutingDataSource shardRoutingDataSource) {
+        return flyway -> {
+            flyway.migrate();
+            for (int index = 1; index < shardRoutingDataSource.size(); index++) {
+                DataSource database = shardRoutingDataSource.database(index);
+                Flyway.configure().configuration(flyway.getConfiguration()).dataSource(database).load().migrate();
+                long firstId = (long) index << PaymentShards.ID_RANGE_BITS;
+                new JdbcTemplate(database).update("UPDATE payment_id_generator SET next_val = ? "
+                        + "WHERE sequence_name = 'payment' AND next_val < ?", firstId, firstId);
+            }
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.service.PaymentStatusCache;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/payments/cache")
+public class PaymentCacheController {
+
+    @Autowired
+    private PaymentStatusCache paymentStatusCache;
+
+    @Operation(summary = "Estadísticas de aciertos, fallos y desalojos de la caché de estados")
+    @GetMapping("/stats")
+    public ResponseEntity<List<PaymentStatusCache.Stats>> getCacheStats() {
+        return ResponseEntity.ok(List.of(paymentStatusCache.orderIdStats(), paymentStatusCache.transactionIdStats()));
+    }
+}
@@ -1,47 +1,150 @@
 package com.programthis.payment_service.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentStatus;
+import com.programthis.payment_service.entity.PaymentTransition;
+import com.programthis.payment_service.service.GatewayBusyException;
+import com.programthis.payment_service.service.IdempotencyKeyConflictException;
+import com.programthis.payment_service.service.IdempotencyKeyInProgressException;
+import com.programthis.payment_service.service.InvalidPaymentTransitionException;
+import com.programthis.payment_service.service.PaymentMetrics;
 import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentVersionConflictException;
+import com.programthis.payment_service.service.ShardMovingException;
+import com.programthis.payment_service.service.WriteBehindQueueFullException;
 import io.swagger.v3.oas.annotations.Operation;
 
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
-import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
-import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
-
 @RestController
 @RequestMapping("/api/v1/payments")
 public class PaymentController {
 
+    // Lote con fallos: RepresentationModel para que los pagos con enlaces se rendericen en HAL como en el resto.
+    public static class BatchResponse extends RepresentationModel<BatchResponse> {
+
+        private final List<?> payments;
+        private final List<PaymentProcessingService.BatchFailure> failures;
+
+        public BatchResponse(List<?> payments, List<PaymentProcessingService.BatchFailure> failures) {
+            this.payments = payments;
+            this.failures = failures;
+        }
+
+        public List<?> getPayments() {
+            return payments;
+        }
+
+        public List<PaymentProcessingService.BatchFailure> getFailures() {
+            return failures;
+        }
+    }
+
     @Autowired
     private PaymentProcessingService paymentProcessingService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PaymentMetrics paymentMetrics;
+
+    @Autowired
+    private PaymentModelAssembler paymentModelAssembler;
+
     @Operation(summary = "Procesa un nuevo pago")
     @PostMapping("/process")
-    public ResponseEntity<EntityModel<Payment>> processPayment(@RequestBody PaymentProcessingService.PaymentRequest paymentRequest) {
-        Payment payment = paymentProcessingService.processPayment(paymentRequest);
-        if ("COMPLETED".equals(payment.getPaymentStatus())) {
-            return ResponseEntity.ok(toModel(payment));
-        } else {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(toModel(payment));
-        }
+    public CompletableFuture<ResponseEntity<EntityModel<Payment>>> processPayment(
+            @RequestBody PaymentProcessingService.PaymentRequest paymentRequest,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        // Los enlaces dependen de la petición actual, así que se calculan en el hilo de la petición.
+        List<Link> links = paymentMetrics.timeAssembly(
+                () -> paymentModelAssembler.links(paymentRequest.orderId(), paymentModelAssembler.currentBaseUri()));
+        return paymentProcessingService.processPaymentAsync(paymentRequest, idempotencyKey)
+                .thenApply(payment -> {
+                    if (PaymentStatus.COMPLETED.name().equals(payment.getPaymentStatus())) {
+                        return ResponseEntity.ok(EntityModel.of(payment, links));
+                    } else if (PaymentStatus.PENDING.name().equals(payment.getPaymentStatus())) {
+                        // La pasarela no respondió a tiempo: el pago se concilia cuando llegue su respuesta.
+                        return ResponseEntity.accepted().body(EntityModel.of(payment, links));
+                    } else {
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(EntityModel.of(payment, links));
+                    }
+                })
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof GatewayBusyException || cause instanceof WriteBehindQueueFullException
+                            || cause instanceof ShardMovingException) {
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+                    }
+                    if (cause instanceof IdempotencyKeyInProgressException) {
+                        return ResponseEntity.status(HttpStatus.CONFLICT).header(HttpHeaders.RETRY_AFTER, "1").build();
+                    }
+                    if (cause instanceof IdempotencyKeyConflictException) {
+                        return ResponseEntity.unprocessableEntity().build();
+                    }
+                    throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                });
     }
     
+    @Operation(summary = "Procesa un lote de pagos")
+    @PostMapping("/process/batch")
+    public ResponseEntity<?> processPayments(
+            @RequestBody List<PaymentProcessingService.PaymentRequest> paymentRequests,
+            @RequestParam(defaultValue = "true") boolean links) {
+        try {
+            PaymentProcessingService.BatchResult result = paymentProcessingService.processPayments(paymentRequests);
+            List<Payment> results = result.payments();
+            List<PaymentProcessingService.BatchFailure> failures = result.failures();
+            if (failures.isEmpty()) {
+                if (!links) {
+                    return ResponseEntity.ok(results);
+                }
+                return ResponseEntity.ok(paymentMetrics.timeAssembly(() -> paymentModelAssembler.toCollectionModel(results)));
+            }
+            // Sin ningún pago guardado y todo por pasarela ocupada o shards en movimiento, el lote entero se puede reintentar.
+            if (results.isEmpty() && failures.stream().allMatch(PaymentProcessingService.BatchFailure::retryable)) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+            }
+            // Resultado parcial: 207 con los pagos guardados y, por elemento, los que fallaron.
+            List<?> payments = !links ? results : paymentMetrics.timeAssembly(() -> {
+                String baseUri = paymentModelAssembler.currentBaseUri();
+                return results.stream().map(payment -> paymentModelAssembler.toModel(payment, baseUri)).toList();
+            });
+            return ResponseEntity.status(HttpStatus.MULTI_STATUS).body(new BatchResponse(payments, failures));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @Operation(summary = "Obtiene un pago por ID de orden")
     @GetMapping("/status/order/{orderId}")
-    public ResponseEntity<EntityModel<Payment>> getPaymentStatusByOrderId(@PathVariable String orderId) {
+    public ResponseEntity<?> getPaymentStatusByOrderId(@PathVariable String orderId,
+                                                       @RequestParam(defaultValue = "true") boolean links) {
         try {
             Payment payment = paymentProcessingService.getPaymentStatusByOrderId(orderId);
-            return ResponseEntity.ok(toModel(payment));
+            return ResponseEntity.ok(links ? toModel(payment) : payment);
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
@@ -49,31 +152,146 @@ public class PaymentController {
 
     @Operation(summary = "Obtiene un pago por ID de transacción")
     @GetMapping("/status/transaction/{transactionId}")
-    public ResponseEntity<EntityModel<Payment>> getPaymentByTransactionId(@PathVariable String transactionId) {
+    public ResponseEntity<?> getPaymentByTransactionId(@PathVariable String transactionId,
+                                                       @RequestParam(defaultValue = "true") boolean links) {
         try {
             Payment payment = paymentProcessingService.getPaymentByTransactionId(transactionId);
-            return ResponseEntity.ok(toModel(payment));
+            return ResponseEntity.ok(links ? toModel(payment) : payment);
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
-    @Operation(summary = "Obtiene todos los pagos")
+    @Operation(summary = "Obtiene el estado de muchos pagos por ID de orden o de transacción")
+    @PostMapping("/status/lookup")
+    public ResponseEntity<PaymentProcessingService.StatusLookupResult> lookupStatuses(
+            @RequestBody PaymentProcessingService.StatusLookupRequest request) {
+        try {
+            return ResponseEntity.ok(paymentProcessingService.lookupStatuses(request));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(summary = "Obtiene los pagos paginados por cursor")
     @GetMapping
-    public ResponseEntity<CollectionModel<EntityModel<Payment>>> getAllPayments() {
-        List<EntityModel<Payment>> payments = paymentProcessingService.getAllPayments().stream()
-                .map(this::toModel)
-                .collect(Collectors.toList());
-        WebMvcLinkBuilder link = linkTo(methodOn(PaymentController.class).getAllPayments());
-        return ResponseEntity.ok(CollectionModel.of(payments, link.withSelfRel()));
+    public ResponseEntity<?> getAllPayments(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "true") boolean links) {
+        PaymentProcessingService.PaymentPage page;
+        try {
+            page = paymentProcessingService.getPaymentsPage(cursor, size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!links) {
+            return ResponseEntity.ok(page);
+        }
+        CollectionModel<EntityModel<Payment>> model = paymentMetrics.timeAssembly(() -> {
+            String baseUri = paymentModelAssembler.currentBaseUri();
+            List<EntityModel<Payment>> payments = page.payments().stream()
+                    .map(payment -> paymentModelAssembler.toModel(payment, baseUri))
+                    .collect(Collectors.toList());
+            CollectionModel<EntityModel<Payment>> collection = CollectionModel.of(payments,
+                    paymentModelAssembler.pageLink(baseUri, cursor, size, "self"));
+            if (page.nextCursor() != null) {
+                collection.add(paymentModelAssembler.pageLink(baseUri, page.nextCursor(), size, "next"));
+            }
+            return collection;
+        });
+        return ResponseEntity.ok(model);
+    }
+
+    @Operation(summary = "Exporta todos los pagos como NDJSON en streaming")
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllPayments() {
+        ObjectWriter writer = objectMapper.writerFor(Payment.class);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                paymentProcessingService.streamAllPayments(payment -> {
+                    try {
+                        writer.writeValue(generator, payment);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
-    @Operation(summary = "Actualiza un pago existente")
+    @Operation(summary = "Actualiza un pago existente; con If-Match solo si sigue en la versión leída (412 si otro la cambió). "
+            + "Exige una transición de estado permitida (409)")
     @PutMapping("/{id}")
-    public ResponseEntity<EntityModel<Payment>> updatePayment(@PathVariable Long id, @RequestBody Payment paymentDetails) {
+    public ResponseEntity<EntityModel<Payment>> updatePayment(@PathVariable Long id, @RequestBody Payment paymentDetails,
+                                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        // Sin If-Match se mantiene el contrato de siempre: no se compara versión y un cambio concurrente es 409.
+        boolean conditional = ifMatch != null && !ifMatch.isBlank();
+        Long version = conditional ? parseVersion(ifMatch) : null;
+        if (conditional && version == null) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            Payment updatedPayment = paymentProcessingService.updatePayment(id, paymentDetails);
-            return ResponseEntity.ok(toModel(updatedPayment));
+            Payment updatedPayment = paymentProcessingService.updatePayment(id, paymentDetails, version);
+            return ResponseEntity.ok().eTag(String.valueOf(updatedPayment.getVersion())).body(toModel(updatedPayment));
+        } catch (PaymentVersionConflictException | OptimisticLockingFailureException e) {
+            return ResponseEntity.status(conditional ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT).build();
+        } catch (InvalidPaymentTransitionException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (ShardMovingException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @Operation(summary = "Modifica solo los campos enviados de un pago; exige la versión leída (409 si otro la cambió)")
+    @PatchMapping("/{id}")
+    public ResponseEntity<EntityModel<Payment>> patchPayment(@PathVariable Long id,
+                                                             @RequestBody PaymentProcessingService.PaymentPatch patch) {
+        try {
+            return ResponseEntity.ok(toModel(paymentProcessingService.patchPayment(id, patch)));
+        } catch (PaymentVersionConflictException | InvalidPaymentTransitionException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (ShardMovingException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @Operation(summary = "Captura un pago pendiente (PENDING → COMPLETED)")
+    @PostMapping("/{id}/capture")
+    public ResponseEntity<EntityModel<Payment>> capturePayment(@PathVariable Long id) {
+        return transition(id, PaymentTransition.CAPTURE);
+    }
+
+    @Operation(summary = "Reembolsa un pago completado (COMPLETED → REFUNDED)")
+    @PostMapping("/{id}/refund")
+    public ResponseEntity<EntityModel<Payment>> refundPayment(@PathVariable Long id) {
+        return transition(id, PaymentTransition.REFUND);
+    }
+
+    @Operation(summary = "Anula un pago pendiente (PENDING → VOIDED)")
+    @PostMapping("/{id}/void")
+    public ResponseEntity<EntityModel<Payment>> voidPayment(@PathVariable Long id) {
+        return transition(id, PaymentTransition.VOID);
+    }
+
+    private ResponseEntity<EntityModel<Payment>> transition(Long id, PaymentTransition transition) {
+        try {
+            return ResponseEntity.ok(toModel(paymentProcessingService.transitionPayment(id, transition)));
+        } catch (InvalidPaymentTransitionException | PaymentVersionConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (ShardMovingException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
@@ -85,31 +303,31 @@ public class PaymentController {
         try {
             paymentProcessingService.deletePayment(id);
             return ResponseEntity.noContent().build();
+        } catch (ShardMovingException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
- 
-    private EntityModel<Payment> toModel(Payment payment) {
-        EntityModel<Payment> model = EntityModel.of(payment);
-        
-        if (payment != null && payment.getOrderId() != null) {
-            try {
-                WebMvcLinkBuilder selfLink = linkTo(methodOn(PaymentController.class).getPaymentStatusByOrderId(payment.getOrderId()));
-                model.add(selfLink.withSelfRel());
-            } catch (Exception e) {
-  
-            }
+    // If-Match lleva la versión del pago, con o sin comillas ("3", 3 o W/"3").
+    private static Long parseVersion(String ifMatch) {
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
         }
-        
         try {
-            WebMvcLinkBuilder allPaymentsLink = linkTo(methodOn(PaymentController.class).getAllPayments());
-            model.add(allPaymentsLink.withRel("all-payments"));
-        } catch (Exception e) {
-  
+            return Long.parseLong(tag);
+        } catch (NumberFormatException e) {
+            return null;
         }
-        
-        return model;
     }
-}
\ No newline at end of file
+
+ 
+    EntityModel<Payment> toModel(Payment payment) {
+        return paymentMetrics.timeAssembly(() -> paymentModelAssembler.toModel(payment));
+    }
+}
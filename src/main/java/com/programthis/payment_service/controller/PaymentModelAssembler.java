@@ -0,0 +1,79 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.entity.Payment;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.server.RepresentationModelAssembler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Construye los enlaces HATEOAS de los pagos por concatenación sobre plantillas fijas, en lugar de
+ * linkTo(methodOn(...)), que crea un proxy y reconstruye la plantilla URI en cada llamada.
+ * La URI base se calcula una sola vez por petición (o por colección).
+ */
+@Component
+public class PaymentModelAssembler implements RepresentationModelAssembler<Payment, EntityModel<Payment>> {
+
+    static final String PAYMENTS_PATH = "/api/v1/payments";
+    static final String STATUS_BY_ORDER_PATH = PAYMENTS_PATH + "/status/order/";
+    static final String ALL_PAYMENTS_REL = "all-payments";
+
+    @Override
+    public EntityModel<Payment> toModel(Payment payment) {
+        return toModel(payment, currentBaseUri());
+    }
+
+    public EntityModel<Payment> toModel(Payment payment, String baseUri) {
+        return EntityModel.of(payment, links(payment != null ? payment.getOrderId() : null, baseUri));
+    }
+
+    @Override
+    public CollectionModel<EntityModel<Payment>> toCollectionModel(Iterable<? extends Payment> payments) {
+        String baseUri = currentBaseUri();
+        List<EntityModel<Payment>> models = new ArrayList<>();
+        for (Payment payment : payments) {
+            models.add(toModel(payment, baseUri));
+        }
+        return CollectionModel.of(models);
+    }
+
+    public List<Link> links(String orderId, String baseUri) {
+        List<Link> links = new ArrayList<>(2);
+        if (orderId != null) {
+            links.add(Link.of(baseUri + STATUS_BY_ORDER_PATH + UriUtils.encodePathSegment(orderId, StandardCharsets.UTF_8),
+                    IanaLinkRelations.SELF));
+        }
+        links.add(Link.of(baseUri + PAYMENTS_PATH, ALL_PAYMENTS_REL));
+        return links;
+    }
+
+    public Link pageLink(String baseUri, String cursor, Integer size, String rel) {
+        StringBuilder href = new StringBuilder(baseUri).append(PAYMENTS_PATH);
+        char separator = '?';
+        if (cursor != null) {
+            href.append(separator).append("cursor=").append(UriUtils.encodeQueryParam(cursor, StandardCharsets.UTF_8));
+            separator = '&';
+        }
+        if (size != null) {
+            href.append(separator).append("size=").append(size);
+        }
+        return Link.of(href.toString(), rel);
+    }
+
+    // Esquema, host, puerto y context path de la petición actual; vacío fuera de una petición (enlaces relativos).
+    public String currentBaseUri() {
+        if (RequestContextHolder.getRequestAttributes() == null) {
+            return "";
+        }
+        return ServletUriComponentsBuilder.fromCurrentContextPath().toUriString();
+    }
+}
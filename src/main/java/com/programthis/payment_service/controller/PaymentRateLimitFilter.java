@@ -0,0 +1,120 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.service.ClientRateLimiter;
+import com.programthis.payment_service.service.LoadShedder;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Set;
+
+/**
+ * Aplica a /api/v1/payments el límite por cliente (429) y, después, el límite adaptativo de peticiones en curso (503),
+ * ambos con Retry-After. Las lecturas (GET y POST /status/lookup) y las escrituras tienen presupuestos separados.
+ * Las suscripciones de estado (/stream y /poll) solo pasan por el límite por cliente: mientras esperan no usan
+ * ni hilos ni conexiones.
+ * <p>
+ * El cliente es el usuario autenticado si lo hay y, si no, la IP remota. La cabecera de cliente la puede poner
+ * cualquiera, así que solo cuenta cuando la petición llega desde uno de los proxies de confianza.
+ */
+public class PaymentRateLimitFilter extends OncePerRequestFilter {
+
+    private final ClientRateLimiter clientRateLimiter;
+    private final LoadShedder loadShedder;
+    private final String clientHeader;
+    private final Set<String> trustedProxies;
+
+    public PaymentRateLimitFilter(ClientRateLimiter clientRateLimiter, LoadShedder loadShedder, String clientHeader,
+                                  Set<String> trustedProxies) {
+        this.clientRateLimiter = clientRateLimiter;
+        this.loadShedder = loadShedder;
+        this.clientHeader = clientHeader;
+        this.trustedProxies = Set.copyOf(trustedProxies);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI();
+        long waitNanos = clientRateLimiter.tryAcquire(clientId(request), isRead(request, path)
+                ? ClientRateLimiter.Budget.READ : ClientRateLimiter.Budget.WRITE);
+        if (waitNanos > 0) {
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, (waitNanos + 999_999_999L) / 1_000_000_000L);
+            return;
+        }
+        if (path.endsWith("/stream") || path.endsWith("/poll")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (!loadShedder.tryAcquire()) {
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, 1);
+            return;
+        }
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                // POST /process responde de forma asíncrona: la petición sigue en curso hasta completarse.
+                request.getAsyncContext().addListener(new ReleaseOnComplete());
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                loadShedder.release();
+            }
+        }
+    }
+
+    private String clientId(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        if (principal != null) {
+            return "user:" + principal.getName();
+        }
+        String remoteAddr = request.getRemoteAddr();
+        if (trustedProxies.contains(remoteAddr)) {
+            String client = request.getHeader(clientHeader);
+            if (client != null && !client.isBlank()) {
+                return "client:" + client;
+            }
+        }
+        return "ip:" + remoteAddr;
+    }
+
+    private static boolean isRead(HttpServletRequest request, String path) {
+        String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method) || path.endsWith("/status/lookup");
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, long retryAfterSeconds) {
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+    }
+
+    private final class ReleaseOnComplete implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            loadShedder.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.service.PaymentShards;
+import com.programthis.payment_service.service.ShardRebalancer;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/payments/shards")
+@ConditionalOnProperty(name = "payment.sharding.enabled", havingValue = "true")
+public class PaymentShardController {
+
+    public record ShardLayout(int logicalShards, List<PaymentShards.Range> ranges, List<ShardRebalancer.DatabaseStats> databases) {}
+
+    public record MoveRequest(int fromShard, int toShard, int database) {}
+
+    @Autowired
+    private PaymentShards paymentShards;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Operation(summary = "Reparto de shards lógicos entre bases de datos, con el número e importe de pagos de cada una")
+    @GetMapping
+    public ResponseEntity<ShardLayout> getLayout() {
+        return ResponseEntity.ok(new ShardLayout(paymentShards.logicalShardCount(), paymentShards.ranges(),
+                shardRebalancer.databaseStats()));
+    }
+
+    @Operation(summary = "Mueve un rango de shards lógicos, con sus pagos, a otra base de datos")
+    @PostMapping("/move")
+    public ResponseEntity<ShardRebalancer.MoveResult> move(@RequestBody MoveRequest request) {
+        try {
+            return ResponseEntity.ok(shardRebalancer.move(request.fromShard(), request.toShard(), request.database()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.service.PaymentStatistics;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDateTime;
+
+@RestController
+@RequestMapping("/api/v1/payments")
+public class PaymentStatsController {
+
+    @Autowired
+    private PaymentStatistics paymentStatistics;
+
+    @Operation(summary = "Número e importe de pagos por estado, método e intervalo de tiempo (MINUTE, HOUR o DAY)")
+    @GetMapping("/stats")
+    public ResponseEntity<PaymentStatistics.Snapshot> getPaymentStats(
+            @RequestParam(defaultValue = "HOUR") PaymentStatistics.Granularity granularity,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        if (granularity == PaymentStatistics.Granularity.TOTAL) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(paymentStatistics.snapshot(granularity, from, to));
+    }
+}
@@ -0,0 +1,118 @@
+package com.programthis.payment_service.controller;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentStatusNotifier;
+import com.programthis.payment_service.service.SubscriptionLimitExceededException;
+import io.swagger.v3.oas.annotations.Operation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Avisos de cambio de estado por orderId, en lugar de que el cliente consulte /status/order/{orderId} en bucle.
+ * Ambas variantes son asíncronas: mientras esperan no ocupan ningún hilo, solo una suscripción en PaymentStatusNotifier.
+ */
+@RestController
+@RequestMapping("/api/v1/payments")
+public class PaymentStatusStreamController {
+
+    @Autowired
+    private PaymentProcessingService paymentProcessingService;
+
+    @Autowired
+    private PaymentStatusNotifier paymentStatusNotifier;
+
+    @Value("${payment.subscriptions.sse-timeout:PT5M}")
+    private Duration sseTimeout;
+
+    @Value("${payment.subscriptions.max-poll-timeout:PT2M}")
+    private Duration maxPollTimeout;
+
+    @Operation(summary = "Envía (SSE) el estado actual de un pago por ID de orden y cada cambio posterior")
+    @GetMapping(value = "/status/order/{orderId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamPaymentStatus(@PathVariable String orderId) {
+        SseEmitter emitter = new SseEmitter(sseTimeout.toMillis());
+        PaymentStatusNotifier.Subscription subscription;
+        try {
+            subscription = paymentStatusNotifier.subscribe(orderId, payment -> send(emitter, payment));
+        } catch (SubscriptionLimitExceededException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        emitter.onCompletion(subscription::close);
+        emitter.onError(error -> subscription.close());
+        // Se suscribe antes de leer el estado actual para no perder un cambio que ocurra entre medias; el estado
+        // actual entra por el mismo buzón que los avisos, así que no se cruza con ellos ni pisa uno más reciente.
+        currentPayment(orderId).ifPresent(subscription::deliver);
+        return ResponseEntity.ok(emitter);
+    }
+
+    @Operation(summary = "Espera (long-poll) hasta que el estado de un pago sea distinto de knownStatus, o hasta timeout segundos")
+    @GetMapping("/status/order/{orderId}/poll")
+    public DeferredResult<ResponseEntity<Payment>> pollPaymentStatus(
+            @PathVariable String orderId,
+            @RequestParam(required = false) String knownStatus,
+            @RequestParam(defaultValue = "30") long timeout) {
+        Duration wait = Duration.ofSeconds(Math.max(1, timeout));
+        if (wait.compareTo(maxPollTimeout) > 0) {
+            wait = maxPollTimeout;
+        }
+        // Sin cambios en el plazo: 204, y el cliente vuelve a preguntar con el mismo knownStatus.
+        DeferredResult<ResponseEntity<Payment>> result = new DeferredResult<>(wait.toMillis(), ResponseEntity.noContent().build());
+        PaymentStatusNotifier.Subscription subscription;
+        try {
+            subscription = paymentStatusNotifier.subscribe(orderId, payment -> {
+                if (!payment.getPaymentStatus().equals(knownStatus)) {
+                    result.setResult(ResponseEntity.ok(payment));
+                }
+            });
+        } catch (SubscriptionLimitExceededException e) {
+            result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build());
+            return result;
+        }
+        result.onCompletion(subscription::close);
+        currentPayment(orderId)
+                .filter(payment -> !payment.getPaymentStatus().equals(knownStatus))
+                .ifPresent(payment -> {
+                    subscription.close();
+                    result.setResult(ResponseEntity.ok(payment));
+                });
+        return result;
+    }
+
+    private Optional<Payment> currentPayment(String orderId) {
+        try {
+            return Optional.of(paymentProcessingService.getPaymentStatusByOrderId(orderId));
+        } catch (RuntimeException e) {
+            // Aún no existe: se espera al primer aviso.
+            return Optional.empty();
+        }
+    }
+
+    private static void send(SseEmitter emitter, Payment payment) {
+        SseEmitter.SseEventBuilder event = SseEmitter.event().name("status").data(payment, MediaType.APPLICATION_JSON);
+        if (payment.getVersion() != null) {
+            event.id(String.valueOf(payment.getVersion()));
+        }
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            // El cliente se ha ido o el emisor ya terminó: al completarse se cierra la suscripción.
+            emitter.completeWithError(e);
+        }
+    }
+}
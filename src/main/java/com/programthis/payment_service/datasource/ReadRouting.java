@@ -0,0 +1,33 @@
+package com.programthis.payment_service.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * Marca del hilo actual para que las lecturas de solo lectura usen el primario en lugar de una réplica.
+ * La conexión se obtiene en la primera sentencia, así que basta con envolver la transacción de solo lectura.
+ */
+public final class ReadRouting {
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private ReadRouting() {
+    }
+
+    public static <T> T onPrimary(Supplier<T> read) {
+        Boolean previous = PRIMARY.get();
+        PRIMARY.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            if (previous == null) {
+                PRIMARY.remove();
+            } else {
+                PRIMARY.set(previous);
+            }
+        }
+    }
+
+    public static boolean primaryRequired() {
+        return PRIMARY.get() != null;
+    }
+}
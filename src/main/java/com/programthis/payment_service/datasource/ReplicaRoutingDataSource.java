@@ -0,0 +1,111 @@
+package com.programthis.payment_service.datasource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Origen de las conexiones de solo lectura: reparte entre las réplicas por turnos y usa el primario cuando el hilo
+ * lo pide ({@link ReadRouting}), cuando no hay réplicas o cuando ninguna da conexión. Una réplica que falla se
+ * salta durante retry-interval para no pagar su timeout de conexión en cada lectura.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<DataSource> replicas;
+    private final long retryNanos;
+    // Instante (System.nanoTime) hasta el que cada réplica se salta; 0 = disponible.
+    private final AtomicLongArray downUntil;
+    private final AtomicInteger next = new AtomicInteger();
+    private Counter replicaReads;
+    private Counter pinnedReads;
+    private Counter fallbackReads;
+    private Counter replicaFailures;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration retryInterval) {
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.retryNanos = retryInterval.toNanos();
+        this.downUntil = new AtomicLongArray(replicas.size());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (ReadRouting.primaryRequired()) {
+            increment(pinnedReads);
+            return primary.getConnection();
+        }
+        int count = replicas.size();
+        int start = count == 0 ? 0 : Math.floorMod(next.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % count;
+            long until = downUntil.get(index);
+            if (until != 0 && System.nanoTime() - until < 0) {
+                continue;
+            }
+            try {
+                Connection connection = replicas.get(index).getConnection();
+                downUntil.compareAndSet(index, until, 0);
+                increment(replicaReads);
+                return connection;
+            } catch (SQLException e) {
+                downUntil.set(index, System.nanoTime() + retryNanos);
+                increment(replicaFailures);
+                log.warn("Read replica {} unavailable, skipping it for {}", index, Duration.ofNanos(retryNanos), e);
+            }
+        }
+        increment(fallbackReads);
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource replica : replicas) {
+            if (replica instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        replicaReads = readCounter(registry, "replica");
+        pinnedReads = readCounter(registry, "pinned");
+        fallbackReads = readCounter(registry, "fallback");
+        replicaFailures = Counter.builder("payment.datasource.replica-failures")
+                .description("Réplicas que no dieron conexión y se saltan durante retry-interval")
+                .register(registry);
+    }
+
+    private static Counter readCounter(MeterRegistry registry, String route) {
+        return Counter.builder("payment.datasource.read-connections")
+                .description("Conexiones de solo lectura por destino: réplica, primario por escritura reciente (pinned) "
+                        + "o primario por falta de réplicas (fallback)")
+                .tag("route", route)
+                .register(registry);
+    }
+}
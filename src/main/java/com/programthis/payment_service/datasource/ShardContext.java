@@ -0,0 +1,47 @@
+package com.programthis.payment_service.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * Base de datos (shard físico) a la que van las sentencias del hilo actual; sin marca, la 0 (la base principal).
+ * La conexión se obtiene en la primera sentencia, así que la marca puede ponerse ya dentro de la transacción.
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> DATABASE = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static <T> T on(int database, Supplier<T> work) {
+        Integer previous = DATABASE.get();
+        DATABASE.set(database);
+        try {
+            return work.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Marca sin ámbito: devuelve la marca anterior, que el llamante debe restaurar con {@link #restore(Integer)}.
+     */
+    public static Integer bind(int database) {
+        Integer previous = DATABASE.get();
+        DATABASE.set(database);
+        return previous;
+    }
+
+    public static void restore(Integer previous) {
+        if (previous == null) {
+            DATABASE.remove();
+        } else {
+            DATABASE.set(previous);
+        }
+    }
+
+    public static int current() {
+        Integer database = DATABASE.get();
+        return database == null ? 0 : database;
+    }
+}
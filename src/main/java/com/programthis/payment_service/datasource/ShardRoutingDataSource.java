@@ -0,0 +1,49 @@
+package com.programthis.payment_service.datasource;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Entrega la conexión de la base que marca {@link ShardContext}. La 0 es la base principal (spring.datasource):
+ * además de su parte de los pagos guarda el mapa de shards, las estadísticas y las claves de idempotencia.
+ */
+public class ShardRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private final List<DataSource> databases;
+
+    public ShardRoutingDataSource(List<DataSource> databases) {
+        this.databases = List.copyOf(databases);
+    }
+
+    public DataSource database(int index) {
+        return databases.get(index);
+    }
+
+    public int size() {
+        return databases.size();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return databases.get(ShardContext.current()).getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    // La base principal es un bean propio y la cierra Spring.
+    @Override
+    public void close() throws Exception {
+        for (DataSource database : databases.subList(1, databases.size())) {
+            if (database instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.programthis.payment_service.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.math.BigDecimal;
+
+/**
+ * Guarda el importe como BIGINT en unidades menores (céntimos). Solo es seguro con dos decimales:
+ * un importe con más precisión se rechaza en lugar de redondearse.
+ */
+@Converter
+public class MinorUnitsConverter implements AttributeConverter<BigDecimal, Long> {
+
+    static final int SCALE = 2;
+
+    @Override
+    public Long convertToDatabaseColumn(BigDecimal amount) {
+        if (amount == null) {
+            return null;
+        }
+        try {
+            return amount.setScale(SCALE).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount " + amount + " cannot be stored in minor units", e);
+        }
+    }
+
+    @Override
+    public BigDecimal convertToEntityAttribute(Long minorUnits) {
+        return minorUnits == null ? null : BigDecimal.valueOf(minorUnits, SCALE);
+    }
+}
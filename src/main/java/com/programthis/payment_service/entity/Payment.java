@@ -1,25 +1,57 @@
 package com.programthis.payment_service.entity;
 
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
+@DynamicUpdate // el UPDATE solo incluye las columnas modificadas
+@Table(name = "payment", indexes = {
+        @Index(name = Payment.IDX_ORDER_ID, columnList = "orderId"),
+        @Index(name = Payment.IDX_TRANSACTION_ID, columnList = "transactionId", unique = true),
+        @Index(name = Payment.IDX_STATUS_DATE, columnList = "paymentStatus, transactionDate"),
+        @Index(name = Payment.IDX_DATE_ID, columnList = "transactionDate, id")
+})
 public class Payment {
 
+    // Deben coincidir con las migraciones de db/migration; se verifican al arrancar.
+    public static final String IDX_ORDER_ID = "idx_payment_order_id";
+    public static final String IDX_TRANSACTION_ID = "ux_payment_transaction_id";
+    public static final String IDX_STATUS_DATE = "idx_payment_status_date";
+    public static final String IDX_DATE_ID = "idx_payment_date_id";
+
+    // Generador de tabla con asignación por bloques: a diferencia de IDENTITY permite
+    // que Hibernate agrupe los INSERT en lotes JDBC. Un id ya asignado se conserva.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @PaymentId
     private Long id;
     private String orderId;
+    // Representación compacta: importe en céntimos, estado y método como TINYINT, UUID en BINARY(16).
+    @Convert(converter = MinorUnitsConverter.class)
+    @Column(name = "amount_minor")
     private BigDecimal amount;
-    private String paymentMethod;
-    private String paymentStatus; // e.g., "COMPLETED", "FAILED", "PENDING"
+    @Convert(converter = PaymentMethodConverter.class)
+    private String paymentMethod; // ver PaymentMethod
+    @Convert(converter = PaymentStatusConverter.class)
+    private String paymentStatus; // ver PaymentStatus: "COMPLETED", "FAILED", "PENDING"...
+    @Convert(converter = UuidBinaryConverter.class)
+    @Column(length = 16)
+    @JdbcTypeCode(SqlTypes.BINARY)
     private String transactionId;
     private LocalDateTime transactionDate;
+    // Cada UPDATE comprueba y aumenta la versión: una modificación concurrente falla en lugar de pisar a otra.
+    @Version
+    private Long version;
 
     // Constructors
     public Payment() {
@@ -91,6 +123,14 @@ public class Payment {
         this.transactionDate = transactionDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     // Opcional: toString para debugging
     @Override
     public String toString() {
@@ -102,6 +142,7 @@ public class Payment {
                ", paymentStatus='" + paymentStatus + '\'' +
                ", transactionId='" + transactionId + '\'' +
                ", transactionDate=" + transactionDate +
+               ", version=" + version +
                '}';
     }
 }
\ No newline at end of file
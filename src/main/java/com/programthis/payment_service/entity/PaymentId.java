@@ -0,0 +1,26 @@
+package com.programthis.payment_service.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Genera el id de {@link Payment} con {@link PaymentIdGenerator}: tabla de secuencias con asignación por bloques
+ * (a diferencia de IDENTITY permite agrupar los INSERT en lotes JDBC) que conserva un id ya asignado.
+ */
+@IdGeneratorType(PaymentIdGenerator.class)
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface PaymentId {
+
+    String table() default "payment_id_generator";
+
+    String segment() default "payment";
+
+    int incrementSize() default 50;
+}
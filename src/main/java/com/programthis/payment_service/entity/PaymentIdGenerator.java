@@ -0,0 +1,65 @@
+package com.programthis.payment_service.entity;
+
+import com.programthis.payment_service.service.PaymentShards;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.lang.reflect.Member;
+import java.util.Properties;
+
+/**
+ * El generador de tabla de payment, que además respeta un id ya asignado: la escritura diferida reserva el id
+ * antes de confirmar el pago al cliente y lo conserva al guardarlo (ver PaymentIdAllocator).
+ * <p>
+ * Con sharding (ajuste {@link #LOGICAL_SHARDS_SETTING}) el id lleva en sus {@link #SHARD_BITS} bits bajos el shard
+ * lógico del pedido, así que la base de un pago sale del mapa de shards sin consultar ninguna base, también
+ * después de moverlo.
+ * <p>
+ * Se registra con {@link PaymentId}, que lleva la tabla, el segmento y el tamaño de bloque.
+ */
+public class PaymentIdGenerator extends TableGenerator {
+
+    public static final String LOGICAL_SHARDS_SETTING = "payment.sharding.logical-shards";
+    public static final int SHARD_BITS = 16;
+
+    private final PaymentId config;
+    // 0 = sin sharding
+    private int logicalShards;
+
+    public PaymentIdGenerator(PaymentId config, Member member, CustomIdGeneratorCreationContext context) {
+        this.config = config;
+    }
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) {
+        parameters.put(TABLE_PARAM, config.table());
+        parameters.put(SEGMENT_COLUMN_PARAM, "sequence_name");
+        parameters.put(VALUE_COLUMN_PARAM, "next_val");
+        parameters.put(SEGMENT_VALUE_PARAM, config.segment());
+        parameters.put(INCREMENT_PARAM, String.valueOf(config.incrementSize()));
+        super.configure(type, parameters, serviceRegistry);
+        Object setting = serviceRegistry.requireService(ConfigurationService.class).getSettings().get(LOGICAL_SHARDS_SETTING);
+        logicalShards = setting == null ? 0 : Integer.parseInt(setting.toString());
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        if (object instanceof Payment payment && payment.getId() != null) {
+            return payment.getId();
+        }
+        long sequence = (Long) super.generate(session, object);
+        if (logicalShards == 0 || !(object instanceof Payment payment)) {
+            return sequence;
+        }
+        return sequence << SHARD_BITS | PaymentShards.logicalShardOf(payment.getOrderId(), logicalShards);
+    }
+
+    @Override
+    public boolean allowAssignedIdentifiers() {
+        return true;
+    }
+}
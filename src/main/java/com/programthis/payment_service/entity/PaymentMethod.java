@@ -0,0 +1,27 @@
+package com.programthis.payment_service.entity;
+
+public enum PaymentMethod {
+    PROCESSED_METHOD(0),
+    CARD(1),
+    PAYPAL(2),
+    BANK_TRANSFER(3);
+
+    private final byte code;
+
+    PaymentMethod(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static PaymentMethod fromCode(byte code) {
+        for (PaymentMethod method : values()) {
+            if (method.code == code) {
+                return method;
+            }
+        }
+        throw new IllegalArgumentException("Unknown payment method code: " + code);
+    }
+}
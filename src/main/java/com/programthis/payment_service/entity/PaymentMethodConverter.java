@@ -0,0 +1,18 @@
+package com.programthis.payment_service.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class PaymentMethodConverter implements AttributeConverter<String, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(String method) {
+        return method == null ? null : PaymentMethod.valueOf(method).code();
+    }
+
+    @Override
+    public String convertToEntityAttribute(Byte code) {
+        return code == null ? null : PaymentMethod.fromCode(code).name();
+    }
+}
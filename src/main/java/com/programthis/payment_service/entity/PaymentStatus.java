@@ -0,0 +1,28 @@
+package com.programthis.payment_service.entity;
+
+public enum PaymentStatus {
+    PENDING(0),
+    COMPLETED(1),
+    FAILED(2),
+    REFUNDED(3),
+    VOIDED(4);
+
+    private final byte code;
+
+    PaymentStatus(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static PaymentStatus fromCode(byte code) {
+        for (PaymentStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown payment status code: " + code);
+    }
+}
@@ -0,0 +1,22 @@
+package com.programthis.payment_service.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Guarda el estado como TINYINT. Al leer devuelve el nombre constante del enum, así que todas las filas
+ * comparten la misma instancia de String.
+ */
+@Converter
+public class PaymentStatusConverter implements AttributeConverter<String, Byte> {
+
+    @Override
+    public Byte convertToDatabaseColumn(String status) {
+        return status == null ? null : PaymentStatus.valueOf(status).code();
+    }
+
+    @Override
+    public String convertToEntityAttribute(Byte code) {
+        return code == null ? null : PaymentStatus.fromCode(code).name();
+    }
+}
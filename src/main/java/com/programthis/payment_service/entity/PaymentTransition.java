@@ -0,0 +1,46 @@
+package com.programthis.payment_service.entity;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Transiciones de estado permitidas. Cualquier otro cambio de paymentStatus se rechaza antes de tocar la base de datos.
+ */
+public enum PaymentTransition {
+    CAPTURE(PaymentStatus.COMPLETED, PaymentStatus.PENDING),
+    FAIL(PaymentStatus.FAILED, PaymentStatus.PENDING),
+    VOID(PaymentStatus.VOIDED, PaymentStatus.PENDING),
+    REFUND(PaymentStatus.REFUNDED, PaymentStatus.COMPLETED);
+
+    private final PaymentStatus target;
+    private final Set<PaymentStatus> from;
+
+    PaymentTransition(PaymentStatus target, PaymentStatus first, PaymentStatus... rest) {
+        this.target = target;
+        this.from = EnumSet.of(first, rest);
+    }
+
+    public PaymentStatus target() {
+        return target;
+    }
+
+    public Set<PaymentStatus> from() {
+        return from;
+    }
+
+    public boolean allowsFrom(PaymentStatus status) {
+        return from.contains(status);
+    }
+
+    public static boolean isAllowed(PaymentStatus from, PaymentStatus to) {
+        if (from == to) {
+            return true;
+        }
+        for (PaymentTransition transition : values()) {
+            if (transition.target == to && transition.allowsFrom(from)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
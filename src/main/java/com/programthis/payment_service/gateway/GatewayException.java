@@ -0,0 +1,11 @@
+package com.programthis.payment_service.gateway;
+
+/**
+ * Error técnico de la pasarela (sin respuesta, 5xx...), distinto de un rechazo del pago: el resultado es desconocido.
+ */
+public class GatewayException extends RuntimeException {
+
+    public GatewayException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.programthis.payment_service.gateway;
+
+public record GatewayResult(boolean approved, String transactionId, String declineReason) {
+
+    public static GatewayResult approved(String transactionId) {
+        return new GatewayResult(true, transactionId, null);
+    }
+
+    public static GatewayResult declined(String declineReason) {
+        return new GatewayResult(false, null, declineReason);
+    }
+}
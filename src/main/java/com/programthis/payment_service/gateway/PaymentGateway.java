@@ -0,0 +1,13 @@
+package com.programthis.payment_service.gateway;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pasarela de pago externa. Las implementaciones no deben bloquear al llamante:
+ * el resultado se entrega cuando la pasarela responde.
+ */
+public interface PaymentGateway {
+
+    CompletableFuture<GatewayResult> authorize(String orderId, BigDecimal amount, String paymentMethodDetails);
+}
@@ -0,0 +1,80 @@
+package com.programthis.payment_service.gateway;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pasarela local para desarrollo y pruebas de carga. Rechaza los pagos cuyos detalles contienen "fail"
+ * y, opcionalmente, una fracción aleatoria del resto; otra fracción (error-rate) termina con un error técnico
+ * ({@link GatewayException}). La latencia sigue una distribución log-normal definida por su mediana y su p99;
+ * la espera no ocupa ningún hilo.
+ */
+@Component
+public class SimulatedGateway implements PaymentGateway {
+
+    // Cuantil 0.99 de la normal estándar.
+    private static final double Z_99 = 2.326;
+
+    private final double mu;
+    private final double sigma;
+    private final boolean instant;
+    private final double failureRate;
+    private final double errorRate;
+    private final Executor executor;
+
+    public SimulatedGateway(@Value("${payment.gateway.simulated.latency-median:0ms}") Duration latencyMedian,
+                            @Value("${payment.gateway.simulated.latency-p99:0ms}") Duration latencyP99,
+                            @Value("${payment.gateway.simulated.failure-rate:0.0}") double failureRate,
+                            @Value("${payment.gateway.simulated.error-rate:0.0}") double errorRate,
+                            @Qualifier("paymentExecutor") Executor executor) {
+        this.instant = latencyMedian.isZero();
+        this.mu = instant ? 0 : Math.log(latencyMedian.toNanos());
+        this.sigma = instant || latencyP99.compareTo(latencyMedian) <= 0
+                ? 0
+                : Math.log((double) latencyP99.toNanos() / latencyMedian.toNanos()) / Z_99;
+        this.failureRate = failureRate;
+        this.errorRate = errorRate;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<GatewayResult> authorize(String orderId, BigDecimal amount, String paymentMethodDetails) {
+        GatewayResult result = decide(paymentMethodDetails);
+        boolean error = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        if (instant) {
+            return error ? CompletableFuture.failedFuture(new GatewayException("Simulated gateway error"))
+                    : CompletableFuture.completedFuture(result);
+        }
+        Executor delayed = CompletableFuture.delayedExecutor(sampleLatencyNanos(), TimeUnit.NANOSECONDS, executor);
+        return CompletableFuture.supplyAsync(() -> {
+            if (error) {
+                throw new GatewayException("Simulated gateway error");
+            }
+            return result;
+        }, delayed);
+    }
+
+    private GatewayResult decide(String paymentMethodDetails) {
+        if (paymentMethodDetails != null && paymentMethodDetails.contains("fail")) {
+            return GatewayResult.declined("Payment method rejected");
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            return GatewayResult.declined("Simulated gateway failure");
+        }
+        return GatewayResult.approved(UUID.randomUUID().toString());
+    }
+
+    long sampleLatencyNanos() {
+        double gaussian = sigma == 0 ? 0 : ThreadLocalRandom.current().nextGaussian();
+        return (long) Math.exp(mu + sigma * gaussian);
+    }
+}
@@ -0,0 +1,12 @@
+package com.programthis.payment_service.outbox;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento leído de payment_outbox. payload es el pago serializado en JSON tal como lo devuelve la API;
+ * id es creciente y sirve a los consumidores para descartar duplicados.
+ */
+public record OutboxEvent(long id, long paymentId, String orderId, String type,
+                          @JsonRawValue String payload, LocalDateTime createdAt) {}
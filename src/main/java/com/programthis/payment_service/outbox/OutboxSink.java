@@ -0,0 +1,13 @@
+package com.programthis.payment_service.outbox;
+
+import java.util.List;
+
+/**
+ * Destino de los eventos de la bandeja de salida (broker, fichero, memoria...). Se llama con la transacción
+ * del lote abierta: si lanza una excepción los eventos siguen en la tabla y se reintentan. La entrega es
+ * "al menos una vez": tras un fallo entre el envío y el commit el mismo lote puede llegar dos veces.
+ */
+public interface OutboxSink {
+
+    void publish(List<OutboxEvent> events);
+}
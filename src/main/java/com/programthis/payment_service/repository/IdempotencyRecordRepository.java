@@ -0,0 +1,31 @@
+package com.programthis.payment_service.repository;
+
+import com.programthis.payment_service.entity.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    @Transactional
+    @Modifying
+    @Query("update IdempotencyRecord r set r.paymentId = :paymentId where r.idempotencyKey = :key")
+    int markCompleted(@Param("key") String key, @Param("paymentId") Long paymentId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotencyRecord r where r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    @Transactional
+    @Modifying
+    @Query("update IdempotencyRecord r set r.createdAt = :now "
+            + "where r.idempotencyKey = :key and r.paymentId is null and r.createdAt < :cutoff")
+    int reclaim(@Param("key") String key, @Param("now") LocalDateTime now, @Param("cutoff") LocalDateTime cutoff);
+}
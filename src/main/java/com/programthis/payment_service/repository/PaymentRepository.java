@@ -1,13 +1,102 @@
 package com.programthis.payment_service.repository;
 
 import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.persistence.QueryHint;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 @Repository
-public interface PaymentRepository extends JpaRepository<Payment, Long> {
-    Optional<Payment> findByOrderId(String orderId);
+public interface PaymentRepository extends JpaRepository<Payment, Long>, PaymentRepositoryCustom {
+    // order_id no es único (un pedido FAILED puede reintentarse): se devuelve el último intento, igual que en payment_archive.
+    Optional<Payment> findFirstByOrderIdOrderByIdDesc(String orderId);
     Optional<Payment> findByTransactionId(String transactionId);
-}
\ No newline at end of file
+
+    // Consultas de estado en bloque: una sentencia IN (...) por trozo de claves.
+    List<Payment> findByOrderIdIn(Collection<String> orderIds);
+    List<Payment> findByTransactionIdIn(Collection<String> transactionIds);
+
+    // Pagos movidos a payment_archive por PaymentArchiver; solo se consultan si no están en payment.
+    String ARCHIVE_COLUMNS = "id, order_id, amount_minor, payment_method, payment_status, transaction_id, transaction_date, version";
+
+    // Un pedido puede tener varios pagos archivados (reintentos tras FAILED): se devuelve el último.
+    @Query(value = "select " + ARCHIVE_COLUMNS + " from payment_archive where order_id = :orderId order by id desc limit 1",
+            nativeQuery = true)
+    Optional<Payment> findArchivedByOrderId(@Param("orderId") String orderId);
+
+    @Query(value = "select " + ARCHIVE_COLUMNS + " from payment_archive where transaction_id = :transactionId", nativeQuery = true)
+    Optional<Payment> findArchivedByTransactionId(@Param("transactionId") byte[] transactionId);
+
+    @Query(value = "select " + ARCHIVE_COLUMNS + " from payment_archive where order_id in (:orderIds)", nativeQuery = true)
+    List<Payment> findArchivedByOrderIdIn(@Param("orderIds") Collection<String> orderIds);
+
+    @Query(value = "select " + ARCHIVE_COLUMNS + " from payment_archive where transaction_id in (:transactionIds)", nativeQuery = true)
+    List<Payment> findArchivedByTransactionIdIn(@Param("transactionIds") Collection<byte[]> transactionIds);
+
+    default Optional<Payment> findArchivedByTransactionId(String transactionId) {
+        try {
+            return findArchivedByTransactionId(new UuidBinaryConverter().convertToDatabaseColumn(transactionId));
+        } catch (IllegalArgumentException e) {
+            // No es un UUID: no puede estar archivado.
+            return Optional.empty();
+        }
+    }
+
+    // Transición de estado en una sola sentencia, condicionada al estado y la versión que se creen actuales;
+    // 0 filas si el pago no existe o ya no está exactamente así.
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Payment p set p.paymentStatus = :target, p.version = p.version + 1 "
+            + "where p.id = :id and p.paymentStatus = :source and p.version = :version")
+    int transition(@Param("id") Long id, @Param("target") String target, @Param("source") String source,
+                   @Param("version") Long version);
+
+    // Sin imagen previa: condicionada solo al estado de origen, que es lo que decide si la transición está permitida.
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Payment p set p.paymentStatus = :target, p.version = p.version + 1 "
+            + "where p.id = :id and p.paymentStatus = :source")
+    int transitionFrom(@Param("id") Long id, @Param("target") String target, @Param("source") String source);
+
+    // Paginación por cursor (keyset) sobre (transactionDate, id): nunca usa OFFSET. MySQL y H2 ordenan los
+    // transactionDate nulos primero en orden ascendente; tras la última fila nula sigue la primera con fecha.
+    @Query("select p from Payment p order by p.transactionDate asc, p.id asc")
+    List<Payment> findFirstPage(Pageable pageable);
+
+    @Query("select p from Payment p where (p.transactionDate is null and p.id > :id) or p.transactionDate is not null "
+            + "order by p.transactionDate asc, p.id asc")
+    List<Payment> findPageAfterNullDate(@Param("id") Long id, Pageable pageable);
+
+    // Con la forma OR el índice (transaction_date, id) solo da el orden y se recorre desde el principio; la
+    // comparación de fila más la cota sobre transaction_date lo recorren desde el último pago devuelto.
+    @Query("select p from Payment p where p.transactionDate >= :transactionDate "
+            + "and (p.transactionDate, p.id) > (:transactionDate, :id) "
+            + "order by p.transactionDate asc, p.id asc")
+    List<Payment> findPageAfter(@Param("transactionDate") LocalDateTime transactionDate,
+                                @Param("id") Long id,
+                                Pageable pageable);
+
+    // Lectura en streaming; requiere una transacción abierta mientras se consume.
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")
+    })
+    @Query("select p from Payment p order by p.transactionDate asc, p.id asc")
+    Stream<Payment> streamAll();
+}
@@ -0,0 +1,12 @@
+package com.programthis.payment_service.repository;
+
+import java.util.Map;
+
+public interface PaymentRepositoryCustom {
+
+    /**
+     * Un único UPDATE condicional: escribe solo los atributos indicados y aumenta la versión si
+     * la fila sigue en expectedVersion. Devuelve las filas actualizadas (0 si no existe o la versión no coincide).
+     */
+    int patch(Long id, long expectedVersion, Map<String, Object> changes);
+}
@@ -0,0 +1,30 @@
+package com.programthis.payment_service.repository;
+
+import com.programthis.payment_service.entity.Payment;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Map;
+
+class PaymentRepositoryImpl implements PaymentRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public int patch(Long id, long expectedVersion, Map<String, Object> changes) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Payment> update = cb.createCriteriaUpdate(Payment.class);
+        Root<Payment> payment = update.from(Payment.class);
+        // Los convertidores de atributo (céntimos, TINYINT, BINARY(16)) se aplican también a estos parámetros.
+        changes.forEach(update::set);
+        update.set(payment.<Long>get("version"), cb.sum(payment.get("version"), 1L));
+        update.where(cb.equal(payment.get("id"), id), cb.equal(payment.get("version"), expectedVersion));
+        return entityManager.createQuery(update).executeUpdate();
+    }
+}
@@ -0,0 +1,115 @@
+package com.programthis.payment_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Límite de peticiones por cliente con presupuestos separados de lectura y escritura (cubo de fichas de
+ * rate peticiones por segundo y capacidad burst).
+ * <p>
+ * Se implementa como GCRA: cada cubo es un único AtomicLong con el instante teórico de la siguiente llegada y se
+ * actualiza con CAS, sin bloqueos ni objetos nuevos por petición. Los clientes inactivos más de idle-timeout se
+ * descartan de la caché (y vuelven con el cubo lleno).
+ */
+@Component
+public class ClientRateLimiter implements MeterBinder {
+
+    public enum Budget { READ, WRITE }
+
+    private static final class Buckets {
+        private final AtomicLong[] theoreticalArrival = {new AtomicLong(Long.MIN_VALUE), new AtomicLong(Long.MIN_VALUE)};
+    }
+
+    private final boolean enabled;
+    private final long[] intervalNanos = new long[2];
+    private final long[] toleranceNanos = new long[2];
+    private final Cache<String, Buckets> clients;
+    private final Counter[] allowed = new Counter[2];
+    private final Counter[] limited = new Counter[2];
+
+    public ClientRateLimiter(@Value("${payment.rate-limit.enabled:false}") boolean enabled,
+                             @Value("${payment.rate-limit.read-rate:200}") double readRate,
+                             @Value("${payment.rate-limit.read-burst:400}") int readBurst,
+                             @Value("${payment.rate-limit.write-rate:50}") double writeRate,
+                             @Value("${payment.rate-limit.write-burst:100}") int writeBurst,
+                             @Value("${payment.rate-limit.max-clients:100000}") long maxClients,
+                             @Value("${payment.rate-limit.idle-timeout:10m}") Duration idleTimeout) {
+        this.enabled = enabled;
+        configure(Budget.READ, readRate, readBurst);
+        configure(Budget.WRITE, writeRate, writeBurst);
+        this.clients = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    private void configure(Budget budget, double rate, int burst) {
+        intervalNanos[budget.ordinal()] = (long) (1_000_000_000L / rate);
+        toleranceNanos[budget.ordinal()] = intervalNanos[budget.ordinal()] * burst;
+    }
+
+    /**
+     * Consume una ficha del presupuesto del cliente. Devuelve 0 si la petición puede pasar o, si no, los
+     * nanosegundos que faltan para la siguiente ficha (para Retry-After).
+     */
+    public long tryAcquire(String clientId, Budget budget) {
+        if (!enabled) {
+            return 0;
+        }
+        int index = budget.ordinal();
+        AtomicLong bucket = clients.get(clientId, key -> new Buckets()).theoreticalArrival[index];
+        long interval = intervalNanos[index];
+        long tolerance = toleranceNanos[index];
+        while (true) {
+            long now = System.nanoTime();
+            long current = bucket.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > tolerance) {
+                count(limited, index);
+                return next - now - tolerance;
+            }
+            if (bucket.compareAndSet(current, next)) {
+                count(allowed, index);
+                return 0;
+            }
+        }
+    }
+
+    private static void count(Counter[] counters, int index) {
+        if (counters[index] != null) {
+            counters[index].increment();
+        }
+    }
+
+    public long clients() {
+        return clients.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Budget budget : Budget.values()) {
+            allowed[budget.ordinal()] = decisions(registry, budget, "allowed");
+            limited[budget.ordinal()] = decisions(registry, budget, "limited");
+        }
+        Gauge.builder("payment.rate-limit.clients", this, ClientRateLimiter::clients)
+                .description("Clientes con cubo de fichas en memoria")
+                .register(registry);
+    }
+
+    private static Counter decisions(MeterRegistry registry, Budget budget, String outcome) {
+        return Counter.builder("payment.rate-limit.decisions")
+                .description("Decisiones del límite por cliente")
+                .tag("budget", budget.name().toLowerCase())
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class GatewayBusyException extends RuntimeException {
+
+    public GatewayBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,160 @@
+package com.programthis.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Cada intento contra la pasarela pasa por el {@link GatewayConcurrencyLimiter} y el {@link GatewayCircuitBreaker}
+ * con un timeout propio ({@link GatewayTimeoutException}, que lleva las respuestas tardías para conciliar el pago).
+ * El permiso del limitador se devuelve cuando responde la pasarela, no al vencer el timeout: la llamada sigue en
+ * curso. Con hedge-delay > 0, si el primer intento no ha respondido en ese tiempo (o falla antes) y queda un permiso
+ * libre se lanza un segundo en paralelo y gana la primera respuesta correcta. Solo debe activarse con una pasarela
+ * que deduplique las autorizaciones por orderId: si no, los dos intentos podrían cobrar dos veces.
+ */
+@Component
+public class GatewayCallPolicy implements MeterBinder {
+
+    private final long timeoutNanos;
+    private final long hedgeDelayNanos;
+    private final GatewayCircuitBreaker circuitBreaker;
+    private final GatewayConcurrencyLimiter concurrencyLimiter;
+    private final Executor executor;
+    private Counter timeouts;
+    private Counter hedges;
+
+    public GatewayCallPolicy(@Value("${payment.gateway.timeout:5s}") Duration timeout,
+                             @Value("${payment.gateway.hedge-delay:0ms}") Duration hedgeDelay,
+                             GatewayCircuitBreaker circuitBreaker,
+                             GatewayConcurrencyLimiter concurrencyLimiter,
+                             @Qualifier("paymentExecutor") Executor executor) {
+        this.timeoutNanos = timeout.toNanos();
+        this.hedgeDelayNanos = hedgeDelay.toNanos();
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.executor = executor;
+    }
+
+    /**
+     * El primer intento espera un permiso del limitador; sin él termina con {@link GatewayBusyException} sin
+     * llegar a la pasarela. call se invoca una vez por intento, ya con el permiso.
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        GatewayConcurrencyLimiter.Permit permit;
+        try {
+            permit = concurrencyLimiter.acquire();
+        } catch (GatewayBusyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (hedgeDelayNanos <= 0) {
+            return attempt(permit, call);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicBoolean hedged = new AtomicBoolean();
+        List<CompletableFuture<?>> lateAnswers = new CopyOnWriteArrayList<>();
+        hedge(permit, call, result, outstanding, hedged, lateAnswers);
+        CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS, executor).execute(() -> {
+            if (!result.isDone() && hedged.compareAndSet(false, true)) {
+                hedgeIfPermitted(call, result, outstanding, hedged, lateAnswers);
+            }
+        });
+        return result;
+    }
+
+    // El segundo intento nunca espera un permiso: con el límite alcanzado no se lanza.
+    private <T> void hedgeIfPermitted(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result, AtomicInteger outstanding,
+                                      AtomicBoolean hedged, List<CompletableFuture<?>> lateAnswers) {
+        concurrencyLimiter.tryAcquire().ifPresent(permit -> {
+            if (hedges != null) {
+                hedges.increment();
+            }
+            hedge(permit, call, result, outstanding, hedged, lateAnswers);
+        });
+    }
+
+    private <T> void hedge(GatewayConcurrencyLimiter.Permit permit, Supplier<CompletableFuture<T>> call, CompletableFuture<T> result,
+                           AtomicInteger outstanding, AtomicBoolean hedged, List<CompletableFuture<?>> lateAnswers) {
+        outstanding.incrementAndGet();
+        attempt(permit, call).whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = GatewayCircuitBreaker.unwrap(error);
+            // Cualquier intento que venció su timeout puede aprobarse después: se concilian todos, no solo el último.
+            if (cause instanceof GatewayTimeoutException timeout) {
+                lateAnswers.addAll(timeout.lateAnswers());
+            }
+            // Un error antes de que venza hedge-delay adelanta el segundo intento, salvo con el cortocircuito abierto.
+            if (!(cause instanceof GatewayCircuitOpenException) && hedged.compareAndSet(false, true)) {
+                hedgeIfPermitted(call, result, outstanding, hedged, lateAnswers);
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(lateAnswers.isEmpty() ? cause
+                        : new GatewayTimeoutException(timeoutMessage(), List.copyOf(lateAnswers)));
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> attempt(GatewayConcurrencyLimiter.Permit permit, Supplier<CompletableFuture<T>> call) {
+        AtomicBoolean called = new AtomicBoolean();
+        CompletableFuture<T> attempt = circuitBreaker.callAsync(() -> {
+            called.set(true);
+            CompletableFuture<T> answer;
+            try {
+                answer = permit.releaseWhenDone(call.get());
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+            // El timeout se aplica a una copia: orTimeout sobre el futuro de la pasarela descartaría su respuesta
+            // tardía, y una autorización que no se puede cancelar aún puede aprobarse después.
+            return answer.copy()
+                    .orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+                    .exceptionallyCompose(error -> {
+                        Throwable cause = GatewayCircuitBreaker.unwrap(error);
+                        if (cause instanceof TimeoutException) {
+                            if (timeouts != null) {
+                                timeouts.increment();
+                            }
+                            return CompletableFuture.failedFuture(new GatewayTimeoutException(timeoutMessage(), answer));
+                        }
+                        return CompletableFuture.failedFuture(cause);
+                    });
+        });
+        // Con el cortocircuito abierto no llega a haber llamada.
+        if (!called.get()) {
+            permit.release();
+        }
+        return attempt;
+    }
+
+    private String timeoutMessage() {
+        return "Payment gateway did not answer within " + Duration.ofNanos(timeoutNanos);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        timeouts = Counter.builder("payment.gateway.timeouts")
+                .description("Intentos contra la pasarela que superaron el timeout")
+                .register(registry);
+        hedges = Counter.builder("payment.gateway.hedges")
+                .description("Segundos intentos (hedged) lanzados contra la pasarela")
+                .register(registry);
+    }
+}
@@ -0,0 +1,191 @@
+package com.programthis.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Cortocircuito de la pasarela sobre una ventana deslizante de las últimas window-size llamadas. Se abre cuando,
+ * con al menos minimum-calls en la ventana, el porcentaje de errores o el de llamadas lentas (más de
+ * slow-call-duration) alcanza su umbral. Abierto, rechaza al instante con {@link GatewayCircuitOpenException}
+ * (503) durante open-duration; después deja pasar half-open-calls de prueba y, según cómo terminen, se cierra
+ * o vuelve a abrirse. Un rechazo del pago (approved=false) es una respuesta correcta, no un error.
+ */
+@Component
+public class GatewayCircuitBreaker implements MeterBinder {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final boolean enabled;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    // Resultados de las últimas llamadas como bits FAILED | SLOW, en un buffer circular.
+    private final byte[] window;
+    private int next;
+    private int recorded;
+    private int failed;
+    private int slow;
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private Counter rejected;
+
+    public GatewayCircuitBreaker(@Value("${payment.gateway.circuit.enabled:true}") boolean enabled,
+                                 @Value("${payment.gateway.circuit.window-size:100}") int windowSize,
+                                 @Value("${payment.gateway.circuit.minimum-calls:20}") int minimumCalls,
+                                 @Value("${payment.gateway.circuit.failure-rate-threshold:50}") double failureRateThreshold,
+                                 @Value("${payment.gateway.circuit.slow-call-rate-threshold:80}") double slowCallRateThreshold,
+                                 @Value("${payment.gateway.circuit.slow-call-duration:2s}") Duration slowCallDuration,
+                                 @Value("${payment.gateway.circuit.open-duration:10s}") Duration openDuration,
+                                 @Value("${payment.gateway.circuit.half-open-calls:5}") int halfOpenCalls) {
+        this.enabled = enabled;
+        this.window = new byte[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = Math.min(halfOpenCalls, windowSize);
+    }
+
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        if (!tryAcquirePermission()) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            return CompletableFuture.failedFuture(new GatewayCircuitOpenException("Payment gateway circuit is open"));
+        }
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            record(true, System.nanoTime() - start);
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) -> record(error != null, System.nanoTime() - start));
+    }
+
+    private boolean tryAcquirePermission() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                halfOpenPermits = halfOpenCalls;
+                clearWindow();
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenPermits == 0) {
+                    return false;
+                }
+                halfOpenPermits--;
+            }
+            return true;
+        }
+    }
+
+    private synchronized void record(boolean error, long nanos) {
+        if (state == State.OPEN) {
+            // Respuestas tardías de antes de abrirse: no cuentan para la siguiente prueba.
+            return;
+        }
+        byte outcome = (byte) ((error ? FAILED : 0) | (nanos >= slowCallNanos ? SLOW : 0));
+        if (recorded == window.length) {
+            failed -= window[next] & FAILED;
+            slow -= (window[next] & SLOW) >> 1;
+        } else {
+            recorded++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        failed += outcome & FAILED;
+        slow += (outcome & SLOW) >> 1;
+
+        if (state == State.HALF_OPEN) {
+            if (recorded >= halfOpenCalls) {
+                if (overThreshold()) {
+                    open();
+                } else {
+                    state = State.CLOSED;
+                    clearWindow();
+                }
+            }
+        } else if (recorded >= minimumCalls && overThreshold()) {
+            open();
+        }
+    }
+
+    private boolean overThreshold() {
+        return failureRate() >= failureRateThreshold || slowCallRate() >= slowCallRateThreshold;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void clearWindow() {
+        next = 0;
+        recorded = 0;
+        failed = 0;
+        slow = 0;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public synchronized double failureRate() {
+        return recorded == 0 ? 0 : 100.0 * failed / recorded;
+    }
+
+    public synchronized double slowCallRate() {
+        return recorded == 0 ? 0 : 100.0 * slow / recorded;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (State value : State.values()) {
+            Gauge.builder("payment.gateway.circuit.state", this, breaker -> breaker.state == value ? 1 : 0)
+                    .description("Estado del cortocircuito de la pasarela (1 = estado actual)")
+                    .tag("state", value.name().toLowerCase())
+                    .register(registry);
+        }
+        Gauge.builder("payment.gateway.circuit.failure-rate", this, GatewayCircuitBreaker::failureRate)
+                .description("Porcentaje de errores en la ventana del cortocircuito")
+                .register(registry);
+        Gauge.builder("payment.gateway.circuit.slow-call-rate", this, GatewayCircuitBreaker::slowCallRate)
+                .description("Porcentaje de llamadas lentas en la ventana del cortocircuito")
+                .register(registry);
+        rejected = Counter.builder("payment.gateway.circuit.rejected")
+                .description("Llamadas a la pasarela rechazadas con el cortocircuito abierto")
+                .register(registry);
+    }
+}
@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class GatewayCircuitOpenException extends GatewayBusyException {
+
+    public GatewayCircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,135 @@
+package com.programthis.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Limita las llamadas simultáneas a la pasarela de pago. Con hilos virtuales el número de
+ * peticiones en curso ya no está acotado por el pool de Tomcat, así que el límite lo pone este semáforo.
+ */
+@Component
+public class GatewayConcurrencyLimiter implements MeterBinder {
+
+    private final Semaphore permits;
+    private final int maxConcurrentCalls;
+    private final long acquireTimeoutNanos;
+    private Counter rejected;
+
+    public GatewayConcurrencyLimiter(@Value("${payment.gateway.max-concurrent-calls:1000}") int maxConcurrentCalls,
+                                     @Value("${payment.gateway.acquire-timeout:2s}") Duration acquireTimeout) {
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+    }
+
+    /**
+     * Permiso para una llamada a la pasarela; se devuelve una sola vez, llame quien llame a release.
+     */
+    public final class Permit {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+
+        /**
+         * Devuelve el permiso cuando la pasarela completa su futuro: debe ser el de la propia llamada, no una copia
+         * con timeout, o el límite dejaría de contar las llamadas que siguen en curso tras vencerlo.
+         */
+        public <T> CompletableFuture<T> releaseWhenDone(CompletableFuture<T> gatewayCall) {
+            gatewayCall.whenComplete((result, error) -> release());
+            return gatewayCall;
+        }
+    }
+
+    public <T> T call(Supplier<T> gatewayCall) {
+        Permit permit = acquire();
+        try {
+            return gatewayCall.get();
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Variante asíncrona: el permiso se mantiene hasta que la pasarela completa el futuro.
+     */
+    public <T> CompletableFuture<T> callAsync(Supplier<CompletableFuture<T>> gatewayCall) {
+        Permit permit;
+        try {
+            permit = acquire();
+        } catch (GatewayBusyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> future;
+        try {
+            future = gatewayCall.get();
+        } catch (RuntimeException e) {
+            permit.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return permit.releaseWhenDone(future);
+    }
+
+    /**
+     * Espera un permiso como mucho acquire-timeout; si no llega, {@link GatewayBusyException}.
+     */
+    public Permit acquire() {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GatewayBusyException("Interrupted while waiting for a gateway permit");
+        }
+        if (!acquired) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            throw new GatewayBusyException("Payment gateway concurrency limit of " + maxConcurrentCalls + " reached");
+        }
+        return new Permit();
+    }
+
+    /**
+     * Sin esperar, para llamadas prescindibles como un segundo intento: vacío si no queda ningún permiso.
+     */
+    public Optional<Permit> tryAcquire() {
+        return permits.tryAcquire() ? Optional.of(new Permit()) : Optional.empty();
+    }
+
+    public int inFlight() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.gateway.in-flight", this, GatewayConcurrencyLimiter::inFlight)
+                .description("Llamadas a la pasarela en curso")
+                .register(registry);
+        Gauge.builder("payment.gateway.limit", this, limiter -> limiter.maxConcurrentCalls)
+                .description("Máximo de llamadas simultáneas a la pasarela")
+                .register(registry);
+        rejected = Counter.builder("payment.gateway.bulkhead.rejected")
+                .description("Llamadas a la pasarela rechazadas por el límite de concurrencia")
+                .register(registry);
+    }
+}
@@ -0,0 +1,28 @@
+package com.programthis.payment_service.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class GatewayTimeoutException extends GatewayBusyException {
+
+    // La autorización no se cancela al vencer el timeout: estos futuros reciben las respuestas que lleguen después,
+    // uno por intento (varios con hedging).
+    private final transient List<CompletableFuture<?>> lateAnswers;
+
+    public GatewayTimeoutException(String message) {
+        this(message, List.of());
+    }
+
+    public GatewayTimeoutException(String message, CompletableFuture<?> lateAnswer) {
+        this(message, List.of(lateAnswer));
+    }
+
+    public GatewayTimeoutException(String message, List<CompletableFuture<?>> lateAnswers) {
+        super(message);
+        this.lateAnswers = lateAnswers;
+    }
+
+    public List<CompletableFuture<?>> lateAnswers() {
+        return lateAnswers;
+    }
+}
@@ -0,0 +1,11 @@
+package com.programthis.payment_service.service;
+
+/**
+ * La clave ya se usó con otro cuerpo de petición.
+ */
+public class IdempotencyKeyConflictException extends RuntimeException {
+
+    public IdempotencyKeyConflictException(String message) {
+        super(message);
+    }
+}
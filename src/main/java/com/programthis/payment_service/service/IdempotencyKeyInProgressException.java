@@ -0,0 +1,11 @@
+package com.programthis.payment_service.service;
+
+/**
+ * Otra instancia del servicio está procesando la petición original con esta clave.
+ */
+public class IdempotencyKeyInProgressException extends RuntimeException {
+
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+    }
+}
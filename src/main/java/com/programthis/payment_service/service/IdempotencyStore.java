@@ -0,0 +1,218 @@
+package com.programthis.payment_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.programthis.payment_service.datasource.ReadRouting;
+import com.programthis.payment_service.entity.IdempotencyRecord;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.repository.IdempotencyRecordRepository;
+import com.programthis.payment_service.repository.PaymentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Deduplica POST /process por la cabecera Idempotency-Key.
+ * <p>
+ * El mapa en memoria guarda el futuro de cada clave: los duplicados concurrentes se unen a la petición
+ * en curso y las repeticiones se responden sin tocar la pasarela ni la base de datos. La tabla
+ * idempotency_key cubre reinicios y otras instancias; su clave primaria decide quién procesa la petición.
+ * Una reserva sin pago dura como mucho claim-lease: pasado ese tiempo se da por abandonada (la instancia que la
+ * hizo se cayó) y otra petición con la misma clave y el mismo cuerpo puede tomarla, salvo que la petición original
+ * llegara a guardar el pago sin poder anotarlo en la reserva: entonces se anota y se repite ese pago.
+ */
+@Component
+public class IdempotencyStore {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyStore.class);
+    private static final int MARK_COMPLETED_ATTEMPTS = 3;
+
+    private record Entry(String fingerprint, CompletableFuture<Payment> result) {}
+
+    private final Cache<String, Entry> entries;
+    private final Duration ttl;
+    private final Duration claimLease;
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final PaymentRepository paymentRepository;
+    private final PaymentShards paymentShards;
+
+    public IdempotencyStore(@Value("${payment.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${payment.idempotency.claim-lease:5m}") Duration claimLease,
+                            @Value("${payment.idempotency.maximum-size:100000}") long maximumSize,
+                            IdempotencyRecordRepository idempotencyRecordRepository,
+                            PaymentRepository paymentRepository,
+                            PaymentShards paymentShards) {
+        this.entries = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+        this.ttl = ttl;
+        this.claimLease = claimLease;
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.paymentRepository = paymentRepository;
+        this.paymentShards = paymentShards;
+    }
+
+    public CompletableFuture<Payment> execute(String key, String orderId, String fingerprint,
+                                              Supplier<CompletableFuture<Payment>> action) {
+        Entry candidate = new Entry(fingerprint, new CompletableFuture<>());
+        Entry existing = entries.asMap().putIfAbsent(key, candidate);
+        if (existing != null) {
+            if (!existing.fingerprint().equals(fingerprint)) {
+                return CompletableFuture.failedFuture(mismatch(key));
+            }
+            return existing.result();
+        }
+
+        try {
+            Optional<IdempotencyRecord> stored = idempotencyRecordRepository.findById(key);
+            Optional<Payment> produced = stored.filter(record -> abandoned(record, fingerprint))
+                    .flatMap(record -> paymentOfClaim(orderId, record));
+            if (produced.isPresent()) {
+                markCompleted(key, produced.get().getId());
+                candidate.result().complete(produced.get());
+                return candidate.result();
+            }
+            if (stored.isPresent() && !reclaim(key, fingerprint, stored.get())) {
+                replayStored(key, fingerprint, stored.get(), candidate.result());
+                return candidate.result();
+            }
+            if (stored.isEmpty()) {
+                idempotencyRecordRepository.saveAndFlush(new IdempotencyRecord(key, fingerprint, LocalDateTime.now()));
+            }
+        } catch (DataIntegrityViolationException e) {
+            fail(key, candidate, new IdempotencyKeyInProgressException("Request with Idempotency-Key " + key + " is in progress"));
+            return candidate.result();
+        } catch (RuntimeException e) {
+            fail(key, candidate, e);
+            return candidate.result();
+        }
+
+        CompletableFuture<Payment> started;
+        try {
+            started = action.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((payment, error) -> {
+            if (error != null) {
+                // Sin resultado definitivo la clave se libera para que el cliente pueda reintentar. Si el borrado
+                // falla, el futuro se completa igual (los duplicados unidos no se quedan colgados) y la reserva
+                // caduca con claim-lease.
+                try {
+                    idempotencyRecordRepository.deleteById(key);
+                } finally {
+                    fail(key, candidate, error);
+                }
+                return;
+            }
+            try {
+                markCompleted(key, payment.getId());
+            } finally {
+                candidate.result().complete(payment);
+            }
+        });
+        return candidate.result();
+    }
+
+    // Sin payment_id la reserva parecería abandonada pasado claim-lease y otra petición volvería a cobrar: se
+    // reintenta la anotación y, si aun así falla, la toma posterior encuentra el pago por el pedido (ver paymentOfClaim).
+    private void markCompleted(String key, Long paymentId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                idempotencyRecordRepository.markCompleted(key, paymentId);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt == MARK_COMPLETED_ATTEMPTS) {
+                    log.warn("Cannot record payment {} for Idempotency-Key {}: {}", paymentId, key, e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean abandoned(IdempotencyRecord record, String fingerprint) {
+        return record.getPaymentId() == null
+                && record.getRequestFingerprint().equals(fingerprint)
+                && record.getCreatedAt() != null && record.getCreatedAt().isBefore(LocalDateTime.now().minus(claimLease));
+    }
+
+    // El pago que la petición original guardó después de reservar la clave: el último del pedido, leído en la
+    // primaria, con fecha no anterior a la reserva.
+    private Optional<Payment> paymentOfClaim(String orderId, IdempotencyRecord record) {
+        return ReadRouting.onPrimary(() -> paymentShards.onOrder(orderId,
+                        () -> paymentRepository.findFirstByOrderIdOrderByIdDesc(orderId)))
+                .filter(payment -> payment.getTransactionDate() != null
+                        && !payment.getTransactionDate().isBefore(record.getCreatedAt()));
+    }
+
+    // Una reserva sin pago más antigua que claim-lease es de una instancia caída: se toma con un UPDATE condicional,
+    // así que si dos peticiones lo intentan a la vez solo una la consigue.
+    private boolean reclaim(String key, String fingerprint, IdempotencyRecord record) {
+        LocalDateTime now = LocalDateTime.now();
+        return abandoned(record, fingerprint)
+                && idempotencyRecordRepository.reclaim(key, now, now.minus(claimLease)) == 1;
+    }
+
+    private void replayStored(String key, String fingerprint, IdempotencyRecord record, CompletableFuture<Payment> result) {
+        if (!record.getRequestFingerprint().equals(fingerprint)) {
+            entries.invalidate(key);
+            result.completeExceptionally(mismatch(key));
+        } else if (record.getPaymentId() == null) {
+            entries.invalidate(key);
+            result.completeExceptionally(new IdempotencyKeyInProgressException("Request with Idempotency-Key " + key + " is in progress"));
+        } else {
+            // El pago puede haberse escrito hace un instante: una réplica retrasada aún no lo tendría.
+            Optional<Payment> payment = ReadRouting.onPrimary(() ->
+                    paymentShards.findByPayment(record.getPaymentId(), () -> paymentRepository.findById(record.getPaymentId())));
+            if (payment.isPresent()) {
+                result.complete(payment.get());
+            } else {
+                entries.invalidate(key);
+                result.completeExceptionally(new RuntimeException("Payment not found for ID: " + record.getPaymentId()));
+            }
+        }
+    }
+
+    private void fail(String key, Entry entry, Throwable error) {
+        entries.asMap().remove(key, entry);
+        entry.result().completeExceptionally(error);
+    }
+
+    private static IdempotencyKeyConflictException mismatch(String key) {
+        return new IdempotencyKeyConflictException("Idempotency-Key " + key + " was already used with a different request");
+    }
+
+    @Scheduled(fixedDelayString = "${payment.idempotency.purge-interval:PT1H}",
+            initialDelayString = "${payment.idempotency.purge-interval:PT1H}")
+    public void purgeExpired() {
+        // Las reservas abandonadas no se borran antes: con la clave libre una repetición volvería a cobrar aunque la
+        // petición original hubiera guardado el pago. Las toma reclaim, que antes busca ese pago.
+        idempotencyRecordRepository.deleteCreatedBefore(LocalDateTime.now().minus(ttl));
+    }
+
+    public static String fingerprint(String orderId, BigDecimal amount, String paymentMethodDetails) {
+        String canonical = orderId + '|' + (amount == null ? null : amount.stripTrailingZeros().toPlainString())
+                + '|' + paymentMethodDetails;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
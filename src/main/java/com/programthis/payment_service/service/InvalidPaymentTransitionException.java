@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class InvalidPaymentTransitionException extends RuntimeException {
+
+    public InvalidPaymentTransitionException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,142 @@
+package com.programthis.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Límite adaptativo de peticiones en curso. Cada adjust-interval se mira la espera media por una conexión de
+ * Hikari (hikaricp.connections.acquire) y la latencia media de la pasarela en ese intervalo: si alguna supera su
+ * umbral el límite baja un 25 % (sin pasar de min-limit); si no, y el límite se está usando, sube un 5 %. Por
+ * encima del límite las peticiones se descartan (503) antes de pedir conexión a la base de datos.
+ * <p>
+ * tryAcquire y release solo tocan un AtomicInteger; las métricas se leen en el ajuste periódico.
+ */
+@Component
+public class LoadShedder implements MeterBinder {
+
+    static final String DB_WAIT_TIMER = "hikaricp.connections.acquire";
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long dbWaitThresholdNanos;
+    private final long gatewayLatencyThresholdNanos;
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Window dbWait = new Window(DB_WAIT_TIMER);
+    private final Window gatewayLatency = new Window(PaymentMetrics.GATEWAY_TIMER);
+    private volatile int limit;
+    private Counter shed;
+
+    public LoadShedder(@Value("${payment.load-shedding.enabled:false}") boolean enabled,
+                       @Value("${payment.load-shedding.initial-limit:200}") int initialLimit,
+                       @Value("${payment.load-shedding.min-limit:10}") int minLimit,
+                       @Value("${payment.load-shedding.max-limit:2000}") int maxLimit,
+                       @Value("${payment.load-shedding.db-wait-threshold:50ms}") Duration dbWaitThreshold,
+                       @Value("${payment.load-shedding.gateway-latency-threshold:1s}") Duration gatewayLatencyThreshold,
+                       MeterRegistry registry) {
+        this.enabled = enabled;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.dbWaitThresholdNanos = dbWaitThreshold.toNanos();
+        this.gatewayLatencyThresholdNanos = gatewayLatencyThreshold.toNanos();
+        this.registry = registry;
+    }
+
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                if (shed != null) {
+                    shed.increment();
+                }
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (enabled) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${payment.load-shedding.adjust-interval:PT1S}")
+    public void adjust() {
+        if (!enabled) {
+            return;
+        }
+        // | y no ||: las dos ventanas deben avanzar en cada ajuste.
+        boolean overloaded = dbWait.meanNanos() > dbWaitThresholdNanos
+                | gatewayLatency.meanNanos() > gatewayLatencyThresholdNanos;
+        int current = limit;
+        if (overloaded) {
+            limit = Math.max(minLimit, current * 3 / 4);
+        } else if (inFlight.get() * 2 >= current) {
+            limit = Math.min(maxLimit, current + Math.max(1, current / 20));
+        }
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.load-shedding.limit", this, LoadShedder::limit)
+                .description("Límite actual de peticiones en curso")
+                .register(registry);
+        Gauge.builder("payment.load-shedding.in-flight", this, LoadShedder::inFlight)
+                .description("Peticiones en curso contadas por el límite adaptativo")
+                .register(registry);
+        shed = Counter.builder("payment.load-shedding.shed")
+                .description("Peticiones descartadas con 503 por el límite adaptativo")
+                .register(registry);
+    }
+
+    // Media de un temporizador (sumando todas sus etiquetas) solo en lo registrado desde la lectura anterior.
+    private final class Window {
+        private final String timer;
+        private long lastCount;
+        private double lastTotalNanos;
+
+        private Window(String timer) {
+            this.timer = timer;
+        }
+
+        long meanNanos() {
+            long count = 0;
+            double totalNanos = 0;
+            for (Timer t : registry.find(timer).timers()) {
+                count += t.count();
+                totalNanos += t.totalTime(TimeUnit.NANOSECONDS);
+            }
+            long deltaCount = count - lastCount;
+            double deltaNanos = totalNanos - lastTotalNanos;
+            lastCount = count;
+            lastTotalNanos = totalNanos;
+            return deltaCount <= 0 ? 0 : (long) (deltaNanos / deltaCount);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.repository.PaymentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mueve a payment_archive los pagos con transactionDate anterior a max-age, en lotes de batch-size filas
+ * por transacción para no bloquear la tabla. Las búsquedas por orden y por transacción siguen
+ * encontrándolos (ver PaymentRepository#findArchivedByOrderId); la paginación, la modificación y el borrado
+ * solo trabajan con payment.
+ */
+@Component
+public class PaymentArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentArchiver.class);
+
+    private final boolean enabled;
+    private final Duration maxAge;
+    private final int batchSize;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PaymentShards paymentShards;
+
+    public PaymentArchiver(@Value("${payment.archive.enabled:false}") boolean enabled,
+                           @Value("${payment.archive.max-age:180d}") Duration maxAge,
+                           @Value("${payment.archive.batch-size:1000}") int batchSize,
+                           JdbcTemplate jdbcTemplate,
+                           PlatformTransactionManager transactionManager,
+                           PaymentShards paymentShards) {
+        this.enabled = enabled;
+        this.maxAge = maxAge;
+        this.batchSize = batchSize;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.paymentShards = paymentShards;
+    }
+
+    public LocalDateTime cutoff() {
+        return LocalDateTime.now().minus(maxAge);
+    }
+
+    @Scheduled(cron = "${payment.archive.cron:0 30 3 * * *}")
+    public void archiveExpired() {
+        if (enabled) {
+            int archived = archiveOlderThan(cutoff());
+            log.info("Archived {} payments older than {}", archived, maxAge);
+        }
+    }
+
+    public int archiveOlderThan(LocalDateTime cutoff) {
+        // Con sharding cada base archiva sus propios pagos en su payment_archive. Mientras se mueve algún shard
+        // lógico no se archiva: el movimiento copia y borra esas mismas filas.
+        int total = 0;
+        for (int database : paymentShards.allDatabases()) {
+            String filter = paymentShards.onDatabase(database, this::olderThanFilter);
+            int moved;
+            try {
+                do {
+                    moved = transactionTemplate.execute(status -> {
+                        paymentShards.bindDatabase(database);
+                        return moveBatch(filter, cutoff);
+                    });
+                    total += moved;
+                } while (moved == batchSize);
+            } catch (ShardMovingException e) {
+                log.warn("Skipped archiving database {}: {}", database, e.getMessage());
+            }
+        }
+        return total;
+    }
+
+    // Con el particionado de V7 (MySQL) se particiona por partition_date, así que la condición va sobre ella para que
+    // solo toque las particiones antiguas. Las filas sin transactionDate no se archivan, con particiones o sin ellas.
+    private String olderThanFilter() {
+        boolean partitioned = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            try (ResultSet columns = connection.getMetaData().getColumns(connection.getCatalog(), null, "payment", "partition_date")) {
+                return columns.next();
+            }
+        }));
+        return partitioned ? "partition_date < ? AND transaction_date IS NOT NULL" : "transaction_date < ?";
+    }
+
+    private int moveBatch(String filter, LocalDateTime cutoff) {
+        // Sin ORDER BY: con particiones la condición solo toca las particiones antiguas, que son justo las que se vacían.
+        List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM payment WHERE " + filter + " LIMIT ?",
+                Long.class, Timestamp.valueOf(cutoff), batchSize);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        List<Object> insertArgs = new ArrayList<>(ids.size() + 1);
+        insertArgs.add(Timestamp.valueOf(LocalDateTime.now()));
+        insertArgs.addAll(ids);
+        jdbcTemplate.update("INSERT INTO payment_archive (" + PaymentRepository.ARCHIVE_COLUMNS + ", archived_at) "
+                + "SELECT " + PaymentRepository.ARCHIVE_COLUMNS + ", ? FROM payment WHERE id IN (" + placeholders + ")",
+                insertArgs.toArray());
+        jdbcTemplate.update("DELETE FROM payment WHERE id IN (" + placeholders + ")", ids.toArray());
+        return ids.size();
+    }
+}
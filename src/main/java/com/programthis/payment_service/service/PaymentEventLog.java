@@ -0,0 +1,552 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.MinorUnitsConverter;
+import com.programthis.payment_service.entity.PaymentMethodConverter;
+import com.programthis.payment_service.entity.PaymentStatusConverter;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Registro local, solo de anexado, de los cambios de estado de los pagos (alta, modificación y baja).
+ * <p>
+ * Cada evento ocupa un registro binario de {@value #RECORD_BYTES} bytes con CRC32 (más bloques de continuación
+ * del mismo tamaño si el orderId no cabe en él), escrito en segmentos
+ * events-&lt;primera secuencia&gt;.log proyectados en memoria. Los segmentos se sincronizan con el disco
+ * cada fsync-batch-size eventos o cada fsync-interval, lo que llegue antes. Un segmento lleno se sella y se
+ * abre otro; la compactación reescribe los sellados dejando solo el último evento de cada pago.
+ * <p>
+ * Solo se anotan cambios ya confirmados (quien llama lo hace tras el commit). Tras cada fsync se guarda en la
+ * propia base (payment_event_log_checkpoint) la secuencia hasta la que ya contiene los cambios de este registro;
+ * al arrancar se reproducen solo los eventos posteriores, que en una base intacta son ninguno o casi ninguno y
+ * tras restaurar una copia de seguridad son los que esta perdió. La reproducción se queda con el último evento de
+ * cada pago y solo lo aplica si su versión es más nueva que la de la fila (otra instancia pudo cambiarla después);
+ * no vuelve a crear pagos que ya estén en payment_archive.
+ * <p>
+ * Un fallo al anotar se registra y no se propaga: el cambio ya está confirmado y quien lo pidió no debe verlo fallar.
+ */
+@Component
+public class PaymentEventLog {
+
+    public enum Type { CREATED, UPDATED, DELETED }
+
+    public static record Event(long sequence, Type type, Payment payment) {}
+
+    static final int RECORD_BYTES = 128;
+    private static final int INLINE_ORDER_ID_BYTES = 64;
+    // order_id es VARCHAR(255): hasta 4 bytes por carácter en UTF-8.
+    private static final int MAX_ORDER_ID_BYTES = 255 * 4;
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Identifica el registro (un directorio, una instancia) en payment_event_log_checkpoint.
+    private static final String LOG_ID_FILE = "log.id";
+    private static final int ARCHIVE_CHUNK_SIZE = 500;
+    private static final Logger log = LoggerFactory.getLogger(PaymentEventLog.class);
+
+    // Disposición del registro (big-endian):
+    //  0 crc32 de los bytes 4..127   4 tipo   5 estado   6 método   7 flags
+    //  8 secuencia   16 id   24 importe en céntimos   32 fecha (microsegundos UTC)
+    // 40 transactionId (16 bytes)   56 longitud de orderId   58 orderId UTF-8 (hasta 64 bytes)   122 versión
+    // Con FLAG_LONG_ORDER_ID el resto del orderId sigue en bloques de continuación de RECORD_BYTES, y el crc32
+    // cubre también esos bloques.
+    private static final int FLAG_TRANSACTION_ID = 1;
+    private static final int FLAG_AMOUNT = 2;
+    private static final int FLAG_DATE = 4;
+    private static final int FLAG_ORDER_ID = 8;
+    private static final int FLAG_VERSION = 16;
+    private static final int FLAG_LONG_ORDER_ID = 32;
+    private static final byte NO_CODE = -1;
+
+    // Mismos códigos que las columnas de payment, así la reproducción no necesita traducir nada.
+    private static final MinorUnitsConverter AMOUNTS = new MinorUnitsConverter();
+    private static final PaymentStatusConverter STATUSES = new PaymentStatusConverter();
+    private static final PaymentMethodConverter METHODS = new PaymentMethodConverter();
+    private static final UuidBinaryConverter TRANSACTION_IDS = new UuidBinaryConverter();
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final int fsyncBatchSize;
+    private final boolean replayOnStartup;
+    private final JdbcTemplate jdbcTemplate;
+    private final List<Path> sealedSegments = new ArrayList<>();
+    private MappedByteBuffer current;
+    private Path currentPath;
+    private long nextSequence = 1;
+    private int syncedPosition;
+    private String logId;
+    private volatile long checkpoint;
+
+    public PaymentEventLog(@Value("${payment.event-log.enabled:false}") boolean enabled,
+                           @Value("${payment.event-log.directory:./data/events}") Path directory,
+                           @Value("${payment.event-log.segment-size:64MB}") DataSize segmentSize,
+                           @Value("${payment.event-log.fsync-batch-size:256}") int fsyncBatchSize,
+                           @Value("${payment.event-log.replay-on-startup:true}") boolean replayOnStartup,
+                           JdbcTemplate jdbcTemplate) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.recordsPerSegment = (int) Math.max(1, Math.min(segmentSize.toBytes(), Integer.MAX_VALUE) / RECORD_BYTES);
+        this.fsyncBatchSize = fsyncBatchSize;
+        this.replayOnStartup = replayOnStartup;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public synchronized void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Event> events = readAll();
+            long lastSequence = events.stream().mapToLong(Event::sequence).max().orElse(0);
+            nextSequence = lastSequence + 1;
+            sealedSegments.addAll(segments());
+            checkpoint = openCheckpoint(lastSequence);
+            if (replayOnStartup && checkpoint < lastSequence) {
+                long after = checkpoint;
+                replay(latestPerPayment(events.stream().filter(event -> event.sequence() > after).toList()));
+                saveCheckpoint(lastSequence);
+            }
+            // Nunca se sigue escribiendo en un segmento de una ejecución anterior: se abre uno nuevo.
+            openSegment(RECORD_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open payment event log in " + directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        long synced;
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            current.force();
+            current = null;
+            synced = nextSequence - 1;
+        }
+        saveCheckpoint(synced);
+    }
+
+    public void append(Type type, Payment payment) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (payment.getId() == null) {
+                throw new IllegalArgumentException("Only persisted payments can be logged");
+            }
+            byte[] record = encode(type, payment);
+            synchronized (this) {
+                if (current.remaining() < record.length) {
+                    rollSegment(record.length);
+                }
+                current.put(seal(record, nextSequence++));
+                if ((current.position() - syncedPosition) / RECORD_BYTES >= fsyncBatchSize) {
+                    sync();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Tras el commit: el pago ya está guardado, solo falta en el registro (una restauración no lo reproduciría).
+            log.error("Cannot log {} event for payment {}", type, payment.getId(), e);
+        }
+    }
+
+    public void appendAll(Type type, List<Payment> payments) {
+        payments.forEach(payment -> append(type, payment));
+    }
+
+    /**
+     * Sincroniza lo anexado y adelanta el punto de control: todo evento ya en disco es de un cambio confirmado.
+     */
+    @Scheduled(fixedDelayString = "${payment.event-log.fsync-interval:PT0.1S}")
+    public void flush() {
+        long synced;
+        synchronized (this) {
+            if (current == null) {
+                return;
+            }
+            if (current.position() > syncedPosition) {
+                sync();
+            }
+            synced = nextSequence - 1;
+        }
+        saveCheckpoint(synced);
+    }
+
+    /**
+     * Reescribe los segmentos sellados en uno solo con el último evento de cada pago. Las bajas se conservan
+     * para que la reproducción borre también los pagos que la base de datos aún tuviera.
+     */
+    @Scheduled(fixedDelayString = "${payment.event-log.compaction-interval:PT10M}",
+            initialDelayString = "${payment.event-log.compaction-interval:PT10M}")
+    public void compact() {
+        List<Path> sealed;
+        synchronized (this) {
+            if (!enabled || sealedSegments.size() < 2) {
+                return;
+            }
+            sealed = List.copyOf(sealedSegments);
+        }
+        try {
+            List<Event> events = new ArrayList<>();
+            for (Path segment : sealed) {
+                read(segment, events);
+            }
+            List<Event> latest = latestPerPayment(events);
+            Path target = sealed.get(0);
+            Path temporary = target.resolveSibling(target.getFileName() + ".compact");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Event event : latest) {
+                    ByteBuffer buffer = ByteBuffer.wrap(seal(encode(event.type(), event.payment()), event.sequence()));
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                channel.force(true);
+            }
+            // La reproducción se queda con la secuencia más alta de cada pago, así que un fallo entre
+            // el reemplazo y el borrado de los demás segmentos solo deja eventos duplicados, no incorrectos.
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Path segment : sealed.subList(1, sealed.size())) {
+                Files.deleteIfExists(segment);
+            }
+            synchronized (this) {
+                sealedSegments.removeAll(sealed);
+                sealedSegments.add(0, target);
+            }
+            log.info("Compacted {} event log segments into {} events", sealed.size(), latest.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot compact payment event log in " + directory, e);
+        }
+    }
+
+    /**
+     * Todos los eventos válidos del registro, segmento a segmento.
+     */
+    public synchronized List<Event> readAll() {
+        List<Event> events = new ArrayList<>();
+        try {
+            for (Path segment : segments()) {
+                read(segment, events);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read payment event log in " + directory, e);
+        }
+        return events;
+    }
+
+    static List<Event> latestPerPayment(List<Event> events) {
+        Map<Long, Event> latest = new LinkedHashMap<>();
+        for (Event event : events) {
+            latest.merge(event.payment().getId(), event,
+                    (previous, candidate) -> candidate.sequence() > previous.sequence() ? candidate : previous);
+        }
+        return latest.values().stream().sorted(Comparator.comparingLong(Event::sequence)).toList();
+    }
+
+    /**
+     * Sin fichero de identificador el registro es nuevo o anterior a los puntos de control: lo que ya tenga se da
+     * por aplicado. Con identificador pero sin fila en la base, la base es anterior al registro y se reproduce entero.
+     */
+    private long openCheckpoint(long lastSequence) throws IOException {
+        Path idFile = directory.resolve(LOG_ID_FILE);
+        if (Files.exists(idFile)) {
+            logId = Files.readString(idFile, StandardCharsets.UTF_8).trim();
+            List<Long> stored = jdbcTemplate.queryForList(
+                    "SELECT last_sequence FROM payment_event_log_checkpoint WHERE log_id = ?", Long.class, logId);
+            if (!stored.isEmpty()) {
+                return stored.get(0);
+            }
+            jdbcTemplate.update("INSERT INTO payment_event_log_checkpoint (log_id, last_sequence) VALUES (?, 0)", logId);
+            return 0;
+        }
+        logId = UUID.randomUUID().toString();
+        jdbcTemplate.update("INSERT INTO payment_event_log_checkpoint (log_id, last_sequence) VALUES (?, ?)", logId, lastSequence);
+        Files.writeString(idFile, logId, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW);
+        return lastSequence;
+    }
+
+    private void saveCheckpoint(long sequence) {
+        if (!enabled || sequence <= checkpoint) {
+            return;
+        }
+        try {
+            jdbcTemplate.update("UPDATE payment_event_log_checkpoint SET last_sequence = ? WHERE log_id = ? AND last_sequence < ?",
+                    sequence, logId, sequence);
+            checkpoint = sequence;
+        } catch (DataAccessException e) {
+            // Se reintenta en el siguiente flush; mientras tanto un arranque reproduciría de más, no de menos.
+            log.warn("Cannot save event log checkpoint {}", sequence, e);
+        }
+    }
+
+    private void replay(List<Event> latest) {
+        Set<Long> archived = archivedIds(latest.stream().map(event -> event.payment().getId()).toList());
+        List<Object[]> upserts = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        int skipped = 0;
+        for (Event event : latest) {
+            Payment payment = event.payment();
+            if (payment.getVersion() == null || archived.contains(payment.getId())) {
+                // Sin versión no hay forma de saber si la fila es más nueva; archivado, ya no debe estar en payment.
+                skipped++;
+            } else if (event.type() == Type.DELETED) {
+                deletes.add(new Object[]{payment.getId(), payment.getVersion()});
+            } else {
+                upserts.add(new Object[]{payment.getId(), payment.getOrderId(),
+                        payment.getAmount() == null ? null : AMOUNTS.convertToDatabaseColumn(payment.getAmount()),
+                        payment.getPaymentMethod() == null ? null : METHODS.convertToDatabaseColumn(payment.getPaymentMethod()),
+                        payment.getPaymentStatus() == null ? null : STATUSES.convertToDatabaseColumn(payment.getPaymentStatus()),
+                        TRANSACTION_IDS.convertToDatabaseColumn(payment.getTransactionId()),
+                        payment.getTransactionDate() == null ? null : Timestamp.valueOf(payment.getTransactionDate()),
+                        payment.getVersion()});
+            }
+        }
+        if (!upserts.isEmpty()) {
+            // Cada columna solo cambia si la versión del evento es mayor; version va la última porque MySQL
+            // evalúa las asignaciones en orden y las siguientes ya verían el valor nuevo.
+            jdbcTemplate.batchUpdate("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, "
+                    + "transaction_id, transaction_date, version) VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+                    + ifNewer("order_id") + ", " + ifNewer("amount_minor") + ", " + ifNewer("payment_method") + ", "
+                    + ifNewer("payment_status") + ", " + ifNewer("transaction_id") + ", " + ifNewer("transaction_date") + ", "
+                    + ifNewer("version"), upserts);
+        }
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM payment WHERE id = ? AND version <= ?", deletes);
+        }
+        if (!latest.isEmpty()) {
+            log.info("Replayed {} payments ({} deleted, {} skipped) from the event log after sequence {}",
+                    latest.size() - skipped, deletes.size(), skipped, checkpoint);
+        }
+    }
+
+    private static String ifNewer(String column) {
+        return column + " = CASE WHEN VALUES(version) > version THEN VALUES(" + column + ") ELSE " + column + " END";
+    }
+
+    private Set<Long> archivedIds(List<Long> ids) {
+        Set<Long> archived = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += ARCHIVE_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + ARCHIVE_CHUNK_SIZE, ids.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            archived.addAll(jdbcTemplate.queryForList("SELECT id FROM payment_archive WHERE id IN (" + placeholders + ")",
+                    Long.class, chunk.toArray()));
+        }
+        return archived;
+    }
+
+    private void sync() {
+        current.force(syncedPosition, current.position() - syncedPosition);
+        syncedPosition = current.position();
+    }
+
+    private void rollSegment(int recordBytes) {
+        current.force();
+        sealedSegments.add(currentPath);
+        try {
+            openSegment(recordBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll payment event log segment in " + directory, e);
+        }
+    }
+
+    // Un registro con bloques de continuación puede no caber en un segmento del tamaño configurado: se agranda.
+    private void openSegment(int recordBytes) throws IOException {
+        currentPath = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(currentPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max((long) recordsPerSegment * RECORD_BYTES, recordBytes));
+        }
+        syncedPosition = 0;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Lee hasta el primer hueco (registro a cero, final de lo escrito) o el primer registro con CRC incorrecto.
+     */
+    private static void read(Path segment, List<Event> events) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            while (true) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+                if (!readFully(channel, buffer)) {
+                    return;
+                }
+                int recordBytes = recordBytes(buffer);
+                if (recordBytes < 0) {
+                    return;
+                }
+                if (recordBytes > RECORD_BYTES) {
+                    buffer = ByteBuffer.allocate(recordBytes).put(buffer.flip());
+                    if (!readFully(channel, buffer)) {
+                        return;
+                    }
+                }
+                Event event = decode(buffer.array());
+                if (event == null) {
+                    return;
+                }
+                events.add(event);
+            }
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            // lee el registro completo
+        }
+        return !buffer.hasRemaining();
+    }
+
+    // Longitud del registro según su cabecera, aún sin comprobar el crc32; -1 si no puede ser un registro.
+    private static int recordBytes(ByteBuffer header) {
+        if ((header.get(7) & FLAG_LONG_ORDER_ID) == 0) {
+            return RECORD_BYTES;
+        }
+        int orderIdBytes = header.getShort(56);
+        return orderIdBytes <= INLINE_ORDER_ID_BYTES || orderIdBytes > MAX_ORDER_ID_BYTES ? -1 : recordBytes(orderIdBytes);
+    }
+
+    private static int recordBytes(int orderIdBytes) {
+        int continuation = Math.max(0, orderIdBytes - INLINE_ORDER_ID_BYTES);
+        return RECORD_BYTES + (continuation + RECORD_BYTES - 1) / RECORD_BYTES * RECORD_BYTES;
+    }
+
+    private static byte[] encode(Type type, Payment payment) {
+        byte[] orderId = payment.getOrderId() == null ? null : payment.getOrderId().getBytes(StandardCharsets.UTF_8);
+        if (orderId != null && orderId.length > MAX_ORDER_ID_BYTES) {
+            throw new IllegalArgumentException("orderId longer than " + MAX_ORDER_ID_BYTES + " bytes cannot be logged");
+        }
+        byte[] record = new byte[orderId == null ? RECORD_BYTES : recordBytes(orderId.length)];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int flags = 0;
+        buffer.put(4, (byte) (type.ordinal() + 1));
+        buffer.put(5, payment.getPaymentStatus() == null ? NO_CODE : STATUSES.convertToDatabaseColumn(payment.getPaymentStatus()));
+        buffer.put(6, payment.getPaymentMethod() == null ? NO_CODE : METHODS.convertToDatabaseColumn(payment.getPaymentMethod()));
+        buffer.putLong(16, payment.getId() == null ? 0 : payment.getId());
+        if (payment.getAmount() != null) {
+            buffer.putLong(24, AMOUNTS.convertToDatabaseColumn(payment.getAmount()));
+            flags |= FLAG_AMOUNT;
+        }
+        if (payment.getTransactionDate() != null) {
+            LocalDateTime date = payment.getTransactionDate();
+            buffer.putLong(32, date.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + date.getNano() / 1_000);
+            flags |= FLAG_DATE;
+        }
+        if (payment.getTransactionId() != null) {
+            buffer.put(40, TRANSACTION_IDS.convertToDatabaseColumn(payment.getTransactionId()));
+            flags |= FLAG_TRANSACTION_ID;
+        }
+        if (orderId != null) {
+            buffer.putShort(56, (short) orderId.length);
+            buffer.put(58, orderId, 0, Math.min(orderId.length, INLINE_ORDER_ID_BYTES));
+            if (orderId.length > INLINE_ORDER_ID_BYTES) {
+                buffer.put(RECORD_BYTES, orderId, INLINE_ORDER_ID_BYTES, orderId.length - INLINE_ORDER_ID_BYTES);
+                flags |= FLAG_LONG_ORDER_ID;
+            }
+            flags |= FLAG_ORDER_ID;
+        }
+        if (payment.getVersion() != null) {
+            buffer.putInt(122, Math.toIntExact(payment.getVersion()));
+            flags |= FLAG_VERSION;
+        }
+        buffer.put(7, (byte) flags);
+        return record;
+    }
+
+    private static byte[] seal(byte[] record, long sequence) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putLong(8, sequence);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, record.length - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        return record;
+    }
+
+    private static Event decode(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, record.length - 4);
+        int typeCode = buffer.get(4);
+        if (typeCode < 1 || typeCode > Type.values().length || buffer.getInt(0) != (int) crc.getValue()) {
+            return null;
+        }
+        int flags = buffer.get(7);
+        Payment payment = new Payment();
+        payment.setId(buffer.getLong(16));
+        byte status = buffer.get(5);
+        payment.setPaymentStatus(status == NO_CODE ? null : STATUSES.convertToEntityAttribute(status));
+        byte method = buffer.get(6);
+        payment.setPaymentMethod(method == NO_CODE ? null : METHODS.convertToEntityAttribute(method));
+        if ((flags & FLAG_AMOUNT) != 0) {
+            payment.setAmount(AMOUNTS.convertToEntityAttribute(buffer.getLong(24)));
+        }
+        if ((flags & FLAG_DATE) != 0) {
+            long micros = buffer.getLong(32);
+            payment.setTransactionDate(LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                    (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC));
+        }
+        if ((flags & FLAG_TRANSACTION_ID) != 0) {
+            payment.setTransactionId(TRANSACTION_IDS.convertToEntityAttribute(Arrays.copyOfRange(record, 40, 56)));
+        }
+        if ((flags & FLAG_LONG_ORDER_ID) != 0) {
+            byte[] orderId = new byte[buffer.getShort(56)];
+            System.arraycopy(record, 58, orderId, 0, INLINE_ORDER_ID_BYTES);
+            System.arraycopy(record, RECORD_BYTES, orderId, INLINE_ORDER_ID_BYTES, orderId.length - INLINE_ORDER_ID_BYTES);
+            payment.setOrderId(new String(orderId, StandardCharsets.UTF_8));
+        } else if ((flags & FLAG_ORDER_ID) != 0) {
+            payment.setOrderId(new String(record, 58, buffer.getShort(56), StandardCharsets.UTF_8));
+        }
+        if ((flags & FLAG_VERSION) != 0) {
+            payment.setVersion((long) buffer.getInt(122));
+        }
+        return new Event(buffer.getLong(8), Type.values()[typeCode - 1], payment);
+    }
+}
@@ -0,0 +1,38 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.entity.Payment;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reserva el id de un pago antes de guardarlo, con el mismo generador de tabla (y el mismo bloque en memoria) que
+ * usa Hibernate al insertar. Lo usa la escritura diferida, que responde al cliente antes del INSERT.
+ */
+@Component
+public class PaymentIdAllocator {
+
+    private final SessionFactoryImplementor sessionFactory;
+    private final BeforeExecutionGenerator generator;
+
+    public PaymentIdAllocator(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        this.generator = (BeforeExecutionGenerator) sessionFactory.getMappingMetamodel()
+                .getEntityDescriptor(Payment.class).getGenerator();
+    }
+
+    public Payment assign(Payment payment) {
+        if (payment.getId() == null) {
+            // El generador lee y avanza payment_id_generator en su propia transacción cuando se agota el bloque.
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                payment.setId((Long) generator.generate((SharedSessionContractImplementor) session, payment, null,
+                        EventType.INSERT));
+            }
+        }
+        return payment;
+    }
+}
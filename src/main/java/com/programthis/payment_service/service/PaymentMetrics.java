@@ -0,0 +1,69 @@
+package com.programthis.payment_service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Métricas del camino de procesamiento de pagos. Las etiquetas son siempre de cardinalidad baja
+ * (estado, resultado); nunca orderId ni transactionId.
+ */
+@Component
+public class PaymentMetrics {
+
+    public static final String GATEWAY_TIMER = "payment.gateway.duration";
+    public static final String PERSIST_TIMER = "payment.persist.duration";
+    public static final String ASSEMBLY_TIMER = "payment.response.assembly.duration";
+    public static final String OUTCOME_COUNTER = "payment.outcome";
+
+    private final MeterRegistry registry;
+    private final Timer persistTimer;
+    private final Timer assemblyTimer;
+    private final ConcurrentMap<String, Counter> outcomeCounters = new ConcurrentHashMap<>();
+
+    public PaymentMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.persistTimer = Timer.builder(PERSIST_TIMER)
+                .description("Tiempo de guardado del pago en la base de datos")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.assemblyTimer = Timer.builder(ASSEMBLY_TIMER)
+                .description("Tiempo de construcción del modelo HATEOAS de la respuesta")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public Timer.Sample startGateway() {
+        return Timer.start(registry);
+    }
+
+    public void stopGateway(Timer.Sample sample, String outcome) {
+        sample.stop(Timer.builder(GATEWAY_TIMER)
+                .description("Tiempo de respuesta de la pasarela de pago")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    public <T> T timePersist(Supplier<T> persist) {
+        return persistTimer.record(persist);
+    }
+
+    public <T> T timeAssembly(Supplier<T> assembly) {
+        return assemblyTimer.record(assembly);
+    }
+
+    public void recordOutcome(String paymentStatus) {
+        String status = paymentStatus == null ? "UNKNOWN" : paymentStatus;
+        outcomeCounters.computeIfAbsent(status, s -> Counter.builder(OUTCOME_COUNTER)
+                        .description("Pagos procesados por estado final")
+                        .tag("status", s)
+                        .register(registry))
+                .increment();
+    }
+}
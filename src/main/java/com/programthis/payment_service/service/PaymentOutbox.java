@@ -0,0 +1,177 @@
+package com.programthis.payment_service.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.outbox.OutboxEvent;
+import com.programthis.payment_service.outbox.OutboxSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bandeja de salida transaccional (desactivada por defecto). Las altas, modificaciones y bajas escriben su evento
+ * en payment_outbox dentro de la misma transacción que el cambio del pago, así que un evento existe si y solo si
+ * el cambio se confirmó.
+ * <p>
+ * El relé lee lotes de batch-size filas con SELECT ... FOR UPDATE SKIP LOCKED, los entrega al {@link OutboxSink}
+ * y los borra, todo en una transacción. Varias instancias pueden ejecutar el relé a la vez: cada una se salta
+ * las filas que otra ya tiene bloqueadas, así que ningún evento se entrega dos veces salvo si el commit falla
+ * después del envío. El orden es el de id dentro de cada lote, pero no entre lotes de instancias distintas:
+ * los consumidores deben usar la versión del pago del payload para ordenar los eventos de un mismo pago.
+ */
+@Component
+public class PaymentOutbox implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentOutbox.class);
+
+    private static final String INSERT = "INSERT INTO payment_outbox (payment_id, order_id, event_type, payload, created_at) "
+            + "VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_BATCH = "SELECT id, payment_id, order_id, event_type, payload, created_at "
+            + "FROM payment_outbox ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final OutboxSink sink;
+    private final PaymentShards paymentShards;
+    private Counter published;
+    private Counter failures;
+    private Timer lag;
+
+    public PaymentOutbox(@Value("${payment.outbox.enabled:false}") boolean enabled,
+                         @Value("${payment.outbox.batch-size:500}") int batchSize,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         ObjectMapper objectMapper,
+                         OutboxSink sink,
+                         PaymentShards paymentShards) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.sink = sink;
+        this.paymentShards = paymentShards;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(PaymentEventLog.Type type, Payment payment) {
+        appendAll(type, List.of(payment));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void appendAll(PaymentEventLog.Type type, Collection<Payment> payments) {
+        if (!enabled || payments.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        jdbcTemplate.batchUpdate(INSERT, payments, payments.size(), (ps, payment) -> {
+            ps.setLong(1, payment.getId());
+            ps.setString(2, payment.getOrderId());
+            ps.setString(3, type.name());
+            ps.setString(4, toJson(payment));
+            ps.setTimestamp(5, now);
+        });
+    }
+
+    private String toJson(Payment payment) {
+        try {
+            return objectMapper.writeValueAsString(payment);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize payment " + payment.getId(), e);
+        }
+    }
+
+    /**
+     * Publica lotes mientras salgan completos, base a base: cada evento está en la base de su pago. Si el destino falla, el lote se deshace y se reintenta en la siguiente pasada.
+     */
+    @Scheduled(fixedDelayString = "${payment.outbox.poll-interval:PT0.5S}")
+    public void relay() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            paymentShards.forEachDatabase(() -> {
+                while (relayBatch() == batchSize) {
+                    // Quedan más eventos pendientes: se sigue sin esperar al siguiente intervalo.
+                }
+            });
+        } catch (RuntimeException e) {
+            if (failures != null) {
+                failures.increment();
+            }
+            log.warn("Outbox relay failed, retrying on the next run", e);
+        }
+    }
+
+    public int relayBatch() {
+        return transactionTemplate.execute(status -> {
+            List<OutboxEvent> events = jdbcTemplate.query(SELECT_BATCH, (rs, row) -> new OutboxEvent(
+                    rs.getLong("id"),
+                    rs.getLong("payment_id"),
+                    rs.getString("order_id"),
+                    rs.getString("event_type"),
+                    rs.getString("payload"),
+                    rs.getTimestamp("created_at").toLocalDateTime()), batchSize);
+            if (events.isEmpty()) {
+                return 0;
+            }
+            sink.publish(events);
+            List<Object> ids = events.stream().<Object>map(OutboxEvent::id).toList();
+            jdbcTemplate.update("DELETE FROM payment_outbox WHERE id IN ("
+                    + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", ids.toArray());
+            record(events);
+            return events.size();
+        });
+    }
+
+    private void record(List<OutboxEvent> events) {
+        if (published == null) {
+            return;
+        }
+        published.increment(events.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (OutboxEvent event : events) {
+            lag.record(Duration.between(event.createdAt(), now));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        published = Counter.builder("payment.outbox.published")
+                .description("Eventos de la bandeja de salida entregados al destino")
+                .register(registry);
+        failures = Counter.builder("payment.outbox.failures")
+                .description("Pasadas del relé de la bandeja de salida que fallaron")
+                .register(registry);
+        lag = Timer.builder("payment.outbox.lag")
+                .description("Tiempo entre la escritura de un evento y su entrega al destino")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
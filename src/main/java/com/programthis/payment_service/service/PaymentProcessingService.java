@@ -1,65 +1,649 @@
 package com.programthis.payment_service.service;
 
+import com.programthis.payment_service.entity.MinorUnitsConverter;
 import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentMethod;
+import com.programthis.payment_service.entity.PaymentStatus;
+import com.programthis.payment_service.entity.PaymentTransition;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import com.programthis.payment_service.gateway.GatewayResult;
+import com.programthis.payment_service.gateway.PaymentGateway;
 import com.programthis.payment_service.repository.PaymentRepository;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class PaymentProcessingService {
 
+    private static final Logger log = LoggerFactory.getLogger(PaymentProcessingService.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final int MAX_LOOKUP_SIZE = 1000;
+    // Claves por sentencia IN (...) en las consultas de estado en bloque.
+    static final int LOOKUP_CHUNK_SIZE = 500;
+    private static final MinorUnitsConverter AMOUNT_CHECK = new MinorUnitsConverter();
+    // Filas por lote y base al recorrer todos los pagos con sharding.
+    static final int STREAM_BATCH_SIZE = 500;
+    // Mismo orden que las consultas de página: transactionDate nulo primero.
+    private static final Comparator<Payment> PAGE_ORDER =
+            Comparator.comparing(Payment::getTransactionDate, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(Payment::getId);
+
     @Autowired
     private PaymentRepository paymentRepository;
 
+    @Autowired
+    private PaymentStatusCache paymentStatusCache;
+
+    @Autowired
+    private PaymentStatistics paymentStatistics;
+
+    @Autowired
+    private GatewayCallPolicy gatewayCallPolicy;
+
+    @Autowired
+    private ReplicaReads replicaReads;
+
+    @Autowired
+    private PaymentShards paymentShards;
+
+    @Autowired
+    private PaymentGateway paymentGateway;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private PaymentMetrics paymentMetrics;
+
+    @Autowired
+    private PaymentWriteBehind paymentWriteBehind;
+
+    @Autowired
+    private PaymentEventLog paymentEventLog;
+
+    @Autowired
+    private PaymentStatusNotifier paymentStatusNotifier;
+
+    @Autowired
+    private PaymentOutbox paymentOutbox;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    @Qualifier("paymentExecutor")
+    private Executor paymentExecutor;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Pagos PENDING por timeout de la pasarela, hasta que se guardan, con el futuro de su respuesta tardía.
+    // Payment no redefine equals, así que las claves son por identidad.
+    private final Map<Payment, CompletableFuture<?>> lateAuthorizations = new ConcurrentHashMap<>();
+
     public static record PaymentRequest(String orderId, BigDecimal amount, String paymentMethodDetails) {}
 
+    // Elemento del lote que no quedó guardado: index es su posición en la petición. retryable indica que la pasarela
+    // estaba ocupada o no respondió, o su shard se estaba moviendo, y el cliente puede reintentarlo.
+    public static record BatchFailure(int index, String orderId, boolean retryable, String error) {}
+
+    // Pagos guardados, en el orden de la petición, y elementos que fallaron.
+    public static record BatchResult(List<Payment> payments, List<BatchFailure> failures) {}
+
+    private static record BatchItem(int index, String orderId, Payment payment, Throwable error) {}
+
+    public static record PaymentPage(List<Payment> payments, String nextCursor) {}
+
+    public static record StatusLookupRequest(List<String> orderIds, List<String> transactionIds) {}
+
+    public static record PaymentStatusView(Long id, String orderId, String transactionId, String paymentStatus) {}
+
+    // Encontrados por clave (en el orden de la petición) y, aparte, las claves sin pago.
+    public static record StatusLookupResult(Map<String, PaymentStatusView> orders,
+                                            Map<String, PaymentStatusView> transactions,
+                                            List<String> missingOrderIds,
+                                            List<String> missingTransactionIds) {}
+
+    // Campos a null = no se modifican. version es la que el cliente leyó y es obligatoria.
+    public static record PaymentPatch(String orderId, BigDecimal amount, String paymentMethod, String paymentStatus,
+                                      String transactionId, LocalDateTime transactionDate, Long version) {}
+
     public Payment processPayment(PaymentRequest paymentRequest) {
+        return await(processPaymentAsync(paymentRequest));
+    }
+
+    public CompletableFuture<Payment> processPaymentAsync(PaymentRequest paymentRequest, String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return processPaymentAsync(paymentRequest);
+        }
+        String fingerprint = IdempotencyStore.fingerprint(
+                paymentRequest.orderId(), paymentRequest.amount(), paymentRequest.paymentMethodDetails());
+        return idempotencyStore.execute(idempotencyKey, paymentRequest.orderId(), fingerprint,
+                () -> processPaymentAsync(paymentRequest));
+    }
+
+    public CompletableFuture<Payment> processPaymentAsync(PaymentRequest paymentRequest) {
+        if (paymentWriteBehind.isEnabled()) {
+            // Escritura diferida: el escritor agrupa los pagos en lotes; se vuelve al paymentExecutor para no ocuparlo.
+            return runGatewayStep(paymentRequest)
+                    .thenCompose(payment -> paymentWriteBehind.submit(payment).whenComplete((saved, error) -> {
+                        if (error != null) {
+                            abandonLateAuthorization(payment);
+                        }
+                    }))
+                    .thenApplyAsync(this::onSaved, paymentExecutor);
+        }
+        // La pasarela responde sin ocupar el hilo de la petición; el guardado (JDBC bloqueante)
+        // continúa en un hilo virtual del paymentExecutor.
+        return runGatewayStep(paymentRequest)
+                .thenApplyAsync(payment -> {
+                    // El evento de la bandeja de salida se escribe en la misma transacción que el pago.
+                    Payment saved;
+                    try {
+                        paymentShards.registerTransaction(payment.getTransactionId(), payment.getOrderId());
+                        saved = paymentMetrics.timePersist(() -> transactionTemplate.execute(status -> {
+                            paymentShards.bindOrder(payment.getOrderId());
+                            Payment persisted = paymentRepository.save(payment);
+                            paymentOutbox.append(PaymentEventLog.Type.CREATED, persisted);
+                            return persisted;
+                        }));
+                    } catch (RuntimeException e) {
+                        abandonLateAuthorization(payment);
+                        throw e;
+                    }
+                    paymentEventLog.append(PaymentEventLog.Type.CREATED, saved);
+                    return onSaved(saved);
+                }, paymentExecutor);
+    }
+
+    public BatchResult processPayments(List<PaymentRequest> paymentRequests) {
+        if (paymentRequests == null || paymentRequests.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one payment");
+        }
+        if (paymentRequests.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch exceeds the maximum of " + MAX_BATCH_SIZE + " payments");
+        }
+        // Todas las autorizaciones se lanzan a la vez; el lote tarda lo que la más lenta. Un error de pasarela
+        // solo afecta a su elemento: el resto se guarda igual.
+        List<CompletableFuture<BatchItem>> pending = IntStream.range(0, paymentRequests.size())
+                .mapToObj(index -> runGatewayStep(paymentRequests.get(index))
+                        .handle((payment, error) -> new BatchItem(index, paymentRequests.get(index).orderId(), payment, error)))
+                .toList();
+        List<BatchItem> items = pending.stream().map(CompletableFuture::join).toList();
+        // Una transacción por base: Hibernate envía los pagos como INSERT por lotes al hacer flush, junto con sus eventos.
+        // Con sharding las bases se escriben en paralelo y el lote deja de ser atómico entre ellas: si una falla,
+        // sus pagos se informan como fallidos y los de las demás quedan guardados.
+        Map<Integer, List<BatchItem>> byDatabase = items.stream()
+                .filter(item -> item.payment() != null)
+                .collect(Collectors.groupingBy(item -> paymentShards.databaseOfOrder(item.orderId()),
+                        TreeMap::new, Collectors.toList()));
+        Map<Integer, Throwable> saveErrors = paymentMetrics.timePersist(() -> {
+            Map<Integer, CompletableFuture<Throwable>> saves = new TreeMap<>();
+            byDatabase.forEach((database, group) -> saves.put(database, byDatabase.size() == 1
+                    ? CompletableFuture.completedFuture(saveBatch(database, group))
+                    : CompletableFuture.supplyAsync(() -> saveBatch(database, group), paymentExecutor)));
+            Map<Integer, Throwable> errors = new HashMap<>();
+            saves.forEach((database, save) -> Optional.ofNullable(save.join()).ifPresent(error -> errors.put(database, error)));
+            return errors;
+        });
+        // Por el grupo en que se guardó cada pago: el mapa de shards puede haber cambiado desde entonces.
+        Map<Integer, Throwable> saveErrorByIndex = new HashMap<>();
+        byDatabase.forEach((database, group) -> Optional.ofNullable(saveErrors.get(database))
+                .ifPresent(error -> group.forEach(item -> saveErrorByIndex.put(item.index(), error))));
+        List<Payment> saved = new ArrayList<>();
+        List<BatchFailure> failures = new ArrayList<>();
+        for (BatchItem item : items) {
+            Throwable error = item.payment() == null ? item.error() : saveErrorByIndex.get(item.index());
+            if (error == null) {
+                saved.add(item.payment());
+            } else {
+                if (item.payment() != null) {
+                    abandonLateAuthorization(item.payment());
+                }
+                Throwable cause = GatewayCircuitBreaker.unwrap(error);
+                failures.add(new BatchFailure(item.index(), item.orderId(),
+                        cause instanceof GatewayBusyException || cause instanceof ShardMovingException, cause.getMessage()));
+            }
+        }
+        paymentEventLog.appendAll(PaymentEventLog.Type.CREATED, saved);
+        saved.forEach(this::onSaved);
+        return new BatchResult(saved, failures);
+    }
+
+    // Guarda los pagos de una base y devuelve el error en vez de lanzarlo, para no perder los de las otras.
+    private Throwable saveBatch(int database, List<BatchItem> items) {
+        List<Payment> payments = items.stream().map(BatchItem::payment).toList();
+        try {
+            Map<String, String> orderIdByTransactionId = new HashMap<>();
+            payments.stream().filter(payment -> payment.getTransactionId() != null)
+                    .forEach(payment -> orderIdByTransactionId.put(payment.getTransactionId(), payment.getOrderId()));
+            paymentShards.registerTransactions(orderIdByTransactionId);
+            transactionTemplate.execute(status -> {
+                paymentShards.bindOrders(items.stream().map(BatchItem::orderId).toList());
+                paymentRepository.saveAll(payments);
+                paymentOutbox.appendAll(PaymentEventLog.Type.CREATED, payments);
+                return null;
+            });
+            return null;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    private Payment onSaved(Payment saved) {
+        paymentStatusCache.put(saved);
+        replicaReads.recordWrite(saved);
+        paymentStatistics.recordCreated(saved);
+        paymentMetrics.recordOutcome(saved.getPaymentStatus());
+        paymentStatusNotifier.publish(saved);
+        // JPA guarda la misma instancia que se le pasa, así que el pago PENDING se encuentra por identidad.
+        CompletableFuture<?> lateAnswer = lateAuthorizations.remove(saved);
+        if (lateAnswer != null) {
+            lateAnswer.whenCompleteAsync((answer, error) -> settleLateAuthorization(saved, answer, error), paymentExecutor);
+        }
+        return saved;
+    }
+
+    /**
+     * Concilia un pago que quedó PENDING porque la pasarela no respondió a tiempo: con su respuesta tardía pasa a
+     * COMPLETED (con su transactionId) o a FAILED, por PATCH sobre la versión guardada. Si entretanto el pago
+     * cambió (por ejemplo, se anuló) no se toca y una aprobación tardía queda en el log para anularla en la pasarela.
+     */
+    private void settleLateAuthorization(Payment pending, Object answer, Throwable error) {
+        GatewayResult result = error == null && answer instanceof GatewayResult gatewayResult ? gatewayResult : null;
+        boolean approved = result != null && result.approved();
+        PaymentPatch patch = approved
+                ? new PaymentPatch(null, null, null, PaymentStatus.COMPLETED.name(),
+                        result.transactionId(), null, pending.getVersion())
+                : new PaymentPatch(null, null, null, PaymentStatus.FAILED.name(), null, null, pending.getVersion());
+        try {
+            transactionTemplate.execute(status -> patchPayment(pending.getId(), patch));
+        } catch (RuntimeException e) {
+            if (approved) {
+                log.warn("Late gateway approval {} for payment {} could not be recorded ({}); void it at the gateway",
+                        result.transactionId(), pending.getId(), e.getMessage());
+            }
+        }
+    }
 
+    // El pago PENDING no llegó a guardarse: si la pasarela lo aprueba después no hay fila que conciliar.
+    private void abandonLateAuthorization(Payment payment) {
+        CompletableFuture<?> lateAnswer = lateAuthorizations.remove(payment);
+        if (lateAnswer != null) {
+            lateAnswer.thenAccept(answer -> {
+                if (answer instanceof GatewayResult result && result.approved()) {
+                    log.warn("Late gateway approval {} for unsaved order {}; void it at the gateway",
+                            result.transactionId(), payment.getOrderId());
+                }
+            });
+        }
+    }
+
+    private CompletableFuture<Payment> runGatewayStep(PaymentRequest paymentRequest) {
         Payment payment = new Payment();
         payment.setOrderId(paymentRequest.orderId());
         payment.setAmount(paymentRequest.amount());
-        payment.setPaymentMethod("PROCESSED_METHOD"); // Se puede mejorar en una versión futura
+        payment.setPaymentMethod(PaymentMethod.PROCESSED_METHOD.name()); // Se puede mejorar en una versión futura
         payment.setTransactionDate(LocalDateTime.now());
 
-        boolean paymentSuccessful = simulatePaymentGatewayInteraction(paymentRequest.paymentMethodDetails());
+        // Si la pasarela no responde a tiempo la autorización sigue en curso y puede aprobarse después: el pago se
+        // guarda PENDING y se concilia con la respuesta tardía en vez de perderla (ver onSaved).
+        // El tiempo se mide desde el primer intento, con el permiso ya concedido: la espera en el limitador no es
+        // latencia de la pasarela y el LoadShedder la confundiría con una pasarela lenta.
+        AtomicReference<Timer.Sample> gatewaySample = new AtomicReference<>();
+        return gatewayCallPolicy.callAsync(() -> {
+                    gatewaySample.compareAndSet(null, paymentMetrics.startGateway());
+                    return paymentGateway.authorize(
+                            paymentRequest.orderId(), paymentRequest.amount(), paymentRequest.paymentMethodDetails());
+                })
+                .whenComplete((result, error) -> {
+                    if (gatewaySample.get() != null) {
+                        paymentMetrics.stopGateway(gatewaySample.get(),
+                                error != null ? "error" : result.approved() ? "approved" : "declined");
+                    }
+                })
+                .handle((result, error) -> {
+                    if (error != null) {
+                        if (GatewayCircuitBreaker.unwrap(error) instanceof GatewayTimeoutException timeout
+                                && !timeout.lateAnswers().isEmpty()) {
+                            payment.setPaymentStatus(PaymentStatus.PENDING.name());
+                            lateAuthorizations.put(payment, firstApproval(timeout.lateAnswers()));
+                            return payment;
+                        }
+                        throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                    }
+                    if (result.approved()) {
+                        payment.setPaymentStatus(PaymentStatus.COMPLETED.name());
+                        payment.setTransactionId(result.transactionId());
+                    } else {
+                        payment.setPaymentStatus(PaymentStatus.FAILED.name());
+                    }
+                    return payment;
+                });
+    }
 
-        if (paymentSuccessful) {
-            payment.setPaymentStatus("COMPLETED");
-            payment.setTransactionId(UUID.randomUUID().toString());
-        } else {
-            payment.setPaymentStatus("FAILED");
+    // Con hedging pueden seguir en curso varios intentos: cuenta el primero que apruebe y, si ninguno lo hace,
+    // la última respuesta.
+    private static CompletableFuture<Object> firstApproval(List<CompletableFuture<?>> answers) {
+        CompletableFuture<Object> first = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(answers.size());
+        for (CompletableFuture<?> answer : answers) {
+            answer.whenComplete((value, error) -> {
+                if (value instanceof GatewayResult result && result.approved()) {
+                    first.complete(result);
+                } else if (pending.decrementAndGet() == 0) {
+                    if (error != null) {
+                        first.completeExceptionally(error);
+                    } else {
+                        first.complete(value);
+                    }
+                }
+            });
         }
-        return paymentRepository.save(payment);
+        return first;
     }
 
-    private boolean simulatePaymentGatewayInteraction(String paymentMethodDetails) {
-        // En una app real, aquí se integraría con una pasarela de pago.
-        // La simulación hace que falle si los detalles contienen "fail".
-        return paymentMethodDetails == null || !paymentMethodDetails.contains("fail");
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
     }
 
     public Payment getPaymentStatusByOrderId(String orderId) {
-        return paymentRepository.findByOrderId(orderId)
+        return paymentStatusCache.getByOrderId(orderId,
+                        key -> replicaReads.byOrderId(key, () -> paymentShards.onOrder(key,
+                                () -> paymentRepository.findFirstByOrderIdOrderByIdDesc(key).or(() -> paymentRepository.findArchivedByOrderId(key)))))
                 .orElseThrow(() -> new RuntimeException("Payment not found for order ID: " + orderId));
     }
 
     public Payment getPaymentByTransactionId(String transactionId) {
-        return paymentRepository.findByTransactionId(transactionId)
+        return paymentStatusCache.getByTransactionId(transactionId,
+                        key -> replicaReads.byTransactionId(key, () -> paymentShards.findByTransaction(
+                                key, () -> paymentRepository.findByTransactionId(key).or(() -> paymentRepository.findArchivedByTransactionId(key)))))
                 .orElseThrow(() -> new RuntimeException("Payment not found for transaction ID: " + transactionId));
     }
 
+    /**
+     * Consulta de estado de muchos pagos en una llamada. Primero se resuelve lo que haya en la caché; las claves
+     * que faltan se cargan juntas, con una sentencia IN (...) por cada LOOKUP_CHUNK_SIZE claves (y otra sobre
+     * payment_archive solo para las que sigan sin aparecer), y quedan en la caché igual que en la consulta individual.
+     */
+    public StatusLookupResult lookupStatuses(StatusLookupRequest request) {
+        List<String> orderIds = distinctKeys(request == null ? null : request.orderIds());
+        List<String> transactionIds = distinctKeys(request == null ? null : request.transactionIds());
+        if (orderIds.isEmpty() && transactionIds.isEmpty()) {
+            throw new IllegalArgumentException("Lookup must contain at least one orderId or transactionId");
+        }
+        if (orderIds.size() + transactionIds.size() > MAX_LOOKUP_SIZE) {
+            throw new IllegalArgumentException("Lookup exceeds the maximum of " + MAX_LOOKUP_SIZE + " keys");
+        }
+
+        Map<String, PaymentStatusView> orders = new LinkedHashMap<>();
+        List<String> missingOrderIds = new ArrayList<>();
+        if (!orderIds.isEmpty()) {
+            Map<String, Optional<Payment>> cached = paymentStatusCache.getAllByOrderId(orderIds,
+                    keys -> replicaReads.byOrderIds(keys, () -> perDatabase(keys, paymentShards::databaseOfOrder, this::loadByOrderIds)));
+            for (String orderId : orderIds) {
+                cached.getOrDefault(orderId, Optional.empty()).ifPresentOrElse(
+                        payment -> orders.put(orderId, toStatusView(payment)), () -> missingOrderIds.add(orderId));
+            }
+        }
+
+        Map<String, PaymentStatusView> transactions = new LinkedHashMap<>();
+        List<String> missingTransactionIds = new ArrayList<>();
+        if (!transactionIds.isEmpty()) {
+            Map<String, Optional<Payment>> cached = paymentStatusCache.getAllByTransactionId(transactionIds,
+                    keys -> replicaReads.byTransactionIds(keys, () -> loadByTransactionIdsSharded(keys)));
+            for (String transactionId : transactionIds) {
+                cached.getOrDefault(transactionId, Optional.empty()).ifPresentOrElse(
+                        payment -> transactions.put(transactionId, toStatusView(payment)), () -> missingTransactionIds.add(transactionId));
+            }
+        }
+        return new StatusLookupResult(orders, transactions, missingOrderIds, missingTransactionIds);
+    }
+
+    private static List<String> distinctKeys(List<String> keys) {
+        if (keys == null) {
+            return List.of();
+        }
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (key == null || key.isBlank()) {
+                throw new IllegalArgumentException("Lookup keys must not be blank");
+            }
+            distinct.add(key);
+        }
+        return List.copyOf(distinct);
+    }
+
+    private static PaymentStatusView toStatusView(Payment payment) {
+        return new PaymentStatusView(payment.getId(), payment.getOrderId(), payment.getTransactionId(), payment.getPaymentStatus());
+    }
+
+    /**
+     * Con sharding, las claves se agrupan por base y cada grupo se carga en la suya; sin sharding hay un solo grupo.
+     */
+    private Map<String, Optional<Payment>> perDatabase(Set<? extends String> keys, Function<String, Integer> databaseOf,
+                                                       Function<Set<String>, Map<String, Optional<Payment>>> load) {
+        Map<Integer, Set<String>> groups = new TreeMap<>();
+        keys.forEach(key -> groups.computeIfAbsent(databaseOf.apply(key), database -> new LinkedHashSet<>()).add(key));
+        Map<String, Optional<Payment>> loaded = new HashMap<>();
+        groups.forEach((database, group) -> loaded.putAll(paymentShards.onDatabase(database, () -> load.apply(group))));
+        return loaded;
+    }
+
+    // El transactionId es el de la pasarela y no dice en qué base está: las claves del directorio de transacciones se
+    // cargan en su base, y solo las demás (o las que no aparecen donde dice el directorio) en todas a la vez.
+    private Map<String, Optional<Payment>> loadByTransactionIdsSharded(Set<? extends String> keys) {
+        Map<String, Integer> located = paymentShards.databasesOfTransactions(keys);
+        Map<String, Optional<Payment>> loaded = new HashMap<>(perDatabase(located.keySet(), located::get, this::loadByTransactionIds));
+        Set<String> rest = keys.stream().filter(key -> loaded.getOrDefault(key, Optional.empty()).isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (!rest.isEmpty()) {
+            paymentShards.scatter(() -> loadByTransactionIds(rest)).forEach(found -> found.forEach(
+                    (key, payment) -> loaded.merge(key, payment, (current, other) -> current.isPresent() ? current : other)));
+        }
+        return loaded;
+    }
+
+    private Map<String, Optional<Payment>> loadByOrderIds(Set<? extends String> keys) {
+        Map<String, Optional<Payment>> loaded = new HashMap<>();
+        for (List<String> chunk : chunks(List.copyOf(keys))) {
+            paymentRepository.findByOrderIdIn(chunk).forEach(payment -> putLatest(loaded, payment.getOrderId(), payment));
+        }
+        List<String> notFound = keys.stream().filter(key -> !loaded.containsKey(key)).map(String::valueOf).toList();
+        for (List<String> chunk : chunks(notFound)) {
+            paymentRepository.findArchivedByOrderIdIn(chunk).forEach(payment -> putLatest(loaded, payment.getOrderId(), payment));
+        }
+        keys.forEach(key -> loaded.putIfAbsent(key, Optional.empty()));
+        return loaded;
+    }
+
+    private Map<String, Optional<Payment>> loadByTransactionIds(Set<? extends String> keys) {
+        Map<String, Optional<Payment>> loaded = new HashMap<>();
+        // Una clave que no es un UUID no puede estar guardada: se da por no encontrada sin consultar.
+        List<String> valid = keys.stream().filter(PaymentProcessingService::isUuid).map(String::valueOf).toList();
+        for (List<String> chunk : chunks(valid)) {
+            paymentRepository.findByTransactionIdIn(chunk).forEach(payment -> loaded.put(payment.getTransactionId(), Optional.of(payment)));
+        }
+        List<String> notFound = valid.stream().filter(key -> !loaded.containsKey(key)).toList();
+        UuidBinaryConverter converter = new UuidBinaryConverter();
+        for (List<String> chunk : chunks(notFound)) {
+            List<byte[]> binary = chunk.stream().map(converter::convertToDatabaseColumn).toList();
+            paymentRepository.findArchivedByTransactionIdIn(binary)
+                    .forEach(payment -> loaded.put(payment.getTransactionId(), Optional.of(payment)));
+        }
+        keys.forEach(key -> loaded.putIfAbsent(key, Optional.empty()));
+        return loaded;
+    }
+
+    // Un orderId puede tener varios intentos de pago; se informa del más reciente.
+    private static void putLatest(Map<String, Optional<Payment>> loaded, String key, Payment payment) {
+        loaded.merge(key, Optional.of(payment),
+                (current, candidate) -> candidate.get().getId() > current.get().getId() ? candidate : current);
+    }
+
+    private static List<List<String>> chunks(List<String> keys) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += LOOKUP_CHUNK_SIZE) {
+            chunks.add(keys.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, keys.size())));
+        }
+        return chunks;
+    }
+
+    private static boolean isUuid(String value) {
+        try {
+            UUID.fromString(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Transactional(readOnly = true)
     public List<Payment> getAllPayments() {
-        return paymentRepository.findAll();
+        if (!paymentShards.isEnabled()) {
+            return paymentRepository.findAll();
+        }
+        return PaymentShards.merge(paymentShards.scatter(() -> paymentRepository.findAll(Sort.by("transactionDate", "id"))),
+                PAGE_ORDER, Integer.MAX_VALUE);
+    }
+
+    @Transactional(readOnly = true)
+    public PaymentPage getPaymentsPage(String cursor, Integer size) {
+        int pageSize = size == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        // Se pide un elemento extra para saber si existe una página siguiente sin hacer un COUNT.
+        PageRequest limit = PageRequest.ofSize(pageSize + 1);
+
+        Payment last = cursor == null || cursor.isBlank() ? null : decodeCursor(cursor);
+        // Con sharding cada base devuelve su mejor página y se mezclan; el cursor sigue siendo (fecha, id).
+        List<Payment> rows = PaymentShards.merge(paymentShards.scatter(() -> pageAfter(last, limit)),
+                PAGE_ORDER, pageSize + 1);
+
+        if (rows.size() <= pageSize) {
+            return new PaymentPage(rows, null);
+        }
+        List<Payment> page = rows.subList(0, pageSize);
+        return new PaymentPage(page, encodeCursor(page.get(pageSize - 1)));
+    }
+
+    @Transactional(readOnly = true)
+    public void streamAllPayments(Consumer<Payment> consumer) {
+        if (paymentShards.isEnabled()) {
+            // Un cursor de servidor por base no se puede mezclar entre hilos: se leen lotes por clave y se mezclan.
+            PageRequest batch = PageRequest.ofSize(STREAM_BATCH_SIZE);
+            paymentShards.streamMerged(last -> pageAfter(last, batch), PAGE_ORDER, consumer);
+            return;
+        }
+        try (Stream<Payment> payments = paymentRepository.streamAll()) {
+            payments.forEach(payment -> {
+                consumer.accept(payment);
+                // Se desvincula cada fila para que el contexto de persistencia no crezca con la tabla.
+                entityManager.detach(payment);
+            });
+        }
+    }
+
+    private List<Payment> pageAfter(Payment last, PageRequest limit) {
+        if (last == null) {
+            return paymentRepository.findFirstPage(limit);
+        }
+        if (last.getTransactionDate() == null) {
+            return paymentRepository.findPageAfterNullDate(last.getId(), limit);
+        }
+        return paymentRepository.findPageAfter(last.getTransactionDate(), last.getId(), limit);
+    }
+
+    // "fecha|id"; un transactionDate nulo se codifica vacío ("|id").
+    static String encodeCursor(Payment payment) {
+        String date = payment.getTransactionDate() == null ? "" : payment.getTransactionDate().toString();
+        String raw = date + "|" + payment.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
     }
 
-    public Payment updatePayment(Long id, Payment paymentDetails) {
+    static Payment decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            Payment position = new Payment();
+            position.setTransactionDate(separator == 0 ? null : LocalDateTime.parse(raw.substring(0, separator)));
+            position.setId(Long.parseLong(raw.substring(separator + 1)));
+            return position;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * Reemplaza un pago. expectedVersion es la versión que el cliente leyó (If-Match): si ya no es la actual, o
+     * cambia antes del flush (@Version), se rechaza en lugar de pisar el cambio de otro. Sin If-Match es null y solo
+     * queda la comprobación de @Version en el flush.
+     */
+    @Transactional
+    public Payment updatePayment(Long id, Payment paymentDetails, Long expectedVersion) {
+        checkColumns(paymentDetails);
+        paymentShards.bindPayment(id);
         return paymentRepository.findById(id)
                 .map(payment -> {
+                    if (expectedVersion != null && !expectedVersion.equals(payment.getVersion())) {
+                        throw new PaymentVersionConflictException("Payment " + id + " is no longer at version " + expectedVersion);
+                    }
+                    checkTransition(id, payment.getPaymentStatus(), paymentDetails.getPaymentStatus());
+                    // Las claves antiguas se invalidan antes de copiar: orderId o transactionId pueden cambiar.
+                    paymentShards.checkSameShard(payment.getOrderId(), paymentDetails.getOrderId());
+                    paymentShards.registerTransaction(paymentDetails.getTransactionId(), payment.getOrderId());
+                    Payment previous = new Payment(payment.getOrderId(), payment.getAmount(), payment.getPaymentMethod(),
+                            payment.getPaymentStatus(), payment.getTransactionId(), payment.getTransactionDate());
+                    paymentStatusCache.evict(previous);
+                    replicaReads.recordWrite(previous);
                     // **AQUÍ ESTÁ LA CORRECCIÓN CLAVE**
                     // Se copian todas las propiedades del objeto de entrada al objeto existente.
                     payment.setOrderId(paymentDetails.getOrderId());
@@ -68,15 +652,232 @@ public class PaymentProcessingService {
                     payment.setPaymentStatus(paymentDetails.getPaymentStatus());
                     payment.setTransactionId(paymentDetails.getTransactionId());
                     payment.setTransactionDate(paymentDetails.getTransactionDate());
-                    return paymentRepository.save(payment);
+                    // flush inmediato: la versión nueva debe estar ya en el evento de la bandeja de salida y del registro.
+                    Payment saved = paymentRepository.saveAndFlush(payment);
+                    paymentOutbox.append(PaymentEventLog.Type.UPDATED, saved);
+                    afterCommit(() -> {
+                        paymentEventLog.append(PaymentEventLog.Type.UPDATED, saved);
+                        paymentStatusCache.evict(previous);
+                        paymentStatusCache.put(saved);
+                        replicaReads.recordWrite(saved);
+                        paymentStatistics.recordUpdated(previous.getPaymentStatus(), previous.getPaymentMethod(),
+                                previous.getAmount(), previous.getTransactionDate(), saved);
+                        paymentStatusNotifier.publish(saved);
+                    });
+                    return saved;
                 })
                 .orElseThrow(() -> new RuntimeException("Payment not found for ID: " + id));
     }
 
-    public void deletePayment(Long id) {
-        if (!paymentRepository.existsById(id)) {
-            throw new RuntimeException("Payment not found for ID: " + id);
+    @Transactional
+    public Payment patchPayment(Long id, PaymentPatch patch) {
+        paymentShards.bindPayment(id);
+        if (patch.version() == null) {
+            throw new IllegalArgumentException("version is required");
+        }
+        Map<String, Object> changes = new LinkedHashMap<>();
+        if (patch.orderId() != null) {
+            changes.put("orderId", patch.orderId());
+        }
+        if (patch.amount() != null) {
+            // Rechaza aquí (400) un importe que no cabe en céntimos, antes de que falle dentro del UPDATE.
+            AMOUNT_CHECK.convertToDatabaseColumn(patch.amount());
+            changes.put("amount", patch.amount());
+        }
+        if (patch.paymentMethod() != null) {
+            changes.put("paymentMethod", PaymentMethod.valueOf(patch.paymentMethod()).name());
+        }
+        if (patch.paymentStatus() != null) {
+            changes.put("paymentStatus", PaymentStatus.valueOf(patch.paymentStatus()).name());
+        }
+        if (patch.transactionId() != null) {
+            changes.put("transactionId", UUID.fromString(patch.transactionId()).toString());
+        }
+        if (patch.transactionDate() != null) {
+            changes.put("transactionDate", patch.transactionDate());
+        }
+        if (changes.isEmpty()) {
+            throw new IllegalArgumentException("Patch must change at least one field");
+        }
+        // La imagen previa hace falta para invalidar las claves antiguas de la caché y mover las estadísticas.
+        // La versión identifica el estado de la fila, así que si la caché tiene el pago justo en la versión que
+        // el cliente leyó esa es la imagen previa y el PATCH es una sola sentencia; solo si no, se lee de la base.
+        // Si el UPDATE condicional tiene éxito, la fila seguía en esta misma versión: no pudo cambiar entre medias.
+        Payment current = paymentStatusCache.getById(id)
+                .filter(cached -> patch.version().equals(cached.getVersion()))
+                .orElseGet(() -> paymentRepository.findById(id)
+                        .orElseThrow(() -> new RuntimeException("Payment not found for ID: " + id)));
+        if (patch.orderId() != null) {
+            paymentShards.checkSameShard(current.getOrderId(), patch.orderId());
+        }
+        if (patch.paymentStatus() != null) {
+            checkTransition(id, current.getPaymentStatus(), patch.paymentStatus());
+        }
+        if (!patch.version().equals(current.getVersion())) {
+            throw new PaymentVersionConflictException("Payment " + id + " is no longer at version " + patch.version());
+        }
+        paymentShards.registerTransaction((String) changes.get("transactionId"), current.getOrderId());
+        if (paymentRepository.patch(id, patch.version(), changes) == 0) {
+            if (!paymentRepository.existsById(id)) {
+                paymentStatusCache.evict(current);
+                throw new RuntimeException("Payment not found for ID: " + id);
+            }
+            throw new PaymentVersionConflictException("Payment " + id + " is no longer at version " + patch.version());
+        }
+        Payment updated = new Payment(
+                patch.orderId() != null ? patch.orderId() : current.getOrderId(),
+                patch.amount() != null ? patch.amount() : current.getAmount(),
+                (String) changes.getOrDefault("paymentMethod", current.getPaymentMethod()),
+                (String) changes.getOrDefault("paymentStatus", current.getPaymentStatus()),
+                (String) changes.getOrDefault("transactionId", current.getTransactionId()),
+                patch.transactionDate() != null ? patch.transactionDate() : current.getTransactionDate());
+        updated.setId(id);
+        updated.setVersion(current.getVersion() + 1);
+        paymentOutbox.append(PaymentEventLog.Type.UPDATED, updated);
+        paymentStatusCache.evict(current);
+        replicaReads.recordWrite(current);
+        afterCommit(() -> {
+            paymentEventLog.append(PaymentEventLog.Type.UPDATED, updated);
+            paymentStatusCache.evict(current);
+            paymentStatusCache.put(updated);
+            replicaReads.recordWrite(updated);
+            paymentStatistics.recordUpdated(current.getPaymentStatus(), current.getPaymentMethod(), current.getAmount(),
+                    current.getTransactionDate(), updated);
+            paymentStatusNotifier.publish(updated);
+        });
+        return updated;
+    }
+
+    /**
+     * Aplica una transición con un único UPDATE. Si la caché tiene la imagen previa, condicionado a su estado y su
+     * versión (una sola sentencia); si no, condicionado solo a los estados de origen permitidos, y la fila se lee
+     * después. Si el UPDATE no cambia nada esa lectura distingue entre no encontrado, transición repetida (ya está en
+     * el estado destino, se devuelve tal cual), transición inválida y un cambio concurrente. Las estadísticas se
+     * mueven desde el estado previo real.
+     */
+    @Transactional
+    public Payment transitionPayment(Long id, PaymentTransition transition) {
+        paymentShards.bindPayment(id);
+        Payment previous = paymentStatusCache.getById(id)
+                .filter(cached -> applies(cached, transition))
+                .orElse(null);
+        Payment updated;
+        if (previous != null) {
+            updated = new Payment(previous.getOrderId(), previous.getAmount(), previous.getPaymentMethod(),
+                    transition.target().name(), previous.getTransactionId(), previous.getTransactionDate());
+            updated.setId(id);
+            updated.setVersion(previous.getVersion() + 1);
+        } else {
+            Optional<PaymentStatus> source = applyFromAllowed(id, transition);
+            // Leída en la primaria después del UPDATE: si lo aplicó, con la fila ya bloqueada, es la imagen posterior.
+            Payment current = paymentRepository.findById(id)
+                    .orElseThrow(() -> new RuntimeException("Payment not found for ID: " + id));
+            if (source.isEmpty()) {
+                if (transition.target().name().equals(current.getPaymentStatus())) {
+                    return current;
+                }
+                if (current.getPaymentStatus() == null || !transition.allowsFrom(PaymentStatus.valueOf(current.getPaymentStatus()))) {
+                    throw new InvalidPaymentTransitionException("Payment " + id + " cannot " + transition.name().toLowerCase()
+                            + " from " + current.getPaymentStatus() + "; allowed from " + transition.from());
+                }
+                throw new PaymentVersionConflictException("Payment " + id + " changed while applying " + transition);
+            }
+            // El UPDATE solo cambió el estado y la versión: el resto de la imagen previa es el de la fila.
+            updated = current;
+            previous = new Payment(current.getOrderId(), current.getAmount(), current.getPaymentMethod(),
+                    source.get().name(), current.getTransactionId(), current.getTransactionDate());
+        }
+        Payment before = previous;
+        paymentOutbox.append(PaymentEventLog.Type.UPDATED, updated);
+        afterCommit(() -> {
+            paymentEventLog.append(PaymentEventLog.Type.UPDATED, updated);
+            paymentStatusCache.put(updated);
+            replicaReads.recordWrite(updated);
+            paymentStatistics.recordUpdated(before.getPaymentStatus(), before.getPaymentMethod(),
+                    before.getAmount(), before.getTransactionDate(), updated);
+            paymentStatusNotifier.publish(updated);
+        });
+        return updated;
+    }
+
+    // Un UPDATE por estado de origen permitido (hoy cada transición tiene uno); el estado del que partió la fila, o
+    // vacío si no estaba en ninguno.
+    private Optional<PaymentStatus> applyFromAllowed(Long id, PaymentTransition transition) {
+        for (PaymentStatus source : transition.from()) {
+            if (paymentRepository.transitionFrom(id, transition.target().name(), source.name()) == 1) {
+                return Optional.of(source);
+            }
         }
+        return Optional.empty();
+    }
+
+    // Ejecuta el UPDATE condicional si la imagen previa admite la transición; true si la fila seguía así.
+    private boolean applies(Payment current, PaymentTransition transition) {
+        return current.getVersion() != null && current.getPaymentStatus() != null
+                && transition.allowsFrom(PaymentStatus.valueOf(current.getPaymentStatus()))
+                && paymentRepository.transition(current.getId(), transition.target().name(),
+                        current.getPaymentStatus(), current.getVersion()) == 1;
+    }
+
+    @Transactional
+    public void deletePayment(Long id) {
+        paymentShards.bindPayment(id);
+        Payment payment = paymentRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Payment not found for ID: " + id));
         paymentRepository.deleteById(id);
+        paymentOutbox.append(PaymentEventLog.Type.DELETED, payment);
+        paymentStatusCache.evict(payment);
+        replicaReads.recordWrite(payment);
+        afterCommit(() -> {
+            paymentEventLog.append(PaymentEventLog.Type.DELETED, payment);
+            paymentStatusCache.evict(payment);
+            paymentStatistics.recordDeleted(payment);
+        });
+    }
+
+    // Lo que los conversores de columna rechazarían (un estado o método fuera de los enums, un transactionId que no es
+    // un UUID, más de dos decimales) se rechaza aquí con IllegalArgumentException (400): dentro del flush el error
+    // llegaría envuelto en una excepción de persistencia y no se distinguiría de un pago inexistente.
+    private static void checkColumns(Payment payment) {
+        if (payment.getPaymentStatus() != null) {
+            PaymentStatus.valueOf(payment.getPaymentStatus());
+        }
+        if (payment.getPaymentMethod() != null) {
+            PaymentMethod.valueOf(payment.getPaymentMethod());
+        }
+        if (payment.getTransactionId() != null) {
+            UUID.fromString(payment.getTransactionId());
+        }
+        AMOUNT_CHECK.convertToDatabaseColumn(payment.getAmount());
+    }
+
+    // PUT y PATCH solo pueden cambiar el estado por una transición permitida (PaymentTransition), igual que los endpoints de transición.
+    private static void checkTransition(Long id, String from, String to) {
+        if (to == null) {
+            throw new IllegalArgumentException("paymentStatus is required");
+        }
+        PaymentStatus target = PaymentStatus.valueOf(to);
+        if (from != null && !PaymentTransition.isAllowed(PaymentStatus.valueOf(from), target)) {
+            throw new InvalidPaymentTransitionException("Payment " + id + " cannot go from " + from + " to " + to);
+        }
+    }
+
+    /**
+     * Registro de eventos, caché, estadísticas en memoria y avisos solo reflejan cambios confirmados: dentro de una transacción se
+     * aplazan a su commit (y se descartan si se deshace). Las claves antiguas se invalidan además antes, para no
+     * servir desde la caché un valor que ya se está cambiando; la segunda invalidación retira lo que una lectura
+     * concurrente haya vuelto a cargar entre medias.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,631 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.datasource.ShardContext;
+import com.programthis.payment_service.entity.PaymentIdGenerator;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Reparto de los pagos entre varias bases de datos (payment.sharding). El orderId se asigna por hash a uno de
+ * logical-shards shards lógicos, fijos para siempre, y cada shard lógico vive en una base según payment_shard_map:
+ * añadir bases o reequilibrar mueve shards lógicos enteros sin cambiar el hash de ningún pedido. El transactionId es
+ * el de la pasarela y no se toca (con él se concilian reembolsos y contracargos): su shard lógico se anota en el
+ * directorio payment_transaction_shard, y solo los que no están en él (anteriores al directorio, o si no pudo
+ * anotarse) se buscan en todas las bases a la vez. El id del pago lleva su shard lógico, así que las operaciones por
+ * id van directas a su base, también después de moverlo.
+ * <p>
+ * Mientras un shard lógico se mueve (columna moving del mapa) sus escrituras se rechazan con
+ * {@link ShardMovingException}, y ninguna escritura usa un mapa de más de map-lease de antigüedad: si el refresco
+ * periódico no lo ha renovado, se recarga antes de escribir. Así, pasado un map-lease desde que se marca un shard,
+ * ninguna instancia escribe ya en su base de origen (ver {@link ShardRebalancer}). Sin sharding hay una sola base y todo se ejecuta tal cual en el
+ * hilo llamante.
+ */
+@Component
+public class PaymentShards implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentShards.class);
+
+    public static final long ID_RANGE_BITS = 40;
+    private static final int MAX_LOGICAL_SHARDS = 1 << PaymentIdGenerator.SHARD_BITS;
+    // El rango de ids de cada base, desplazado por los bits del shard lógico, tiene que caber en un long positivo.
+    private static final int MAX_DATABASES = 1 << (Long.SIZE - 1 - ID_RANGE_BITS - PaymentIdGenerator.SHARD_BITS);
+
+    public static record Range(int fromShard, int toShard, int database) {}
+
+    // Se sustituye entero: base y estado de cada shard se leen siempre de la misma versión del mapa.
+    private record ShardMap(int[] databases, boolean[] moving) {}
+
+    private final boolean enabled;
+    private final int logicalShards;
+    private final int databases;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final TransactionTemplate directoryWrites;
+    private final Executor executor;
+    private final long leaseNanos;
+    // Las escrituras toman el de lectura; cambiar el mapa desde esta instancia, el de escritura.
+    private final ReentrantReadWriteLock moveLock = new ReentrantReadWriteLock();
+    private final Object reloadLock = new Object();
+    private volatile ShardMap map;
+    private volatile long loadedAt;
+    private Counter scatters;
+
+    public PaymentShards(@Value("${payment.sharding.enabled:false}") boolean enabled,
+                         @Value("${payment.sharding.logical-shards:64}") int logicalShards,
+                         @Value("${payment.sharding.urls:}") List<String> urls,
+                         @Value("${payment.sharding.map-lease:PT30S}") Duration mapLease,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         @Qualifier("paymentExecutor") Executor executor) {
+        if (logicalShards < 1 || logicalShards > MAX_LOGICAL_SHARDS) {
+            throw new IllegalArgumentException("payment.sharding.logical-shards must be between 1 and " + MAX_LOGICAL_SHARDS);
+        }
+        if (enabled && urls.size() + 1 > MAX_DATABASES) {
+            throw new IllegalArgumentException("payment.sharding supports at most " + MAX_DATABASES + " databases");
+        }
+        this.enabled = enabled;
+        this.logicalShards = logicalShards;
+        this.databases = enabled ? urls.size() + 1 : 1;
+        this.jdbcTemplate = jdbcTemplate;
+        // Transacción nueva: las consultas de una base no pueden unirse a la transacción (y la conexión) de otra.
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.readOnly.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.directoryWrites = new TransactionTemplate(transactionManager);
+        this.directoryWrites.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.executor = executor;
+        this.leaseNanos = mapLease.toNanos();
+        this.map = new ShardMap(new int[logicalShards], new boolean[logicalShards]);
+    }
+
+    @PostConstruct
+    public void loadMap() {
+        if (!enabled) {
+            return;
+        }
+        long started = System.nanoTime();
+        ShardMap loaded = ShardContext.on(0, this::readMap);
+        // Primer arranque: rangos contiguos del mismo tamaño por base.
+        List<Object[]> missing = new ArrayList<>();
+        for (int shard = 0; shard < logicalShards; shard++) {
+            if (loaded.databases()[shard] < 0) {
+                loaded.databases()[shard] = (int) ((long) shard * databases / logicalShards);
+                missing.add(new Object[]{shard, loaded.databases()[shard]});
+            }
+        }
+        if (!missing.isEmpty()) {
+            ShardContext.on(0, () -> jdbcTemplate.batchUpdate(
+                    "INSERT INTO payment_shard_map (logical_shard, database_index) VALUES (?, ?)", missing));
+        }
+        map = loaded;
+        loadedAt = started;
+    }
+
+    // Otras instancias pueden haber movido shards lógicos.
+    @Scheduled(fixedDelayString = "${payment.sharding.map-refresh-interval:PT10S}")
+    public void refreshMap() {
+        if (enabled) {
+            reload();
+        }
+    }
+
+    private void reload() {
+        synchronized (reloadLock) {
+            long started = System.nanoTime();
+            // Transacción propia en la base principal: puede llamarse desde una transacción abierta sobre otra base.
+            ShardMap loaded = ShardContext.on(0, () -> readOnly.execute(status -> readMap()));
+            ShardMap current = map;
+            for (int shard = 0; shard < logicalShards; shard++) {
+                if (loaded.databases()[shard] < 0) {
+                    loaded.databases()[shard] = current.databases()[shard];
+                }
+            }
+            map = loaded;
+            loadedAt = started;
+        }
+    }
+
+    private ShardMap readMap() {
+        int[] loaded = new int[logicalShards];
+        boolean[] moving = new boolean[logicalShards];
+        Arrays.fill(loaded, -1);
+        jdbcTemplate.query("SELECT logical_shard, database_index, moving FROM payment_shard_map", rs -> {
+            int shard = rs.getInt(1);
+            int database = rs.getInt(2);
+            if (shard >= logicalShards || database >= databases) {
+                throw new IllegalStateException("payment_shard_map assigns logical shard " + shard + " to database "
+                        + database + ", but there are " + logicalShards + " logical shards and " + databases + " databases");
+            }
+            loaded[shard] = database;
+            moving[shard] = rs.getBoolean(3);
+        });
+        return new ShardMap(loaded, moving);
+    }
+
+    /**
+     * Tiempo tras el que ninguna instancia escribe ya con un mapa anterior a un cambio: cualquier escritura se
+     * enruta con un mapa de menos de map-lease y dura, con margen, menos de otro map-lease.
+     */
+    public Duration fenceDelay() {
+        return Duration.ofNanos(2 * leaseNanos);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int databaseCount() {
+        return databases;
+    }
+
+    public int logicalShardCount() {
+        return logicalShards;
+    }
+
+    public int logicalShardOf(String orderId) {
+        return logicalShardOf(orderId, logicalShards);
+    }
+
+    public static int logicalShardOf(String orderId, int logicalShards) {
+        // Mezcla final de MurmurHash3 sobre String.hashCode, cuyo valor fija la especificación de Java.
+        int h = orderId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, logicalShards);
+    }
+
+    public int databaseOf(int logicalShard) {
+        return enabled ? map.databases()[logicalShard] : 0;
+    }
+
+    public int databaseOfOrder(String orderId) {
+        return enabled ? map.databases()[logicalShardOf(orderId)] : 0;
+    }
+
+    public boolean isMoving(int logicalShard) {
+        return enabled && map.moving()[logicalShard];
+    }
+
+    /**
+     * Un pago no puede cambiar de shard lógico: su fila se quedaría en una base que ya no le corresponde.
+     */
+    public void checkSameShard(String orderId, String newOrderId) {
+        if (enabled && orderId != null && newOrderId != null && logicalShardOf(orderId) != logicalShardOf(newOrderId)) {
+            throw new IllegalArgumentException("orderId " + newOrderId + " belongs to a different shard than " + orderId);
+        }
+    }
+
+    public List<Integer> allDatabases() {
+        return IntStream.range(0, databases).boxed().toList();
+    }
+
+    // Lecturas enrutadas: sin transacción propia, cada sentencia pide conexión a la base marcada.
+
+    public <T> T onDatabase(int database, Supplier<T> read) {
+        return enabled ? ShardContext.on(database, read) : read.get();
+    }
+
+    public <T> T onOrder(String orderId, Supplier<T> read) {
+        return onDatabase(databaseOfOrder(orderId), read);
+    }
+
+    /**
+     * Busca en la base que el directorio asigna al transactionId; si no está anotado, o no aparece allí, en todas a la vez.
+     */
+    public <T> Optional<T> findByTransaction(String transactionId, Supplier<Optional<T>> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        Integer database = databasesOfTransactions(List.of(transactionId)).get(transactionId);
+        if (database != null) {
+            Optional<T> found = onDatabase(database, read);
+            if (found.isPresent()) {
+                return found;
+            }
+        }
+        return scatter(read).stream().flatMap(Optional::stream).findFirst();
+    }
+
+    /**
+     * La base de cada transactionId anotado en el directorio; los que no lo están no aparecen.
+     */
+    public Map<String, Integer> databasesOfTransactions(Collection<? extends String> transactionIds) {
+        UuidBinaryConverter converter = new UuidBinaryConverter();
+        List<byte[]> binary = enabled ? transactionIds.stream().filter(PaymentShards::isUuid)
+                .map(converter::convertToDatabaseColumn).toList() : List.of();
+        if (binary.isEmpty()) {
+            return Map.of();
+        }
+        String sql = "SELECT transaction_id, logical_shard FROM payment_transaction_shard WHERE transaction_id IN ("
+                + String.join(", ", Collections.nCopies(binary.size(), "?")) + ")";
+        Map<String, Integer> located = new HashMap<>();
+        ShardContext.on(0, () -> readOnly.execute(status -> {
+            jdbcTemplate.query(sql, rs -> {
+                located.put(converter.convertToEntityAttribute(rs.getBytes(1)), databaseOf(rs.getInt(2)));
+            }, binary.toArray());
+            return null;
+        }));
+        return located;
+    }
+
+    /**
+     * Anota en el directorio el shard lógico de cada transactionId (clave) según su orderId (valor). Se llama antes
+     * de escribir el pago, en su propia transacción en la base principal; si falla, el pago se escribe igual y sus
+     * búsquedas por transacción vuelven a consultar todas las bases.
+     */
+    public void registerTransactions(Map<String, String> orderIdByTransactionId) {
+        if (!enabled) {
+            return;
+        }
+        UuidBinaryConverter converter = new UuidBinaryConverter();
+        List<Object[]> rows = orderIdByTransactionId.entrySet().stream()
+                .filter(entry -> entry.getKey() != null && isUuid(entry.getKey()) && entry.getValue() != null)
+                .map(entry -> new Object[]{converter.convertToDatabaseColumn(entry.getKey()), logicalShardOf(entry.getValue())})
+                .toList();
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            ShardContext.on(0, () -> directoryWrites.execute(status -> jdbcTemplate.batchUpdate(
+                    "INSERT INTO payment_transaction_shard (transaction_id, logical_shard) VALUES (?, ?) "
+                            + "ON DUPLICATE KEY UPDATE logical_shard = VALUES(logical_shard)", rows)));
+        } catch (RuntimeException e) {
+            log.warn("Cannot record the logical shard of transactions {}: {}", orderIdByTransactionId.keySet(), e.getMessage());
+        }
+    }
+
+    public void registerTransaction(String transactionId, String orderId) {
+        if (transactionId != null && orderId != null) {
+            registerTransactions(Map.of(transactionId, orderId));
+        }
+    }
+
+    private static boolean isUuid(String value) {
+        try {
+            UUID.fromString(value);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public <T> Optional<T> findByPayment(Long id, Supplier<Optional<T>> read) {
+        OptionalInt database = locate(id);
+        return database.isPresent() ? onDatabase(database.getAsInt(), read) : Optional.empty();
+    }
+
+    public void forEachDatabase(Runnable work) {
+        for (int database : allDatabases()) {
+            onDatabase(database, () -> {
+                work.run();
+                return null;
+            });
+        }
+    }
+
+    // Escrituras: dentro de una transacción ya abierta, antes de su primera sentencia. La marca y el bloqueo
+    // se liberan al terminar la transacción. Un shard lógico que se está moviendo no admite escrituras.
+
+    public void bindOrder(String orderId) {
+        if (enabled) {
+            bind(() -> writableDatabase(List.of(logicalShardOf(orderId))));
+        }
+    }
+
+    /**
+     * Para un lote de pedidos agrupado por base: si el mapa ha cambiado y ya no están todos en la misma, se rechaza.
+     */
+    public void bindOrders(Collection<String> orderIds) {
+        if (enabled) {
+            bind(() -> writableDatabase(orderIds.stream().map(this::logicalShardOf).distinct().toList()));
+        }
+    }
+
+    /**
+     * Para trabajos sobre toda una base (el archivado): se rechaza mientras se mueva cualquier shard lógico.
+     */
+    public void bindDatabase(int database) {
+        if (enabled) {
+            bind(() -> {
+                ShardMap current = map;
+                for (int shard = 0; shard < logicalShards; shard++) {
+                    if (current.moving()[shard]) {
+                        throw new ShardMovingException("Logical shard " + shard + " is being moved");
+                    }
+                }
+                return database;
+            });
+        }
+    }
+
+    /**
+     * Enruta la transacción a la base que tiene el pago, según el shard lógico que lleva su id.
+     */
+    public void bindPayment(Long id) {
+        if (enabled) {
+            OptionalInt shard = logicalShardOfPayment(id);
+            // Un id que no puede ser de ningún pago va a la base principal, donde no se encontrará.
+            bind(() -> shard.isPresent() ? writableDatabase(List.of(shard.getAsInt())) : 0);
+        }
+    }
+
+    private int writableDatabase(List<Integer> logicalShards) {
+        ShardMap current = map;
+        int database = -1;
+        for (int shard : logicalShards) {
+            if (current.moving()[shard]) {
+                throw new ShardMovingException("Logical shard " + shard + " is being moved");
+            }
+            if (database >= 0 && current.databases()[shard] != database) {
+                throw new ShardMovingException("Logical shards " + logicalShards + " are no longer in the same database");
+            }
+            database = current.databases()[shard];
+        }
+        return Math.max(database, 0);
+    }
+
+    private void bind(Supplier<Integer> database) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Shard binding requires an active transaction");
+        }
+        ensureFresh();
+        ReentrantReadWriteLock.ReadLock lock = moveLock.readLock();
+        lock.lock();
+        Integer previous;
+        try {
+            previous = ShardContext.bind(database.get());
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                ShardContext.restore(previous);
+                lock.unlock();
+            }
+        });
+    }
+
+    // Un mapa más antiguo que map-lease no sirve para escribir: puede no saber que un shard se está moviendo.
+    private void ensureFresh() {
+        if (System.nanoTime() - loadedAt <= leaseNanos) {
+            return;
+        }
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            throw new ShardMovingException("Shard map could not be refreshed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * La base del pago, sin consultar ninguna: la del shard lógico que lleva el id. Vacío si el id no puede ser de
+     * ningún pago.
+     */
+    public OptionalInt locate(Long id) {
+        if (!enabled) {
+            return OptionalInt.of(0);
+        }
+        OptionalInt shard = logicalShardOfPayment(id);
+        return shard.isPresent() ? OptionalInt.of(map.databases()[shard.getAsInt()]) : OptionalInt.empty();
+    }
+
+    private OptionalInt logicalShardOfPayment(Long id) {
+        int shard = (int) (id & (MAX_LOGICAL_SHARDS - 1));
+        return id > 0 && shard < logicalShards ? OptionalInt.of(shard) : OptionalInt.empty();
+    }
+
+    // Consultas sobre todas las bases.
+
+    /**
+     * Ejecuta la lectura en todas las bases a la vez, cada una en su propia transacción de solo lectura, y
+     * devuelve los resultados en orden de base.
+     */
+    public <T> List<T> scatter(Supplier<T> read) {
+        if (!enabled) {
+            return List.of(read.get());
+        }
+        if (scatters != null) {
+            scatters.increment();
+        }
+        List<CompletableFuture<T>> pending = allDatabases().stream()
+                .map(database -> CompletableFuture.supplyAsync(
+                        () -> ShardContext.on(database, () -> readOnly.execute(status -> read.get())), executor))
+                .toList();
+        try {
+            return pending.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Mezcla k listas ya ordenadas con un montículo de k cabezas: O(n log k), hasta limit elementos.
+     */
+    public static <T> List<T> merge(List<? extends List<? extends T>> sorted, Comparator<? super T> order, int limit) {
+        record Head<T>(T value, int list, int index) {}
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+                (a, b) -> order.compare(a.value(), b.value()));
+        for (int list = 0; list < sorted.size(); list++) {
+            if (!sorted.get(list).isEmpty()) {
+                heads.add(new Head<>(sorted.get(list).get(0), list, 0));
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            Head<T> head = heads.poll();
+            merged.add(head.value());
+            List<? extends T> source = sorted.get(head.list());
+            if (head.index() + 1 < source.size()) {
+                heads.add(new Head<>(source.get(head.index() + 1), head.list(), head.index() + 1));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Recorre todas las bases en orden global sin cargarlas enteras: cada base se lee por lotes (nextBatch recibe
+     * el último elemento entregado de esa base, o null al empezar) y los lotes se mezclan como en {@link #merge}.
+     */
+    public <T> void streamMerged(Function<T, List<T>> nextBatch, Comparator<? super T> order, Consumer<T> consumer) {
+        record Cursor<T>(int database, List<T> batch, int index) {}
+        List<List<T>> first = scatter(() -> nextBatch.apply(null));
+        PriorityQueue<Cursor<T>> cursors = new PriorityQueue<>(Math.max(1, databases),
+                (a, b) -> order.compare(a.batch().get(a.index()), b.batch().get(b.index())));
+        for (int database = 0; database < first.size(); database++) {
+            if (!first.get(database).isEmpty()) {
+                cursors.add(new Cursor<>(database, first.get(database), 0));
+            }
+        }
+        while (!cursors.isEmpty()) {
+            Cursor<T> cursor = cursors.poll();
+            T value = cursor.batch().get(cursor.index());
+            consumer.accept(value);
+            if (cursor.index() + 1 < cursor.batch().size()) {
+                cursors.add(new Cursor<>(cursor.database(), cursor.batch(), cursor.index() + 1));
+            } else {
+                List<T> next = enabled
+                        ? ShardContext.on(cursor.database(), () -> readOnly.execute(status -> nextBatch.apply(value)))
+                        : nextBatch.apply(value);
+                if (!next.isEmpty()) {
+                    cursors.add(new Cursor<>(cursor.database(), next, 0));
+                }
+            }
+        }
+    }
+
+    // Reequilibrado. Ambos cambios se aplican aquí sin escrituras en curso de esta instancia: las nuevas esperan.
+
+    /**
+     * Marca los shards lógicos como en movimiento: desde ahora sus escrituras se rechazan en esta instancia, y en
+     * las demás en cuanto refresquen el mapa.
+     */
+    public void markMoving(Collection<Integer> logicalShards) {
+        List<Object[]> updates = logicalShards.stream().map(shard -> new Object[]{shard}).toList();
+        exclusively(() -> {
+            ShardContext.on(0, () -> jdbcTemplate.batchUpdate(
+                    "UPDATE payment_shard_map SET moving = TRUE WHERE logical_shard = ?", updates));
+            ShardMap current = map;
+            boolean[] moving = current.moving().clone();
+            logicalShards.forEach(shard -> moving[shard] = true);
+            map = new ShardMap(current.databases(), moving);
+        });
+    }
+
+    /**
+     * Asigna los shards lógicos a la base y les devuelve las escrituras.
+     */
+    public void reassign(Collection<Integer> logicalShards, int database) {
+        List<Object[]> updates = logicalShards.stream().map(shard -> new Object[]{database, shard}).toList();
+        exclusively(() -> {
+            ShardContext.on(0, () -> jdbcTemplate.batchUpdate(
+                    "UPDATE payment_shard_map SET database_index = ?, moving = FALSE WHERE logical_shard = ?", updates));
+            ShardMap current = map;
+            int[] databases = current.databases().clone();
+            boolean[] moving = current.moving().clone();
+            logicalShards.forEach(shard -> {
+                databases[shard] = database;
+                moving[shard] = false;
+            });
+            map = new ShardMap(databases, moving);
+        });
+    }
+
+    private void exclusively(Runnable work) {
+        ReentrantReadWriteLock.WriteLock lock = moveLock.writeLock();
+        lock.lock();
+        try {
+            work.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * El mapa como rangos contiguos de shards lógicos en la misma base.
+     */
+    public List<Range> ranges() {
+        int[] current = map.databases();
+        List<Range> ranges = new ArrayList<>();
+        int start = 0;
+        for (int shard = 1; shard <= logicalShards; shard++) {
+            if (shard == logicalShards || current[shard] != current[start]) {
+                ranges.add(new Range(start, shard - 1, enabled ? current[start] : 0));
+                start = shard;
+            }
+        }
+        return ranges;
+    }
+
+    public Map<Integer, Long> logicalShardsPerDatabase() {
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        allDatabases().forEach(database -> counts.put(database, 0L));
+        for (int shard = 0; shard < logicalShards; shard++) {
+            counts.merge(databaseOf(shard), 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!enabled) {
+            return;
+        }
+        for (int database = 0; database < databases; database++) {
+            int index = database;
+            Gauge.builder("payment.sharding.logical-shards", this, shards -> shards.logicalShardsPerDatabase().get(index))
+                    .description("Shards lógicos asignados a cada base de datos")
+                    .tag("database", String.valueOf(index))
+                    .register(registry);
+        }
+        scatters = Counter.builder("payment.sharding.scatter")
+                .description("Consultas lanzadas en paralelo sobre todas las bases")
+                .register(registry);
+    }
+}
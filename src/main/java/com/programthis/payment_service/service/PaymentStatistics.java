@@ -0,0 +1,207 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.entity.Payment;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estadísticas de pagos mantenidas de forma incremental en contadores LongAdder: totales y por intervalo
+ * (minuto, hora, día), desglosados por estado y método. Se actualizan en cada alta, modificación y baja,
+ * así que consultarlas no toca la base de datos.
+ * <p>
+ * Periódicamente se vuelcan a payment_stats_rollup los deltas desde el último volcado, sumándolos a lo que
+ * ya hubiera (varias instancias pueden escribir en la misma tabla). Al arrancar se reconstruyen desde ella.
+ */
+@Component
+public class PaymentStatistics {
+
+    public enum Granularity {
+        TOTAL(null), MINUTE(ChronoUnit.MINUTES), HOUR(ChronoUnit.HOURS), DAY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        LocalDateTime bucketOf(LocalDateTime time) {
+            return unit == null ? EPOCH : time.truncatedTo(unit);
+        }
+    }
+
+    public static record Totals(long count, BigDecimal amount) {}
+
+    public static record Bucket(LocalDateTime start, String paymentStatus, String paymentMethod, long count, BigDecimal amount) {}
+
+    public static record Snapshot(Map<String, Totals> byStatus, Map<String, Totals> byMethod, Granularity granularity, List<Bucket> buckets) {}
+
+    private record CellKey(Granularity granularity, LocalDateTime start, String status, String method) {}
+
+    private static final class Cell {
+        final LongAdder count = new LongAdder();
+        final LongAdder amountMinor = new LongAdder();
+        // Solo los toca el hilo del volcado.
+        long checkpointedCount;
+        long checkpointedAmountMinor;
+    }
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final String UNKNOWN = "UNKNOWN";
+    private static final String UPSERT = "INSERT INTO payment_stats_rollup "
+            + "(granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor) VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE payment_count = payment_count + VALUES(payment_count), "
+            + "amount_minor = amount_minor + VALUES(amount_minor)";
+
+    private final ConcurrentHashMap<CellKey, Cell> cells = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap.KeySetView<CellKey, Boolean> dirty = ConcurrentHashMap.newKeySet();
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration minuteRetention;
+    private final Duration hourRetention;
+
+    public PaymentStatistics(JdbcTemplate jdbcTemplate,
+                             @Value("${payment.stats.minute-retention:PT24H}") Duration minuteRetention,
+                             @Value("${payment.stats.hour-retention:P30D}") Duration hourRetention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.minuteRetention = minuteRetention;
+        this.hourRetention = hourRetention;
+    }
+
+    public void recordCreated(Payment payment) {
+        record(payment.getPaymentStatus(), payment.getPaymentMethod(), payment.getAmount(), payment.getTransactionDate(), 1);
+    }
+
+    public void recordDeleted(Payment payment) {
+        record(payment.getPaymentStatus(), payment.getPaymentMethod(), payment.getAmount(), payment.getTransactionDate(), -1);
+    }
+
+    public void recordUpdated(String oldStatus, String oldMethod, BigDecimal oldAmount, LocalDateTime oldDate, Payment updated) {
+        record(oldStatus, oldMethod, oldAmount, oldDate, -1);
+        recordCreated(updated);
+    }
+
+    private void record(String status, String method, BigDecimal amount, LocalDateTime date, int sign) {
+        String statusKey = status == null ? UNKNOWN : status;
+        String methodKey = method == null ? UNKNOWN : method;
+        long minor = amount == null ? 0 : amount.movePointRight(2).longValue();
+        LocalDateTime time = date == null ? EPOCH : date;
+        for (Granularity granularity : Granularity.values()) {
+            CellKey key = new CellKey(granularity, granularity.bucketOf(time), statusKey, methodKey);
+            // Suma y marca en la misma operación atómica sobre la clave que evictExpired: la celda no puede
+            // descartarse entre las dos y llevarse la suma sin volcar.
+            cells.compute(key, (k, cell) -> {
+                Cell target = cell == null ? new Cell() : cell;
+                target.count.add(sign);
+                target.amountMinor.add(sign * minor);
+                dirty.add(k);
+                return target;
+            });
+        }
+    }
+
+    public Snapshot snapshot(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        Map<String, long[]> byStatus = new TreeMap<>();
+        Map<String, long[]> byMethod = new TreeMap<>();
+        List<Bucket> buckets = new ArrayList<>();
+        cells.forEach((key, cell) -> {
+            long count = cell.count.sum();
+            long amount = cell.amountMinor.sum();
+            if (key.granularity() == Granularity.TOTAL) {
+                accumulate(byStatus, key.status(), count, amount);
+                accumulate(byMethod, key.method(), count, amount);
+            } else if (key.granularity() == granularity && count != 0
+                    && (from == null || !key.start().isBefore(from))
+                    && (to == null || key.start().isBefore(to))) {
+                buckets.add(new Bucket(key.start(), key.status(), key.method(), count, BigDecimal.valueOf(amount, 2)));
+            }
+        });
+        buckets.sort(Comparator.comparing(Bucket::start).thenComparing(Bucket::paymentStatus).thenComparing(Bucket::paymentMethod));
+        return new Snapshot(toTotals(byStatus), toTotals(byMethod), granularity, buckets);
+    }
+
+    private static void accumulate(Map<String, long[]> totals, String key, long count, long amount) {
+        long[] values = totals.computeIfAbsent(key, k -> new long[2]);
+        values[0] += count;
+        values[1] += amount;
+    }
+
+    private static Map<String, Totals> toTotals(Map<String, long[]> raw) {
+        Map<String, Totals> totals = new TreeMap<>();
+        raw.forEach((key, values) -> totals.put(key, new Totals(values[0], BigDecimal.valueOf(values[1], 2))));
+        return totals;
+    }
+
+    @PostConstruct
+    public void load() {
+        jdbcTemplate.query("SELECT granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor "
+                + "FROM payment_stats_rollup", rs -> {
+            CellKey key = new CellKey(Granularity.valueOf(rs.getString(1)), rs.getTimestamp(2).toLocalDateTime(),
+                    rs.getString(3), rs.getString(4));
+            Cell cell = cells.computeIfAbsent(key, k -> new Cell());
+            cell.count.add(rs.getLong(5));
+            cell.amountMinor.add(rs.getLong(6));
+            cell.checkpointedCount += rs.getLong(5);
+            cell.checkpointedAmountMinor += rs.getLong(6);
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${payment.stats.checkpoint-interval:PT30S}",
+            initialDelayString = "${payment.stats.checkpoint-interval:PT30S}")
+    @PreDestroy
+    public synchronized void checkpoint() {
+        List<Object[]> deltas = new ArrayList<>();
+        for (CellKey key : dirty) {
+            dirty.remove(key);
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                continue;
+            }
+            long count = cell.count.sum();
+            long amount = cell.amountMinor.sum();
+            long deltaCount = count - cell.checkpointedCount;
+            long deltaAmount = amount - cell.checkpointedAmountMinor;
+            if (deltaCount == 0 && deltaAmount == 0) {
+                continue;
+            }
+            cell.checkpointedCount = count;
+            cell.checkpointedAmountMinor = amount;
+            deltas.add(new Object[]{key.granularity().name(), Timestamp.valueOf(key.start()), key.status(), key.method(),
+                    deltaCount, deltaAmount});
+        }
+        if (!deltas.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPSERT, deltas);
+        }
+        evictExpired();
+    }
+
+    private void evictExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime minuteCutoff = now.minus(minuteRetention);
+        LocalDateTime hourCutoff = now.minus(hourRetention);
+        // Solo se descartan de memoria celdas ya volcadas; la tabla conserva el histórico. La comprobación y el
+        // borrado van en un compute por clave para no cruzarse con record.
+        for (CellKey key : cells.keySet()) {
+            boolean expired = (key.granularity() == Granularity.MINUTE && key.start().isBefore(minuteCutoff))
+                    || (key.granularity() == Granularity.HOUR && key.start().isBefore(hourCutoff));
+            if (expired) {
+                cells.computeIfPresent(key, (k, cell) -> dirty.contains(k) ? cell : null);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.programthis.payment_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.programthis.payment_service.entity.Payment;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Caché en memoria, acotada por tamaño y TTL, para las consultas de estado por orderId y transactionId.
+ * Los "no encontrado" también se guardan (como Optional vacío) con un TTL más corto. Además se indexa por id
+ * cada pago guardado, para que una modificación encuentre su imagen previa sin leerla de la base.
+ */
+@Component
+public class PaymentStatusCache implements MeterBinder {
+
+    public static record Stats(String cache, long size, long hitCount, long missCount, long evictionCount, double hitRate) {}
+
+    private final Cache<String, Optional<Payment>> byOrderId;
+    private final Cache<String, Optional<Payment>> byTransactionId;
+    private final Cache<Long, Payment> byId;
+
+    public PaymentStatusCache(@Value("${payment.cache.maximum-size:100000}") long maximumSize,
+                              @Value("${payment.cache.ttl:30s}") Duration ttl,
+                              @Value("${payment.cache.negative-ttl:2s}") Duration negativeTtl) {
+        this.byOrderId = build(maximumSize, ttl, negativeTtl);
+        this.byTransactionId = build(maximumSize, ttl, negativeTtl);
+        this.byId = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl).build();
+    }
+
+    private static Cache<String, Optional<Payment>> build(long maximumSize, Duration ttl, Duration negativeTtl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new StatusExpiry(ttl.toNanos(), negativeTtl.toNanos()))
+                .recordStats()
+                .build();
+    }
+
+    public Optional<Payment> getByOrderId(String orderId, Function<String, Optional<Payment>> loader) {
+        return byOrderId.get(orderId, key -> indexed(loader.apply(key)));
+    }
+
+    public Optional<Payment> getByTransactionId(String transactionId, Function<String, Optional<Payment>> loader) {
+        return byTransactionId.get(transactionId, key -> indexed(loader.apply(key)));
+    }
+
+    /**
+     * El pago con ese id, si alguna de las dos cachés lo tiene.
+     */
+    public Optional<Payment> getById(Long id) {
+        return Optional.ofNullable(byId.getIfPresent(id));
+    }
+
+    /**
+     * Versión en bloque: el cargador recibe de una vez todas las claves que faltan y debe devolver una entrada
+     * por clave (Optional vacío si no existe) para que los "no encontrado" también se guarden.
+     */
+    public Map<String, Optional<Payment>> getAllByOrderId(Collection<String> orderIds,
+                                                          Function<Set<? extends String>, Map<String, Optional<Payment>>> loader) {
+        return byOrderId.getAll(orderIds, keys -> indexed(loader.apply(keys)));
+    }
+
+    public Map<String, Optional<Payment>> getAllByTransactionId(Collection<String> transactionIds,
+                                                                Function<Set<? extends String>, Map<String, Optional<Payment>>> loader) {
+        return byTransactionId.getAll(transactionIds, keys -> indexed(loader.apply(keys)));
+    }
+
+    public void put(Payment payment) {
+        indexed(Optional.of(payment));
+        if (payment.getOrderId() != null) {
+            byOrderId.put(payment.getOrderId(), Optional.of(payment));
+        }
+        if (payment.getTransactionId() != null) {
+            byTransactionId.put(payment.getTransactionId(), Optional.of(payment));
+        }
+    }
+
+    public void evict(Payment payment) {
+        if (payment.getId() != null) {
+            byId.invalidate(payment.getId());
+        }
+        if (payment.getOrderId() != null) {
+            byOrderId.invalidate(payment.getOrderId());
+        }
+        if (payment.getTransactionId() != null) {
+            byTransactionId.invalidate(payment.getTransactionId());
+        }
+    }
+
+    public void clear() {
+        byOrderId.invalidateAll();
+        byTransactionId.invalidateAll();
+        byId.invalidateAll();
+    }
+
+    private Optional<Payment> indexed(Optional<Payment> payment) {
+        payment.filter(found -> found.getId() != null).ifPresent(found -> byId.put(found.getId(), found));
+        return payment;
+    }
+
+    private Map<String, Optional<Payment>> indexed(Map<String, Optional<Payment>> payments) {
+        payments.values().forEach(this::indexed);
+        return payments;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, byOrderId, "payment.status.by-order-id");
+        CaffeineCacheMetrics.monitor(registry, byTransactionId, "payment.status.by-transaction-id");
+    }
+
+    public Stats orderIdStats() {
+        return toStats("orderId", byOrderId);
+    }
+
+    public Stats transactionIdStats() {
+        return toStats("transactionId", byTransactionId);
+    }
+
+    private static Stats toStats(String name, Cache<String, Optional<Payment>> cache) {
+        CacheStats stats = cache.stats();
+        return new Stats(name, cache.estimatedSize(), stats.hitCount(), stats.missCount(),
+                stats.evictionCount(), stats.hitRate());
+    }
+
+    private record StatusExpiry(long ttlNanos, long negativeTtlNanos) implements Expiry<String, Optional<Payment>> {
+
+        @Override
+        public long expireAfterCreate(String key, Optional<Payment> value, long currentTime) {
+            return value.isPresent() ? ttlNanos : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Optional<Payment> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Optional<Payment> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.entity.Payment;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Bus de eventos en proceso para los cambios de estado de un pago, por orderId. Un suscriptor inactivo es solo
+ * una entrada en un mapa (SseEmitter o DeferredResult esperando, sin hilo asociado). Cada suscriptor tiene su
+ * propio buzón: los avisos se le entregan de uno en uno y en el orden en que se publicaron, en tareas del
+ * paymentExecutor, para que un cliente lento no retrase a quien publica ni a los demás.
+ */
+@Component
+public class PaymentStatusNotifier implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentStatusNotifier.class);
+
+    public interface Subscription extends AutoCloseable {
+        /**
+         * Entrega un pago solo a este suscriptor, por el mismo buzón que los avisos publicados (p. ej. el estado
+         * inicial de un SSE), de modo que no pueda adelantar ni quedar detrás de uno más reciente.
+         */
+        void deliver(Payment payment);
+
+        @Override
+        void close();
+    }
+
+    private final ConcurrentMap<String, Set<Mailbox>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final int maxSubscribers;
+    private final Executor executor;
+
+    public PaymentStatusNotifier(@Value("${payment.subscriptions.max-subscribers:50000}") int maxSubscribers,
+                                 @Qualifier("paymentExecutor") Executor executor) {
+        this.maxSubscribers = maxSubscribers;
+        this.executor = executor;
+    }
+
+    public Subscription subscribe(String orderId, Consumer<Payment> listener) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new SubscriptionLimitExceededException("Too many status subscribers (" + maxSubscribers + ")");
+        }
+        Mailbox mailbox = new Mailbox(orderId, listener);
+        subscribers.compute(orderId, (key, mailboxes) -> {
+            Set<Mailbox> set = mailboxes != null ? mailboxes : ConcurrentHashMap.newKeySet();
+            set.add(mailbox);
+            return set;
+        });
+        return mailbox;
+    }
+
+    public void publish(Payment payment) {
+        if (payment.getOrderId() == null) {
+            return;
+        }
+        Set<Mailbox> mailboxes = subscribers.get(payment.getOrderId());
+        if (mailboxes == null) {
+            return;
+        }
+        mailboxes.forEach(mailbox -> mailbox.deliver(payment));
+    }
+
+    /**
+     * Cola de avisos de un suscriptor. Solo hay una tarea de entrega en curso por buzón (la que lleva pending
+     * de 0 a 1); las demás publicaciones se encolan detrás. Se descarta un aviso de una versión igual o anterior
+     * a la ya entregada para ese mismo pago: llega tarde (p. ej. el estado inicial leído antes de un cambio).
+     */
+    private final class Mailbox implements Subscription {
+
+        private final String orderId;
+        private final Consumer<Payment> listener;
+        private final Queue<Payment> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Solo los toca la tarea de entrega, que nunca corre dos veces a la vez.
+        private Long lastId;
+        private Long lastVersion;
+
+        private Mailbox(String orderId, Consumer<Payment> listener) {
+            this.orderId = orderId;
+            this.listener = listener;
+        }
+
+        @Override
+        public void deliver(Payment payment) {
+            if (closed.get()) {
+                return;
+            }
+            queue.add(payment);
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Payment payment = queue.poll();
+                if (payment != null && !closed.get() && !isStale(payment)) {
+                    lastId = payment.getId();
+                    lastVersion = payment.getVersion();
+                    try {
+                        listener.accept(payment);
+                    } catch (RuntimeException e) {
+                        log.warn("Status subscriber for order {} failed", orderId, e);
+                    }
+                }
+            } while (pending.decrementAndGet() > 0);
+        }
+
+        private boolean isStale(Payment payment) {
+            return lastVersion != null && payment.getVersion() != null
+                    && payment.getId() != null && payment.getId().equals(lastId)
+                    && payment.getVersion() <= lastVersion;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                subscribers.computeIfPresent(orderId, (key, mailboxes) -> {
+                    mailboxes.remove(this);
+                    return mailboxes.isEmpty() ? null : mailboxes;
+                });
+                subscriberCount.decrementAndGet();
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.status.subscribers", this, PaymentStatusNotifier::subscriberCount)
+                .description("Suscripciones abiertas al estado de un pago (SSE y long-poll)")
+                .register(registry);
+    }
+}
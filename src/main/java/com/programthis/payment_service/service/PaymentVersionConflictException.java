@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class PaymentVersionConflictException extends RuntimeException {
+
+    public PaymentVersionConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,380 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.repository.PaymentRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritura diferida (write-behind) de los pagos de POST /process, desactivada por defecto.
+ * <p>
+ * Los pagos ya autorizados se encolan en un buffer circular acotado y un único hilo escritor los guarda
+ * en lotes, una transacción por lote (group commit). Con durability=COMMIT el futuro se completa tras el
+ * commit; con durability=ENQUEUE se completa en cuanto el pago está sincronizado en el registro local
+ * (ver {@link PaymentWriteAheadLog}), que se reproduce al arrancar. Si la cola está llena más de
+ * offer-timeout, el pago se rechaza con {@link WriteBehindQueueFullException}.
+ * <p>
+ * El id se reserva al encolar, así que el pago confirmado ya lo lleva y se guarda con ese mismo id. Con ENQUEUE un
+ * pago que no se puede guardar no se descarta: queda apartado, se reintenta cada minuto y el checkpoint del registro
+ * no pasa de él hasta que se guarda.
+ */
+@Component
+public class PaymentWriteBehind implements MeterBinder {
+
+    public enum Durability { COMMIT, ENQUEUE }
+
+    private record Pending(Payment payment, long sequence, CompletableFuture<Payment> result) {}
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentWriteBehind.class);
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 5000;
+    private static final long PARKED_RETRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final boolean enabled;
+    private final Durability durability;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long offerTimeoutNanos;
+    private final BlockingQueue<Pending> queue;
+    // Huecos libres en cola + lotes en curso: se liberan tras el commit, así la presión llega al cliente.
+    private final Semaphore slots;
+    private final PaymentWriteAheadLog wal;
+    private final PaymentRepository paymentRepository;
+    private final PaymentIdAllocator paymentIdAllocator;
+    private final PaymentMetrics paymentMetrics;
+    private final PaymentEventLog paymentEventLog;
+    private final PaymentOutbox paymentOutbox;
+    private final TransactionTemplate transactionTemplate;
+    private final Object enqueueLock = new Object();
+    // Pagos confirmados (ENQUEUE) que no se han podido guardar, en orden de secuencia. Solo los toca el escritor.
+    private final List<Pending> parked = new CopyOnWriteArrayList<>();
+    private long nextParkedRetry;
+    private long written;
+    private long checkpointed;
+    private DistributionSummary batchSizes;
+    private volatile boolean running;
+    private boolean abandoned;
+    private Thread writer;
+
+    public PaymentWriteBehind(@Value("${payment.write-behind.enabled:false}") boolean enabled,
+                              @Value("${payment.write-behind.durability:COMMIT}") Durability durability,
+                              @Value("${payment.write-behind.capacity:10000}") int capacity,
+                              @Value("${payment.write-behind.max-batch-size:500}") int maxBatchSize,
+                              @Value("${payment.write-behind.offer-timeout:100ms}") Duration offerTimeout,
+                              @Value("${payment.write-behind.wal-directory:./data/wal}") Path walDirectory,
+                              @Value("${payment.write-behind.wal-segment-size:64MB}") DataSize walSegmentSize,
+                              PaymentRepository paymentRepository,
+                              PaymentIdAllocator paymentIdAllocator,
+                              PaymentMetrics paymentMetrics,
+                              PaymentEventLog paymentEventLog,
+                              PaymentOutbox paymentOutbox,
+                              PlatformTransactionManager transactionManager) {
+        this.enabled = enabled;
+        this.durability = durability;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.offerTimeoutNanos = offerTimeout.toNanos();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.slots = new Semaphore(capacity);
+        this.wal = enabled && durability == Durability.ENQUEUE
+                ? new PaymentWriteAheadLog(walDirectory, walSegmentSize.toBytes())
+                : null;
+        this.paymentRepository = paymentRepository;
+        this.paymentIdAllocator = paymentIdAllocator;
+        this.paymentMetrics = paymentMetrics;
+        this.paymentEventLog = paymentEventLog;
+        this.paymentOutbox = paymentOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (wal != null) {
+            List<Payment> unsaved = replay(wal.recover());
+            wal.reset();
+            // Lo que no se pudo guardar vuelve al registro nuevo, apartado para el siguiente reintento.
+            for (Payment payment : unsaved) {
+                parked.add(new Pending(payment, wal.append(payment), new CompletableFuture<>()));
+            }
+            if (!parked.isEmpty()) {
+                wal.sync(parked.get(parked.size() - 1).sequence());
+                nextParkedRetry = System.nanoTime() + PARKED_RETRY_NANOS;
+            }
+        }
+        running = true;
+        writer = Thread.ofPlatform().name("payment-writer").start(this::drain);
+    }
+
+    /**
+     * Detiene el escritor después de vaciar la cola. Con ENQUEUE lo que no llegue a guardarse queda en el registro.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join();
+        writer = null;
+        if (!parked.isEmpty()) {
+            log.warn("Write-behind stopped with {} parked payments left in the write-ahead log", parked.size());
+        }
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    public CompletableFuture<Payment> submit(Payment payment) {
+        try {
+            paymentIdAllocator.assign(payment);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            if (!slots.tryAcquire(offerTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                return CompletableFuture.failedFuture(
+                        new WriteBehindQueueFullException("Write-behind queue of " + capacity + " payments is full"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new WriteBehindQueueFullException("Interrupted while waiting for queue space"));
+        }
+        if (wal == null) {
+            Pending pending = new Pending(payment, 0, new CompletableFuture<>());
+            queue.add(pending);
+            return pending.result();
+        }
+        long sequence;
+        // El orden de la cola debe coincidir con el del registro para que el checkpoint sea una marca única.
+        synchronized (enqueueLock) {
+            sequence = wal.append(payment);
+            queue.add(new Pending(payment, sequence, new CompletableFuture<>()));
+        }
+        wal.sync(sequence);
+        return CompletableFuture.completedFuture(payment);
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public int parked() {
+        return parked.size();
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                retryParked();
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                slots.release(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending> batch) throws InterruptedException {
+        if (batchSizes != null) {
+            batchSizes.record(batch.size());
+        }
+        long backoffMillis = 50;
+        while (true) {
+            try {
+                List<Payment> payments = batch.stream().map(Pending::payment).toList();
+                paymentMetrics.timePersist(() -> saveAll(payments));
+                paymentEventLog.appendAll(PaymentEventLog.Type.CREATED, payments);
+                batch.forEach(pending -> pending.result().complete(pending.payment()));
+                break;
+            } catch (DataIntegrityViolationException e) {
+                // Algún pago del lote es inválido: se guardan uno a uno para aislarlo.
+                resetVersions(batch);
+                writeIndividually(batch);
+                break;
+            } catch (RuntimeException e) {
+                resetVersions(batch);
+                if (wal == null) {
+                    batch.forEach(pending -> pending.result().completeExceptionally(e));
+                    return;
+                }
+                if (!running) {
+                    // Parando: el lote queda en el registro y se reproducirá al arrancar. No se avanza más el checkpoint.
+                    log.warn("Write-behind batch of {} payments left in the write-ahead log on shutdown", batch.size(), e);
+                    abandoned = true;
+                    return;
+                }
+                // Con ENQUEUE el pago ya se confirmó al cliente: se reintenta hasta que la base de datos vuelva.
+                log.warn("Write-behind batch of {} payments failed, retrying in {} ms", batch.size(), backoffMillis, e);
+                Thread.sleep(backoffMillis);
+                backoffMillis = Math.min(backoffMillis * 2, MAX_RETRY_BACKOFF_MILLIS);
+            }
+        }
+        if (wal != null) {
+            written = batch.get(batch.size() - 1).sequence();
+            advanceCheckpoint();
+        }
+    }
+
+    private void writeIndividually(List<Pending> batch) {
+        for (Pending pending : batch) {
+            try {
+                pending.result().complete(saveOne(pending.payment()));
+            } catch (RuntimeException e) {
+                if (wal == null) {
+                    // Con COMMIT el cliente aún no tiene respuesta: recibe el error.
+                    log.error("Write-behind could not save payment for order {}", pending.payment().getOrderId(), e);
+                    pending.result().completeExceptionally(e);
+                } else {
+                    // Con ENQUEUE el pago ya se confirmó: se aparta y se reintenta, nunca se descarta.
+                    log.error("Write-behind could not save payment {} for order {}, parked for retry",
+                            pending.payment().getId(), pending.payment().getOrderId(), e);
+                    resetVersions(List.of(pending));
+                    parked.add(pending);
+                }
+            }
+        }
+    }
+
+    private void retryParked() {
+        if (parked.isEmpty() || System.nanoTime() - nextParkedRetry < 0) {
+            return;
+        }
+        List<Pending> retry = List.copyOf(parked);
+        parked.clear();
+        writeIndividually(retry);
+        nextParkedRetry = System.nanoTime() + PARKED_RETRY_NANOS;
+        advanceCheckpoint();
+    }
+
+    // El checkpoint avanza hasta lo último escrito, pero nunca más allá del primer pago apartado.
+    private void advanceCheckpoint() {
+        if (abandoned) {
+            return;
+        }
+        long sequence = parked.isEmpty() ? written : Math.min(written, parked.get(0).sequence() - 1);
+        if (sequence > checkpointed) {
+            wal.checkpoint(sequence);
+            checkpointed = sequence;
+        }
+    }
+
+    private Payment saveOne(Payment payment) {
+        Payment saved = paymentMetrics.timePersist(() -> transactionTemplate.execute(status -> {
+            Payment persisted = paymentRepository.save(payment);
+            paymentOutbox.append(PaymentEventLog.Type.CREATED, persisted);
+            return persisted;
+        }));
+        paymentEventLog.append(PaymentEventLog.Type.CREATED, saved);
+        return saved;
+    }
+
+    // Los pagos y sus eventos de la bandeja de salida, en la misma transacción.
+    private List<Payment> saveAll(List<Payment> payments) {
+        return transactionTemplate.execute(status -> {
+            List<Payment> saved = paymentRepository.saveAll(payments);
+            paymentOutbox.appendAll(PaymentEventLog.Type.CREATED, saved);
+            return saved;
+        });
+    }
+
+    // Hibernate inicializa la versión al persistir aunque la transacción se deshaga; el id reservado se conserva.
+    private static void resetVersions(List<Pending> batch) {
+        batch.forEach(pending -> pending.payment().setVersion(null));
+    }
+
+    /**
+     * Guarda lo pendiente del registro y devuelve los pagos que no se han podido guardar.
+     */
+    private List<Payment> replay(List<PaymentWriteAheadLog.Entry> entries) {
+        if (entries.isEmpty()) {
+            return List.of();
+        }
+        // Un fallo entre el commit y el checkpoint deja pagos ya guardados en el registro.
+        List<Payment> payments = entries.stream()
+                .map(PaymentWriteAheadLog.Entry::payment)
+                .filter(payment -> !alreadySaved(payment))
+                .toList();
+        List<Payment> unsaved = new ArrayList<>();
+        for (int from = 0; from < payments.size(); from += maxBatchSize) {
+            List<Payment> chunk = payments.subList(from, Math.min(from + maxBatchSize, payments.size()));
+            try {
+                saveAll(chunk);
+            } catch (RuntimeException e) {
+                chunk.forEach(payment -> payment.setVersion(null));
+                for (Payment payment : chunk) {
+                    try {
+                        saveOne(payment);
+                    } catch (RuntimeException individual) {
+                        log.error("Could not replay payment {} for order {}, parked for retry",
+                                payment.getId(), payment.getOrderId(), individual);
+                        payment.setVersion(null);
+                        unsaved.add(payment);
+                    }
+                }
+            }
+        }
+        log.info("Replayed {} payments from the write-ahead log", payments.size() - unsaved.size());
+        return unsaved;
+    }
+
+    // Los registros antiguos no llevan id: para esos solo queda el transactionId, que los pagos FAILED no tienen.
+    private boolean alreadySaved(Payment payment) {
+        if (payment.getId() != null) {
+            return paymentRepository.existsById(payment.getId());
+        }
+        return payment.getTransactionId() != null
+                && paymentRepository.findByTransactionId(payment.getTransactionId()).isPresent();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.write-behind.queued", this, PaymentWriteBehind::queued)
+                .description("Pagos pendientes de guardar por el escritor diferido")
+                .register(registry);
+        Gauge.builder("payment.write-behind.parked", this, PaymentWriteBehind::parked)
+                .description("Pagos confirmados que el escritor diferido no ha podido guardar y reintenta")
+                .register(registry);
+        batchSizes = DistributionSummary.builder("payment.write-behind.batch.size")
+                .description("Pagos guardados por transacción del escritor diferido")
+                .register(registry);
+    }
+}
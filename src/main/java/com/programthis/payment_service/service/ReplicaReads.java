@@ -0,0 +1,84 @@
+package com.programthis.payment_service.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.programthis.payment_service.datasource.ReadRouting;
+import com.programthis.payment_service.entity.Payment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Lecturas de estado en réplica con lectura de lo propio escrito: un pago escrito hace menos de
+ * read-your-writes-window (por encima del retraso máximo esperado de las réplicas) se lee del primario, por
+ * orderId o por transactionId. Solo cubre las escrituras de esta instancia. Sin enrutado las lecturas no cambian.
+ */
+@Component
+public class ReplicaReads {
+
+    private final boolean enabled;
+    private final Cache<String, Boolean> recentWrites;
+    private final TransactionTemplate readOnly;
+
+    public ReplicaReads(@Value("${payment.datasource.routing.enabled:false}") boolean enabled,
+                        @Value("${payment.datasource.routing.read-your-writes-window:5s}") Duration window,
+                        @Value("${payment.datasource.routing.max-tracked-writes:100000}") long maxTrackedWrites,
+                        PlatformTransactionManager transactionManager) {
+        this.enabled = enabled;
+        this.recentWrites = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .maximumSize(maxTrackedWrites)
+                .build();
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+    }
+
+    public void recordWrite(Payment payment) {
+        if (!enabled) {
+            return;
+        }
+        if (payment.getOrderId() != null) {
+            recentWrites.put(orderKey(payment.getOrderId()), Boolean.TRUE);
+        }
+        if (payment.getTransactionId() != null) {
+            recentWrites.put(transactionKey(payment.getTransactionId()), Boolean.TRUE);
+        }
+    }
+
+    public <T> T byOrderId(String orderId, Supplier<T> read) {
+        return read(enabled && recentWrites.getIfPresent(orderKey(orderId)) != null, read);
+    }
+
+    public <T> T byTransactionId(String transactionId, Supplier<T> read) {
+        return read(enabled && recentWrites.getIfPresent(transactionKey(transactionId)) != null, read);
+    }
+
+    public <T> T byOrderIds(Collection<? extends String> orderIds, Supplier<T> read) {
+        return read(enabled && orderIds.stream().anyMatch(id -> recentWrites.getIfPresent(orderKey(id)) != null), read);
+    }
+
+    public <T> T byTransactionIds(Collection<? extends String> transactionIds, Supplier<T> read) {
+        return read(enabled && transactionIds.stream().anyMatch(id -> recentWrites.getIfPresent(transactionKey(id)) != null), read);
+    }
+
+    private <T> T read(boolean pinned, Supplier<T> read) {
+        if (!enabled) {
+            return read.get();
+        }
+        Supplier<T> transactional = () -> readOnly.execute(status -> read.get());
+        return pinned ? ReadRouting.onPrimary(transactional) : transactional.get();
+    }
+
+    private static String orderKey(String orderId) {
+        return "o:" + orderId;
+    }
+
+    private static String transactionKey(String transactionId) {
+        return "t:" + transactionId;
+    }
+}
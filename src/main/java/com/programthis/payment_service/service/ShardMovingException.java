@@ -0,0 +1,12 @@
+package com.programthis.payment_service.service;
+
+/**
+ * Escritura rechazada mientras su shard lógico se mueve de base (o sin un mapa de shards reciente): se puede
+ * reintentar en unos segundos.
+ */
+public class ShardMovingException extends RuntimeException {
+
+    public ShardMovingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,224 @@
+package com.programthis.payment_service.service;
+
+import com.programthis.payment_service.datasource.ShardContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Mueve shards lógicos enteros a otra base sin parar el servicio:
+ * <ol>
+ *   <li>los marca como en movimiento en payment_shard_map y espera a que ninguna instancia pueda seguir escribiendo
+ *   en ellos ({@link PaymentShards#fenceDelay()});</li>
+ *   <li>copia sus filas de payment y payment_archive desde la base que los tiene: inserta las que faltan en el
+ *   destino y actualiza las que tienen allí una versión anterior, y borra del destino las que ya no existen en el
+ *   origen (restos de un movimiento interrumpido);</li>
+ *   <li>los asigna a la base nueva, lo que les devuelve las escrituras, y espera otra vez a que nadie lea con el mapa
+ *   anterior antes de borrar el origen.</li>
+ * </ol>
+ * Un movimiento interrumpido deja sus shards en movimiento, sin escrituras, hasta que se repite.
+ */
+@Component
+public class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+    private static final List<String> TABLES = List.of("payment", "payment_archive");
+    // Columna generada del particionado de V7 (MySQL): la calcula la base destino y no admite valores.
+    private static final String GENERATED_COLUMN = "partition_date";
+
+    public record MoveResult(int fromShard, int toShard, int database, Set<Integer> movedShards, long movedRows) {}
+
+    public record DatabaseStats(int database, long logicalShards, long payments, BigDecimal amount) {}
+
+    private final PaymentShards paymentShards;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public ShardRebalancer(PaymentShards paymentShards,
+                           JdbcTemplate jdbcTemplate,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${payment.sharding.move-batch-size:1000}") int batchSize) {
+        this.paymentShards = paymentShards;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Lleva los shards lógicos fromShard..toShard (ambos incluidos) a la base indicada. Un movimiento cada vez.
+     */
+    public synchronized MoveResult move(int fromShard, int toShard, int database) {
+        if (!paymentShards.isEnabled()) {
+            throw new IllegalArgumentException("Sharding is not enabled");
+        }
+        if (fromShard < 0 || toShard < fromShard || toShard >= paymentShards.logicalShardCount()) {
+            throw new IllegalArgumentException("Logical shards must be a range within 0.." + (paymentShards.logicalShardCount() - 1));
+        }
+        if (database < 0 || database >= paymentShards.databaseCount()) {
+            throw new IllegalArgumentException("Database must be within 0.." + (paymentShards.databaseCount() - 1));
+        }
+        Set<Integer> range = IntStream.rangeClosed(fromShard, toShard).boxed().collect(Collectors.toCollection(TreeSet::new));
+        // Los que siguen en movimiento son de un movimiento interrumpido: se vuelven a copiar.
+        Set<Integer> shards = range.stream()
+                .filter(shard -> paymentShards.databaseOf(shard) != database || paymentShards.isMoving(shard))
+                .collect(Collectors.toCollection(TreeSet::new));
+        if (!shards.isEmpty()) {
+            paymentShards.markMoving(shards);
+            fence();
+        }
+        // Sin escrituras en esos shards, la base que los tiene es la fuente de verdad.
+        Map<Integer, Set<Integer>> shardsBySource = shards.stream()
+                .filter(shard -> paymentShards.databaseOf(shard) != database)
+                .collect(Collectors.groupingBy(paymentShards::databaseOf, TreeMap::new, Collectors.toCollection(TreeSet::new)));
+        Set<Integer> copiedShards = shardsBySource.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+        long moved = 0;
+        for (String table : TABLES) {
+            Set<Long> copied = new HashSet<>();
+            for (Map.Entry<Integer, Set<Integer>> source : shardsBySource.entrySet()) {
+                forEachBatch(source.getKey(), "*", table, source.getValue(), rows -> {
+                    upsert(database, table, rows);
+                    rows.forEach(row -> copied.add(id(row)));
+                });
+            }
+            forEachBatch(database, "id, order_id", table, copiedShards,
+                    rows -> delete(database, table, rows.stream().map(ShardRebalancer::id).filter(id -> !copied.contains(id)).toList()));
+            moved += copied.size();
+        }
+        if (!shards.isEmpty()) {
+            // A partir de aquí lecturas y escrituras de esos pedidos van a la base nueva.
+            paymentShards.reassign(shards, database);
+            fence();
+        }
+        // Ya nadie usa el origen. Se limpia todo el rango, también lo que dejara un movimiento interrumpido.
+        for (int other = 0; other < paymentShards.databaseCount(); other++) {
+            if (other == database) {
+                continue;
+            }
+            for (String table : TABLES) {
+                int source = other;
+                forEachBatch(source, "id, order_id", table, range,
+                        rows -> delete(source, table, rows.stream().map(ShardRebalancer::id).toList()));
+            }
+        }
+        log.info("Moved logical shards {} ({} rows) to database {}", shards, moved, database);
+        return new MoveResult(fromShard, toShard, database, shards, moved);
+    }
+
+    private void fence() {
+        try {
+            Thread.sleep(paymentShards.fenceDelay());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for other instances to refresh the shard map", e);
+        }
+    }
+
+    // Recorre la tabla por id y entrega, por lotes, las filas de los shards indicados.
+    private void forEachBatch(int database, String columns, String table, Set<Integer> shards,
+                              Consumer<List<Map<String, Object>>> action) {
+        if (shards.isEmpty()) {
+            return;
+        }
+        long lastId = Long.MIN_VALUE;
+        List<Map<String, Object>> rows;
+        do {
+            long after = lastId;
+            rows = ShardContext.on(database, () -> jdbcTemplate.queryForList(
+                    "SELECT " + columns + " FROM " + table + " WHERE id > ? ORDER BY id LIMIT ?", after, batchSize));
+            if (rows.isEmpty()) {
+                break;
+            }
+            lastId = id(rows.get(rows.size() - 1));
+            List<Map<String, Object>> selected = rows.stream()
+                    .filter(row -> shards.contains(paymentShards.logicalShardOf((String) row.get("order_id"))))
+                    .toList();
+            if (!selected.isEmpty()) {
+                action.accept(selected);
+            }
+        } while (rows.size() == batchSize);
+    }
+
+    // Inserta las filas que faltan en el destino y actualiza las que tiene con una versión anterior.
+    private void upsert(int target, String table, List<Map<String, Object>> rows) {
+        List<String> columns = rows.get(0).keySet().stream()
+                .filter(column -> !column.equalsIgnoreCase(GENERATED_COLUMN))
+                .toList();
+        List<String> updated = columns.stream().filter(column -> !column.equalsIgnoreCase("id")).toList();
+        String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        String update = "UPDATE " + table + " SET " + updated.stream().map(column -> column + " = ?").collect(Collectors.joining(", "))
+                + " WHERE id = ? AND version < ?";
+        List<Object> ids = rows.stream().map(row -> row.get("id")).toList();
+        ShardContext.on(target, () -> transactionTemplate.execute(status -> {
+            Set<Long> existing = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM " + table + " WHERE id IN ("
+                    + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", Long.class, ids.toArray()));
+            List<Object[]> inserts = new ArrayList<>();
+            List<Object[]> updates = new ArrayList<>();
+            for (Map<String, Object> row : rows) {
+                if (existing.contains(id(row))) {
+                    List<Object> values = new ArrayList<>(updated.stream().map(row::get).toList());
+                    values.add(row.get("id"));
+                    values.add(row.get("version"));
+                    updates.add(values.toArray());
+                } else {
+                    inserts.add(columns.stream().map(row::get).toArray());
+                }
+            }
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate(update, updates);
+            }
+            if (!inserts.isEmpty()) {
+                jdbcTemplate.batchUpdate(insert, inserts);
+            }
+            return null;
+        }));
+    }
+
+    private void delete(int database, String table, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        ShardContext.on(database, () -> jdbcTemplate.update("DELETE FROM " + table + " WHERE id IN (" + placeholders + ")",
+                ids.toArray()));
+    }
+
+    private static long id(Map<String, Object> row) {
+        return ((Number) row.get("id")).longValue();
+    }
+
+    /**
+     * Pagos e importe de cada base, consultadas todas a la vez.
+     */
+    public List<DatabaseStats> databaseStats() {
+        Map<Integer, Long> shardsPerDatabase = paymentShards.logicalShardsPerDatabase();
+        List<Map<String, Object>> totals = paymentShards.scatter(() -> jdbcTemplate.queryForMap(
+                "SELECT COUNT(*) AS payments, COALESCE(SUM(amount_minor), 0) AS amount_minor FROM payment"));
+        List<DatabaseStats> stats = new ArrayList<>();
+        for (int database = 0; database < totals.size(); database++) {
+            Map<String, Object> total = totals.get(database);
+            stats.add(new DatabaseStats(database, shardsPerDatabase.get(database),
+                    ((Number) total.get("payments")).longValue(),
+                    BigDecimal.valueOf(((Number) total.get("amount_minor")).longValue(), 2)));
+        }
+        return stats;
+    }
+}
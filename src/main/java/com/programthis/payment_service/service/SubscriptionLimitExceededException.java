@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class SubscriptionLimitExceededException extends RuntimeException {
+
+    public SubscriptionLimitExceededException(String message) {
+        super(message);
+    }
+}
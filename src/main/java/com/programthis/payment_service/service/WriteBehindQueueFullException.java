@@ -0,0 +1,8 @@
+package com.programthis.payment_service.service;
+
+public class WriteBehindQueueFullException extends RuntimeException {
+
+    public WriteBehindQueueFullException(String message) {
+        super(message);
+    }
+}
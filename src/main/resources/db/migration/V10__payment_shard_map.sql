@@ -0,0 +1,7 @@
+-- Reparto de los shards lógicos (hash del orderId) entre las bases de datos. Solo se usa en la base principal;
+-- vacía mientras payment.sharding esté desactivado.
+CREATE TABLE payment_shard_map (
+    logical_shard  INT NOT NULL,
+    database_index INT NOT NULL,
+    PRIMARY KEY (logical_shard)
+);
@@ -0,0 +1,8 @@
+-- Punto de control de cada registro local de eventos (PaymentEventLog): secuencia hasta la que esta base ya
+-- contiene sus cambios. Una copia de seguridad lo restaura junto con los pagos, así que al arrancar solo se
+-- reproduce lo que la base restaurada no tenía.
+CREATE TABLE payment_event_log_checkpoint (
+    log_id        VARCHAR(36) NOT NULL,
+    last_sequence BIGINT      NOT NULL,
+    PRIMARY KEY (log_id)
+);
@@ -0,0 +1,2 @@
+-- Shards lógicos que se están moviendo de base: las escrituras de sus pedidos se rechazan hasta que termine la copia.
+ALTER TABLE payment_shard_map ADD COLUMN moving BOOLEAN NOT NULL DEFAULT FALSE;
@@ -0,0 +1,3 @@
+-- Índice del orden global (transaction_date, id): el paginado por clave y el recorrido NDJSON lo recorren en orden
+-- desde el último pago devuelto, sin ordenar la tabla entera.
+CREATE INDEX idx_payment_date_id ON payment (transaction_date, id);
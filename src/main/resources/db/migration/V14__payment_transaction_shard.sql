@@ -0,0 +1,7 @@
+-- Directorio transactionId -> shard lógico: las búsquedas por transacción van a la base de su shard en vez de a
+-- todas. Solo se usa en la base principal; vacía mientras payment.sharding esté desactivado.
+CREATE TABLE payment_transaction_shard (
+    transaction_id BINARY(16) NOT NULL,
+    logical_shard  INT NOT NULL,
+    PRIMARY KEY (transaction_id)
+);
@@ -0,0 +1,22 @@
+-- Esquema inicial; IF NOT EXISTS permite adoptar bases creadas antes con ddl-auto=update.
+CREATE TABLE IF NOT EXISTS payment (
+    id               BIGINT         NOT NULL,
+    order_id         VARCHAR(255),
+    amount           DECIMAL(38, 2),
+    payment_method   VARCHAR(255),
+    payment_status   VARCHAR(255),
+    transaction_id   VARCHAR(255),
+    transaction_date DATETIME(6),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS payment_id_generator (
+    sequence_name VARCHAR(255) NOT NULL,
+    next_val      BIGINT,
+    PRIMARY KEY (sequence_name)
+);
+
+-- El generador arranca por encima de los IDs ya asignados por AUTO_INCREMENT.
+INSERT INTO payment_id_generator (sequence_name, next_val)
+SELECT 'payment', COALESCE(MAX(id), 0) + 51 FROM payment
+WHERE NOT EXISTS (SELECT 1 FROM payment_id_generator WHERE sequence_name = 'payment');
@@ -0,0 +1,5 @@
+-- Índices para las consultas de estado por orden y por transacción.
+-- order_id no es único: un pedido puede reintentarse tras un pago FAILED.
+CREATE INDEX idx_payment_order_id ON payment (order_id);
+CREATE UNIQUE INDEX ux_payment_transaction_id ON payment (transaction_id);
+CREATE INDEX idx_payment_status_date ON payment (payment_status, transaction_date);
@@ -0,0 +1,10 @@
+-- Claves de idempotencia de POST /process. payment_id es NULL mientras la petición está en curso.
+CREATE TABLE idempotency_key (
+    idempotency_key     VARCHAR(255) NOT NULL,
+    request_fingerprint VARCHAR(64)  NOT NULL,
+    payment_id          BIGINT,
+    created_at          DATETIME(6)  NOT NULL,
+    PRIMARY KEY (idempotency_key)
+);
+
+CREATE INDEX idx_idempotency_key_created_at ON idempotency_key (created_at);
@@ -0,0 +1,50 @@
+-- Contadores agregados de pagos por intervalo, estado y método. Cada instancia suma aquí sus deltas.
+CREATE TABLE payment_stats_rollup (
+    granularity    VARCHAR(8)  NOT NULL,
+    bucket_start   DATETIME(6) NOT NULL,
+    payment_status VARCHAR(32) NOT NULL,
+    payment_method VARCHAR(32) NOT NULL,
+    payment_count  BIGINT      NOT NULL,
+    amount_minor   BIGINT      NOT NULL,
+    PRIMARY KEY (granularity, bucket_start, payment_status, payment_method)
+);
+
+-- Se siembra con los pagos que ya existen, igual que los contaría PaymentStatistics: sin fecha van al 1970-01-01,
+-- sin estado o método a UNKNOWN (V4 ya guarda ambos como códigos TINYINT). Los intervalos se truncan contando
+-- unidades enteras desde 1970, que da lo mismo que LocalDateTime.truncatedTo en MySQL y en H2.
+
+INSERT INTO payment_stats_rollup (granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor)
+SELECT 'TOTAL', bucket_start, payment_status, payment_method, COUNT(*), SUM(amount_minor)
+FROM (SELECT TIMESTAMP '1970-01-01 00:00:00' AS bucket_start,
+             CASE payment_status WHEN 0 THEN 'PENDING' WHEN 1 THEN 'COMPLETED' WHEN 2 THEN 'FAILED' WHEN 3 THEN 'REFUNDED' WHEN 4 THEN 'VOIDED' ELSE 'UNKNOWN' END AS payment_status,
+             CASE payment_method WHEN 0 THEN 'PROCESSED_METHOD' WHEN 1 THEN 'CARD' WHEN 2 THEN 'PAYPAL' WHEN 3 THEN 'BANK_TRANSFER' ELSE 'UNKNOWN' END AS payment_method,
+             COALESCE(amount_minor, 0) AS amount_minor
+      FROM payment) existing
+GROUP BY bucket_start, payment_status, payment_method;
+
+INSERT INTO payment_stats_rollup (granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor)
+SELECT 'DAY', bucket_start, payment_status, payment_method, COUNT(*), SUM(amount_minor)
+FROM (SELECT TIMESTAMPADD(DAY, TIMESTAMPDIFF(DAY, TIMESTAMP '1970-01-01 00:00:00', COALESCE(transaction_date, TIMESTAMP '1970-01-01 00:00:00')), TIMESTAMP '1970-01-01 00:00:00') AS bucket_start,
+             CASE payment_status WHEN 0 THEN 'PENDING' WHEN 1 THEN 'COMPLETED' WHEN 2 THEN 'FAILED' WHEN 3 THEN 'REFUNDED' WHEN 4 THEN 'VOIDED' ELSE 'UNKNOWN' END AS payment_status,
+             CASE payment_method WHEN 0 THEN 'PROCESSED_METHOD' WHEN 1 THEN 'CARD' WHEN 2 THEN 'PAYPAL' WHEN 3 THEN 'BANK_TRANSFER' ELSE 'UNKNOWN' END AS payment_method,
+             COALESCE(amount_minor, 0) AS amount_minor
+      FROM payment) existing
+GROUP BY bucket_start, payment_status, payment_method;
+
+INSERT INTO payment_stats_rollup (granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor)
+SELECT 'HOUR', bucket_start, payment_status, payment_method, COUNT(*), SUM(amount_minor)
+FROM (SELECT TIMESTAMPADD(HOUR, TIMESTAMPDIFF(HOUR, TIMESTAMP '1970-01-01 00:00:00', COALESCE(transaction_date, TIMESTAMP '1970-01-01 00:00:00')), TIMESTAMP '1970-01-01 00:00:00') AS bucket_start,
+             CASE payment_status WHEN 0 THEN 'PENDING' WHEN 1 THEN 'COMPLETED' WHEN 2 THEN 'FAILED' WHEN 3 THEN 'REFUNDED' WHEN 4 THEN 'VOIDED' ELSE 'UNKNOWN' END AS payment_status,
+             CASE payment_method WHEN 0 THEN 'PROCESSED_METHOD' WHEN 1 THEN 'CARD' WHEN 2 THEN 'PAYPAL' WHEN 3 THEN 'BANK_TRANSFER' ELSE 'UNKNOWN' END AS payment_method,
+             COALESCE(amount_minor, 0) AS amount_minor
+      FROM payment) existing
+GROUP BY bucket_start, payment_status, payment_method;
+
+INSERT INTO payment_stats_rollup (granularity, bucket_start, payment_status, payment_method, payment_count, amount_minor)
+SELECT 'MINUTE', bucket_start, payment_status, payment_method, COUNT(*), SUM(amount_minor)
+FROM (SELECT TIMESTAMPADD(MINUTE, TIMESTAMPDIFF(MINUTE, TIMESTAMP '1970-01-01 00:00:00', COALESCE(transaction_date, TIMESTAMP '1970-01-01 00:00:00')), TIMESTAMP '1970-01-01 00:00:00') AS bucket_start,
+             CASE payment_status WHEN 0 THEN 'PENDING' WHEN 1 THEN 'COMPLETED' WHEN 2 THEN 'FAILED' WHEN 3 THEN 'REFUNDED' WHEN 4 THEN 'VOIDED' ELSE 'UNKNOWN' END AS payment_status,
+             CASE payment_method WHEN 0 THEN 'PROCESSED_METHOD' WHEN 1 THEN 'CARD' WHEN 2 THEN 'PAYPAL' WHEN 3 THEN 'BANK_TRANSFER' ELSE 'UNKNOWN' END AS payment_method,
+             COALESCE(amount_minor, 0) AS amount_minor
+      FROM payment) existing
+GROUP BY bucket_start, payment_status, payment_method;
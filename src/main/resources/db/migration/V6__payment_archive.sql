@@ -0,0 +1,16 @@
+-- Pagos archivados: mismas columnas que payment más la fecha de archivado. Solo se consulta
+-- cuando un pago no está en payment (búsquedas por orden o por transacción).
+CREATE TABLE payment_archive (
+    id               BIGINT      NOT NULL,
+    order_id         VARCHAR(255),
+    amount_minor     BIGINT,
+    payment_method   TINYINT,
+    payment_status   TINYINT,
+    transaction_id   BINARY(16),
+    transaction_date DATETIME(6),
+    archived_at      DATETIME(6) NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_payment_archive_order_id ON payment_archive (order_id);
+CREATE INDEX idx_payment_archive_transaction_id ON payment_archive (transaction_id);
@@ -0,0 +1,3 @@
+-- Versión para el bloqueo optimista (@Version) y el PATCH condicional. El archivo la conserva.
+ALTER TABLE payment ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE payment_archive ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,11 @@
+-- Bandeja de salida (outbox): un evento por alta, modificación o baja de un pago, escrito en la misma
+-- transacción que el cambio. PaymentOutbox los publica en orden de id y los borra al confirmarse el envío.
+CREATE TABLE payment_outbox (
+    id          BIGINT      NOT NULL AUTO_INCREMENT,
+    payment_id  BIGINT      NOT NULL,
+    order_id    VARCHAR(255),
+    event_type  VARCHAR(16) NOT NULL,
+    payload     TEXT        NOT NULL,
+    created_at  DATETIME(6) NOT NULL,
+    PRIMARY KEY (id)
+);
@@ -0,0 +1,63 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.service.ClientRateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientRateLimiterTest {
+
+    // 1 lectura por segundo con ráfaga de 3; 1 escritura por segundo sin ráfaga.
+    private ClientRateLimiter limitador(boolean activo) {
+        return new ClientRateLimiter(activo, 1, 3, 1, 1, 1000, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void rafaga_seAgotaYDevuelveLaEsperaHastaLaSiguienteFicha() {
+        ClientRateLimiter limitador = limitador(true);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.READ));
+        }
+        long espera = limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.READ);
+
+        assertTrue(espera > 0 && espera <= Duration.ofSeconds(1).toNanos(), "espera: " + espera);
+    }
+
+    @Test
+    void presupuestosYClientes_sonIndependientes() {
+        ClientRateLimiter limitador = limitador(true);
+
+        assertEquals(0, limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.WRITE));
+        assertTrue(limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.WRITE) > 0);
+
+        assertEquals(0, limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.READ));
+        assertEquals(0, limitador.tryAcquire("cliente-b", ClientRateLimiter.Budget.WRITE));
+        assertEquals(2, limitador.clients());
+    }
+
+    @Test
+    void decisiones_seExponenComoMetricas() {
+        ClientRateLimiter limitador = limitador(true);
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        limitador.bindTo(registro);
+
+        limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.WRITE);
+        limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.WRITE);
+
+        assertEquals(1.0, registro.get("payment.rate-limit.decisions").tag("budget", "write").tag("outcome", "allowed").counter().count());
+        assertEquals(1.0, registro.get("payment.rate-limit.decisions").tag("budget", "write").tag("outcome", "limited").counter().count());
+    }
+
+    @Test
+    void desactivado_dejaPasarTodo() {
+        ClientRateLimiter limitador = limitador(false);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limitador.tryAcquire("cliente-a", ClientRateLimiter.Budget.WRITE));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.programthis.payment_service;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactPaymentMigrationTest {
+
+    @Test
+    void migracionV4_convierteLasFilasExistentes() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        String transactionId = UUID.randomUUID().toString();
+
+        flyway(dataSource, "3").migrate();
+        jdbc.update("INSERT INTO payment (id, order_id, amount, payment_method, payment_status, transaction_id, transaction_date) "
+                + "VALUES (1, 'PEDIDO-001', 99.90, 'PROCESSED_METHOD', 'FAILED', ?, CURRENT_TIMESTAMP)", transactionId);
+        flyway(dataSource, "latest").migrate();
+
+        Map<String, Object> fila = jdbc.queryForMap(
+                "SELECT amount_minor, payment_method, payment_status, transaction_id FROM payment WHERE id = 1");
+        assertEquals(9990L, ((Number) fila.get("amount_minor")).longValue());
+        assertEquals(0, ((Number) fila.get("payment_method")).intValue());
+        assertEquals(2, ((Number) fila.get("payment_status")).intValue());
+        ByteBuffer binario = ByteBuffer.wrap((byte[]) fila.get("transaction_id"));
+        assertEquals(transactionId, new UUID(binario.getLong(), binario.getLong()).toString());
+    }
+
+    @Test
+    void migracionV4_conFilasQueNoSePuedenConvertir_fallaSinPerderDatos() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+
+        flyway(dataSource, "3").migrate();
+        jdbc.update("INSERT INTO payment (id, order_id, amount, payment_method, payment_status, transaction_id, transaction_date) "
+                + "VALUES (1, 'PEDIDO-001', 99.90, 'Tarjeta de Crédito', 'COMPLETADO', 'TRANSACCION-XYZ', CURRENT_TIMESTAMP)");
+
+        assertThrows(FlywayException.class, () -> flyway(dataSource, "latest").migrate());
+
+        Map<String, Object> fila = jdbc.queryForMap(
+                "SELECT amount, payment_method, payment_status, transaction_id FROM payment WHERE id = 1");
+        assertEquals("Tarjeta de Crédito", fila.get("payment_method"));
+        assertEquals("COMPLETADO", fila.get("payment_status"));
+        assertEquals("TRANSACCION-XYZ", fila.get("transaction_id"));
+    }
+
+    @Test
+    void migracionV5_siembraLasEstadisticasConLosPagosExistentes() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+
+        flyway(dataSource, "4").migrate();
+        String insert = "INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, transaction_date) "
+                + "VALUES (?, ?, ?, ?, ?, ?)";
+        jdbc.update(insert, 1, "PEDIDO-1", 1000, 1, 1, Timestamp.valueOf("2026-03-04 10:15:30"));
+        jdbc.update(insert, 2, "PEDIDO-2", 250, 1, 1, Timestamp.valueOf("2026-03-04 10:15:59"));
+        jdbc.update(insert, 3, "PEDIDO-3", 500, 1, 2, Timestamp.valueOf("2026-03-04 11:00:00"));
+        jdbc.update(insert, 4, "PEDIDO-4", 700, null, null, null);
+        flyway(dataSource, "latest").migrate();
+
+        String cell = "SELECT payment_count, amount_minor FROM payment_stats_rollup "
+                + "WHERE granularity = ? AND bucket_start = ? AND payment_status = ? AND payment_method = ?";
+        assertEquals(Map.of("payment_count", 2L, "amount_minor", 1250L), numbers(jdbc.queryForMap(cell,
+                "MINUTE", Timestamp.valueOf("2026-03-04 10:15:00"), "COMPLETED", "CARD")));
+        assertEquals(Map.of("payment_count", 2L, "amount_minor", 1250L), numbers(jdbc.queryForMap(cell,
+                "HOUR", Timestamp.valueOf("2026-03-04 10:00:00"), "COMPLETED", "CARD")));
+        assertEquals(Map.of("payment_count", 1L, "amount_minor", 500L), numbers(jdbc.queryForMap(cell,
+                "DAY", Timestamp.valueOf("2026-03-04 00:00:00"), "FAILED", "CARD")));
+        assertEquals(Map.of("payment_count", 1L, "amount_minor", 700L), numbers(jdbc.queryForMap(cell,
+                "TOTAL", Timestamp.valueOf("1970-01-01 00:00:00"), "UNKNOWN", "UNKNOWN")));
+        assertEquals(4L, jdbc.queryForObject(
+                "SELECT SUM(payment_count) FROM payment_stats_rollup WHERE granularity = 'TOTAL'", Long.class));
+    }
+
+    private static Map<String, Long> numbers(Map<String, Object> fila) {
+        return Map.of("payment_count", ((Number) fila.get("payment_count")).longValue(),
+                "amount_minor", ((Number) fila.get("amount_minor")).longValue());
+    }
+
+    private static Flyway flyway(DriverManagerDataSource dataSource, String target) {
+        return Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration", "classpath:db/vendor/h2")
+                .target(target)
+                .load();
+    }
+}
@@ -0,0 +1,229 @@
+package com.programthis.payment_service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentRequest;
+import com.programthis.payment_service.service.PaymentStatusCache;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Arnés de sentencias por petición: arranca la aplicación con el perfil prod sobre H2 en modo MySQL, cuenta las
+ * sentencias que cada endpoint envía a la base de datos y falla si alguno supera su presupuesto. Los presupuestos
+ * no dependen del tamaño de la petición, así que un N+1 o un lote que deja de agruparse se detecta aquí.
+ * El informe (sentencias, lotes y tiempo por petición) queda en target/statement-counts.txt.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statement-count;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "payment.stats.checkpoint-interval=PT1H"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles({"prod", "test"})
+class EndpointStatementCountTest {
+
+    private static final Logger log = LoggerFactory.getLogger(EndpointStatementCountTest.class);
+    private static final String BASE = "/api/v1/payments";
+    private static final int REQUESTS = 20;
+    private static final int BATCH = 50;
+    private static final Map<String, String> report = new ConcurrentSkipListMap<>();
+    private static final AtomicLong orders = new AtomicLong();
+
+    @TestConfiguration
+    static class CountingConfig {
+
+        @Bean
+        static BeanPostProcessor statementCountingDataSource() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource dataSource && !(bean instanceof StatementCountingDataSource)
+                            ? new StatementCountingDataSource(dataSource)
+                            : bean;
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PaymentProcessingService paymentProcessingService;
+
+    @Autowired
+    private PaymentStatusCache paymentStatusCache;
+
+    @AfterAll
+    static void writeReport() throws IOException {
+        StringBuilder text = new StringBuilder(String.format("%-45s %12s %10s %10s%n", "endpoint", "stmts/req", "batches/req", "ms/req"));
+        report.values().forEach(line -> text.append(line).append('\n'));
+        Path file = Path.of("target", "statement-counts.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, text);
+        log.info("Sentencias por petición:\n{}", text);
+    }
+
+    @Test
+    void processSinglePayment() throws Exception {
+        assertBudget("POST /process", 2, i -> post(BASE + "/process")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json(request())));
+    }
+
+    @Test
+    void processBatchIsBatchedRegardlessOfSize() throws Exception {
+        assertBudget("POST /process/batch (" + BATCH + ")", 4, i -> post(BASE + "/process/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json(IntStream.range(0, BATCH).mapToObj(n -> request()).toList())));
+    }
+
+    @Test
+    void statusByOrderId() throws Exception {
+        List<Payment> payments = seed(REQUESTS);
+        assertBudget("GET /status/order/{orderId}", 1,
+                i -> get(BASE + "/status/order/" + payments.get(i).getOrderId()));
+    }
+
+    @Test
+    void statusByTransactionId() throws Exception {
+        List<Payment> payments = seed(REQUESTS);
+        assertBudget("GET /status/transaction/{transactionId}", 1,
+                i -> get(BASE + "/status/transaction/" + payments.get(i).getTransactionId()));
+    }
+
+    @Test
+    void bulkStatusLookupDoesNotQueryPerId() throws Exception {
+        List<List<Payment>> groups = IntStream.range(0, REQUESTS).mapToObj(i -> seed(BATCH)).toList();
+        assertBudget("POST /status/lookup (" + BATCH + " + " + BATCH + ")", 2, i -> post(BASE + "/status/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(json(new PaymentProcessingService.StatusLookupRequest(
+                        groups.get(i).stream().map(Payment::getOrderId).toList(),
+                        groups.get(i).stream().map(Payment::getTransactionId).toList()))));
+    }
+
+    @Test
+    void pageDoesNotQueryPerPayment() throws Exception {
+        seed(BATCH);
+        assertBudget("GET / (size=" + BATCH + ")", 1, i -> get(BASE).param("size", String.valueOf(BATCH)));
+    }
+
+    @Test
+    void ndjsonExportStreamsWithOneQuery() throws Exception {
+        seed(BATCH);
+        assertBudget("GET / (ndjson)", 1, i -> get(BASE).accept(MediaType.APPLICATION_NDJSON));
+    }
+
+    @Test
+    void patchPayment() throws Exception {
+        List<Payment> payments = seed(REQUESTS);
+        assertBudget("PATCH /{id}", 2, i -> patch(BASE + "/" + payments.get(i).getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"amount\": 12.34, \"version\": " + payments.get(i).getVersion() + "}"));
+    }
+
+    @Test
+    void refundPayment() throws Exception {
+        List<Payment> payments = seed(REQUESTS);
+        assertBudget("POST /{id}/refund", 2, i -> post(BASE + "/" + payments.get(i).getId() + "/refund"));
+    }
+
+    @Test
+    void deletePayment() throws Exception {
+        List<Payment> payments = seed(REQUESTS);
+        assertBudget("DELETE /{id}", 2, i -> delete(BASE + "/" + payments.get(i).getId()));
+    }
+
+    @Test
+    void statsAreServedFromMemory() throws Exception {
+        assertBudget("GET /stats", 0, i -> get(BASE + "/stats"));
+    }
+
+    private void assertBudget(String endpoint, double budget, IntFunction<RequestBuilder> request) throws Exception {
+        StatementCountingDataSource counter = (StatementCountingDataSource) dataSource;
+        long statements = counter.statements();
+        long batches = counter.batches();
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            MvcResult result = perform(request.apply(i));
+            int code = result.getResponse().getStatus();
+            assertTrue(code >= 200 && code < 300, endpoint + " respondió " + code);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / REQUESTS;
+        double perRequest = (double) (counter.statements() - statements) / REQUESTS;
+        double batchesPerRequest = (double) (counter.batches() - batches) / REQUESTS;
+        report.put(endpoint, String.format("%-45s %12.2f %10.2f %10.2f", endpoint, perRequest, batchesPerRequest, millis));
+        assertTrue(perRequest <= budget,
+                endpoint + ": " + perRequest + " sentencias por petición, presupuesto " + budget);
+    }
+
+    private MvcResult perform(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) {
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result;
+    }
+
+    private List<Payment> seed(int count) {
+        List<PaymentRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(request());
+        }
+        List<Payment> payments = paymentProcessingService.processPayments(requests).payments();
+        payments.forEach(payment -> assertEquals("COMPLETED", payment.getPaymentStatus()));
+        // Las consultas de estado se miden en frío: con la caché llena no llegarían a la base de datos.
+        paymentStatusCache.clear();
+        return payments;
+    }
+
+    private static PaymentRequest request() {
+        return new PaymentRequest("STMT-" + orders.incrementAndGet(), new BigDecimal("42.50"), "card-details");
+    }
+
+    private String json(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.gateway.GatewayException;
+import com.programthis.payment_service.gateway.GatewayResult;
+import com.programthis.payment_service.gateway.SimulatedGateway;
+import com.programthis.payment_service.service.GatewayBusyException;
+import com.programthis.payment_service.service.GatewayCallPolicy;
+import com.programthis.payment_service.service.GatewayCircuitBreaker;
+import com.programthis.payment_service.service.GatewayCircuitOpenException;
+import com.programthis.payment_service.service.GatewayConcurrencyLimiter;
+import com.programthis.payment_service.service.GatewayTimeoutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatewayCallPolicyTest {
+
+    private static GatewayCircuitBreaker cortocircuito(Duration lenta, Duration abierto) {
+        return new GatewayCircuitBreaker(true, 10, 10, 50, 80, lenta, abierto, 2);
+    }
+
+    private static GatewayConcurrencyLimiter limitador() {
+        return new GatewayConcurrencyLimiter(10, Duration.ofSeconds(1));
+    }
+
+    private static Throwable causa(CompletableFuture<?> futuro) {
+        CompletionException error = assertThrows(CompletionException.class, futuro::join);
+        return error.getCause();
+    }
+
+    @Test
+    void cortocircuito_seAbreConErroresYRechazaAlInstante() {
+        GatewayCircuitBreaker cortocircuito = cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1));
+        SimulatedGateway pasarela = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 1.0, Runnable::run);
+        AtomicInteger llamadas = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            assertInstanceOf(GatewayException.class, causa(cortocircuito.callAsync(() -> {
+                llamadas.incrementAndGet();
+                return pasarela.authorize("PEDIDO", BigDecimal.ONE, "tarjeta");
+            })));
+        }
+
+        assertEquals(GatewayCircuitBreaker.State.OPEN, cortocircuito.state());
+        assertInstanceOf(GatewayCircuitOpenException.class, causa(cortocircuito.callAsync(() -> {
+            llamadas.incrementAndGet();
+            return pasarela.authorize("PEDIDO", BigDecimal.ONE, "tarjeta");
+        })));
+        assertEquals(10, llamadas.get());
+    }
+
+    @Test
+    void rechazosDelPago_noAbrenElCortocircuito() {
+        GatewayCircuitBreaker cortocircuito = cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1));
+        SimulatedGateway pasarela = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 1.0, 0.0, Runnable::run);
+
+        for (int i = 0; i < 20; i++) {
+            assertFalse(cortocircuito.callAsync(() -> pasarela.authorize("PEDIDO", BigDecimal.ONE, "tarjeta")).join().approved());
+        }
+
+        assertEquals(GatewayCircuitBreaker.State.CLOSED, cortocircuito.state());
+    }
+
+    @Test
+    void cortocircuito_seAbrePorLlamadasLentas() {
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            GatewayCircuitBreaker cortocircuito = cortocircuito(Duration.ofMillis(20), Duration.ofMinutes(1));
+            SimulatedGateway pasarela = new SimulatedGateway(Duration.ofMillis(40), Duration.ofMillis(60), 0.0, 0.0, ejecutor);
+
+            for (int i = 0; i < 10; i++) {
+                assertTrue(cortocircuito.callAsync(() -> pasarela.authorize("PEDIDO", BigDecimal.ONE, "tarjeta")).join().approved());
+            }
+
+            assertEquals(100.0, cortocircuito.slowCallRate());
+            assertEquals(GatewayCircuitBreaker.State.OPEN, cortocircuito.state());
+        }
+    }
+
+    @Test
+    void semiabierto_secierraSiLasPruebasSalenBien() throws InterruptedException {
+        GatewayCircuitBreaker cortocircuito = cortocircuito(Duration.ofSeconds(2), Duration.ofMillis(50));
+        SimulatedGateway fallida = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 1.0, Runnable::run);
+        SimulatedGateway sana = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 0.0, Runnable::run);
+        for (int i = 0; i < 10; i++) {
+            cortocircuito.callAsync(() -> fallida.authorize("PEDIDO", BigDecimal.ONE, "tarjeta"));
+        }
+        assertEquals(GatewayCircuitBreaker.State.OPEN, cortocircuito.state());
+
+        Thread.sleep(80);
+        cortocircuito.callAsync(() -> sana.authorize("PEDIDO", BigDecimal.ONE, "tarjeta")).join();
+        assertEquals(GatewayCircuitBreaker.State.HALF_OPEN, cortocircuito.state());
+        cortocircuito.callAsync(() -> sana.authorize("PEDIDO", BigDecimal.ONE, "tarjeta")).join();
+
+        assertEquals(GatewayCircuitBreaker.State.CLOSED, cortocircuito.state());
+    }
+
+    @Test
+    void semiabierto_vuelveAAbrirseSiLasPruebasFallan() throws InterruptedException {
+        GatewayCircuitBreaker cortocircuito = cortocircuito(Duration.ofSeconds(2), Duration.ofMillis(50));
+        SimulatedGateway fallida = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 1.0, Runnable::run);
+        for (int i = 0; i < 10; i++) {
+            cortocircuito.callAsync(() -> fallida.authorize("PEDIDO", BigDecimal.ONE, "tarjeta"));
+        }
+
+        Thread.sleep(80);
+        cortocircuito.callAsync(() -> fallida.authorize("PEDIDO", BigDecimal.ONE, "tarjeta"));
+        cortocircuito.callAsync(() -> fallida.authorize("PEDIDO", BigDecimal.ONE, "tarjeta"));
+
+        assertEquals(GatewayCircuitBreaker.State.OPEN, cortocircuito.state());
+    }
+
+    @Test
+    void timeout_terminaConGatewayTimeoutException() {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofMillis(50), Duration.ZERO,
+                cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador(), Runnable::run);
+        politica.bindTo(registro);
+
+        assertInstanceOf(GatewayTimeoutException.class, causa(politica.callAsync(CompletableFuture<GatewayResult>::new)));
+        assertEquals(1.0, registro.counter("payment.gateway.timeouts").count());
+    }
+
+    @Test
+    void timeout_noDescartaLaRespuestaTardiaDeLaPasarela() {
+        GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofMillis(50), Duration.ZERO,
+                cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador(), Runnable::run);
+        CompletableFuture<GatewayResult> pasarela = new CompletableFuture<>();
+
+        GatewayTimeoutException timeout = assertInstanceOf(GatewayTimeoutException.class,
+                causa(politica.callAsync(() -> pasarela)));
+        pasarela.complete(GatewayResult.approved("TX-TARDE"));
+
+        assertEquals(List.of(pasarela), timeout.lateAnswers());
+        assertEquals("TX-TARDE", ((GatewayResult) timeout.lateAnswers().get(0).join()).transactionId());
+    }
+
+    @Test
+    void timeout_elPermisoSigueOcupadoHastaQueRespondeLaPasarela() {
+        GatewayConcurrencyLimiter limitador = new GatewayConcurrencyLimiter(1, Duration.ofMillis(50));
+        GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofMillis(50), Duration.ZERO,
+                cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador, Runnable::run);
+        CompletableFuture<GatewayResult> pasarela = new CompletableFuture<>();
+
+        assertInstanceOf(GatewayTimeoutException.class, causa(politica.callAsync(() -> pasarela)));
+
+        assertEquals(1, limitador.inFlight());
+        assertInstanceOf(GatewayBusyException.class, causa(politica.callAsync(CompletableFuture<GatewayResult>::new)));
+        pasarela.complete(GatewayResult.approved("TX-TARDE"));
+        assertEquals(0, limitador.inFlight());
+    }
+
+    @Test
+    void hedge_ambosIntentosVencen_llevaLasRespuestasTardiasDeLosDos() {
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            GatewayConcurrencyLimiter limitador = limitador();
+            GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofMillis(100), Duration.ofMillis(20),
+                    cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador, ejecutor);
+            List<CompletableFuture<GatewayResult>> intentos = new CopyOnWriteArrayList<>();
+
+            GatewayTimeoutException timeout = assertInstanceOf(GatewayTimeoutException.class, causa(politica.callAsync(() -> {
+                CompletableFuture<GatewayResult> intento = new CompletableFuture<>();
+                intentos.add(intento);
+                return intento;
+            })));
+
+            assertEquals(2, intentos.size());
+            assertEquals(Set.copyOf(intentos), Set.copyOf(timeout.lateAnswers()));
+            assertEquals(2, limitador.inFlight());
+            intentos.forEach(intento -> intento.complete(GatewayResult.declined("tarde")));
+            assertEquals(0, limitador.inFlight());
+        }
+    }
+
+    @Test
+    void hedge_sinPermisoLibre_noLanzaElSegundoIntento() {
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            GatewayConcurrencyLimiter limitador = new GatewayConcurrencyLimiter(1, Duration.ofMillis(50));
+            GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofMillis(100), Duration.ofMillis(10),
+                    cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador, ejecutor);
+            AtomicInteger intentos = new AtomicInteger();
+
+            GatewayTimeoutException timeout = assertInstanceOf(GatewayTimeoutException.class, causa(politica.callAsync(() -> {
+                intentos.incrementAndGet();
+                return new CompletableFuture<GatewayResult>();
+            })));
+
+            assertEquals(1, intentos.get());
+            assertEquals(1, timeout.lateAnswers().size());
+        }
+    }
+
+    @Test
+    void hedge_ganaElSegundoIntentoSiElPrimeroTarda() {
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SimpleMeterRegistry registro = new SimpleMeterRegistry();
+            GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofSeconds(5), Duration.ofMillis(30),
+                    cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador(), ejecutor);
+            politica.bindTo(registro);
+            AtomicInteger intentos = new AtomicInteger();
+
+            long inicio = System.nanoTime();
+            GatewayResult resultado = politica.callAsync(() -> intentos.incrementAndGet() == 1
+                    ? new CompletableFuture<GatewayResult>()
+                    : CompletableFuture.completedFuture(GatewayResult.approved("TX-2"))).join();
+
+            assertEquals("TX-2", resultado.transactionId());
+            assertEquals(2, intentos.get());
+            assertTrue(Duration.ofNanos(System.nanoTime() - inicio).compareTo(Duration.ofSeconds(1)) < 0);
+            assertEquals(1.0, registro.counter("payment.gateway.hedges").count());
+        }
+    }
+
+    @Test
+    void hedge_seAdelantaSiElPrimerIntentoFalla() {
+        GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofSeconds(5), Duration.ofMinutes(1),
+                cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador(), Runnable::run);
+        AtomicInteger intentos = new AtomicInteger();
+
+        GatewayResult resultado = politica.callAsync(() -> intentos.incrementAndGet() == 1
+                ? CompletableFuture.<GatewayResult>failedFuture(new GatewayException("caída"))
+                : CompletableFuture.completedFuture(GatewayResult.approved("TX-2"))).join();
+
+        assertTrue(resultado.approved());
+        assertEquals(2, intentos.get());
+    }
+
+    @Test
+    void hedge_ambosIntentosFallan_devuelveElError() {
+        GatewayCallPolicy politica = new GatewayCallPolicy(Duration.ofSeconds(5), Duration.ofMinutes(1),
+                cortocircuito(Duration.ofSeconds(2), Duration.ofMinutes(1)), limitador(), Runnable::run);
+        AtomicInteger intentos = new AtomicInteger();
+
+        Throwable error = causa(politica.callAsync(() -> {
+            intentos.incrementAndGet();
+            return CompletableFuture.<GatewayResult>failedFuture(new GatewayException("caída"));
+        }));
+
+        assertInstanceOf(GatewayException.class, error);
+        assertEquals(2, intentos.get());
+    }
+}
@@ -0,0 +1,86 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.service.GatewayBusyException;
+import com.programthis.payment_service.service.GatewayConcurrencyLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatewayConcurrencyLimiterTest {
+
+    private static final int PAGOS_CONCURRENTES = 5000;
+    private static final Duration LATENCIA_PASARELA = Duration.ofMillis(300);
+
+    @Test
+    void cargaConHilosVirtuales_milesDePagosEnCurso() throws Exception {
+        GatewayConcurrencyLimiter limitador = new GatewayConcurrencyLimiter(PAGOS_CONCURRENTES, Duration.ofSeconds(5));
+        AtomicInteger maximoEnCurso = new AtomicInteger();
+        List<Future<Boolean>> resultados = new ArrayList<>();
+
+        long inicio = System.nanoTime();
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < PAGOS_CONCURRENTES; i++) {
+                resultados.add(ejecutor.submit(() -> limitador.call(() -> {
+                    maximoEnCurso.accumulateAndGet(limitador.inFlight(), Math::max);
+                    sleep(LATENCIA_PASARELA);
+                    return true;
+                })));
+            }
+            for (Future<Boolean> resultado : resultados) {
+                assertTrue(resultado.get(30, TimeUnit.SECONDS));
+            }
+        }
+        Duration total = Duration.ofNanos(System.nanoTime() - inicio);
+
+        // Con un hilo de plataforma por petición (200 en Tomcat) harían falta 25 rondas de 300 ms.
+        assertTrue(maximoEnCurso.get() > 1000, "máximo en curso: " + maximoEnCurso.get());
+        assertTrue(total.compareTo(Duration.ofSeconds(5)) < 0, "duración total: " + total);
+        assertEquals(0, limitador.inFlight());
+    }
+
+    @Test
+    void limiteAlcanzado_rechazaTrasElTimeout() throws Exception {
+        GatewayConcurrencyLimiter limitador = new GatewayConcurrencyLimiter(1, Duration.ofMillis(50));
+        CountDownLatch dentro = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+
+        Thread ocupante = Thread.ofVirtual().start(() -> limitador.call(() -> {
+            dentro.countDown();
+            await(liberar);
+            return true;
+        }));
+        dentro.await();
+
+        assertThrows(GatewayBusyException.class, () -> limitador.call(() -> true));
+
+        liberar.countDown();
+        ocupante.join();
+        assertTrue(limitador.call(() -> true));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
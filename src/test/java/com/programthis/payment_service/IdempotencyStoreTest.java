@@ -0,0 +1,244 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.IdempotencyRecord;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.repository.IdempotencyRecordRepository;
+import com.programthis.payment_service.repository.PaymentRepository;
+import com.programthis.payment_service.service.IdempotencyKeyConflictException;
+import com.programthis.payment_service.service.IdempotencyKeyInProgressException;
+import com.programthis.payment_service.service.IdempotencyStore;
+import com.programthis.payment_service.service.PaymentShards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyStoreTest {
+
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Mock
+    private PaymentRepository paymentRepository;
+
+    private IdempotencyStore almacen;
+    private Payment pago;
+    private String huella;
+
+    @BeforeEach
+    void setUp() {
+        almacen = new IdempotencyStore(Duration.ofHours(1), Duration.ofMinutes(5), 1000, idempotencyRecordRepository, paymentRepository,
+                new PaymentShards(false, 64, List.of(), Duration.ofSeconds(30), null, null, Runnable::run));
+        pago = new Payment();
+        pago.setId(7L);
+        pago.setOrderId("PEDIDO-001");
+        pago.setPaymentStatus("COMPLETED");
+        huella = IdempotencyStore.fingerprint("PEDIDO-001", new BigDecimal("100.00"), "tarjeta");
+    }
+
+    @Test
+    void duplicadoConcurrente_seUneALaPeticionEnCurso() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+        CompletableFuture<Payment> enCurso = new CompletableFuture<>();
+        AtomicInteger ejecuciones = new AtomicInteger();
+
+        CompletableFuture<Payment> primera = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> {
+            ejecuciones.incrementAndGet();
+            return enCurso;
+        });
+        CompletableFuture<Payment> segunda = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> {
+            ejecuciones.incrementAndGet();
+            return CompletableFuture.completedFuture(new Payment());
+        });
+
+        assertFalse(segunda.isDone());
+        enCurso.complete(pago);
+
+        assertSame(pago, primera.join());
+        assertSame(pago, segunda.join());
+        assertEquals(1, ejecuciones.get());
+        verify(idempotencyRecordRepository, times(1)).saveAndFlush(any(IdempotencyRecord.class));
+        verify(idempotencyRecordRepository).markCompleted("CLAVE", 7L);
+    }
+
+    @Test
+    void repeticion_seRespondeDesdeMemoriaSinBaseDeDatos() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+        almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+        clearInvocations(idempotencyRecordRepository, paymentRepository);
+
+        Payment repetido = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> {
+            throw new AssertionError("no debe volver a procesarse");
+        }).join();
+
+        assertSame(pago, repetido);
+        verifyNoInteractions(idempotencyRecordRepository, paymentRepository);
+    }
+
+    @Test
+    void mismaClaveConOtroCuerpo_seRechaza() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+        almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+
+        String otraHuella = IdempotencyStore.fingerprint("PEDIDO-001", new BigDecimal("999.00"), "tarjeta");
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> almacen.execute("CLAVE", "PEDIDO-001", otraHuella, () -> CompletableFuture.completedFuture(pago)).join());
+
+        assertInstanceOf(IdempotencyKeyConflictException.class, error.getCause());
+    }
+
+    @Test
+    void registroPersistido_seRepiteTrasReinicio() {
+        IdempotencyRecord registro = new IdempotencyRecord("CLAVE", huella, LocalDateTime.now());
+        registro.setPaymentId(7L);
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.of(registro));
+        when(paymentRepository.findById(7L)).thenReturn(Optional.of(pago));
+
+        Payment repetido = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> {
+            throw new AssertionError("no debe volver a procesarse");
+        }).join();
+
+        assertSame(pago, repetido);
+        verify(idempotencyRecordRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void registroPersistidoSinPago_estaEnCursoEnOtraInstancia() {
+        when(idempotencyRecordRepository.findById("CLAVE"))
+                .thenReturn(Optional.of(new IdempotencyRecord("CLAVE", huella, LocalDateTime.now())));
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join());
+
+        assertInstanceOf(IdempotencyKeyInProgressException.class, error.getCause());
+    }
+
+    @Test
+    void fallo_liberaLaClaveParaReintentar() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+
+        CompletableFuture<Payment> fallida = almacen.execute("CLAVE", "PEDIDO-001", huella,
+                () -> CompletableFuture.failedFuture(new RuntimeException("pasarela caída")));
+        assertThrows(CompletionException.class, fallida::join);
+        verify(idempotencyRecordRepository).deleteById("CLAVE");
+
+        Payment reintento = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+
+        assertSame(pago, reintento);
+        verify(idempotencyRecordRepository, never()).markCompleted(anyString(), eq(null));
+    }
+
+    @Test
+    void falloAlLiberarLaClave_completaIgualLaPeticionYLosDuplicados() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+        doThrow(new IllegalStateException("base caída")).when(idempotencyRecordRepository).deleteById("CLAVE");
+        CompletableFuture<Payment> enCurso = new CompletableFuture<>();
+
+        CompletableFuture<Payment> primera = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> enCurso);
+        CompletableFuture<Payment> duplicada = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> enCurso);
+        enCurso.completeExceptionally(new RuntimeException("pasarela caída"));
+
+        assertTrue(primera.isCompletedExceptionally());
+        assertTrue(duplicada.isCompletedExceptionally());
+        assertEquals("pasarela caída", assertThrows(CompletionException.class, primera::join).getCause().getMessage());
+        assertEquals("pasarela caída", assertThrows(CompletionException.class, duplicada::join).getCause().getMessage());
+    }
+
+    @Test
+    void reservaAbandonada_laTomaOtraPeticionConElMismoCuerpo() {
+        when(idempotencyRecordRepository.findById("CLAVE"))
+                .thenReturn(Optional.of(new IdempotencyRecord("CLAVE", huella, LocalDateTime.now().minusMinutes(10))));
+        when(idempotencyRecordRepository.reclaim(eq("CLAVE"), any(LocalDateTime.class), any(LocalDateTime.class))).thenReturn(1);
+
+        Payment resultado = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+
+        assertSame(pago, resultado);
+        verify(idempotencyRecordRepository, never()).saveAndFlush(any());
+        verify(idempotencyRecordRepository).markCompleted("CLAVE", 7L);
+    }
+
+    @Test
+    void reservaAbandonada_siOtraInstanciaLaTomaAntes_sigueEnCurso() {
+        when(idempotencyRecordRepository.findById("CLAVE"))
+                .thenReturn(Optional.of(new IdempotencyRecord("CLAVE", huella, LocalDateTime.now().minusMinutes(10))));
+        when(idempotencyRecordRepository.reclaim(eq("CLAVE"), any(LocalDateTime.class), any(LocalDateTime.class))).thenReturn(0);
+
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join());
+
+        assertInstanceOf(IdempotencyKeyInProgressException.class, error.getCause());
+    }
+
+    @Test
+    void reservaAbandonadaConPagoGuardado_seRepiteSinVolverACobrar() {
+        LocalDateTime reservada = LocalDateTime.now().minusMinutes(10);
+        pago.setTransactionDate(reservada.plusSeconds(1));
+        when(idempotencyRecordRepository.findById("CLAVE"))
+                .thenReturn(Optional.of(new IdempotencyRecord("CLAVE", huella, reservada)));
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.of(pago));
+
+        Payment resultado = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> {
+            throw new AssertionError("no debe volver a procesarse");
+        }).join();
+
+        assertSame(pago, resultado);
+        verify(idempotencyRecordRepository).markCompleted("CLAVE", 7L);
+        verify(idempotencyRecordRepository, never()).reclaim(anyString(), any(), any());
+    }
+
+    @Test
+    void reservaAbandonada_conUnPagoAnteriorDelPedido_laTomaOtraPeticion() {
+        LocalDateTime reservada = LocalDateTime.now().minusMinutes(10);
+        Payment anterior = new Payment();
+        anterior.setId(3L);
+        anterior.setOrderId("PEDIDO-001");
+        anterior.setTransactionDate(reservada.minusDays(1));
+        when(idempotencyRecordRepository.findById("CLAVE"))
+                .thenReturn(Optional.of(new IdempotencyRecord("CLAVE", huella, reservada)));
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.of(anterior));
+        when(idempotencyRecordRepository.reclaim(eq("CLAVE"), any(LocalDateTime.class), any(LocalDateTime.class))).thenReturn(1);
+
+        Payment resultado = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+
+        assertSame(pago, resultado);
+        verify(idempotencyRecordRepository).markCompleted("CLAVE", 7L);
+    }
+
+    @Test
+    void falloAlAnotarElPago_seReintenta() {
+        when(idempotencyRecordRepository.findById("CLAVE")).thenReturn(Optional.empty());
+        when(idempotencyRecordRepository.markCompleted("CLAVE", 7L))
+                .thenThrow(new IllegalStateException("base caída"))
+                .thenReturn(1);
+
+        Payment resultado = almacen.execute("CLAVE", "PEDIDO-001", huella, () -> CompletableFuture.completedFuture(pago)).join();
+
+        assertSame(pago, resultado);
+        verify(idempotencyRecordRepository, times(2)).markCompleted("CLAVE", 7L);
+    }
+
+    @Test
+    void purga_noBorraLasReservasAbandonadasAntesDeCaducar() {
+        almacen.purgeExpired();
+
+        verify(idempotencyRecordRepository).deleteCreatedBefore(any(LocalDateTime.class));
+        verifyNoMoreInteractions(idempotencyRecordRepository);
+    }
+}
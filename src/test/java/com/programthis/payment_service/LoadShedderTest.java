@@ -0,0 +1,75 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.service.LoadShedder;
+import com.programthis.payment_service.service.PaymentMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadShedderTest {
+
+    private final SimpleMeterRegistry registro = new SimpleMeterRegistry();
+    private final Timer esperaConexion = registro.timer("hikaricp.connections.acquire", "pool", "HikariPool-1");
+    private final Timer pasarela = registro.timer(PaymentMetrics.GATEWAY_TIMER, "outcome", "approved");
+
+    private LoadShedder limitador() {
+        return new LoadShedder(true, 4, 2, 8, Duration.ofMillis(50), Duration.ofSeconds(1), registro);
+    }
+
+    @Test
+    void porEncimaDelLimite_seDescarta() {
+        LoadShedder limitador = limitador();
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limitador.tryAcquire());
+        }
+        assertFalse(limitador.tryAcquire());
+
+        limitador.release();
+        assertTrue(limitador.tryAcquire());
+    }
+
+    @Test
+    void esperaPorConexionAlta_bajaElLimiteHastaElMinimo() {
+        LoadShedder limitador = limitador();
+
+        esperaConexion.record(Duration.ofMillis(200));
+        limitador.adjust();
+        assertEquals(3, limitador.limit());
+
+        esperaConexion.record(Duration.ofMillis(200));
+        limitador.adjust();
+        limitador.adjust();
+        esperaConexion.record(Duration.ofMillis(200));
+        limitador.adjust();
+        assertEquals(2, limitador.limit());
+    }
+
+    @Test
+    void latenciaDeLaPasarelaAlta_tambienBajaElLimite() {
+        LoadShedder limitador = limitador();
+
+        pasarela.record(Duration.ofSeconds(3));
+        limitador.adjust();
+
+        assertEquals(3, limitador.limit());
+    }
+
+    @Test
+    void sinSobrecarga_subeSoloSiElLimiteSeEstaUsando() {
+        LoadShedder limitador = limitador();
+        esperaConexion.record(Duration.ofMillis(1));
+
+        limitador.adjust();
+        assertEquals(4, limitador.limit());
+
+        limitador.tryAcquire();
+        limitador.tryAcquire();
+        limitador.adjust();
+        assertEquals(5, limitador.limit());
+    }
+}
@@ -0,0 +1,53 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.service.PaymentArchiver;
+import com.programthis.payment_service.service.PaymentShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class PaymentArchiverTest {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private void insertarPago(long id, LocalDateTime fecha) {
+        jdbc.update("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, transaction_date) "
+                + "VALUES (?, ?, 1000, 0, 1, ?)", id, "PEDIDO-" + id, fecha);
+    }
+
+    @Test
+    void archivar_mueveSoloLosPagosAnterioresAlCorteEnLotes() {
+        LocalDateTime ahora = LocalDateTime.now();
+        insertarPago(1, ahora.minusDays(400));
+        insertarPago(2, ahora.minusDays(300));
+        insertarPago(3, ahora.minusDays(200));
+        insertarPago(4, ahora.minusDays(10));
+        PaymentArchiver archivador = new PaymentArchiver(true, Duration.ofDays(180), 2, jdbc, transactionManager,
+                new PaymentShards(false, 64, List.of(), Duration.ofSeconds(30), jdbc, transactionManager, Runnable::run));
+
+        int archivados = archivador.archiveOlderThan(archivador.cutoff());
+
+        assertEquals(3, archivados);
+        assertEquals(List.of(4L), jdbc.queryForList("SELECT id FROM payment", Long.class));
+        assertEquals(List.of(1L, 2L, 3L), jdbc.queryForList("SELECT id FROM payment_archive ORDER BY id", Long.class));
+        assertEquals("PEDIDO-2", jdbc.queryForObject("SELECT order_id FROM payment_archive WHERE id = 2", String.class));
+        assertEquals(0, archivador.archiveOlderThan(archivador.cutoff()));
+    }
+}
@@ -2,31 +2,49 @@ package com.programthis.payment_service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.programthis.payment_service.controller.PaymentController;
+import com.programthis.payment_service.controller.PaymentModelAssembler;
 import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentTransition;
+import com.programthis.payment_service.service.GatewayBusyException;
+import com.programthis.payment_service.service.IdempotencyKeyConflictException;
+import com.programthis.payment_service.service.InvalidPaymentTransitionException;
+import com.programthis.payment_service.service.PaymentMetrics;
 import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentVersionConflictException;
+import com.programthis.payment_service.service.ShardMovingException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.hateoas.MediaTypes;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(PaymentController.class)
-@Import(PaymentController.class)
+@Import({PaymentController.class, PaymentModelAssembler.class, PaymentMetrics.class, SimpleMeterRegistry.class})
 class PaymentControllerTest {
 
     @Autowired
@@ -58,11 +76,16 @@ class PaymentControllerTest {
 
     @Test
     void processPayment_whenSuccessful_shouldReturnOk() throws Exception {
-        when(paymentProcessingService.processPayment(any(PaymentProcessingService.PaymentRequest.class))).thenReturn(payment);
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), any()))
+                .thenReturn(CompletableFuture.completedFuture(payment));
 
-        mockMvc.perform(post("/api/v1/payments/process")
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.paymentStatus").value("COMPLETED"));
     }
@@ -70,22 +93,173 @@ class PaymentControllerTest {
     @Test
     void processPayment_whenFails_shouldReturnBadRequest() throws Exception {
         payment.setPaymentStatus("FAILED");
-        when(paymentProcessingService.processPayment(any(PaymentProcessingService.PaymentRequest.class))).thenReturn(payment);
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), any()))
+                .thenReturn(CompletableFuture.completedFuture(payment));
 
-        mockMvc.perform(post("/api/v1/payments/process")
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.paymentStatus").value("FAILED"));
     }
 
+    @Test
+    void processPayment_whenGatewayTimedOut_shouldReturnAcceptedPendingPayment() throws Exception {
+        payment.setPaymentStatus("PENDING");
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), any()))
+                .thenReturn(CompletableFuture.completedFuture(payment));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.paymentStatus").value("PENDING"));
+    }
+
+    @Test
+    void processPayment_whenGatewayBusy_shouldReturnServiceUnavailable() throws Exception {
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), any()))
+                .thenReturn(CompletableFuture.failedFuture(new GatewayBusyException("limit reached")));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void processPayment_withIdempotencyKey_shouldPassKeyToService() throws Exception {
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), eq("KEY-1")))
+                .thenReturn(CompletableFuture.completedFuture(payment));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
+                        .header("Idempotency-Key", "KEY-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactionId").value("TXN-XYZ"));
+    }
+
+    @Test
+    void processPayment_whenIdempotencyKeyReusedWithOtherBody_shouldReturnUnprocessable() throws Exception {
+        when(paymentProcessingService.processPaymentAsync(any(PaymentProcessingService.PaymentRequest.class), eq("KEY-1")))
+                .thenReturn(CompletableFuture.failedFuture(new IdempotencyKeyConflictException("different request")));
+
+        MvcResult result = mockMvc.perform(post("/api/v1/payments/process")
+                        .header("Idempotency-Key", "KEY-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(paymentRequest)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void processPayments_shouldReturnPerItemResults() throws Exception {
+        Payment failed = new Payment();
+        failed.setId(2L);
+        failed.setOrderId("ORD-124");
+        failed.setPaymentStatus("FAILED");
+        when(paymentProcessingService.processPayments(anyList()))
+                .thenReturn(new PaymentProcessingService.BatchResult(List.of(payment, failed), List.of()));
+
+        mockMvc.perform(post("/api/v1/payments/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(paymentRequest, paymentRequest))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.paymentList[0].paymentStatus").value("COMPLETED"))
+                .andExpect(jsonPath("$._embedded.paymentList[1].paymentStatus").value("FAILED"));
+    }
+
+    @Test
+    void processPayments_whenSomeItemsFail_shouldReturnMultiStatus() throws Exception {
+        when(paymentProcessingService.processPayments(anyList())).thenReturn(new PaymentProcessingService.BatchResult(
+                List.of(payment), List.of(new PaymentProcessingService.BatchFailure(1, "ORD-124", true, "busy"))));
+
+        mockMvc.perform(post("/api/v1/payments/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(paymentRequest, paymentRequest))))
+                .andExpect(status().isMultiStatus())
+                .andExpect(jsonPath("$.payments[0].paymentStatus").value("COMPLETED"))
+                .andExpect(jsonPath("$.payments[0]._links.self.href").exists())
+                .andExpect(jsonPath("$.failures[0].index").value(1))
+                .andExpect(jsonPath("$.failures[0].orderId").value("ORD-124"))
+                .andExpect(jsonPath("$.failures[0].retryable").value(true));
+    }
+
+    @Test
+    void processPayments_whenEveryItemHitsABusyGateway_shouldReturnServiceUnavailable() throws Exception {
+        when(paymentProcessingService.processPayments(anyList())).thenReturn(new PaymentProcessingService.BatchResult(
+                List.of(), List.of(new PaymentProcessingService.BatchFailure(0, "ORD-123", true, "busy"))));
+
+        mockMvc.perform(post("/api/v1/payments/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(paymentRequest))))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void processPayments_whenBatchInvalid_shouldReturnBadRequest() throws Exception {
+        when(paymentProcessingService.processPayments(anyList())).thenThrow(new IllegalArgumentException("empty"));
+
+        mockMvc.perform(post("/api/v1/payments/process/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getPaymentStatusByOrderId_whenFound_shouldReturnPayment() throws Exception {
         when(paymentProcessingService.getPaymentStatusByOrderId("ORD-123")).thenReturn(payment);
 
         mockMvc.perform(get("/api/v1/payments/status/order/{orderId}", "ORD-123"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$.orderId").value("ORD-123"));
+                .andExpect(jsonPath("$.orderId").value("ORD-123"))
+                .andExpect(jsonPath("$._links.self.href").value("http://localhost/api/v1/payments/status/order/ORD-123"))
+                .andExpect(jsonPath("$._links.all-payments.href").value("http://localhost/api/v1/payments"));
+    }
+
+    @Test
+    void getPaymentStatusByOrderId_withoutLinks_shouldReturnPlainJson() throws Exception {
+        when(paymentProcessingService.getPaymentStatusByOrderId("ORD-123")).thenReturn(payment);
+
+        mockMvc.perform(get("/api/v1/payments/status/order/{orderId}", "ORD-123").param("links", "false"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.orderId").value("ORD-123"))
+                .andExpect(jsonPath("$._links").doesNotExist());
+    }
+
+    @Test
+    void getAllPayments_withoutLinks_shouldReturnPlainPage() throws Exception {
+        when(paymentProcessingService.getPaymentsPage(null, null))
+                .thenReturn(new PaymentProcessingService.PaymentPage(List.of(payment), "NEXT-CURSOR"));
+
+        mockMvc.perform(get("/api/v1/payments").param("links", "false"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.payments[0].orderId").value("ORD-123"))
+                .andExpect(jsonPath("$.nextCursor").value("NEXT-CURSOR"))
+                .andExpect(jsonPath("$._links").doesNotExist());
     }
 
     @Test
@@ -114,21 +288,89 @@ class PaymentControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void lookupStatuses_shouldReturnFoundAndMissingKeys() throws Exception {
+        when(paymentProcessingService.lookupStatuses(any())).thenReturn(new PaymentProcessingService.StatusLookupResult(
+                Map.of("ORD-123", new PaymentProcessingService.PaymentStatusView(1L, "ORD-123", "TXN-XYZ", "COMPLETED")),
+                Map.of(), List.of("ORD-404"), List.of("TXN-404")));
+
+        mockMvc.perform(post("/api/v1/payments/status/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"orderIds\":[\"ORD-123\",\"ORD-404\"],\"transactionIds\":[\"TXN-404\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orders.ORD-123.paymentStatus").value("COMPLETED"))
+                .andExpect(jsonPath("$.missingOrderIds[0]").value("ORD-404"))
+                .andExpect(jsonPath("$.missingTransactionIds[0]").value("TXN-404"));
+    }
+
+    @Test
+    void lookupStatuses_whenTooManyKeys_shouldReturnBadRequest() throws Exception {
+        when(paymentProcessingService.lookupStatuses(any())).thenThrow(new IllegalArgumentException("too many"));
+
+        mockMvc.perform(post("/api/v1/payments/status/lookup")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"orderIds\":[]}"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getAllPayments_shouldReturnPaymentList() throws Exception {
         List<Payment> payments = Collections.singletonList(payment);
-        when(paymentProcessingService.getAllPayments()).thenReturn(payments);
+        when(paymentProcessingService.getPaymentsPage(null, null))
+                .thenReturn(new PaymentProcessingService.PaymentPage(payments, null));
 
         mockMvc.perform(get("/api/v1/payments"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$._embedded.paymentList[0].orderId").value("ORD-123"));
+                .andExpect(jsonPath("$._embedded.paymentList[0].orderId").value("ORD-123"))
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+
+    @Test
+    void getAllPayments_whenMorePages_shouldReturnNextLink() throws Exception {
+        List<Payment> payments = Collections.singletonList(payment);
+        when(paymentProcessingService.getPaymentsPage(null, 1))
+                .thenReturn(new PaymentProcessingService.PaymentPage(payments, "NEXT-CURSOR"));
+
+        mockMvc.perform(get("/api/v1/payments").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._links.next.href").value("http://localhost/api/v1/payments?cursor=NEXT-CURSOR&size=1"));
+    }
+
+    @Test
+    void getAllPayments_whenCursorInvalid_shouldReturnBadRequest() throws Exception {
+        when(paymentProcessingService.getPaymentsPage("basura", null)).thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+        mockMvc.perform(get("/api/v1/payments").param("cursor", "basura"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamAllPayments_shouldWriteNdjson() throws Exception {
+        doAnswer(invocation -> {
+            Consumer<Payment> consumer = invocation.getArgument(0);
+            consumer.accept(payment);
+            consumer.accept(payment);
+            return null;
+        }).when(paymentProcessingService).streamAllPayments(any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/payments").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(containsString("\"orderId\":\"ORD-123\"")))
+                .andExpect(content().string(containsString("}\n{")));
     }
 
     @Test
     void updatePayment_whenExists_shouldReturnUpdatedPayment() throws Exception {
-        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class))).thenReturn(payment);
+        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class), eq(0L))).thenReturn(payment);
 
         mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"0\"")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(payment)))
                 .andExpect(status().isOk())
@@ -137,11 +379,129 @@ class PaymentControllerTest {
 
     @Test
     void updatePayment_whenNotFound_shouldReturnNotFound() throws Exception {
-        when(paymentProcessingService.updatePayment(eq(99L), any(Payment.class))).thenThrow(new RuntimeException("Not Found"));
+        when(paymentProcessingService.updatePayment(eq(99L), any(Payment.class), eq(0L))).thenThrow(new RuntimeException("Not Found"));
         
         mockMvc.perform(put("/api/v1/payments/{id}", 99L)
+                        .header(HttpHeaders.IF_MATCH, "0")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void updatePayment_withValueTheColumnRejects_shouldReturnBadRequest() throws Exception {
+        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class), eq(0L)))
+                .thenThrow(new IllegalArgumentException("No enum constant COMPLETADO"));
+
+        mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"0\"")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void updatePayment_withoutIfMatch_shouldUpdateWithoutVersionCheck() throws Exception {
+        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class), isNull())).thenReturn(payment);
+
+        mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId").value("ORD-123"));
+    }
+
+    @Test
+    void updatePayment_withoutIfMatch_whenChangedConcurrently_shouldReturnConflict() throws Exception {
+        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class), isNull()))
+                .thenThrow(new OptimisticLockingFailureException("changed"));
+
+        mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void updatePayment_withMalformedIfMatch_shouldReturnBadRequest() throws Exception {
+        mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"abc\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isBadRequest());
+        verify(paymentProcessingService, never()).updatePayment(any(), any(), any());
+    }
+
+    @Test
+    void updatePayment_whenVersionChanged_shouldReturnPreconditionFailed() throws Exception {
+        when(paymentProcessingService.updatePayment(eq(1L), any(Payment.class), eq(2L)))
+                .thenThrow(new PaymentVersionConflictException("changed"));
+
+        mockMvc.perform(put("/api/v1/payments/{id}", 1L)
+                        .header(HttpHeaders.IF_MATCH, "\"2\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(payment)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void patchPayment_whenVersionMatches_shouldReturnUpdatedPayment() throws Exception {
+        when(paymentProcessingService.patchPayment(eq(1L), any(PaymentProcessingService.PaymentPatch.class))).thenReturn(payment);
+
+        mockMvc.perform(patch("/api/v1/payments/{id}", 1L)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentStatus\":\"REFUNDED\",\"version\":0}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId").value("ORD-123"));
+        verify(paymentProcessingService).patchPayment(1L,
+                new PaymentProcessingService.PaymentPatch(null, null, null, "REFUNDED", null, null, 0L));
+    }
+
+    @Test
+    void patchPayment_whenVersionIsStale_shouldReturnConflict() throws Exception {
+        when(paymentProcessingService.patchPayment(eq(1L), any(PaymentProcessingService.PaymentPatch.class)))
+                .thenThrow(new PaymentVersionConflictException("stale"));
+
+        mockMvc.perform(patch("/api/v1/payments/{id}", 1L)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"paymentStatus\":\"REFUNDED\",\"version\":0}"))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void capturePayment_whenPending_shouldReturnPayment() throws Exception {
+        when(paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE)).thenReturn(payment);
+
+        mockMvc.perform(post("/api/v1/payments/{id}/capture", 1L))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId").value("ORD-123"));
+    }
+
+    @Test
+    void refundPayment_whenNotCompleted_shouldReturnConflict() throws Exception {
+        when(paymentProcessingService.transitionPayment(1L, PaymentTransition.REFUND))
+                .thenThrow(new InvalidPaymentTransitionException("FAILED"));
+
+        mockMvc.perform(post("/api/v1/payments/{id}/refund", 1L))
+                .andExpect(status().isConflict());
+    }
+
+    @Test
+    void refundPayment_whenShardIsMoving_shouldReturnServiceUnavailable() throws Exception {
+        when(paymentProcessingService.transitionPayment(1L, PaymentTransition.REFUND))
+                .thenThrow(new ShardMovingException("Logical shard 3 is being moved"));
+
+        mockMvc.perform(post("/api/v1/payments/{id}/refund", 1L))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void voidPayment_whenNotFound_shouldReturnNotFound() throws Exception {
+        when(paymentProcessingService.transitionPayment(99L, PaymentTransition.VOID))
+                .thenThrow(new RuntimeException("Payment not found for ID: 99"));
+
+        mockMvc.perform(post("/api/v1/payments/{id}/void", 99L))
                 .andExpect(status().isNotFound());
     }
 
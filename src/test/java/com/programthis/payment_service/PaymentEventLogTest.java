@@ -0,0 +1,220 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentEventLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class PaymentEventLogTest {
+
+    private static final LocalDateTime FECHA = LocalDateTime.of(2024, 5, 10, 14, 37, 12, 123_456_000);
+
+    @TempDir
+    Path directorio;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private final List<PaymentEventLog> registros = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        registros.forEach(PaymentEventLog::close);
+    }
+
+    // Segmentos de 1 KB: 8 registros de 128 bytes.
+    private PaymentEventLog abrir(boolean reproducir) {
+        PaymentEventLog registro = new PaymentEventLog(true, directorio, DataSize.ofKilobytes(1), 4, reproducir, jdbc);
+        registro.open();
+        registros.add(registro);
+        return registro;
+    }
+
+    private static Payment pago(long id, String estado) {
+        return pago(id, estado, 0);
+    }
+
+    private static Payment pago(long id, String estado, long version) {
+        Payment pago = new Payment("PEDIDO-" + id, new BigDecimal("150.25"), "PROCESSED_METHOD", estado,
+                UUID.nameUUIDFromBytes(("tx" + id).getBytes()).toString(), FECHA);
+        pago.setId(id);
+        pago.setVersion(version);
+        return pago;
+    }
+
+    // Simula restaurar una copia de la base anterior a todo lo anotado en el registro.
+    private void restaurarCopiaAnterior() {
+        jdbc.update("UPDATE payment_event_log_checkpoint SET last_sequence = 0");
+    }
+
+    private List<Path> segmentos() throws IOException {
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            return ficheros.filter(f -> f.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    @Test
+    void anexarYLeer_conservaTodosLosCampos() {
+        PaymentEventLog registro = abrir(false);
+        Payment pago = pago(1, "COMPLETED");
+        registro.append(PaymentEventLog.Type.CREATED, pago);
+        Payment sinTransaccion = pago(2, "FAILED");
+        sinTransaccion.setTransactionId(null);
+        registro.append(PaymentEventLog.Type.CREATED, sinTransaccion);
+        registro.append(PaymentEventLog.Type.DELETED, pago);
+        registro.close();
+
+        List<PaymentEventLog.Event> eventos = abrir(false).readAll();
+
+        assertEquals(3, eventos.size());
+        assertEquals(List.of(1L, 2L, 3L), eventos.stream().map(PaymentEventLog.Event::sequence).toList());
+        Payment leido = eventos.get(0).payment();
+        assertEquals(1L, leido.getId());
+        assertEquals("PEDIDO-1", leido.getOrderId());
+        assertEquals(new BigDecimal("150.25"), leido.getAmount());
+        assertEquals("PROCESSED_METHOD", leido.getPaymentMethod());
+        assertEquals("COMPLETED", leido.getPaymentStatus());
+        assertEquals(pago.getTransactionId(), leido.getTransactionId());
+        assertEquals(FECHA, leido.getTransactionDate());
+        assertEquals(0L, leido.getVersion());
+        assertNull(eventos.get(1).payment().getTransactionId());
+        assertEquals(PaymentEventLog.Type.DELETED, eventos.get(2).type());
+    }
+
+    @Test
+    void orderIdLargo_ocupaBloquesDeContinuacion_yNuncaHaceFallarAQuienAnota() throws IOException {
+        PaymentEventLog registro = abrir(false);
+        Payment largo = pago(1, "COMPLETED");
+        largo.setOrderId("PEDIDO-ñ-" + "x".repeat(240));
+        for (int i = 2; i <= 7; i++) {
+            registro.append(PaymentEventLog.Type.CREATED, pago(i, "COMPLETED"));
+        }
+        // Ocupa 3 bloques y en el segmento quedan 2: pasa entero al siguiente.
+        registro.append(PaymentEventLog.Type.CREATED, largo);
+        registro.append(PaymentEventLog.Type.UPDATED, pago(2, "REFUNDED"));
+        assertEquals(2, segmentos().size());
+        registro.close();
+        assertDoesNotThrow(() -> registro.append(PaymentEventLog.Type.UPDATED, largo));
+
+        List<PaymentEventLog.Event> eventos = abrir(false).readAll();
+
+        assertEquals(8, eventos.size());
+        assertEquals(largo.getOrderId(), eventos.get(6).payment().getOrderId());
+        assertEquals(7L, eventos.get(6).sequence());
+        assertEquals("REFUNDED", eventos.get(7).payment().getPaymentStatus());
+    }
+
+    @Test
+    void segmentoLleno_rotaYLaCompactacionDejaElUltimoEvento() throws IOException {
+        PaymentEventLog registro = abrir(false);
+        for (int i = 0; i < 20; i++) {
+            registro.append(i % 2 == 0 ? PaymentEventLog.Type.CREATED : PaymentEventLog.Type.UPDATED,
+                    pago(i % 3, i % 2 == 0 ? "PENDING" : "COMPLETED"));
+        }
+        assertEquals(3, segmentos().size());
+
+        registro.compact();
+
+        assertEquals(2, segmentos().size());
+        List<PaymentEventLog.Event> eventos = registro.readAll();
+        // 3 pagos en el segmento compactado (eventos 1-16) y los 4 del segmento activo (17-20).
+        assertEquals(7, eventos.size());
+        assertEquals(List.of(14L, 15L, 16L), eventos.subList(0, 3).stream().map(PaymentEventLog.Event::sequence).toList());
+    }
+
+    @Test
+    void registroCorrupto_seDescartaConLoQueLeSigue() throws IOException {
+        PaymentEventLog registro = abrir(false);
+        for (int i = 1; i <= 3; i++) {
+            registro.append(PaymentEventLog.Type.CREATED, pago(i, "COMPLETED"));
+        }
+        registro.close();
+        try (RandomAccessFile fichero = new RandomAccessFile(segmentos().get(0).toFile(), "rw")) {
+            fichero.seek(128 + 60);
+            fichero.write('X');
+        }
+
+        assertEquals(1, abrir(false).readAll().size());
+    }
+
+    @Test
+    void arranque_trasRestaurarLaBase_reproduceElUltimoEstadoEnLaTablaPayment() {
+        jdbc.update("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, transaction_date) "
+                + "VALUES (901, 'PEDIDO-901', 100, 0, 0, ?)", FECHA);
+        PaymentEventLog registro = abrir(false);
+        registro.append(PaymentEventLog.Type.CREATED, pago(900, "PENDING", 0));
+        registro.append(PaymentEventLog.Type.UPDATED, pago(900, "COMPLETED", 1));
+        registro.append(PaymentEventLog.Type.DELETED, pago(901, "PENDING", 0));
+        registro.close();
+        restaurarCopiaAnterior();
+
+        abrir(true);
+
+        assertEquals(1, jdbc.queryForObject("SELECT payment_status FROM payment WHERE id = 900", Integer.class));
+        assertEquals(15025L, jdbc.queryForObject("SELECT amount_minor FROM payment WHERE id = 900", Long.class));
+        assertEquals(1L, jdbc.queryForObject("SELECT version FROM payment WHERE id = 900", Long.class));
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM payment WHERE id = 901", Integer.class));
+    }
+
+    @Test
+    void arranque_soloReproduceLoPosteriorAlPuntoDeControl() {
+        PaymentEventLog registro = abrir(false);
+        registro.append(PaymentEventLog.Type.CREATED, pago(910, "PENDING"));
+        registro.flush();
+        registro.append(PaymentEventLog.Type.CREATED, pago(911, "PENDING"));
+        // Caída antes del siguiente punto de control: solo el evento 2 queda pendiente.
+        jdbc.update("UPDATE payment_event_log_checkpoint SET last_sequence = 1");
+
+        abrir(true);
+
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM payment WHERE id = 910", Integer.class));
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM payment WHERE id = 911", Integer.class));
+        assertEquals(2L, jdbc.queryForObject("SELECT last_sequence FROM payment_event_log_checkpoint", Long.class));
+    }
+
+    @Test
+    void reproduccion_noPisaUnaFilaMasNueva_niResucitaPagosArchivados() {
+        jdbc.update("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, transaction_date, version) "
+                + "VALUES (920, 'PEDIDO-920', 100, 0, 3, ?, 5)", FECHA);
+        jdbc.update("INSERT INTO payment (id, order_id, amount_minor, payment_method, payment_status, transaction_date, version) "
+                + "VALUES (922, 'PEDIDO-922', 100, 0, 1, ?, 2)", FECHA);
+        jdbc.update("INSERT INTO payment_archive (id, order_id, amount_minor, payment_method, payment_status, archived_at) "
+                + "VALUES (921, 'PEDIDO-921', 100, 0, 1, ?)", FECHA);
+        PaymentEventLog registro = abrir(false);
+        registro.append(PaymentEventLog.Type.UPDATED, pago(920, "COMPLETED", 2));
+        registro.append(PaymentEventLog.Type.UPDATED, pago(921, "COMPLETED", 1));
+        registro.append(PaymentEventLog.Type.DELETED, pago(922, "COMPLETED", 1));
+        registro.close();
+        restaurarCopiaAnterior();
+
+        abrir(true);
+
+        assertEquals(3, jdbc.queryForObject("SELECT payment_status FROM payment WHERE id = 920", Integer.class));
+        assertEquals(5L, jdbc.queryForObject("SELECT version FROM payment WHERE id = 920", Long.class));
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM payment WHERE id = 921", Integer.class));
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM payment WHERE id = 922", Integer.class));
+    }
+}
@@ -0,0 +1,156 @@
+package com.programthis.payment_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.outbox.FileOutboxSink;
+import com.programthis.payment_service.outbox.InMemoryOutboxSink;
+import com.programthis.payment_service.outbox.OutboxEvent;
+import com.programthis.payment_service.outbox.OutboxSink;
+import com.programthis.payment_service.service.PaymentEventLog;
+import com.programthis.payment_service.service.PaymentOutbox;
+import com.programthis.payment_service.service.PaymentShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+// Sin transacción de prueba: los relés concurrentes deben ver filas ya confirmadas.
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PaymentOutboxTest {
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @AfterEach
+    void tearDown() {
+        jdbc.update("DELETE FROM payment_outbox");
+    }
+
+    private PaymentOutbox bandeja(int tamanoLote, OutboxSink destino) {
+        return new PaymentOutbox(true, tamanoLote, jdbc, transactionManager, objectMapper, destino,
+                new PaymentShards(false, 64, List.of(), Duration.ofSeconds(30), jdbc, transactionManager, Runnable::run));
+    }
+
+    private void escribir(PaymentOutbox bandeja, long... ids) {
+        List<Payment> pagos = LongStream.of(ids).mapToObj(id -> {
+            Payment pago = new Payment("PEDIDO-" + id, new BigDecimal("10.50"), "PROCESSED_METHOD", "COMPLETED", null,
+                    LocalDateTime.of(2024, 5, 10, 14, 37));
+            pago.setId(id);
+            pago.setVersion(0L);
+            return pago;
+        }).toList();
+        new TransactionTemplate(transactionManager).executeWithoutResult(
+                status -> bandeja.appendAll(PaymentEventLog.Type.CREATED, pagos));
+    }
+
+    @Test
+    void rele_publicaEnOrdenPorLotesYBorraLasFilas() {
+        InMemoryOutboxSink destino = new InMemoryOutboxSink();
+        PaymentOutbox bandeja = bandeja(2, destino);
+        escribir(bandeja, 1, 2, 3, 4, 5);
+
+        bandeja.relay();
+
+        List<OutboxEvent> eventos = destino.events();
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), eventos.stream().map(OutboxEvent::paymentId).toList());
+        assertEquals("CREATED", eventos.get(0).type());
+        assertTrue(eventos.get(0).payload().contains("\"orderId\":\"PEDIDO-1\""));
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM payment_outbox", Integer.class));
+    }
+
+    @Test
+    void destinoQueFalla_dejaLosEventosParaElSiguienteIntento() {
+        InMemoryOutboxSink destino = new InMemoryOutboxSink();
+        PaymentOutbox conFallo = bandeja(10, eventos -> {
+            throw new IllegalStateException("broker caído");
+        });
+        escribir(conFallo, 1, 2);
+
+        conFallo.relay();
+        assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM payment_outbox", Integer.class));
+
+        bandeja(10, destino).relay();
+        assertEquals(2, destino.events().size());
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM payment_outbox", Integer.class));
+    }
+
+    @Test
+    void dosRelesALaVez_noEntreganElMismoEvento() throws Exception {
+        InMemoryOutboxSink rapido = new InMemoryOutboxSink();
+        CountDownLatch bloqueado = new CountDownLatch(1);
+        CountDownLatch liberar = new CountDownLatch(1);
+        InMemoryOutboxSink lento = new InMemoryOutboxSink() {
+            @Override
+            public synchronized void publish(List<OutboxEvent> batch) {
+                bloqueado.countDown();
+                try {
+                    liberar.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.publish(batch);
+            }
+        };
+        PaymentOutbox instanciaA = bandeja(2, lento);
+        PaymentOutbox instanciaB = bandeja(2, rapido);
+        escribir(instanciaA, 1, 2, 3, 4);
+
+        // A bloquea las filas 1 y 2 y se queda esperando dentro de su transacción; B se las salta.
+        CompletableFuture<Integer> releA = CompletableFuture.supplyAsync(instanciaA::relayBatch);
+        assertTrue(bloqueado.await(5, TimeUnit.SECONDS));
+        assertEquals(2, instanciaB.relayBatch());
+        liberar.countDown();
+        assertEquals(2, releA.get(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of(1L, 2L), lento.events().stream().map(OutboxEvent::paymentId).toList());
+        assertEquals(List.of(3L, 4L), rapido.events().stream().map(OutboxEvent::paymentId).toList());
+        assertEquals(0, instanciaB.relayBatch());
+    }
+
+    @Test
+    void destinoFichero_unaLineaJsonPorEventoConElPagoSinEscapar(@TempDir Path directorio) throws Exception {
+        Path fichero = directorio.resolve("outbox/events.ndjson");
+        FileOutboxSink destino = new FileOutboxSink(fichero, objectMapper);
+        PaymentOutbox bandeja = bandeja(10, destino);
+        escribir(bandeja, 7, 8);
+
+        bandeja.relay();
+        destino.close();
+
+        List<String> lineas = Files.readAllLines(fichero);
+        assertEquals(2, lineas.size());
+        assertEquals("PEDIDO-7", objectMapper.readTree(lineas.get(0)).path("payload").path("orderId").asText());
+        assertEquals(8, objectMapper.readTree(lineas.get(1)).path("paymentId").asLong());
+    }
+}
@@ -0,0 +1,33 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.config.PaymentPartitionMaintainer;
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentPartitionMaintainerTest {
+
+    @Test
+    void reorganizarFuturo_creaParticionesMensualesYConservaPFuture() {
+        String sql = PaymentPartitionMaintainer.reorganizeFuture(List.of(YearMonth.of(2026, 11), YearMonth.of(2026, 12)));
+
+        assertEquals("ALTER TABLE payment REORGANIZE PARTITION p_future INTO ("
+                + "PARTITION p202611 VALUES LESS THAN (TO_DAYS('2026-12-01')), "
+                + "PARTITION p202612 VALUES LESS THAN (TO_DAYS('2027-01-01')), "
+                + "PARTITION p_future VALUES LESS THAN MAXVALUE)", sql);
+    }
+
+    @Test
+    void soloSeEliminanParticionesMensualesAntiguas() {
+        YearMonth actual = YearMonth.of(2026, 10);
+
+        assertTrue(PaymentPartitionMaintainer.isDroppable("p202608", actual));
+        assertFalse(PaymentPartitionMaintainer.isDroppable("p202609", actual));
+        assertFalse(PaymentPartitionMaintainer.isDroppable("p202610", actual));
+        assertFalse(PaymentPartitionMaintainer.isDroppable("p_history", actual));
+        assertFalse(PaymentPartitionMaintainer.isDroppable("p_future", actual));
+    }
+}
@@ -1,25 +1,68 @@
 package com.programthis.payment_service;
 
 import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentTransition;
+import com.programthis.payment_service.gateway.GatewayException;
+import com.programthis.payment_service.gateway.GatewayResult;
+import com.programthis.payment_service.gateway.SimulatedGateway;
 import com.programthis.payment_service.repository.PaymentRepository;
+import com.programthis.payment_service.service.GatewayBusyException;
+import com.programthis.payment_service.service.GatewayCallPolicy;
+import com.programthis.payment_service.service.GatewayCircuitBreaker;
+import com.programthis.payment_service.service.GatewayConcurrencyLimiter;
+import com.programthis.payment_service.service.IdempotencyStore;
+import com.programthis.payment_service.service.InvalidPaymentTransitionException;
+import com.programthis.payment_service.service.PaymentEventLog;
+import com.programthis.payment_service.service.PaymentMetrics;
+import com.programthis.payment_service.service.PaymentOutbox;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentShards;
+import com.programthis.payment_service.service.PaymentStatistics;
+import com.programthis.payment_service.service.PaymentStatusCache;
+import com.programthis.payment_service.service.ReplicaReads;
+import com.programthis.payment_service.service.PaymentStatusNotifier;
+import com.programthis.payment_service.service.PaymentVersionConflictException;
+import com.programthis.payment_service.service.PaymentWriteBehind;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,6 +71,51 @@ class PaymentProcessingServiceTest {
     @Mock
     private PaymentRepository paymentRepository;
 
+    @Spy
+    private PaymentStatusCache paymentStatusCache = new PaymentStatusCache(1000, Duration.ofMinutes(1), Duration.ofSeconds(5));
+
+    @Spy
+    private GatewayConcurrencyLimiter gatewayConcurrencyLimiter = new GatewayConcurrencyLimiter(10, Duration.ofSeconds(1));
+
+    @Spy
+    private ReplicaReads replicaReads = new ReplicaReads(false, Duration.ofSeconds(5), 1000, mock(PlatformTransactionManager.class));
+
+    @Spy
+    private PaymentShards paymentShards = new PaymentShards(false, 64, List.of(), Duration.ofSeconds(30), mock(JdbcTemplate.class),
+            mock(PlatformTransactionManager.class), Runnable::run);
+
+    @Spy
+    private GatewayCallPolicy gatewayCallPolicy = new GatewayCallPolicy(Duration.ofSeconds(5), Duration.ZERO,
+            new GatewayCircuitBreaker(false, 100, 20, 50, 80, Duration.ofSeconds(2), Duration.ofSeconds(10), 5),
+            gatewayConcurrencyLimiter, Runnable::run);
+
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    @Mock
+    private PaymentStatistics paymentStatistics;
+
+    @Mock
+    private PaymentWriteBehind paymentWriteBehind;
+
+    @Mock
+    private PaymentEventLog paymentEventLog;
+
+    @Mock
+    private PaymentStatusNotifier paymentStatusNotifier;
+
+    @Mock
+    private PaymentOutbox paymentOutbox;
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @Spy
+    private PaymentMetrics paymentMetrics = new PaymentMetrics(new SimpleMeterRegistry());
+
+    @Spy
+    private SimulatedGateway simulatedGateway = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 0.0, Runnable::run);
+
     @InjectMocks
     private PaymentProcessingService paymentProcessingService;
 
@@ -36,6 +124,8 @@ class PaymentProcessingServiceTest {
 
     @BeforeEach
     void setUp() {
+        ReflectionTestUtils.setField(paymentProcessingService, "paymentExecutor", (Executor) Runnable::run);
+
         pagoDePrueba = new Payment();
         pagoDePrueba.setId(1L);
         pagoDePrueba.setOrderId("PEDIDO-001");
@@ -62,6 +152,8 @@ class PaymentProcessingServiceTest {
         assertEquals("COMPLETADO", resultado.getPaymentStatus());
         assertNotNull(resultado.getTransactionId());
         verify(paymentRepository, times(1)).save(any(Payment.class));
+        verify(paymentOutbox).append(PaymentEventLog.Type.CREATED, pagoDePrueba);
+        verify(paymentStatusNotifier).publish(pagoDePrueba);
     }
 
     @Test
@@ -90,27 +182,232 @@ class PaymentProcessingServiceTest {
         verify(paymentRepository, times(1)).save(any(Payment.class));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void procesarLoteDePagos_unSoloSaveAll() {
+        PaymentProcessingService.PaymentRequest solicitudFallo = new PaymentProcessingService.PaymentRequest(
+                "PEDIDO-002",
+                BigDecimal.valueOf(50.00),
+                "tarjeta_fail"
+        );
+        when(paymentRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        List<Payment> resultado = paymentProcessingService.processPayments(List.of(solicitudDePagoDePrueba, solicitudFallo)).payments();
+
+        assertEquals(2, resultado.size());
+        assertEquals("COMPLETED", resultado.get(0).getPaymentStatus());
+        assertNotNull(resultado.get(0).getTransactionId());
+        assertEquals("FAILED", resultado.get(1).getPaymentStatus());
+        assertNull(resultado.get(1).getTransactionId());
+        verify(paymentRepository, times(1)).saveAll(anyList());
+        verify(paymentRepository, never()).save(any(Payment.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void procesarLoteDePagos_unErrorDePasarela_noImpideGuardarLosAprobados() {
+        PaymentProcessingService.PaymentRequest solicitudConError = new PaymentProcessingService.PaymentRequest(
+                "PEDIDO-ERROR", BigDecimal.valueOf(20.00), "tarjeta");
+        PaymentProcessingService.PaymentRequest solicitudOcupada = new PaymentProcessingService.PaymentRequest(
+                "PEDIDO-OCUPADO", BigDecimal.valueOf(30.00), "tarjeta");
+        lenient().doReturn(CompletableFuture.failedFuture(new GatewayException("rechazo técnico")))
+                .when(simulatedGateway).authorize(eq("PEDIDO-ERROR"), any(), any());
+        lenient().doReturn(CompletableFuture.failedFuture(new GatewayBusyException("ocupada")))
+                .when(simulatedGateway).authorize(eq("PEDIDO-OCUPADO"), any(), any());
+        when(paymentRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        PaymentProcessingService.BatchResult resultado = paymentProcessingService.processPayments(
+                List.of(solicitudConError, solicitudDePagoDePrueba, solicitudOcupada));
+
+        assertEquals(1, resultado.payments().size());
+        assertEquals("PEDIDO-001", resultado.payments().get(0).getOrderId());
+        assertEquals("COMPLETED", resultado.payments().get(0).getPaymentStatus());
+        assertEquals(List.of(
+                new PaymentProcessingService.BatchFailure(0, "PEDIDO-ERROR", false, "rechazo técnico"),
+                new PaymentProcessingService.BatchFailure(2, "PEDIDO-OCUPADO", true, "ocupada")), resultado.failures());
+        verify(paymentRepository).saveAll(argThat(pagos -> ((List<Payment>) pagos).size() == 1));
+        verify(paymentEventLog).appendAll(PaymentEventLog.Type.CREATED, resultado.payments());
+    }
+
+    @Test
+    void procesarLoteDePagos_siFallaElGuardado_informaCadaElemento() {
+        when(paymentRepository.saveAll(anyList())).thenThrow(new IllegalStateException("base caída"));
+
+        PaymentProcessingService.BatchResult resultado = paymentProcessingService.processPayments(List.of(solicitudDePagoDePrueba));
+
+        assertEquals(List.of(), resultado.payments());
+        assertEquals(List.of(new PaymentProcessingService.BatchFailure(0, "PEDIDO-001", false, "base caída")),
+                resultado.failures());
+        verify(paymentStatusNotifier, never()).publish(any());
+    }
+
+    @Test
+    void procesarPago_registraMetricasPorEtapa() {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(paymentProcessingService, "paymentMetrics", new PaymentMetrics(registro));
+        when(paymentRepository.save(any(Payment.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        paymentProcessingService.processPayment(solicitudDePagoDePrueba);
+
+        assertEquals(1, registro.get(PaymentMetrics.GATEWAY_TIMER).tag("outcome", "approved").timer().count());
+        assertEquals(1, registro.get(PaymentMetrics.PERSIST_TIMER).timer().count());
+        assertEquals(1.0, registro.get(PaymentMetrics.OUTCOME_COUNTER).tag("status", "COMPLETED").counter().count());
+        assertTrue(registro.find(PaymentMetrics.OUTCOME_COUNTER).tagKeys("orderId").meters().isEmpty());
+    }
+
+    @Test
+    void procesarPago_elTiempoDePasarelaNoIncluyeLaEsperaPorPermiso() {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(paymentProcessingService, "paymentMetrics", new PaymentMetrics(registro));
+        GatewayConcurrencyLimiter limitador = new GatewayConcurrencyLimiter(1, Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(paymentProcessingService, "gatewayCallPolicy", new GatewayCallPolicy(Duration.ofSeconds(5),
+                Duration.ZERO, new GatewayCircuitBreaker(false, 100, 20, 50, 80, Duration.ofSeconds(2), Duration.ofSeconds(10), 5),
+                limitador, Runnable::run));
+        when(paymentRepository.save(any(Payment.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        CompletableFuture<Void> ocupada = new CompletableFuture<>();
+        limitador.callAsync(() -> ocupada);
+        CompletableFuture.delayedExecutor(300, TimeUnit.MILLISECONDS).execute(() -> ocupada.complete(null));
+
+        paymentProcessingService.processPayment(solicitudDePagoDePrueba);
+
+        Timer pasarela = registro.get(PaymentMetrics.GATEWAY_TIMER).tag("outcome", "approved").timer();
+        assertEquals(1, pasarela.count());
+        assertTrue(pasarela.totalTime(TimeUnit.MILLISECONDS) < 200, "la espera por el permiso no debe medirse");
+    }
+
+    @Test
+    void procesarPago_timeoutDePasarela_quedaPendiente_yLaRespuestaTardiaLoCompleta() {
+        ReflectionTestUtils.setField(paymentProcessingService, "gatewayCallPolicy", new GatewayCallPolicy(Duration.ofMillis(50),
+                Duration.ZERO, new GatewayCircuitBreaker(false, 100, 20, 50, 80, Duration.ofSeconds(2), Duration.ofSeconds(10), 5),
+                new GatewayConcurrencyLimiter(10, Duration.ofSeconds(1)), Runnable::run));
+        CompletableFuture<GatewayResult> respuestaTardia = new CompletableFuture<>();
+        doReturn(respuestaTardia).when(simulatedGateway).authorize(any(), any(), any());
+        when(paymentRepository.save(any(Payment.class))).thenAnswer(invocation -> {
+            Payment pago = invocation.getArgument(0);
+            pago.setId(1L);
+            pago.setVersion(0L);
+            return pago;
+        });
+        when(paymentRepository.patch(eq(1L), eq(0L), anyMap())).thenReturn(1);
+
+        Payment resultado = paymentProcessingService.processPayment(solicitudDePagoDePrueba);
+
+        assertEquals("PENDING", resultado.getPaymentStatus());
+        assertNull(resultado.getTransactionId());
+        verify(paymentRepository, never()).patch(anyLong(), anyLong(), anyMap());
+
+        String transaccion = UUID.randomUUID().toString();
+        respuestaTardia.complete(GatewayResult.approved(transaccion));
+
+        verify(paymentRepository).patch(1L, 0L, Map.of("paymentStatus", "COMPLETED", "transactionId", transaccion));
+        assertEquals("COMPLETED", paymentStatusCache.getById(1L).orElseThrow().getPaymentStatus());
+    }
+
+    @Test
+    void procesarPago_timeoutDePasarela_yRechazoTardio_loDejaFallido() {
+        ReflectionTestUtils.setField(paymentProcessingService, "gatewayCallPolicy", new GatewayCallPolicy(Duration.ofMillis(50),
+                Duration.ZERO, new GatewayCircuitBreaker(false, 100, 20, 50, 80, Duration.ofSeconds(2), Duration.ofSeconds(10), 5),
+                new GatewayConcurrencyLimiter(10, Duration.ofSeconds(1)), Runnable::run));
+        CompletableFuture<GatewayResult> respuestaTardia = new CompletableFuture<>();
+        doReturn(respuestaTardia).when(simulatedGateway).authorize(any(), any(), any());
+        when(paymentRepository.save(any(Payment.class))).thenAnswer(invocation -> {
+            Payment pago = invocation.getArgument(0);
+            pago.setId(1L);
+            pago.setVersion(0L);
+            return pago;
+        });
+        when(paymentRepository.patch(eq(1L), eq(0L), anyMap())).thenReturn(1);
+
+        paymentProcessingService.processPayment(solicitudDePagoDePrueba);
+        respuestaTardia.complete(GatewayResult.declined("fondos insuficientes"));
+
+        verify(paymentRepository).patch(1L, 0L, Map.of("paymentStatus", "FAILED"));
+    }
+
+    @Test
+    void procesarLoteDePagos_vacio() {
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.processPayments(List.of()));
+        verify(paymentRepository, never()).saveAll(anyList());
+    }
+
     @Test
     void obtenerEstadoPagoPorIdPedido_encontrado() {
-        when(paymentRepository.findByOrderId("PEDIDO-001")).thenReturn(Optional.of(pagoDePrueba));
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.of(pagoDePrueba));
 
         Payment resultado = paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001");
 
         assertNotNull(resultado);
         assertEquals("PEDIDO-001", resultado.getOrderId());
-        verify(paymentRepository, times(1)).findByOrderId("PEDIDO-001");
+        verify(paymentRepository, times(1)).findFirstByOrderIdOrderByIdDesc("PEDIDO-001");
     }
 
     @Test
     void obtenerEstadoPagoPorIdPedido_noEncontrado() {
-        when(paymentRepository.findByOrderId("PEDIDO_INEXISTENTE")).thenReturn(Optional.empty());
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO_INEXISTENTE")).thenReturn(Optional.empty());
 
         RuntimeException excepcionLanzada = assertThrows(RuntimeException.class, () -> {
             paymentProcessingService.getPaymentStatusByOrderId("PEDIDO_INEXISTENTE");
         });
 
         assertTrue(excepcionLanzada.getMessage().contains("Payment not found for order ID: PEDIDO_INEXISTENTE"));
-        verify(paymentRepository, times(1)).findByOrderId("PEDIDO_INEXISTENTE");
+        verify(paymentRepository, times(1)).findFirstByOrderIdOrderByIdDesc("PEDIDO_INEXISTENTE");
+    }
+
+    @Test
+    void obtenerEstadoPagoPorIdPedido_desdeElArchivo() {
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.empty());
+        when(paymentRepository.findArchivedByOrderId("PEDIDO-001")).thenReturn(Optional.of(pagoDePrueba));
+
+        Payment resultado = paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001");
+
+        assertEquals(pagoDePrueba, resultado);
+        verify(paymentRepository, times(1)).findArchivedByOrderId("PEDIDO-001");
+    }
+
+    @Test
+    void obtenerEstadoPagoPorIdPedido_segundaConsultaDesdeCache() {
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.of(pagoDePrueba));
+
+        paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001");
+        Payment resultado = paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001");
+
+        assertEquals("PEDIDO-001", resultado.getOrderId());
+        verify(paymentRepository, times(1)).findFirstByOrderIdOrderByIdDesc("PEDIDO-001");
+        assertEquals(1, paymentStatusCache.orderIdStats().hitCount());
+        assertEquals(1, paymentStatusCache.orderIdStats().missCount());
+    }
+
+    @Test
+    void obtenerEstadoPagoPorIdPedido_noEncontradoSeCachea() {
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO_INEXISTENTE")).thenReturn(Optional.empty());
+
+        assertThrows(RuntimeException.class, () -> paymentProcessingService.getPaymentStatusByOrderId("PEDIDO_INEXISTENTE"));
+        assertThrows(RuntimeException.class, () -> paymentProcessingService.getPaymentStatusByOrderId("PEDIDO_INEXISTENTE"));
+
+        verify(paymentRepository, times(1)).findFirstByOrderIdOrderByIdDesc("PEDIDO_INEXISTENTE");
+    }
+
+    @Test
+    void procesarPago_actualizaLaCache() {
+        when(paymentRepository.save(any(Payment.class))).thenReturn(pagoDePrueba);
+
+        paymentProcessingService.processPayment(solicitudDePagoDePrueba);
+        Payment resultado = paymentProcessingService.getPaymentByTransactionId("TRANSACCION-XYZ");
+
+        assertSame(pagoDePrueba, resultado);
+        verify(paymentRepository, never()).findByTransactionId(anyString());
+    }
+
+    @Test
+    void eliminarPago_invalidaLaCache() {
+        when(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-001")).thenReturn(Optional.of(pagoDePrueba), Optional.empty());
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001");
+        paymentProcessingService.deletePayment(1L);
+
+        assertThrows(RuntimeException.class, () -> paymentProcessingService.getPaymentStatusByOrderId("PEDIDO-001"));
+        verify(paymentRepository, times(2)).findFirstByOrderIdOrderByIdDesc("PEDIDO-001");
     }
 
     @Test
@@ -159,16 +456,68 @@ class PaymentProcessingServiceTest {
         verify(paymentRepository, times(1)).findAll();
     }
 
+    @Test
+    void obtenerPaginaDePagos_conSiguientePagina() {
+        Payment otroPago = new Payment();
+        otroPago.setId(2L);
+        otroPago.setOrderId("PEDIDO-002");
+        otroPago.setTransactionDate(pagoDePrueba.getTransactionDate().plusSeconds(1));
+
+        when(paymentRepository.findFirstPage(any(Pageable.class))).thenReturn(Arrays.asList(pagoDePrueba, otroPago));
+
+        PaymentProcessingService.PaymentPage resultado = paymentProcessingService.getPaymentsPage(null, 1);
+
+        assertEquals(1, resultado.payments().size());
+        assertEquals("PEDIDO-001", resultado.payments().get(0).getOrderId());
+        assertNotNull(resultado.nextCursor());
+        verify(paymentRepository).findFirstPage(PageRequest.ofSize(2));
+    }
+
+    @Test
+    void obtenerPaginaDePagos_desdeCursor() {
+        when(paymentRepository.findFirstPage(any(Pageable.class))).thenReturn(Arrays.asList(pagoDePrueba, pagoDePrueba));
+        String cursor = paymentProcessingService.getPaymentsPage(null, 1).nextCursor();
+
+        when(paymentRepository.findPageAfter(pagoDePrueba.getTransactionDate(), 1L, PageRequest.ofSize(51)))
+                .thenReturn(List.of());
+
+        PaymentProcessingService.PaymentPage resultado = paymentProcessingService.getPaymentsPage(cursor, null);
+
+        assertTrue(resultado.payments().isEmpty());
+        assertNull(resultado.nextCursor());
+        verify(paymentRepository).findPageAfter(pagoDePrueba.getTransactionDate(), 1L, PageRequest.ofSize(51));
+    }
+
+    @Test
+    void obtenerPaginaDePagos_cursorDeUnPagoSinFecha() {
+        pagoDePrueba.setTransactionDate(null);
+        when(paymentRepository.findFirstPage(any(Pageable.class))).thenReturn(Arrays.asList(pagoDePrueba, pagoDePrueba));
+        String cursor = paymentProcessingService.getPaymentsPage(null, 1).nextCursor();
+
+        when(paymentRepository.findPageAfterNullDate(1L, PageRequest.ofSize(51))).thenReturn(List.of());
+
+        assertTrue(paymentProcessingService.getPaymentsPage(cursor, null).payments().isEmpty());
+        verify(paymentRepository).findPageAfterNullDate(1L, PageRequest.ofSize(51));
+    }
+
+    @Test
+    void obtenerPaginaDePagos_cursorInvalido() {
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.getPaymentsPage("no-es-un-cursor", 10));
+        verify(paymentRepository, never()).findPageAfter(any(), any(), any());
+    }
+
     @Test
     void actualizarPago_exito() {
         Payment detallesActualizados = new Payment();
         detallesActualizados.setOrderId("PEDIDO-001-ACTUALIZADO");
         detallesActualizados.setAmount(BigDecimal.valueOf(150.00));
-        detallesActualizados.setPaymentMethod("PayPal");
-        detallesActualizados.setPaymentStatus("REEMBOLSADO");
-        detallesActualizados.setTransactionId(pagoDePrueba.getTransactionId());
+        detallesActualizados.setPaymentMethod("PAYPAL");
+        detallesActualizados.setPaymentStatus("REFUNDED");
+        detallesActualizados.setTransactionId(UUID.randomUUID().toString());
         detallesActualizados.setTransactionDate(pagoDePrueba.getTransactionDate());
 
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(0L);
         when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
         
         Payment pagoDespuesDeGuardar = new Payment();
@@ -180,17 +529,66 @@ class PaymentProcessingServiceTest {
         pagoDespuesDeGuardar.setTransactionId(detallesActualizados.getTransactionId());
         pagoDespuesDeGuardar.setTransactionDate(detallesActualizados.getTransactionDate());
 
-        when(paymentRepository.save(any(Payment.class))).thenReturn(pagoDespuesDeGuardar);
+        when(paymentRepository.saveAndFlush(any(Payment.class))).thenReturn(pagoDespuesDeGuardar);
 
-        Payment resultado = paymentProcessingService.updatePayment(1L, detallesActualizados);
+        Payment resultado = paymentProcessingService.updatePayment(1L, detallesActualizados, 0L);
 
         assertNotNull(resultado);
         assertEquals("PEDIDO-001", resultado.getOrderId()); 
         assertEquals(BigDecimal.valueOf(150.00), resultado.getAmount());
-        assertEquals("PayPal", resultado.getPaymentMethod());
-        assertEquals("REEMBOLSADO", resultado.getPaymentStatus());
+        assertEquals("PAYPAL", resultado.getPaymentMethod());
+        assertEquals("REFUNDED", resultado.getPaymentStatus());
         verify(paymentRepository, times(1)).findById(1L);
-        verify(paymentRepository, times(1)).save(any(Payment.class));
+        verify(paymentRepository, times(1)).saveAndFlush(any(Payment.class));
+        verify(paymentOutbox).append(PaymentEventLog.Type.UPDATED, pagoDespuesDeGuardar);
+    }
+
+    @Test
+    void actualizarPago_versionDistintaEsConflicto() {
+        pagoDePrueba.setVersion(2L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        assertThrows(PaymentVersionConflictException.class,
+                () -> paymentProcessingService.updatePayment(1L, new Payment(), 1L));
+        verify(paymentRepository, never()).saveAndFlush(any(Payment.class));
+    }
+
+    @Test
+    void actualizarPago_sinVersionEsperada_noComparaVersion() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(2L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        when(paymentRepository.saveAndFlush(any(Payment.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        Payment detalles = new Payment("PEDIDO-001", BigDecimal.TEN, "PAYPAL", "REFUNDED", null, LocalDateTime.now());
+
+        Payment resultado = paymentProcessingService.updatePayment(1L, detalles, null);
+
+        assertEquals("REFUNDED", resultado.getPaymentStatus());
+        verify(paymentRepository).saveAndFlush(pagoDePrueba);
+    }
+
+    @Test
+    void actualizarPago_transicionDeEstadoNoPermitida() {
+        pagoDePrueba.setPaymentStatus("REFUNDED");
+        pagoDePrueba.setVersion(0L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        Payment detalles = new Payment("PEDIDO-001", BigDecimal.TEN, "PROCESSED_METHOD", "PENDING", null, LocalDateTime.now());
+
+        assertThrows(InvalidPaymentTransitionException.class, () -> paymentProcessingService.updatePayment(1L, detalles, 0L));
+        verify(paymentRepository, never()).saveAndFlush(any(Payment.class));
+    }
+
+    @Test
+    void actualizarPago_valoresQueLaColumnaNoAdmite_seRechazanSinTocarLaBase() {
+        Payment estadoAntiguo = new Payment("PEDIDO-001", BigDecimal.TEN, "PROCESSED_METHOD", "COMPLETADO", null, null);
+        Payment metodoAntiguo = new Payment("PEDIDO-001", BigDecimal.TEN, "Tarjeta de Crédito", "COMPLETED", null, null);
+        Payment transaccionNoUuid = new Payment("PEDIDO-001", BigDecimal.TEN, "CARD", "COMPLETED", "TRANSACCION-XYZ", null);
+        Payment tresDecimales = new Payment("PEDIDO-001", new BigDecimal("10.005"), "CARD", "COMPLETED", null, null);
+
+        for (Payment detalles : List.of(estadoAntiguo, metodoAntiguo, transaccionNoUuid, tresDecimales)) {
+            assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.updatePayment(1L, detalles, 0L));
+        }
+        verifyNoInteractions(paymentRepository);
     }
 
     @Test
@@ -201,7 +599,7 @@ class PaymentProcessingServiceTest {
         when(paymentRepository.findById(99L)).thenReturn(Optional.empty());
 
         RuntimeException excepcionLanzada = assertThrows(RuntimeException.class, () -> {
-            paymentProcessingService.updatePayment(99L, detallesActualizados);
+            paymentProcessingService.updatePayment(99L, detallesActualizados, 0L);
         });
 
         assertTrue(excepcionLanzada.getMessage().contains("Payment not found for ID: 99"));
@@ -210,26 +608,288 @@ class PaymentProcessingServiceTest {
     }
 
     @Test
-    void eliminarPago_exito() {
+    void modificarPago_soloCamposEnviadosConVersion() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(3L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        when(paymentRepository.patch(eq(1L), eq(3L), anyMap())).thenReturn(1);
+        PaymentProcessingService.PaymentPatch cambios = new PaymentProcessingService.PaymentPatch(
+                null, new BigDecimal("80.00"), null, "REFUNDED", null, null, 3L);
+
+        Payment resultado = paymentProcessingService.patchPayment(1L, cambios);
+
+        assertEquals(new BigDecimal("80.00"), resultado.getAmount());
+        assertEquals("REFUNDED", resultado.getPaymentStatus());
+        assertEquals(pagoDePrueba.getOrderId(), resultado.getOrderId());
+        assertEquals(4L, resultado.getVersion());
+        verify(paymentRepository).patch(1L, 3L, Map.of("amount", new BigDecimal("80.00"), "paymentStatus", "REFUNDED"));
+        verify(paymentRepository, never()).save(any(Payment.class));
+    }
+
+    @Test
+    void modificarPago_conLaVersionEnCache_esUnaSolaSentencia() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(3L);
+        paymentStatusCache.put(pagoDePrueba);
+        when(paymentRepository.patch(eq(1L), eq(3L), anyMap())).thenReturn(1);
+
+        Payment resultado = paymentProcessingService.patchPayment(1L, new PaymentProcessingService.PaymentPatch(
+                null, null, null, "REFUNDED", null, null, 3L));
+
+        assertEquals("REFUNDED", resultado.getPaymentStatus());
+        verify(paymentRepository, never()).findById(anyLong());
+        verify(paymentStatistics).recordUpdated("COMPLETED", pagoDePrueba.getPaymentMethod(), pagoDePrueba.getAmount(),
+                pagoDePrueba.getTransactionDate(), resultado);
+    }
+
+    @Test
+    void modificarPago_pagoYaBorrado_noEsConflictoSinoNoEncontrado() {
+        pagoDePrueba.setVersion(3L);
+        paymentStatusCache.put(pagoDePrueba);
+        when(paymentRepository.patch(eq(1L), eq(3L), anyMap())).thenReturn(0);
+        when(paymentRepository.existsById(1L)).thenReturn(false);
+
+        RuntimeException error = assertThrows(RuntimeException.class, () -> paymentProcessingService.patchPayment(1L,
+                new PaymentProcessingService.PaymentPatch("PEDIDO-NUEVO", null, null, null, null, null, 3L)));
+        assertFalse(error instanceof PaymentVersionConflictException);
+        assertTrue(paymentStatusCache.getById(1L).isEmpty());
+    }
+
+    @Test
+    void modificarPago_versionDistintaEsConflicto() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(4L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        PaymentProcessingService.PaymentPatch cambios = new PaymentProcessingService.PaymentPatch(
+                null, null, null, "REFUNDED", null, null, 3L);
+
+        assertThrows(PaymentVersionConflictException.class, () -> paymentProcessingService.patchPayment(1L, cambios));
+        verify(paymentRepository, never()).patch(anyLong(), anyLong(), anyMap());
+    }
+
+    @Test
+    void modificarPago_updateCondicionalSinFilasEsConflicto() {
+        pagoDePrueba.setVersion(3L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        when(paymentRepository.patch(eq(1L), eq(3L), anyMap())).thenReturn(0);
         when(paymentRepository.existsById(1L)).thenReturn(true);
+        PaymentProcessingService.PaymentPatch cambios = new PaymentProcessingService.PaymentPatch(
+                "PEDIDO-NUEVO", null, null, null, null, null, 3L);
+
+        assertThrows(PaymentVersionConflictException.class, () -> paymentProcessingService.patchPayment(1L, cambios));
+        verify(paymentEventLog, never()).append(any(), any());
+    }
+
+    @Test
+    void modificarPago_sinVersionOEstadoInvalido() {
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.patchPayment(1L,
+                new PaymentProcessingService.PaymentPatch(null, null, null, "REFUNDED", null, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.patchPayment(1L,
+                new PaymentProcessingService.PaymentPatch(null, null, null, "INVENTADO", null, null, 1L)));
+        verify(paymentRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void modificarPago_transicionDeEstadoNoPermitida() {
+        pagoDePrueba.setPaymentStatus("FAILED");
+        pagoDePrueba.setVersion(3L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        PaymentProcessingService.PaymentPatch cambios = new PaymentProcessingService.PaymentPatch(
+                null, null, null, "REFUNDED", null, null, 3L);
+
+        assertThrows(InvalidPaymentTransitionException.class, () -> paymentProcessingService.patchPayment(1L, cambios));
+        verify(paymentRepository, never()).patch(anyLong(), anyLong(), anyMap());
+    }
+
+    @Test
+    void capturarPago_sinCache_primeroElUpdateCondicionalYDespuesLaLectura() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(1L);
+        when(paymentRepository.transitionFrom(1L, "COMPLETED", "PENDING")).thenReturn(1);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        Payment resultado = paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE);
+
+        assertEquals("COMPLETED", resultado.getPaymentStatus());
+        assertEquals(1L, resultado.getVersion());
+        InOrder orden = inOrder(paymentRepository);
+        orden.verify(paymentRepository).transitionFrom(1L, "COMPLETED", "PENDING");
+        orden.verify(paymentRepository).findById(1L);
+        verify(paymentStatistics).recordUpdated("PENDING", pagoDePrueba.getPaymentMethod(), pagoDePrueba.getAmount(),
+                pagoDePrueba.getTransactionDate(), resultado);
+        verify(paymentRepository, never()).save(any(Payment.class));
+        verify(paymentStatusNotifier).publish(resultado);
+    }
+
+    @Test
+    void capturarPago_conLaImagenPreviaEnCache_esUnaSolaSentencia() {
+        pagoDePrueba.setPaymentStatus("PENDING");
+        pagoDePrueba.setVersion(4L);
+        paymentStatusCache.put(pagoDePrueba);
+        when(paymentRepository.transition(1L, "COMPLETED", "PENDING", 4L)).thenReturn(1);
+
+        Payment resultado = paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE);
+
+        assertEquals(5L, resultado.getVersion());
+        verify(paymentRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void capturarPago_cacheDesfasada_releeLaBase() {
+        pagoDePrueba.setPaymentStatus("PENDING");
+        pagoDePrueba.setVersion(4L);
+        paymentStatusCache.put(pagoDePrueba);
+        Payment actual = new Payment(pagoDePrueba.getOrderId(), pagoDePrueba.getAmount(), pagoDePrueba.getPaymentMethod(),
+                "VOIDED", pagoDePrueba.getTransactionId(), pagoDePrueba.getTransactionDate());
+        actual.setId(1L);
+        actual.setVersion(7L);
+        when(paymentRepository.transition(1L, "VOIDED", "PENDING", 4L)).thenReturn(0);
+        when(paymentRepository.transitionFrom(1L, "VOIDED", "PENDING")).thenReturn(1);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(actual));
+
+        assertEquals(7L, paymentProcessingService.transitionPayment(1L, PaymentTransition.VOID).getVersion());
+    }
+
+    @Test
+    void capturarPago_dentroDeUnaTransaccion_cacheEstadisticasYAvisosEsperanAlCommit() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(1L);
+        when(paymentRepository.transitionFrom(1L, "COMPLETED", "PENDING")).thenReturn(1);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+        Payment resultado;
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            resultado = paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE);
+
+            verifyNoInteractions(paymentStatistics, paymentStatusNotifier);
+            verify(paymentStatusCache, never()).put(any());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(paymentStatusCache).put(resultado);
+        verify(paymentStatusNotifier).publish(resultado);
+    }
+
+    @Test
+    void reembolsarPago_desdeEstadoNoPermitido() {
+        pagoDePrueba.setPaymentStatus("FAILED");
+        pagoDePrueba.setVersion(0L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        assertThrows(InvalidPaymentTransitionException.class,
+                () -> paymentProcessingService.transitionPayment(1L, PaymentTransition.REFUND));
+        verify(paymentRepository).transitionFrom(1L, "REFUNDED", "COMPLETED");
+        verify(paymentRepository, never()).transition(anyLong(), any(), any(), any());
+        verify(paymentEventLog, never()).append(any(), any());
+        verify(paymentStatistics, never()).recordUpdated(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void capturarPago_repetidoDevuelveElEstadoActual() {
+        pagoDePrueba.setPaymentStatus("COMPLETED");
+        pagoDePrueba.setVersion(1L);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        assertEquals(pagoDePrueba, paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE));
+        verify(paymentStatistics, never()).recordUpdated(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void capturarPago_cambioConcurrenteEsConflicto() {
+        // El UPDATE no encontró el pago en PENDING, pero al releerlo otra escritura ya lo había devuelto a PENDING.
+        pagoDePrueba.setPaymentStatus("PENDING");
+        pagoDePrueba.setVersion(2L);
+        when(paymentRepository.transitionFrom(1L, "COMPLETED", "PENDING")).thenReturn(0);
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
+
+        assertThrows(PaymentVersionConflictException.class,
+                () -> paymentProcessingService.transitionPayment(1L, PaymentTransition.CAPTURE));
+    }
+
+    @Test
+    void transicion_pagoNoEncontrado() {
+        when(paymentRepository.findById(99L)).thenReturn(Optional.empty());
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> paymentProcessingService.transitionPayment(99L, PaymentTransition.VOID));
+        assertTrue(error.getMessage().contains("Payment not found for ID: 99"));
+    }
+
+    @Test
+    void consultaDeEstadosEnBloque_primeroCacheDespuesUnaSentenciaPorTrozo() {
+        Payment enCache = new Payment("PEDIDO-CACHE", BigDecimal.TEN, "PROCESSED_METHOD", "COMPLETED", null, LocalDateTime.now());
+        enCache.setId(10L);
+        paymentStatusCache.put(enCache);
+        List<String> orderIds = new ArrayList<>(List.of("PEDIDO-CACHE"));
+        for (int i = 0; i < 600; i++) {
+            orderIds.add("PEDIDO-" + i);
+        }
+        Payment intentoAntiguo = new Payment("PEDIDO-1", BigDecimal.ONE, "PROCESSED_METHOD", "FAILED", null, LocalDateTime.now());
+        intentoAntiguo.setId(20L);
+        Payment intentoNuevo = new Payment("PEDIDO-1", BigDecimal.ONE, "PROCESSED_METHOD", "COMPLETED", null, LocalDateTime.now());
+        intentoNuevo.setId(21L);
+        when(paymentRepository.findByOrderIdIn(anyList())).thenAnswer(invocation -> {
+            List<String> chunk = invocation.getArgument(0);
+            return chunk.contains("PEDIDO-1") ? List.of(intentoNuevo, intentoAntiguo) : List.of();
+        });
+        when(paymentRepository.findArchivedByOrderIdIn(anyList())).thenReturn(List.of());
+
+        PaymentProcessingService.StatusLookupResult resultado = paymentProcessingService.lookupStatuses(
+                new PaymentProcessingService.StatusLookupRequest(orderIds, List.of("no-es-un-uuid")));
+
+        assertEquals(2, resultado.orders().size());
+        assertEquals("COMPLETED", resultado.orders().get("PEDIDO-1").paymentStatus());
+        assertEquals(21L, resultado.orders().get("PEDIDO-1").id());
+        assertEquals(10L, resultado.orders().get("PEDIDO-CACHE").id());
+        assertEquals(599, resultado.missingOrderIds().size());
+        assertEquals(List.of("no-es-un-uuid"), resultado.missingTransactionIds());
+        // 600 claves que faltan en la caché: dos trozos de 500 y 100, en payment y en payment_archive.
+        verify(paymentRepository, times(2)).findByOrderIdIn(anyList());
+        verify(paymentRepository, times(2)).findArchivedByOrderIdIn(anyList());
+        verify(paymentRepository, never()).findByTransactionIdIn(anyList());
+
+        // Los "no encontrado" también quedan en la caché: repetir la consulta no vuelve a la base de datos.
+        paymentProcessingService.lookupStatuses(new PaymentProcessingService.StatusLookupRequest(orderIds, null));
+        verify(paymentRepository, times(2)).findByOrderIdIn(anyList());
+    }
+
+    @Test
+    void consultaDeEstadosEnBloque_limiteDeClaves() {
+        List<String> demasiadas = IntStream.rangeClosed(0, PaymentProcessingService.MAX_LOOKUP_SIZE)
+                .mapToObj(i -> "PEDIDO-" + i).toList();
+
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.lookupStatuses(
+                new PaymentProcessingService.StatusLookupRequest(demasiadas, null)));
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.lookupStatuses(
+                new PaymentProcessingService.StatusLookupRequest(List.of(), null)));
+        verifyNoInteractions(paymentRepository);
+    }
+
+    @Test
+    void eliminarPago_exito() {
+        when(paymentRepository.findById(1L)).thenReturn(Optional.of(pagoDePrueba));
         doNothing().when(paymentRepository).deleteById(1L);
 
         assertDoesNotThrow(() -> paymentProcessingService.deletePayment(1L));
 
-        verify(paymentRepository, times(1)).existsById(1L);
+        verify(paymentRepository, times(1)).findById(1L);
         verify(paymentRepository, times(1)).deleteById(1L);
+        verify(paymentStatistics).recordDeleted(pagoDePrueba);
+        verify(paymentEventLog).append(PaymentEventLog.Type.DELETED, pagoDePrueba);
+        verify(paymentOutbox).append(PaymentEventLog.Type.DELETED, pagoDePrueba);
     }
 
     @Test
     void eliminarPago_noEncontrado() {
-        when(paymentRepository.existsById(99L)).thenReturn(false);
+        when(paymentRepository.findById(99L)).thenReturn(Optional.empty());
 
         RuntimeException excepcionLanzada = assertThrows(RuntimeException.class, () -> {
             paymentProcessingService.deletePayment(99L);
         });
 
         assertTrue(excepcionLanzada.getMessage().contains("Payment not found for ID: 99"));
-        verify(paymentRepository, times(1)).existsById(99L);
+        verify(paymentRepository, times(1)).findById(99L);
         verify(paymentRepository, never()).deleteById(anyLong());
         
     }
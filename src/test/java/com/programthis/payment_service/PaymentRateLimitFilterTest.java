@@ -0,0 +1,104 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.controller.PaymentRateLimitFilter;
+import com.programthis.payment_service.service.ClientRateLimiter;
+import com.programthis.payment_service.service.LoadShedder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentRateLimitFilterTest {
+
+    // One write and two reads per client; at most one request in flight.
+    private final ClientRateLimiter clientRateLimiter = new ClientRateLimiter(true, 0.01, 2, 0.01, 1, 1000, Duration.ofMinutes(1));
+    private final LoadShedder loadShedder = new LoadShedder(true, 1, 1, 1, Duration.ofMillis(50), Duration.ofSeconds(1),
+            new SimpleMeterRegistry());
+    // Requests from 10.0.0.1 come through the trusted proxy; anything else is a direct client.
+    private final PaymentRateLimitFilter filter = new PaymentRateLimitFilter(clientRateLimiter, loadShedder, "X-Client-Id",
+            Set.of("10.0.0.1"));
+
+    private MockHttpServletResponse perform(String method, String uri, String client) throws Exception {
+        return perform(method, uri, client, "10.0.0.1");
+    }
+
+    private MockHttpServletResponse perform(String method, String uri, String client, String remoteAddr) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setRemoteAddr(remoteAddr);
+        request.addHeader("X-Client-Id", client);
+        return perform(request);
+    }
+
+    private MockHttpServletResponse perform(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    @Test
+    void writes_whenClientBudgetExhausted_shouldReturnTooManyRequests() throws Exception {
+        assertEquals(200, perform("POST", "/api/v1/payments/process", "shop-1").getStatus());
+
+        MockHttpServletResponse limited = perform("POST", "/api/v1/payments/process", "shop-1");
+
+        assertEquals(429, limited.getStatus());
+        assertTrue(Long.parseLong(limited.getHeader("Retry-After")) >= 1);
+        assertEquals(200, perform("POST", "/api/v1/payments/process", "shop-2").getStatus());
+    }
+
+    @Test
+    void clientHeader_fromUntrustedAddress_shouldBeIgnored() throws Exception {
+        assertEquals(200, perform("POST", "/api/v1/payments/process", "shop-1", "192.168.1.7").getStatus());
+
+        // Rotating the header does not buy a new budget: the key is still the remote address.
+        assertEquals(429, perform("POST", "/api/v1/payments/process", "shop-2", "192.168.1.7").getStatus());
+        assertEquals(200, perform("POST", "/api/v1/payments/process", "shop-2", "192.168.1.8").getStatus());
+    }
+
+    @Test
+    void authenticatedPrincipal_shouldTakePrecedenceOverHeader() throws Exception {
+        MockHttpServletRequest first = new MockHttpServletRequest("POST", "/api/v1/payments/process");
+        first.setUserPrincipal(() -> "merchant-a");
+        first.addHeader("X-Client-Id", "shop-1");
+        assertEquals(200, perform(first).getStatus());
+
+        MockHttpServletRequest second = new MockHttpServletRequest("POST", "/api/v1/payments/process");
+        second.setUserPrincipal(() -> "merchant-a");
+        second.addHeader("X-Client-Id", "shop-2");
+        assertEquals(429, perform(second).getStatus());
+    }
+
+    @Test
+    void reads_shouldUseTheirOwnBudget() throws Exception {
+        assertEquals(200, perform("POST", "/api/v1/payments/process", "shop-1").getStatus());
+
+        assertEquals(200, perform("GET", "/api/v1/payments/status/order/ORD-1", "shop-1").getStatus());
+        assertEquals(200, perform("POST", "/api/v1/payments/status/lookup", "shop-1").getStatus());
+        assertEquals(429, perform("GET", "/api/v1/payments/status/order/ORD-1", "shop-1").getStatus());
+    }
+
+    @Test
+    void whenConcurrencyLimitReached_shouldReturnServiceUnavailable() throws Exception {
+        assertTrue(loadShedder.tryAcquire());
+
+        MockHttpServletResponse shed = perform("GET", "/api/v1/payments/status/order/ORD-1", "shop-1");
+
+        assertEquals(503, shed.getStatus());
+        assertEquals("1", shed.getHeader("Retry-After"));
+        // Status subscriptions wait without threads or connections, so they are not counted.
+        assertEquals(200, perform("GET", "/api/v1/payments/status/order/ORD-1/poll", "shop-1").getStatus());
+    }
+
+    @Test
+    void completedRequest_shouldReleaseItsSlot() throws Exception {
+        perform("GET", "/api/v1/payments/status/order/ORD-1", "shop-1");
+
+        assertEquals(0, loadShedder.inFlight());
+    }
+}
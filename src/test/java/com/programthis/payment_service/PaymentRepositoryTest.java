@@ -0,0 +1,205 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import com.programthis.payment_service.repository.PaymentRepository;
+import com.programthis.payment_service.service.PaymentIdAllocator;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class PaymentRepositoryTest {
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void guardarYLeer_representacionCompacta() {
+        String transactionId = UUID.randomUUID().toString();
+        Payment pago = new Payment("PEDIDO-001", new BigDecimal("150.25"), "PROCESSED_METHOD", "COMPLETED",
+                transactionId, LocalDateTime.now());
+
+        Payment guardado = paymentRepository.saveAndFlush(pago);
+
+        Map<String, Object> fila = jdbc.queryForMap(
+                "SELECT amount_minor, payment_method, payment_status, transaction_id FROM payment WHERE id = ?", guardado.getId());
+        assertEquals(15025L, ((Number) fila.get("amount_minor")).longValue());
+        assertEquals(0, ((Number) fila.get("payment_method")).intValue());
+        assertEquals(1, ((Number) fila.get("payment_status")).intValue());
+        assertEquals(16, ((byte[]) fila.get("transaction_id")).length);
+
+        Payment leido = paymentRepository.findByTransactionId(transactionId).orElseThrow();
+        assertEquals(new BigDecimal("150.25"), leido.getAmount());
+        assertEquals("PROCESSED_METHOD", leido.getPaymentMethod());
+        assertEquals("COMPLETED", leido.getPaymentStatus());
+        assertEquals(transactionId, leido.getTransactionId());
+    }
+
+    @Test
+    void idReservado_seConservaAlGuardar_yNoSeRepite() {
+        Payment reservado = new PaymentIdAllocator(entityManagerFactory).assign(new Payment("PEDIDO-RESERVADO",
+                new BigDecimal("5.00"), "PROCESSED_METHOD", "FAILED", null, LocalDateTime.now()));
+        Long id = reservado.getId();
+        assertNotNull(id);
+
+        paymentRepository.saveAndFlush(reservado);
+        Payment generado = paymentRepository.saveAndFlush(new Payment("PEDIDO-GENERADO", new BigDecimal("5.00"),
+                "PROCESSED_METHOD", "FAILED", null, LocalDateTime.now()));
+
+        assertEquals("PEDIDO-RESERVADO", jdbc.queryForObject("SELECT order_id FROM payment WHERE id = ?", String.class, id));
+        assertNotEquals(id, generado.getId());
+    }
+
+    @Test
+    void importeConMasDeDosDecimales_seRechaza() {
+        Payment pago = new Payment("PEDIDO-002", new BigDecimal("10.005"), "PROCESSED_METHOD", "FAILED",
+                null, LocalDateTime.now());
+
+        assertThrows(RuntimeException.class, () -> paymentRepository.saveAndFlush(pago));
+    }
+
+    @Test
+    void pagoArchivado_seEncuentraPorOrdenYPorTransaccion() {
+        String transactionId = UUID.randomUUID().toString();
+        jdbc.update("INSERT INTO payment_archive (id, order_id, amount_minor, payment_method, payment_status, transaction_id, "
+                        + "transaction_date, archived_at) VALUES (7, 'PEDIDO-ARCHIVADO', 990, 0, 1, ?, ?, ?)",
+                new UuidBinaryConverter().convertToDatabaseColumn(transactionId), LocalDateTime.now().minusYears(1), LocalDateTime.now());
+
+        assertTrue(paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-ARCHIVADO").isEmpty());
+        Payment porOrden = paymentRepository.findArchivedByOrderId("PEDIDO-ARCHIVADO").orElseThrow();
+        assertEquals(new BigDecimal("9.90"), porOrden.getAmount());
+        assertEquals("COMPLETED", porOrden.getPaymentStatus());
+        assertEquals(transactionId, paymentRepository.findArchivedByTransactionId(transactionId).orElseThrow().getTransactionId());
+        assertTrue(paymentRepository.findArchivedByTransactionId("no-es-un-uuid").isEmpty());
+    }
+
+    @Test
+    void pagoArchivadoPorOrden_conVariosIntentos_devuelveElUltimo() {
+        String archivar = "INSERT INTO payment_archive (id, order_id, amount_minor, payment_method, payment_status, "
+                + "transaction_date, archived_at) VALUES (?, 'PEDIDO-REINTENTADO', 990, 0, ?, ?, ?)";
+        jdbc.update(archivar, 90021, 1, LocalDateTime.now().minusYears(1), LocalDateTime.now());
+        jdbc.update(archivar, 90020, 2, LocalDateTime.now().minusYears(1), LocalDateTime.now());
+
+        Payment porOrden = paymentRepository.findArchivedByOrderId("PEDIDO-REINTENTADO").orElseThrow();
+
+        assertEquals(90021L, porOrden.getId());
+        assertEquals("COMPLETED", porOrden.getPaymentStatus());
+    }
+
+    @Test
+    void pagoPorOrden_conVariosIntentos_devuelveElUltimo() {
+        Payment fallido = paymentRepository.saveAndFlush(new Payment("PEDIDO-REINTENTO-VIVO", new BigDecimal("3.00"),
+                "PROCESSED_METHOD", "FAILED", null, LocalDateTime.now()));
+        Payment reintento = paymentRepository.saveAndFlush(new Payment("PEDIDO-REINTENTO-VIVO", new BigDecimal("3.00"),
+                "PROCESSED_METHOD", "COMPLETED", UUID.randomUUID().toString(), LocalDateTime.now()));
+
+        Payment porOrden = paymentRepository.findFirstByOrderIdOrderByIdDesc("PEDIDO-REINTENTO-VIVO").orElseThrow();
+
+        assertTrue(reintento.getId() > fallido.getId());
+        assertEquals(reintento.getId(), porOrden.getId());
+        assertEquals("COMPLETED", porOrden.getPaymentStatus());
+    }
+
+    @Test
+    void consultaEnBloque_porOrdenYPorTransaccion() {
+        String transactionId = UUID.randomUUID().toString();
+        paymentRepository.saveAndFlush(new Payment("PEDIDO-BLOQUE-1", new BigDecimal("1.00"), "PROCESSED_METHOD", "COMPLETED",
+                transactionId, LocalDateTime.now()));
+        paymentRepository.saveAndFlush(new Payment("PEDIDO-BLOQUE-2", new BigDecimal("2.00"), "PROCESSED_METHOD", "FAILED",
+                null, LocalDateTime.now()));
+        String archivedTransactionId = UUID.randomUUID().toString();
+        byte[] archivedBinary = new UuidBinaryConverter().convertToDatabaseColumn(archivedTransactionId);
+        jdbc.update("INSERT INTO payment_archive (id, order_id, amount_minor, payment_method, payment_status, transaction_id, "
+                        + "transaction_date, archived_at) VALUES (90008, 'PEDIDO-BLOQUE-ARCHIVADO', 100, 0, 1, ?, ?, ?)",
+                archivedBinary, LocalDateTime.now().minusYears(1), LocalDateTime.now());
+
+        List<Payment> porOrden = paymentRepository.findByOrderIdIn(List.of("PEDIDO-BLOQUE-1", "PEDIDO-BLOQUE-2", "PEDIDO-INEXISTENTE"));
+        assertEquals(2, porOrden.size());
+        List<Payment> porTransaccion = paymentRepository.findByTransactionIdIn(List.of(transactionId, UUID.randomUUID().toString()));
+        assertEquals(1, porTransaccion.size());
+        assertEquals("PEDIDO-BLOQUE-1", porTransaccion.get(0).getOrderId());
+
+        assertEquals(1, paymentRepository.findArchivedByOrderIdIn(List.of("PEDIDO-BLOQUE-ARCHIVADO", "PEDIDO-BLOQUE-1")).size());
+        List<Payment> archivados = paymentRepository.findArchivedByTransactionIdIn(
+                List.of(archivedBinary, new UuidBinaryConverter().convertToDatabaseColumn(transactionId)));
+        assertEquals(1, archivados.size());
+        assertEquals(archivedTransactionId, archivados.get(0).getTransactionId());
+    }
+
+    @Test
+    void modificacionCondicional_soloConLaVersionLeida() {
+        Payment guardado = paymentRepository.saveAndFlush(new Payment("PEDIDO-003", new BigDecimal("20.00"),
+                "PROCESSED_METHOD", "COMPLETED", UUID.randomUUID().toString(), LocalDateTime.now()));
+        assertEquals(0L, guardado.getVersion());
+
+        assertEquals(1, paymentRepository.patch(guardado.getId(), 0L, Map.of("paymentStatus", "REFUNDED")));
+        assertEquals(0, paymentRepository.patch(guardado.getId(), 0L, Map.of("paymentStatus", "VOIDED")));
+
+        Map<String, Object> fila = jdbc.queryForMap(
+                "SELECT payment_status, amount_minor, version FROM payment WHERE id = ?", guardado.getId());
+        assertEquals(3, ((Number) fila.get("payment_status")).intValue());
+        assertEquals(2000L, ((Number) fila.get("amount_minor")).longValue());
+        assertEquals(1L, ((Number) fila.get("version")).longValue());
+    }
+
+    @Test
+    void paginadoPorCursor_trasUnPagoSinFecha_sigueElSiguienteSinFecha_yLuegoLosFechados() {
+        Payment primero = paymentRepository.saveAndFlush(
+                new Payment("PEDIDO-SIN-FECHA-1", BigDecimal.ONE, "PROCESSED_METHOD", "PENDING", null, null));
+        Payment segundo = paymentRepository.saveAndFlush(
+                new Payment("PEDIDO-SIN-FECHA-2", BigDecimal.ONE, "PROCESSED_METHOD", "PENDING", null, null));
+        paymentRepository.saveAndFlush(new Payment("PEDIDO-CON-FECHA", BigDecimal.ONE, "PROCESSED_METHOD", "PENDING", null,
+                LocalDateTime.now()));
+
+        assertNull(paymentRepository.findFirstPage(PageRequest.ofSize(1)).get(0).getTransactionDate());
+        assertEquals(segundo.getId(), paymentRepository.findPageAfterNullDate(primero.getId(), PageRequest.ofSize(1)).get(0).getId());
+        assertNotNull(paymentRepository.findPageAfterNullDate(Long.MAX_VALUE, PageRequest.ofSize(1)).get(0).getTransactionDate());
+    }
+
+    @Test
+    void paginaPorClave_recorreElIndiceDesdeElCursor_sinOrdenar() {
+        // La misma condición que genera findPageAfter.
+        String plan = jdbc.queryForObject("EXPLAIN SELECT id FROM payment WHERE transaction_date >= ? "
+                        + "AND (transaction_date, id) > (?, ?) ORDER BY transaction_date, id LIMIT 20", String.class,
+                LocalDateTime.now(), LocalDateTime.now(), 1L);
+
+        assertTrue(plan.contains(Payment.IDX_DATE_ID + ": transaction_date >="), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+    }
+
+    @Test
+    void transicion_soloDesdeElEstadoYLaVersionEsperados() {
+        Payment guardado = paymentRepository.saveAndFlush(new Payment("PEDIDO-004", new BigDecimal("20.00"),
+                "PROCESSED_METHOD", "PENDING", null, LocalDateTime.now()));
+
+        assertEquals(0, paymentRepository.transition(guardado.getId(), "COMPLETED", "PENDING", 1L));
+        assertEquals(1, paymentRepository.transition(guardado.getId(), "COMPLETED", "PENDING", 0L));
+        assertEquals(0, paymentRepository.transition(guardado.getId(), "VOIDED", "PENDING", 1L));
+
+        Map<String, Object> fila = jdbc.queryForMap("SELECT payment_status, version FROM payment WHERE id = ?", guardado.getId());
+        assertEquals(1, ((Number) fila.get("payment_status")).intValue());
+        assertEquals(1L, ((Number) fila.get("version")).longValue());
+    }
+}
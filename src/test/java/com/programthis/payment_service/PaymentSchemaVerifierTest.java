@@ -0,0 +1,50 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.config.PaymentSchemaVerifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentSchemaVerifierTest {
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE payment (id BIGINT PRIMARY KEY, order_id VARCHAR(255), payment_status VARCHAR(255), "
+                + "transaction_id VARCHAR(255), transaction_date TIMESTAMP)");
+    }
+
+    @Test
+    void indicesAusentes_fallaElArranque() {
+        jdbc.execute("CREATE INDEX idx_payment_order_id ON payment (order_id)");
+
+        IllegalStateException excepcion = assertThrows(IllegalStateException.class,
+                () -> new PaymentSchemaVerifier(dataSource).run(new DefaultApplicationArguments()));
+
+        assertTrue(excepcion.getMessage().contains("ux_payment_transaction_id"));
+        assertTrue(excepcion.getMessage().contains("idx_payment_status_date"));
+        assertTrue(excepcion.getMessage().contains("idx_payment_date_id"));
+        assertFalse(excepcion.getMessage().contains("idx_payment_order_id"));
+    }
+
+    @Test
+    void indicesPresentes_arrancaSinError() {
+        jdbc.execute("CREATE INDEX idx_payment_order_id ON payment (order_id)");
+        jdbc.execute("CREATE UNIQUE INDEX ux_payment_transaction_id ON payment (transaction_id)");
+        jdbc.execute("CREATE INDEX idx_payment_status_date ON payment (payment_status, transaction_date)");
+        jdbc.execute("CREATE INDEX idx_payment_date_id ON payment (transaction_date, id)");
+
+        assertDoesNotThrow(() -> new PaymentSchemaVerifier(dataSource).run(new DefaultApplicationArguments()));
+    }
+}
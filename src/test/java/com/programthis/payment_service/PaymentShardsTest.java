@@ -0,0 +1,65 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.PaymentIdGenerator;
+import com.programthis.payment_service.service.PaymentShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+class PaymentShardsTest {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final PaymentShards shards = new PaymentShards(true, 64, List.of("jdbc:uno", "jdbc:dos"), Duration.ofSeconds(30),
+            jdbc, mock(PlatformTransactionManager.class), Runnable::run);
+
+    @Test
+    void mezcla_intercalaListasOrdenadas_yRespetaElLimite() {
+        List<List<Integer>> listas = List.of(List.of(1, 4, 9), List.of(), List.of(2, 3, 10), List.of(5));
+
+        assertEquals(List.of(1, 2, 3, 4, 5, 9, 10), PaymentShards.merge(listas, Comparator.naturalOrder(), Integer.MAX_VALUE));
+        assertEquals(List.of(1, 2, 3), PaymentShards.merge(listas, Comparator.naturalOrder(), 3));
+        assertEquals(List.of(), PaymentShards.merge(List.<List<Integer>>of(), Comparator.naturalOrder(), 10));
+    }
+
+    @Test
+    void hashDelPedido_esEstable_yReparteEntreTodosLosShards() {
+        assertEquals(shards.logicalShardOf("PEDIDO-1"), shards.logicalShardOf("PEDIDO-1"));
+
+        Map<Integer, Long> porShard = IntStream.range(0, 6400).mapToObj(i -> "PEDIDO-" + i)
+                .collect(Collectors.groupingBy(shards::logicalShardOf, Collectors.counting()));
+        assertEquals(64, porShard.size());
+        assertTrue(porShard.values().stream().allMatch(cantidad -> cantidad > 50 && cantidad < 150));
+    }
+
+    @Test
+    void baseDelPago_saleDelShardQueLlevaElId_sinConsultar() {
+        long id = (1234L << PaymentIdGenerator.SHARD_BITS) | 7;
+
+        assertEquals(OptionalInt.of(shards.databaseOf(7)), shards.locate(id));
+        assertTrue(shards.locate((1234L << PaymentIdGenerator.SHARD_BITS) | 64).isEmpty());
+        assertTrue(shards.locate(-1L).isEmpty());
+        verifyNoInteractions(jdbc);
+    }
+
+    @Test
+    void sinSharding_todoVaALaBaseCero() {
+        PaymentShards desactivado = new PaymentShards(false, 64, List.of("jdbc:uno"), Duration.ofSeconds(30),
+                mock(JdbcTemplate.class), mock(PlatformTransactionManager.class), Runnable::run);
+        assertEquals(0, desactivado.databaseOfOrder("PEDIDO-7"));
+        assertEquals(List.of("uno"), desactivado.scatter(() -> "uno"));
+        assertEquals(List.of(new PaymentShards.Range(0, 63, 0)), desactivado.ranges());
+        assertDoesNotThrow(() -> desactivado.checkSameShard("PEDIDO-1", "PEDIDO-2"));
+    }
+}
@@ -0,0 +1,136 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class PaymentStatisticsTest {
+
+    private static final LocalDateTime FECHA = LocalDateTime.of(2024, 5, 10, 14, 37, 12);
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    private PaymentStatistics estadisticas;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = nuevaInstancia();
+    }
+
+    private PaymentStatistics nuevaInstancia() {
+        PaymentStatistics instancia = new PaymentStatistics(jdbc, Duration.ofDays(36500), Duration.ofDays(36500));
+        instancia.load();
+        return instancia;
+    }
+
+    private static Payment pago(String estado, String importe, LocalDateTime fecha) {
+        return new Payment("PEDIDO", new BigDecimal(importe), "PROCESSED_METHOD", estado, "TX", fecha);
+    }
+
+    @Test
+    void altasYBajas_actualizanTotalesEIntervalos() {
+        Payment completado = pago("COMPLETED", "10.50", FECHA);
+        estadisticas.recordCreated(completado);
+        estadisticas.recordCreated(pago("COMPLETED", "4.50", FECHA.plusMinutes(1)));
+        estadisticas.recordCreated(pago("FAILED", "7.00", FECHA));
+        estadisticas.recordDeleted(completado);
+
+        PaymentStatistics.Snapshot resumen = estadisticas.snapshot(PaymentStatistics.Granularity.MINUTE, null, null);
+
+        assertEquals(new PaymentStatistics.Totals(1, new BigDecimal("4.50")), resumen.byStatus().get("COMPLETED"));
+        assertEquals(new PaymentStatistics.Totals(1, new BigDecimal("7.00")), resumen.byStatus().get("FAILED"));
+        assertEquals(new PaymentStatistics.Totals(2, new BigDecimal("11.50")), resumen.byMethod().get("PROCESSED_METHOD"));
+        // El intervalo que queda a cero no se devuelve.
+        assertEquals(List.of(
+                new PaymentStatistics.Bucket(FECHA.withSecond(0), "FAILED", "PROCESSED_METHOD", 1, new BigDecimal("7.00")),
+                new PaymentStatistics.Bucket(FECHA.withSecond(0).plusMinutes(1), "COMPLETED", "PROCESSED_METHOD", 1, new BigDecimal("4.50"))),
+                resumen.buckets());
+    }
+
+    @Test
+    void modificacion_mueveElPagoDeEstado() {
+        Payment pago = pago("PENDING", "20.00", FECHA);
+        estadisticas.recordCreated(pago);
+        pago.setPaymentStatus("COMPLETED");
+        estadisticas.recordUpdated("PENDING", "PROCESSED_METHOD", new BigDecimal("20.00"), FECHA, pago);
+
+        PaymentStatistics.Snapshot resumen = estadisticas.snapshot(PaymentStatistics.Granularity.DAY, null, null);
+
+        assertEquals(0, resumen.byStatus().get("PENDING").count());
+        assertEquals(1, resumen.byStatus().get("COMPLETED").count());
+        assertEquals(1, resumen.buckets().size());
+        assertEquals(FECHA.toLocalDate().atStartOfDay(), resumen.buckets().get(0).start());
+    }
+
+    @Test
+    void volcado_reconstruyeAlArrancarYSoloSumaDeltas() {
+        estadisticas.recordCreated(pago("COMPLETED", "10.00", FECHA));
+        estadisticas.checkpoint();
+        estadisticas.recordCreated(pago("COMPLETED", "5.00", FECHA));
+        estadisticas.checkpoint();
+        estadisticas.checkpoint();
+
+        PaymentStatistics reiniciada = nuevaInstancia();
+        PaymentStatistics.Snapshot resumen = reiniciada.snapshot(PaymentStatistics.Granularity.HOUR, FECHA.withMinute(0).withSecond(0), FECHA.plusHours(1));
+
+        assertEquals(new PaymentStatistics.Totals(2, new BigDecimal("15.00")), resumen.byStatus().get("COMPLETED"));
+        assertEquals(List.of(new PaymentStatistics.Bucket(FECHA.withMinute(0).withSecond(0), "COMPLETED", "PROCESSED_METHOD",
+                2, new BigDecimal("15.00"))), resumen.buckets());
+        assertEquals(2L, jdbc.queryForObject(
+                "SELECT payment_count FROM payment_stats_rollup WHERE granularity = 'TOTAL' AND payment_status = 'COMPLETED'", Long.class));
+    }
+
+    @Test
+    void volcadoConDescarteConcurrente_noPierdeAltas() throws Exception {
+        // Con retención de un minuto las celdas de FECHA caducan en cada volcado mientras siguen llegando altas.
+        PaymentStatistics instancia = new PaymentStatistics(jdbc, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        int hilos = 4;
+        int altasPorHilo = 2000;
+
+        try (ExecutorService ejecutor = Executors.newFixedThreadPool(hilos)) {
+            List<Future<?>> altas = new ArrayList<>();
+            for (int i = 0; i < hilos; i++) {
+                altas.add(ejecutor.submit(() -> {
+                    for (int j = 0; j < altasPorHilo; j++) {
+                        instancia.recordCreated(pago("COMPLETED", "1.00", FECHA));
+                    }
+                }));
+            }
+            // El volcado va en este hilo para quedar dentro de la transacción del test.
+            while (!altas.stream().allMatch(Future::isDone)) {
+                instancia.checkpoint();
+            }
+            for (Future<?> alta : altas) {
+                alta.get();
+            }
+        }
+        instancia.checkpoint();
+
+        long esperado = (long) hilos * altasPorHilo;
+        assertEquals(esperado, jdbc.queryForObject("SELECT payment_count FROM payment_stats_rollup "
+                + "WHERE granularity = 'MINUTE' AND payment_status = 'COMPLETED'", Long.class));
+        assertEquals(esperado, jdbc.queryForObject("SELECT payment_count FROM payment_stats_rollup "
+                + "WHERE granularity = 'TOTAL' AND payment_status = 'COMPLETED'", Long.class));
+    }
+}
@@ -0,0 +1,106 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentStatusNotifier;
+import com.programthis.payment_service.service.SubscriptionLimitExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentStatusNotifierTest {
+
+    private final PaymentStatusNotifier notifier = new PaymentStatusNotifier(2, Runnable::run);
+
+    @Test
+    void publicar_soloAvisaALosSuscriptoresDeEsaOrden() {
+        List<String> recibidos = new ArrayList<>();
+        notifier.subscribe("PEDIDO-001", payment -> recibidos.add("A:" + payment.getPaymentStatus()));
+        notifier.subscribe("PEDIDO-002", payment -> recibidos.add("B:" + payment.getPaymentStatus()));
+
+        notifier.publish(pago("PEDIDO-001", "COMPLETED"));
+
+        assertEquals(List.of("A:COMPLETED"), recibidos);
+    }
+
+    @Test
+    void cerrarSuscripcion_dejaDeAvisarYLiberaElHueco() {
+        List<String> recibidos = new ArrayList<>();
+        PaymentStatusNotifier.Subscription suscripcion = notifier.subscribe("PEDIDO-001", payment -> recibidos.add(payment.getPaymentStatus()));
+        assertEquals(1, notifier.subscriberCount());
+
+        suscripcion.close();
+        suscripcion.close();
+        notifier.publish(pago("PEDIDO-001", "COMPLETED"));
+
+        assertTrue(recibidos.isEmpty());
+        assertEquals(0, notifier.subscriberCount());
+    }
+
+    @Test
+    void limiteDeSuscriptores_seRechazaLaSiguiente() {
+        notifier.subscribe("PEDIDO-001", payment -> {});
+        PaymentStatusNotifier.Subscription segunda = notifier.subscribe("PEDIDO-001", payment -> {});
+
+        assertThrows(SubscriptionLimitExceededException.class, () -> notifier.subscribe("PEDIDO-002", payment -> {}));
+        assertEquals(2, notifier.subscriberCount());
+
+        segunda.close();
+        assertDoesNotThrow(() -> notifier.subscribe("PEDIDO-002", payment -> {}));
+    }
+
+    @Test
+    void suscriptorQueFalla_noImpideAvisarAlResto() {
+        List<String> recibidos = new ArrayList<>();
+        notifier.subscribe("PEDIDO-001", payment -> {
+            throw new IllegalStateException("cliente desconectado");
+        });
+        notifier.subscribe("PEDIDO-001", payment -> recibidos.add(payment.getPaymentStatus()));
+
+        notifier.publish(pago("PEDIDO-001", "REFUNDED"));
+
+        assertEquals(List.of("REFUNDED"), recibidos);
+    }
+
+    @Test
+    void avisosDeUnSuscriptor_llegan_deUnoEnUno_yEnOrden() {
+        List<Runnable> tareas = new ArrayList<>();
+        PaymentStatusNotifier diferido = new PaymentStatusNotifier(10, tareas::add);
+        List<String> recibidos = new ArrayList<>();
+        diferido.subscribe("PEDIDO-001", payment -> recibidos.add(payment.getPaymentStatus()));
+
+        diferido.publish(pago("PEDIDO-001", "COMPLETED"));
+        diferido.publish(pago("PEDIDO-001", "REFUNDED"));
+
+        assertEquals(1, tareas.size());
+        tareas.get(0).run();
+        assertEquals(List.of("COMPLETED", "REFUNDED"), recibidos);
+    }
+
+    @Test
+    void entregaDirecta_deUnaVersionYaSuperada_seDescarta() {
+        List<Long> recibidos = new ArrayList<>();
+        PaymentStatusNotifier.Subscription suscripcion = notifier.subscribe("PEDIDO-001", payment -> recibidos.add(payment.getVersion()));
+
+        notifier.publish(pago("PEDIDO-001", "REFUNDED", 1L, 2L));
+        suscripcion.deliver(pago("PEDIDO-001", "COMPLETED", 1L, 1L));
+        notifier.publish(pago("PEDIDO-001", "COMPLETED", 2L, 0L));
+
+        assertEquals(List.of(2L, 0L), recibidos);
+    }
+
+    private static Payment pago(String orderId, String status, Long id, Long version) {
+        Payment payment = pago(orderId, status);
+        payment.setId(id);
+        payment.setVersion(version);
+        return payment;
+    }
+
+    private static Payment pago(String orderId, String status) {
+        return new Payment(orderId, BigDecimal.TEN, "PROCESSED_METHOD", status, null, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,136 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.controller.PaymentStatusStreamController;
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentStatusNotifier;
+import com.programthis.payment_service.service.SubscriptionLimitExceededException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(PaymentStatusStreamController.class)
+class PaymentStatusStreamControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private PaymentProcessingService paymentProcessingService;
+
+    @MockBean
+    private PaymentStatusNotifier paymentStatusNotifier;
+
+    private final PaymentStatusNotifier.Subscription subscription = mock(PaymentStatusNotifier.Subscription.class);
+
+    private Payment pending;
+
+    @BeforeEach
+    void setUp() {
+        pending = new Payment("ORD-123", new BigDecimal("150.00"), "PROCESSED_METHOD", "PENDING", null, LocalDateTime.now());
+        pending.setId(1L);
+        pending.setVersion(0L);
+        when(paymentStatusNotifier.subscribe(eq("ORD-123"), any())).thenReturn(subscription);
+    }
+
+    @Test
+    void pollPaymentStatus_whenStatusAlreadyChanged_shouldReturnImmediately() throws Exception {
+        when(paymentProcessingService.getPaymentStatusByOrderId("ORD-123")).thenReturn(pending);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/status/order/{orderId}/poll", "ORD-123")
+                        .param("knownStatus", "UNKNOWN"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.paymentStatus").value("PENDING"));
+        verify(subscription, atLeastOnce()).close();
+    }
+
+    @Test
+    void pollPaymentStatus_whenNotified_shouldReturnNewStatus() throws Exception {
+        when(paymentProcessingService.getPaymentStatusByOrderId("ORD-123")).thenReturn(pending);
+
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/status/order/{orderId}/poll", "ORD-123")
+                        .param("knownStatus", "PENDING"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        Consumer<Payment> listener = capturedListener();
+        listener.accept(pending);
+        assertThrows(IllegalStateException.class, () -> result.getAsyncResult(0));
+
+        Payment completed = new Payment("ORD-123", new BigDecimal("150.00"), "PROCESSED_METHOD", "COMPLETED", null, LocalDateTime.now());
+        listener.accept(completed);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.paymentStatus").value("COMPLETED"));
+    }
+
+    @Test
+    void pollPaymentStatus_whenTooManySubscribers_shouldReturnServiceUnavailable() throws Exception {
+        when(paymentStatusNotifier.subscribe(eq("ORD-123"), any())).thenThrow(new SubscriptionLimitExceededException("full"));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/status/order/{orderId}/poll", "ORD-123"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void streamPaymentStatus_shouldSendCurrentStatusAndChanges() throws Exception {
+        when(paymentProcessingService.getPaymentStatusByOrderId("ORD-123")).thenReturn(pending);
+        doAnswer(invocation -> {
+            capturedListener().accept(invocation.getArgument(0));
+            return null;
+        }).when(subscription).deliver(any());
+
+        MvcResult result = mockMvc.perform(get("/api/v1/payments/status/order/{orderId}/stream", "ORD-123"))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().string(containsString("event:status")))
+                .andExpect(content().string(containsString("\"paymentStatus\":\"PENDING\"")))
+                .andReturn();
+
+        Payment completed = new Payment("ORD-123", new BigDecimal("150.00"), "PROCESSED_METHOD", "COMPLETED", null, LocalDateTime.now());
+        capturedListener().accept(completed);
+
+        assertTrue(result.getResponse().getContentAsString().contains("\"paymentStatus\":\"COMPLETED\""));
+    }
+
+    @Test
+    void streamPaymentStatus_whenTooManySubscribers_shouldReturnServiceUnavailable() throws Exception {
+        when(paymentStatusNotifier.subscribe(eq("ORD-123"), any())).thenThrow(new SubscriptionLimitExceededException("full"));
+
+        mockMvc.perform(get("/api/v1/payments/status/order/{orderId}/stream", "ORD-123"))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<Payment> capturedListener() {
+        ArgumentCaptor<Consumer<Payment>> captor = ArgumentCaptor.forClass(Consumer.class);
+        verify(paymentStatusNotifier).subscribe(eq("ORD-123"), captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,216 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.repository.PaymentRepository;
+import com.programthis.payment_service.service.PaymentEventLog;
+import com.programthis.payment_service.service.PaymentIdAllocator;
+import com.programthis.payment_service.service.PaymentMetrics;
+import com.programthis.payment_service.service.PaymentOutbox;
+import com.programthis.payment_service.service.PaymentWriteBehind;
+import com.programthis.payment_service.service.WriteBehindQueueFullException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class PaymentWriteBehindTest {
+
+    @TempDir
+    Path directorio;
+
+    private final List<PaymentWriteBehind> escritores = new ArrayList<>();
+    private final AtomicLong siguienteId = new AtomicLong(1);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (PaymentWriteBehind escritor : escritores) {
+            escritor.stop();
+        }
+    }
+
+    private PaymentWriteBehind escritor(PaymentWriteBehind.Durability durabilidad, int capacidad, PaymentRepository repositorio) {
+        PaymentWriteBehind escritor = new PaymentWriteBehind(true, durabilidad, capacidad, 100, Duration.ofMillis(50),
+                directorio, DataSize.ofKilobytes(1), repositorio, asignador(), new PaymentMetrics(new SimpleMeterRegistry()),
+                mock(PaymentEventLog.class), mock(PaymentOutbox.class), mock(PlatformTransactionManager.class));
+        escritor.start();
+        escritores.add(escritor);
+        return escritor;
+    }
+
+    private PaymentIdAllocator asignador() {
+        PaymentIdAllocator asignador = mock(PaymentIdAllocator.class);
+        when(asignador.assign(any(Payment.class))).thenAnswer(invocacion -> {
+            Payment pago = invocacion.getArgument(0);
+            pago.setId(siguienteId.getAndIncrement());
+            return pago;
+        });
+        return asignador;
+    }
+
+    private static Payment pago(String orderId) {
+        return new Payment(orderId, new BigDecimal("10.00"), "PROCESSED_METHOD", "COMPLETED", null, LocalDateTime.now());
+    }
+
+    private static PaymentRepository repositorioQueGuarda() {
+        PaymentRepository repositorio = mock(PaymentRepository.class);
+        when(repositorio.saveAll(anyList())).thenAnswer(invocacion -> invocacion.getArgument(0));
+        return repositorio;
+    }
+
+    @Test
+    void confirmacionTrasCommit_completaAlGuardarElLote() {
+        PaymentRepository repositorio = repositorioQueGuarda();
+        PaymentWriteBehind escritor = escritor(PaymentWriteBehind.Durability.COMMIT, 100, repositorio);
+
+        List<CompletableFuture<Payment>> futuros = List.of(
+                escritor.submit(pago("PEDIDO-1")), escritor.submit(pago("PEDIDO-2")), escritor.submit(pago("PEDIDO-3")));
+
+        assertEquals(List.of("PEDIDO-1", "PEDIDO-2", "PEDIDO-3"),
+                futuros.stream().map(CompletableFuture::join).map(Payment::getOrderId).toList());
+        verify(repositorio, atMost(3)).saveAll(anyList());
+        verify(repositorio, never()).save(any(Payment.class));
+    }
+
+    @Test
+    void colaLlena_rechazaConPresion() throws InterruptedException {
+        CountDownLatch bloqueo = new CountDownLatch(1);
+        PaymentRepository repositorio = mock(PaymentRepository.class);
+        when(repositorio.saveAll(anyList())).thenAnswer(invocacion -> {
+            bloqueo.await(5, TimeUnit.SECONDS);
+            return invocacion.getArgument(0);
+        });
+        PaymentWriteBehind escritor = escritor(PaymentWriteBehind.Durability.COMMIT, 1, repositorio);
+
+        CompletableFuture<Payment> primero = escritor.submit(pago("PEDIDO-1"));
+        CompletableFuture<Payment> segundo = escritor.submit(pago("PEDIDO-2"));
+
+        CompletionException error = assertThrows(CompletionException.class, segundo::join);
+        assertInstanceOf(WriteBehindQueueFullException.class, error.getCause());
+        bloqueo.countDown();
+        assertEquals("PEDIDO-1", primero.join().getOrderId());
+    }
+
+    @Test
+    void pagoInvalido_seAislaDelLote() {
+        PaymentRepository repositorio = mock(PaymentRepository.class);
+        CountDownLatch encolados = new CountDownLatch(1);
+        when(repositorio.saveAll(anyList())).thenAnswer(invocacion -> {
+            encolados.await(5, TimeUnit.SECONDS);
+            throw new DataIntegrityViolationException("duplicado");
+        });
+        when(repositorio.save(any(Payment.class))).thenAnswer(invocacion -> {
+            Payment pago = invocacion.getArgument(0);
+            if (pago.getOrderId().equals("PEDIDO-MALO")) {
+                throw new DataIntegrityViolationException("duplicado");
+            }
+            return pago;
+        });
+        PaymentWriteBehind escritor = escritor(PaymentWriteBehind.Durability.COMMIT, 100, repositorio);
+
+        CompletableFuture<Payment> bueno = escritor.submit(pago("PEDIDO-BUENO"));
+        CompletableFuture<Payment> malo = escritor.submit(pago("PEDIDO-MALO"));
+        encolados.countDown();
+
+        assertEquals("PEDIDO-BUENO", bueno.join().getOrderId());
+        assertThrows(CompletionException.class, malo::join);
+    }
+
+    @Test
+    void confirmacionAlEncolar_reproduceElRegistroAlArrancar() throws InterruptedException {
+        PaymentRepository caida = mock(PaymentRepository.class);
+        when(caida.saveAll(anyList())).thenThrow(new DataAccessResourceFailureException("sin conexión"));
+        PaymentWriteBehind primero = escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, caida);
+
+        // Se confirma sin esperar a la base de datos.
+        assertTrue(primero.submit(pago("PEDIDO-1")).isDone());
+        assertTrue(primero.submit(pago("PEDIDO-2")).isDone());
+        primero.stop();
+
+        PaymentRepository recuperada = repositorioQueGuarda();
+        escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, recuperada);
+
+        verify(recuperada).saveAll(argThat(pagos -> {
+            List<String> pedidos = new ArrayList<>();
+            pagos.forEach(pago -> pedidos.add(pago.getOrderId()));
+            return pedidos.equals(List.of("PEDIDO-1", "PEDIDO-2"));
+        }));
+    }
+
+    @Test
+    void confirmacionAlEncolar_llevaElId_yLaReproduccionLoConserva() throws InterruptedException {
+        PaymentRepository caida = mock(PaymentRepository.class);
+        when(caida.saveAll(anyList())).thenThrow(new DataAccessResourceFailureException("sin conexión"));
+        PaymentWriteBehind primero = escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, caida);
+
+        Payment guardado = primero.submit(pago("PEDIDO-1")).join();
+        Payment pendiente = primero.submit(pago("PEDIDO-2")).join();
+        assertNotNull(guardado.getId());
+        assertNotNull(pendiente.getId());
+        primero.stop();
+
+        // Los pagos FAILED no tienen transactionId: la reproducción distingue por id lo que ya se guardó.
+        PaymentRepository recuperada = repositorioQueGuarda();
+        when(recuperada.existsById(guardado.getId())).thenReturn(true);
+        escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, recuperada);
+
+        verify(recuperada).saveAll(argThat(pagos -> {
+            List<Long> ids = new ArrayList<>();
+            pagos.forEach(pago -> ids.add(pago.getId()));
+            return ids.equals(List.of(pendiente.getId()));
+        }));
+        verify(recuperada, never()).findByTransactionId(any());
+    }
+
+    @Test
+    void confirmacionAlEncolar_pagoQueNoSeGuarda_seApartaYNoSeDescarta() throws InterruptedException {
+        PaymentRepository repositorio = mock(PaymentRepository.class);
+        when(repositorio.saveAll(anyList())).thenThrow(new DataIntegrityViolationException("duplicado"));
+        when(repositorio.save(any(Payment.class))).thenAnswer(invocacion -> {
+            Payment pago = invocacion.getArgument(0);
+            if (pago.getOrderId().equals("PEDIDO-MALO")) {
+                throw new DataIntegrityViolationException("duplicado");
+            }
+            return pago;
+        });
+        PaymentWriteBehind primero = escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, repositorio);
+
+        Payment malo = primero.submit(pago("PEDIDO-MALO")).join();
+        Payment bueno = primero.submit(pago("PEDIDO-BUENO")).join();
+        verify(repositorio, timeout(5000)).save(argThat(pago -> pago.getOrderId().equals("PEDIDO-BUENO")));
+        assertEquals(1, primero.parked());
+        primero.stop();
+
+        // El checkpoint no pasó del pago apartado: al arrancar se reproduce con su id y se guarda.
+        PaymentRepository recuperada = repositorioQueGuarda();
+        when(recuperada.existsById(bueno.getId())).thenReturn(true);
+        PaymentWriteBehind segundo = escritor(PaymentWriteBehind.Durability.ENQUEUE, 100, recuperada);
+
+        verify(recuperada).saveAll(argThat(pagos -> {
+            List<Long> ids = new ArrayList<>();
+            pagos.forEach(pago -> ids.add(pago.getId()));
+            return ids.equals(List.of(malo.getId()));
+        }));
+        assertEquals(0, segundo.parked());
+    }
+}
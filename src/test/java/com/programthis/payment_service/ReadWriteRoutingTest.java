@@ -0,0 +1,135 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.repository.PaymentRepository;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentRequest;
+import com.programthis.payment_service.service.PaymentStatusCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Enrutado lectura/escritura con dos bases H2 independientes: el primario y una réplica que solo se pone al día
+ * cuando la prueba llama a replicar(), así que se ve de dónde sale cada lectura.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReadWriteRoutingTest.PRIMARIA,
+        "payment.datasource.routing.enabled=true",
+        "payment.datasource.routing.replica-urls=" + ReadWriteRoutingTest.REPLICA,
+        "payment.datasource.routing.read-your-writes-window=300ms"
+})
+@ActiveProfiles("test")
+class ReadWriteRoutingTest {
+
+    static final String PRIMARIA = "jdbc:h2:mem:rw-primary;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    static final String REPLICA = "jdbc:h2:mem:rw-replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static final JdbcTemplate primaria = new JdbcTemplate(new DriverManagerDataSource(PRIMARIA, "sa", ""));
+    private static final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA, "sa", ""));
+
+    @Autowired
+    private PaymentProcessingService paymentProcessingService;
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private PaymentStatusCache paymentStatusCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeAll
+    static void migrarReplica() {
+        // En producción el esquema llega a la réplica por replicación; aquí se migra por separado.
+        Flyway.configure()
+                .dataSource(REPLICA, "sa", "")
+                .locations("classpath:db/migration", "classpath:db/vendor/h2")
+                .load()
+                .migrate();
+    }
+
+    @Test
+    void escrituraReciente_seLeeDelPrimario_yDespuesDeLaReplica() throws InterruptedException {
+        Payment pago = paymentProcessingService.processPayment(solicitud("RW-RECIENTE"));
+        double fijadas = lecturas("pinned");
+
+        paymentStatusCache.clear();
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentStatusByOrderId("RW-RECIENTE").getId());
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentByTransactionId(pago.getTransactionId()).getId());
+        assertTrue(lecturas("pinned") >= fijadas + 2);
+
+        Thread.sleep(400);
+        paymentStatusCache.clear();
+        double enReplica = lecturas("replica");
+        assertThrows(RuntimeException.class, () -> paymentProcessingService.getPaymentStatusByOrderId("RW-RECIENTE"));
+        assertTrue(lecturas("replica") > enReplica);
+
+        replicar();
+        paymentStatusCache.clear();
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentStatusByOrderId("RW-RECIENTE").getId());
+    }
+
+    @Test
+    void paginado_leeDeLaReplica() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("RW-PAGINA"));
+
+        assertFalse(idsDePagina().contains(pago.getId()));
+
+        replicar();
+        assertTrue(idsDePagina().contains(pago.getId()));
+    }
+
+    @Test
+    void escrituras_vanAlPrimario() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("RW-ESCRITURA"));
+
+        assertEquals(1, primaria.queryForObject("select count(*) from payment where id = ?", Integer.class, pago.getId()));
+        assertEquals(0, replica.queryForObject("select count(*) from payment where id = ?", Integer.class, pago.getId()));
+    }
+
+    @Test
+    void consultaDelRepositorioSinTransaccion_vaAlPrimario() throws InterruptedException {
+        Payment pago = paymentProcessingService.processPayment(solicitud("RW-SIN-TX"));
+        Thread.sleep(400);
+
+        // Comprobaciones como la del registro de escritura diferida al arrancar no pueden leer de una réplica.
+        assertTrue(paymentRepository.findByTransactionId(pago.getTransactionId()).isPresent());
+    }
+
+    private List<Long> idsDePagina() {
+        return paymentProcessingService.getPaymentsPage(null, 100).payments().stream().map(Payment::getId).toList();
+    }
+
+    private double lecturas(String ruta) {
+        return meterRegistry.counter("payment.datasource.read-connections", "route", ruta).count();
+    }
+
+    private static PaymentRequest solicitud(String orderId) {
+        return new PaymentRequest(orderId, new BigDecimal("10.00"), "tarjeta");
+    }
+
+    private static void replicar() {
+        List<Map<String, Object>> filas = primaria.queryForList("select * from payment");
+        replica.update("delete from payment");
+        for (Map<String, Object> fila : filas) {
+            String columnas = String.join(", ", fila.keySet());
+            String marcadores = fila.keySet().stream().map(columna -> "?").collect(Collectors.joining(", "));
+            replica.update("insert into payment (" + columnas + ") values (" + marcadores + ")", fila.values().toArray());
+        }
+    }
+}
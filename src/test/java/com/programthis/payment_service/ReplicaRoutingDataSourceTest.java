@@ -0,0 +1,101 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.datasource.ReadRouting;
+import com.programthis.payment_service.datasource.ReplicaRoutingDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final Connection primaria = mock(Connection.class);
+    private final Connection replicaA = mock(Connection.class);
+    private final Connection replicaB = mock(Connection.class);
+
+    private static DataSource origen(Connection connection) throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        return dataSource;
+    }
+
+    @Test
+    void reparteEntreReplicasPorTurnos() throws SQLException {
+        ReplicaRoutingDataSource enrutado = new ReplicaRoutingDataSource(origen(primaria),
+                List.of(origen(replicaA), origen(replicaB)), Duration.ofSeconds(10));
+
+        assertSame(replicaA, enrutado.getConnection());
+        assertSame(replicaB, enrutado.getConnection());
+        assertSame(replicaA, enrutado.getConnection());
+    }
+
+    @Test
+    void lecturaFijadaAlPrimario_noUsaReplicas() throws SQLException {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        ReplicaRoutingDataSource enrutado = new ReplicaRoutingDataSource(origen(primaria),
+                List.of(origen(replicaA)), Duration.ofSeconds(10));
+        enrutado.bindTo(registro);
+
+        Connection conexion = ReadRouting.onPrimary(() -> {
+            try {
+                return enrutado.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertSame(primaria, conexion);
+        assertFalse(ReadRouting.primaryRequired());
+        assertEquals(1.0, registro.counter("payment.datasource.read-connections", "route", "pinned").count());
+    }
+
+    @Test
+    void replicaCaida_seSaltaDuranteElIntervaloYSeUsaLaOtra() throws SQLException {
+        DataSource caida = mock(DataSource.class);
+        when(caida.getConnection()).thenThrow(new SQLException("Connection refused"));
+        ReplicaRoutingDataSource enrutado = new ReplicaRoutingDataSource(origen(primaria),
+                List.of(caida, origen(replicaB)), Duration.ofMinutes(1));
+
+        for (int i = 0; i < 4; i++) {
+            assertSame(replicaB, enrutado.getConnection());
+        }
+
+        verify(caida, times(1)).getConnection();
+    }
+
+    @Test
+    void sinReplicasDisponibles_usaElPrimario() throws SQLException {
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        DataSource caida = mock(DataSource.class);
+        when(caida.getConnection()).thenThrow(new SQLException("Connection refused"));
+        ReplicaRoutingDataSource sinReplicas = new ReplicaRoutingDataSource(origen(primaria), List.of(), Duration.ofSeconds(10));
+        ReplicaRoutingDataSource todasCaidas = new ReplicaRoutingDataSource(origen(primaria), List.of(caida), Duration.ofSeconds(10));
+        todasCaidas.bindTo(registro);
+
+        assertSame(primaria, sinReplicas.getConnection());
+        assertSame(primaria, todasCaidas.getConnection());
+        assertEquals(1.0, registro.counter("payment.datasource.read-connections", "route", "fallback").count());
+        assertEquals(1.0, registro.counter("payment.datasource.replica-failures").count());
+    }
+
+    @Test
+    void replicaRecuperada_vuelveAUsarseTrasElIntervalo() throws SQLException, InterruptedException {
+        DataSource intermitente = mock(DataSource.class);
+        when(intermitente.getConnection()).thenThrow(new SQLException("Connection refused")).thenReturn(replicaA);
+        ReplicaRoutingDataSource enrutado = new ReplicaRoutingDataSource(origen(primaria),
+                List.of(intermitente), Duration.ofMillis(50));
+
+        assertSame(primaria, enrutado.getConnection());
+        assertSame(primaria, enrutado.getConnection());
+        Thread.sleep(80);
+
+        assertSame(replicaA, enrutado.getConnection());
+    }
+}
@@ -0,0 +1,344 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.entity.Payment;
+import com.programthis.payment_service.entity.PaymentIdGenerator;
+import com.programthis.payment_service.entity.PaymentTransition;
+import com.programthis.payment_service.entity.UuidBinaryConverter;
+import com.programthis.payment_service.service.PaymentProcessingService;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentPatch;
+import com.programthis.payment_service.service.PaymentProcessingService.PaymentRequest;
+import com.programthis.payment_service.service.PaymentProcessingService.StatusLookupRequest;
+import com.programthis.payment_service.service.PaymentProcessingService.StatusLookupResult;
+import com.programthis.payment_service.service.PaymentShards;
+import com.programthis.payment_service.service.PaymentStatusCache;
+import com.programthis.payment_service.service.ShardMovingException;
+import com.programthis.payment_service.service.ShardRebalancer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sharding con tres bases H2 independientes: se comprueba en cada una, por JDBC directo, dónde acaba cada pago.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ShardedPaymentsTest.BASE_0,
+        "spring.jpa.open-in-view=false",
+        "payment.sharding.enabled=true",
+        "payment.sharding.logical-shards=8",
+        "payment.sharding.urls=" + ShardedPaymentsTest.BASE_1 + "," + ShardedPaymentsTest.BASE_2,
+        "payment.sharding.move-batch-size=3",
+        "payment.sharding.map-refresh-interval=PT0.2S",
+        "payment.sharding.map-lease=PT0.5S"
+})
+@ActiveProfiles("test")
+class ShardedPaymentsTest {
+
+    static final String BASE_0 = "jdbc:h2:mem:shard-0;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    static final String BASE_1 = "jdbc:h2:mem:shard-1;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    static final String BASE_2 = "jdbc:h2:mem:shard-2;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static final List<JdbcTemplate> bases = List.of(
+            new JdbcTemplate(new DriverManagerDataSource(BASE_0, "sa", "")),
+            new JdbcTemplate(new DriverManagerDataSource(BASE_1, "sa", "")),
+            new JdbcTemplate(new DriverManagerDataSource(BASE_2, "sa", "")));
+
+    @Autowired
+    private PaymentProcessingService paymentProcessingService;
+
+    @Autowired
+    private PaymentShards paymentShards;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired
+    private PaymentStatusCache paymentStatusCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void lote_guardaCadaPagoEnLaBaseDeSuPedido() {
+        List<Payment> pagos = paymentProcessingService.processPayments(solicitudes("LOTE", 30)).payments();
+
+        assertEquals(30, pagos.size());
+        for (Payment pago : pagos) {
+            assertEquals(List.of(paymentShards.databaseOfOrder(pago.getOrderId())), basesCon(pago.getId()));
+        }
+        assertTrue(pagos.stream().map(pago -> paymentShards.databaseOfOrder(pago.getOrderId())).distinct().count() > 1);
+    }
+
+    @Test
+    void transactionId_noSeModifica_yCualquieraSeEncuentraEnSuBase() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("TX-SHARD"));
+        // Un transactionId cambiado por PATCH (o anterior al sharding) no dice nada de su base y se encuentra igual.
+        String otro = UUID.randomUUID().toString();
+        paymentProcessingService.patchPayment(pago.getId(), new PaymentPatch(null, null, null, null, otro, null,
+                pago.getVersion()));
+        assertEquals(List.of(paymentShards.databaseOfOrder("TX-SHARD")), basesConTransaccion(otro));
+
+        paymentStatusCache.clear();
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentByTransactionId(otro).getId());
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentStatusByOrderId("TX-SHARD").getId());
+        StatusLookupResult resultado = paymentProcessingService.lookupStatuses(new StatusLookupRequest(null, List.of(otro)));
+        assertEquals(pago.getId(), resultado.transactions().get(otro).id());
+    }
+
+    @Test
+    void transactionId_anotadoEnElDirectorio_seBuscaSoloEnSuBase() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("TX-DIRECTORIO"));
+        List<Payment> lote = paymentProcessingService.processPayments(solicitudes("TX-DIRECTORIO-LOTE", 6)).payments();
+        byte[] binario = new UuidBinaryConverter().convertToDatabaseColumn(pago.getTransactionId());
+        assertEquals(paymentShards.logicalShardOf("TX-DIRECTORIO"), bases.get(0).queryForObject(
+                "select logical_shard from payment_transaction_shard where transaction_id = ?", Integer.class, binario));
+        paymentStatusCache.clear();
+        double antes = dispersiones();
+
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentByTransactionId(pago.getTransactionId()).getId());
+        StatusLookupResult resultado = paymentProcessingService.lookupStatuses(
+                new StatusLookupRequest(null, lote.stream().map(Payment::getTransactionId).toList()));
+
+        assertEquals(6, resultado.transactions().size());
+        assertEquals(antes, dispersiones());
+    }
+
+    @Test
+    void transactionId_fueraDelDirectorio_seBuscaEnTodasLasBases() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("TX-SIN-DIRECTORIO"));
+        bases.get(0).update("delete from payment_transaction_shard where transaction_id = ?",
+                new UuidBinaryConverter().convertToDatabaseColumn(pago.getTransactionId()));
+        paymentStatusCache.clear();
+        double antes = dispersiones();
+
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentByTransactionId(pago.getTransactionId()).getId());
+
+        assertEquals(antes + 1, dispersiones());
+    }
+
+    @Test
+    void consultaEnBloque_reuneLasBases() {
+        List<Payment> pagos = paymentProcessingService.processPayments(solicitudes("BLOQUE", 12)).payments();
+        paymentStatusCache.clear();
+
+        List<String> pedidos = new ArrayList<>(pagos.stream().map(Payment::getOrderId).toList());
+        pedidos.add("BLOQUE-NO-EXISTE");
+        StatusLookupResult resultado = paymentProcessingService.lookupStatuses(new StatusLookupRequest(pedidos,
+                pagos.stream().map(Payment::getTransactionId).toList()));
+
+        assertEquals(12, resultado.orders().size());
+        assertEquals(12, resultado.transactions().size());
+        assertEquals(List.of("BLOQUE-NO-EXISTE"), resultado.missingOrderIds());
+        assertEquals(pagos.get(5).getId(), resultado.orders().get(pagos.get(5).getOrderId()).id());
+    }
+
+    @Test
+    void paginadoYRecorrido_mezclanLasBasesEnOrdenGlobal() {
+        paymentProcessingService.processPayments(solicitudes("PAGINA", 20));
+        List<Long> esperados = idsEnOrdenGlobal();
+
+        List<Long> paginados = new ArrayList<>();
+        String cursor = null;
+        do {
+            PaymentProcessingService.PaymentPage pagina = paymentProcessingService.getPaymentsPage(cursor, 7);
+            pagina.payments().forEach(pago -> paginados.add(pago.getId()));
+            cursor = pagina.nextCursor();
+        } while (cursor != null);
+        assertEquals(esperados, paginados);
+
+        List<Long> recorridos = new ArrayList<>();
+        paymentProcessingService.streamAllPayments(pago -> recorridos.add(pago.getId()));
+        assertEquals(esperados, recorridos);
+
+        assertEquals(esperados, paymentProcessingService.getAllPayments().stream().map(Payment::getId).toList());
+    }
+
+    @Test
+    void operacionesPorId_vanALaBaseDelPago() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("POR-ID"));
+        int base = paymentShards.databaseOfOrder("POR-ID");
+        assertEquals(paymentShards.logicalShardOf("POR-ID"), pago.getId() & ((1 << PaymentIdGenerator.SHARD_BITS) - 1));
+        assertEquals(OptionalInt.of(base), paymentShards.locate(pago.getId()));
+
+        Payment reembolsado = paymentProcessingService.transitionPayment(pago.getId(), PaymentTransition.REFUND);
+        assertEquals("REFUNDED", reembolsado.getPaymentStatus());
+        assertEquals(reembolsado.getVersion(), bases.get(base).queryForObject("select version from payment where id = ?",
+                Long.class, pago.getId()));
+
+        Payment parcheado = paymentProcessingService.patchPayment(pago.getId(), new PaymentPatch(null,
+                new BigDecimal("12.50"), null, null, null, null, reembolsado.getVersion()));
+        assertEquals(1250L, bases.get(base).queryForObject("select amount_minor from payment where id = ?",
+                Long.class, pago.getId()));
+
+        String otroShard = IntStream.range(0, 100).mapToObj(i -> "OTRO-" + i)
+                .filter(pedido -> paymentShards.logicalShardOf(pedido) != paymentShards.logicalShardOf("POR-ID"))
+                .findFirst().orElseThrow();
+        assertThrows(IllegalArgumentException.class, () -> paymentProcessingService.patchPayment(pago.getId(),
+                new PaymentPatch(otroShard, null, null, null, null, null, parcheado.getVersion())));
+
+        paymentProcessingService.deletePayment(pago.getId());
+        assertEquals(List.of(), basesCon(pago.getId()));
+    }
+
+    @Test
+    void mover_llevaLosPagosDelShardLogico_ySiguenEncontrandose() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("MOVIDO"));
+        int shard = paymentShards.logicalShardOf("MOVIDO");
+        int origen = paymentShards.databaseOf(shard);
+        int destino = (origen + 1) % 3;
+        long filasDelShard = bases.get(origen).queryForList("select order_id from payment", String.class).stream()
+                .filter(pedido -> paymentShards.logicalShardOf(pedido) == shard)
+                .count();
+
+        ShardRebalancer.MoveResult resultado = shardRebalancer.move(shard, shard, destino);
+
+        assertEquals(filasDelShard, resultado.movedRows());
+        assertEquals(destino, paymentShards.databaseOf(shard));
+        assertEquals(List.of(destino), basesCon(pago.getId()));
+        assertEquals(destino, bases.get(0).queryForObject("select database_index from payment_shard_map where logical_shard = ?",
+                Integer.class, shard));
+        paymentStatusCache.clear();
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentStatusByOrderId("MOVIDO").getId());
+        assertEquals(pago.getId(), paymentProcessingService.getPaymentByTransactionId(pago.getTransactionId()).getId());
+
+        Payment reembolsado = paymentProcessingService.transitionPayment(pago.getId(), PaymentTransition.REFUND);
+        assertEquals(reembolsado.getVersion(), bases.get(destino).queryForObject("select version from payment where id = ?",
+                Long.class, reembolsado.getId()));
+        assertTrue(paymentShards.ranges().stream()
+                .anyMatch(rango -> rango.fromShard() <= shard && shard <= rango.toShard() && rango.database() == destino));
+    }
+
+    @Test
+    void mover_copiaPorVersion_yBorraDelDestinoLoQueYaNoEstaEnElOrigen() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("VERSIONADO"));
+        int shard = paymentShards.logicalShardOf("VERSIONADO");
+        int origen = paymentShards.databaseOf(shard);
+        int destino = (origen + 1) % 3;
+        // Restos en el destino de un movimiento interrumpido: una versión anterior del pago y uno que el origen ya no tiene.
+        Map<String, Object> fila = bases.get(origen).queryForMap("select * from payment where id = ?", pago.getId());
+        insertar(destino, fila);
+        Map<String, Object> borrado = new LinkedHashMap<>(fila);
+        borrado.put("id", pago.getId() + (1L << 40));
+        borrado.put("transaction_id", null);
+        insertar(destino, borrado);
+        paymentProcessingService.transitionPayment(pago.getId(), PaymentTransition.REFUND);
+        String estadoYVersion = "select payment_status, version from payment where id = ?";
+        Map<String, Object> actual = bases.get(origen).queryForMap(estadoYVersion, pago.getId());
+
+        shardRebalancer.move(shard, shard, destino);
+
+        assertEquals(actual, bases.get(destino).queryForMap(estadoYVersion, pago.getId()));
+        assertEquals(List.of(destino), basesCon(pago.getId()));
+        assertEquals(List.of(), basesCon((Long) borrado.get("id")));
+    }
+
+    @Test
+    void escrituras_deUnShardEnMovimiento_seRechazanHastaQueSeRetomaElMovimiento() {
+        Payment pago = paymentProcessingService.processPayment(solicitud("BLOQUEADO"));
+        int shard = paymentShards.logicalShardOf("BLOQUEADO");
+        int base = paymentShards.databaseOf(shard);
+        String mismoShard = IntStream.range(0, 1000).mapToObj(i -> "BLOQUEADO-" + i)
+                .filter(pedido -> paymentShards.logicalShardOf(pedido) == shard)
+                .findFirst().orElseThrow();
+        // Lo que deja un movimiento interrumpido, o lo que ve esta instancia mientras otra mueve el shard.
+        bases.get(0).update("update payment_shard_map set moving = true where logical_shard = ?", shard);
+        paymentShards.refreshMap();
+
+        assertThrows(ShardMovingException.class, () -> paymentProcessingService.transitionPayment(pago.getId(), PaymentTransition.REFUND));
+        List<PaymentProcessingService.BatchFailure> fallos = paymentProcessingService.processPayments(List.of(solicitud(mismoShard))).failures();
+        assertEquals(1, fallos.size());
+        assertTrue(fallos.get(0).retryable());
+        assertEquals(List.of(base), basesCon(pago.getId()));
+
+        ShardRebalancer.MoveResult resultado = shardRebalancer.move(shard, shard, base);
+
+        assertEquals(Set.of(shard), resultado.movedShards());
+        assertFalse(paymentShards.isMoving(shard));
+        assertEquals(Boolean.FALSE, bases.get(0).queryForObject("select moving from payment_shard_map where logical_shard = ?",
+                Boolean.class, shard));
+        assertEquals("REFUNDED", paymentProcessingService.transitionPayment(pago.getId(), PaymentTransition.REFUND).getPaymentStatus());
+    }
+
+    @Test
+    void mover_rechazaRangosYBasesInvalidos() {
+        assertThrows(IllegalArgumentException.class, () -> shardRebalancer.move(3, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> shardRebalancer.move(0, 8, 0));
+        assertThrows(IllegalArgumentException.class, () -> shardRebalancer.move(0, 1, 3));
+    }
+
+    @Test
+    void generadorDeIds_arrancaEnUnRangoPropioPorBase_yLosIdsNoSeRepiten() {
+        paymentProcessingService.processPayments(solicitudes("IDS", 15));
+
+        for (int base = 1; base < bases.size(); base++) {
+            assertTrue(bases.get(base).queryForObject("select next_val from payment_id_generator", Long.class)
+                    >= (long) base << PaymentShards.ID_RANGE_BITS);
+        }
+        List<Long> ids = new ArrayList<>();
+        bases.forEach(base -> ids.addAll(base.queryForList("select id from payment", Long.class)));
+        assertEquals(ids.size(), ids.stream().distinct().count());
+
+        List<ShardRebalancer.DatabaseStats> estadisticas = shardRebalancer.databaseStats();
+        assertEquals(ids.size(), estadisticas.stream().mapToLong(ShardRebalancer.DatabaseStats::payments).sum());
+        assertEquals(8, estadisticas.stream().mapToLong(ShardRebalancer.DatabaseStats::logicalShards).sum());
+    }
+
+    private static void insertar(int base, Map<String, Object> fila) {
+        bases.get(base).update("insert into payment (" + String.join(", ", fila.keySet()) + ") values ("
+                + String.join(", ", Collections.nCopies(fila.size(), "?")) + ")", fila.values().toArray());
+    }
+
+    private List<Integer> basesCon(Long id) {
+        return IntStream.range(0, bases.size())
+                .filter(base -> bases.get(base).queryForObject("select count(*) from payment where id = ?", Integer.class, id) > 0)
+                .boxed().toList();
+    }
+
+    private double dispersiones() {
+        return meterRegistry.counter("payment.sharding.scatter").count();
+    }
+
+    private List<Integer> basesConTransaccion(String transactionId) {
+        byte[] binario = new UuidBinaryConverter().convertToDatabaseColumn(transactionId);
+        return IntStream.range(0, bases.size())
+                .filter(base -> bases.get(base).queryForObject("select count(*) from payment where transaction_id = ?",
+                        Integer.class, binario) > 0)
+                .boxed().toList();
+    }
+
+    private static List<Long> idsEnOrdenGlobal() {
+        List<Map<String, Object>> filas = new ArrayList<>();
+        bases.forEach(base -> filas.addAll(base.queryForList("select id, transaction_date from payment")));
+        return filas.stream()
+                .sorted(Comparator.<Map<String, Object>, Timestamp>comparing(fila -> (Timestamp) fila.get("transaction_date"))
+                        .thenComparing(fila -> ((Number) fila.get("id")).longValue()))
+                .map(fila -> ((Number) fila.get("id")).longValue())
+                .toList();
+    }
+
+    private static List<PaymentRequest> solicitudes(String prefijo, int cantidad) {
+        return IntStream.range(0, cantidad).mapToObj(i -> solicitud(prefijo + "-" + i)).toList();
+    }
+
+    private static PaymentRequest solicitud(String orderId) {
+        return new PaymentRequest(orderId, new BigDecimal("10.00"), "tarjeta");
+    }
+}
@@ -0,0 +1,66 @@
+package com.programthis.payment_service;
+
+import com.programthis.payment_service.gateway.GatewayResult;
+import com.programthis.payment_service.gateway.SimulatedGateway;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimulatedGatewayTest {
+
+    @Test
+    void detallesConFail_seRechazan() {
+        SimulatedGateway pasarela = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.0, 0.0, Runnable::run);
+
+        GatewayResult rechazado = pasarela.authorize("PEDIDO-001", BigDecimal.TEN, "tarjeta-fail").join();
+        GatewayResult aprobado = pasarela.authorize("PEDIDO-002", BigDecimal.TEN, "tarjeta-ok").join();
+
+        assertFalse(rechazado.approved());
+        assertNull(rechazado.transactionId());
+        assertTrue(aprobado.approved());
+        assertNotNull(aprobado.transactionId());
+    }
+
+    @Test
+    void tasaDeFallos_seAproximaALaConfigurada() {
+        SimulatedGateway pasarela = new SimulatedGateway(Duration.ZERO, Duration.ZERO, 0.25, 0.0, Runnable::run);
+
+        long rechazados = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (!pasarela.authorize("PEDIDO", BigDecimal.ONE, "tarjeta").join().approved()) {
+                rechazados++;
+            }
+        }
+
+        assertEquals(2500, rechazados, 250);
+    }
+
+    @Test
+    void latencia_noBloqueaAlLlamante() {
+        try (ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SimulatedGateway pasarela = new SimulatedGateway(Duration.ofMillis(200), Duration.ofMillis(400), 0.0, 0.0, ejecutor);
+
+            long inicio = System.nanoTime();
+            List<CompletableFuture<GatewayResult>> pendientes = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                pendientes.add(pasarela.authorize("PEDIDO-" + i, BigDecimal.ONE, "tarjeta"));
+            }
+            Duration lanzamiento = Duration.ofNanos(System.nanoTime() - inicio);
+
+            CompletableFuture.allOf(pendientes.toArray(CompletableFuture[]::new)).join();
+            Duration total = Duration.ofNanos(System.nanoTime() - inicio);
+
+            assertTrue(lanzamiento.toMillis() < 150, "lanzamiento: " + lanzamiento);
+            assertTrue(total.toMillis() >= 100, "total: " + total);
+            assertTrue(total.toMillis() < 3000, "total: " + total);
+        }
+    }
+}